@@ -47,6 +47,8 @@ import cientistavuador.physicsexperiment.util.CollisionShapeStore;
 import cientistavuador.physicsexperiment.util.LightmapFile;
 import cientistavuador.physicsexperiment.util.MeshUtils;
 import cientistavuador.physicsexperiment.util.bakedlighting.BakedLighting;
+import cientistavuador.physicsexperiment.util.raycast.InstanceBVH;
+import cientistavuador.physicsexperiment.util.raycast.RayHit;
 import cientistavuador.physicsexperiment.util.raycast.RayResult;
 import cientistavuador.physicsexperiment.util.bakedlighting.SamplingMode;
 import cientistavuador.physicsexperiment.util.bakedlighting.Scene;
@@ -63,6 +65,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -106,6 +109,7 @@ public class Game {
         private int texture = 0;
         private int count = 0;
         private float[][] lightmaps = null;
+        private long[] hashes = null;
 
         @Override
         public void prepare(Geometry geometry, MeshData.LightmapMesh mesh, int lightmapSize, String[] groups) {
@@ -115,6 +119,7 @@ public class Game {
             this.groups = groups;
             this.count = groups.length;
             this.lightmaps = new float[groups.length][];
+            this.hashes = new long[groups.length];
 
             this.texture = glGenTextures();
             glActiveTexture(GL_TEXTURE0);
@@ -135,10 +140,7 @@ public class Game {
             glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
         }
 
-        @Override
-        public void write(float[] lightmap, int groupIndex) {
-            this.lightmaps[groupIndex] = lightmap;
-
+        private void upload(float[] lightmap, int groupIndex) {
             glActiveTexture(GL_TEXTURE0);
             glBindTexture(GL_TEXTURE_2D_ARRAY, this.texture);
 
@@ -149,6 +151,32 @@ public class Game {
                     GL_RGB, GL_FLOAT, lightmap);
 
             glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        }
+
+        @Override
+        public void write(float[] lightmap, int groupIndex, boolean preview) {
+            if (!preview) {
+                write(lightmap, groupIndex);
+                return;
+            }
+
+            upload(lightmap, groupIndex);
+
+            this.geometry.setLightmapTextureHint(this.texture);
+            this.geometry.setLightmapMesh(this.mesh);
+        }
+
+        @Override
+        public void write(float[] lightmap, int groupIndex, long hash) {
+            this.hashes[groupIndex] = hash;
+            write(lightmap, groupIndex);
+        }
+
+        @Override
+        public void write(float[] lightmap, int groupIndex) {
+            this.lightmaps[groupIndex] = lightmap;
+
+            upload(lightmap, groupIndex);
 
             this.count--;
             if (this.count == 0) {
@@ -157,7 +185,7 @@ public class Game {
 
                 LightmapFile.Lightmap[] lightmaps = new LightmapFile.Lightmap[this.groups.length];
                 for (int i = 0; i < lightmaps.length; i++) {
-                    lightmaps[i] = new LightmapFile.Lightmap(this.groups[groupIndex], this.lightmaps[groupIndex]);
+                    lightmaps[i] = new LightmapFile.Lightmap(this.groups[i], this.lightmaps[i], this.hashes[i]);
                 }
 
                 Game.this.geometryLightmaps.put(this.geometry, new LightmapFile.LightmapData(
@@ -187,6 +215,10 @@ public class Game {
     private final SphereCollisionShape sphereShape = new SphereCollisionShape((0.35f / 2f) * Main.TO_PHYSICS_ENGINE_UNITS);
     
     private Geometry stairGeometry = null;
+    private InstanceBVH sceneBVH = null;
+    private InstanceBVH rigidBodiesBVH = null;
+    private final Map<Geometry, PhysicsRigidBody> rigidBodiesGeometries = new HashMap<>();
+    private final RayHit pickHit = new RayHit();
     private final Geometry monkeyGeometry = new Geometry(Geometries.MONKEY);
     private final MeshData monkeyCollisionMesh;
     private final CollisionShape monkeyShape;
@@ -284,7 +316,7 @@ public class Game {
         this.writeToTexture.prepare(geometry, mesh, data.lightmapSize(), groups);
 
         for (int i = 0; i < data.lightmaps().length; i++) {
-            this.writeToTexture.write(data.lightmaps()[i].data(), i);
+            this.writeToTexture.write(data.lightmaps()[i].data(), i, data.lightmaps()[i].hash());
         }
 
         geometry.setLightmapMesh(mesh);
@@ -319,7 +351,9 @@ public class Game {
         glUseProgram(0);
 
         for (int i = 0; i < 4; i++) {
-            this.scene.getGeometries().add(new Geometry(Geometries.GARAGE[i]));
+            Geometry garage = new Geometry(Geometries.GARAGE[i]);
+            garage.setStatic(true);
+            this.scene.getGeometries().add(garage);
         }
         loadLightmap(this.scene.getGeometries().get(0), "concrete.lightmap");
         loadLightmap(this.scene.getGeometries().get(1), "grass.lightmap");
@@ -336,6 +370,7 @@ public class Game {
                     .scale(1.51f, 1.51f, 2f)
                     .rotateY((float) Math.toRadians(180f))
             );
+            stair.setStatic(true);
 
             loadLightmap(stair, "stairs.lightmap");
 
@@ -364,6 +399,7 @@ public class Game {
                     .translate(5f, 5f, 0f)
                     .rotateY((float) Math.toRadians(-90f))
             );
+            stair.setStatic(true);
             
             this.stairGeometry = stair;
         }
@@ -378,6 +414,11 @@ public class Game {
         this.scene.setSamplingMode(SamplingMode.SAMPLE_16);
 
         this.scene.setFastModeEnabled(false);
+        this.scene.setProgressivePasses(4);
+        this.scene.setIndirectErrorTarget(0.1f);
+        this.scene.setIndirectMinRaysPerSample(4);
+        this.scene.setIndirectMaxRaysPerSample(32);
+        this.scene.setMetricsReportFile(Path.of("bake_metrics.json"));
 
         sun.setGroupName("sun");
         sun.setDirection(1f, -0.75f, 1f);
@@ -487,9 +528,9 @@ public class Game {
         program.setColor(1f, 1f, 1f, 1f);
         for (Geometry geo : this.scene.getGeometries()) {
             glActiveTexture(GL_TEXTURE0);
-            glBindTexture(GL_TEXTURE_2D, geo.getMesh().getTextureHint());
+            glBindTexture(GL_TEXTURE_2D, Textures.textureOrError(geo.getMesh().getTextureHint()));
             glActiveTexture(GL_TEXTURE1);
-            glBindTexture(GL_TEXTURE_2D_ARRAY, geo.getLightmapTextureHint());
+            glBindTexture(GL_TEXTURE_2D_ARRAY, Textures.lightmapOrEmpty(geo.getLightmapTextureHint()));
             program.setModel(geo.getModel());
 
             MeshData mesh = geo.getMesh();
@@ -523,7 +564,7 @@ public class Game {
                 MeshData sphere = Geometries.SPHERE;
 
                 glActiveTexture(GL_TEXTURE0);
-                glBindTexture(GL_TEXTURE_2D, sphere.getTextureHint());
+                glBindTexture(GL_TEXTURE_2D, Textures.textureOrError(sphere.getTextureHint()));
                 glActiveTexture(GL_TEXTURE1);
                 glBindTexture(GL_TEXTURE_2D_ARRAY, Textures.EMPTY_LIGHTMAP);
 
@@ -539,14 +580,14 @@ public class Game {
         program.setSunDirection(this.sun.getDirection());
 
         glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, this.monkeyGeometry.getMesh().getTextureHint());
+        glBindTexture(GL_TEXTURE_2D, Textures.textureOrError(this.monkeyGeometry.getMesh().getTextureHint()));
         glActiveTexture(GL_TEXTURE1);
         glBindTexture(GL_TEXTURE_2D_ARRAY, Textures.EMPTY_LIGHTMAP);
         program.setModel(this.monkeyGeometry.getModel());
         this.monkeyGeometry.getMesh().bindRenderUnbind();
         
         glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, this.stairGeometry.getMesh().getTextureHint());
+        glBindTexture(GL_TEXTURE_2D, Textures.textureOrError(this.stairGeometry.getMesh().getTextureHint()));
         glActiveTexture(GL_TEXTURE1);
         glBindTexture(GL_TEXTURE_2D_ARRAY, Textures.EMPTY_LIGHTMAP);
         program.setModel(this.stairGeometry.getModel());
@@ -569,6 +610,8 @@ public class Game {
             data.bindRenderUnbind();
         }
 
+        updateSceneBVH();
+
         for (PhysicsRigidBody e : this.rigidBodies) {
             Geometry geo = (Geometry) e.getUserObject();
 
@@ -585,7 +628,7 @@ public class Game {
                     pos.z * Main.FROM_PHYSICS_ENGINE_UNITS
             );
 
-            boolean shadow = Geometry.fastTestRay(position, this.sun.getDirectionNegated(), Float.POSITIVE_INFINITY, this.scene.getGeometries());
+            boolean shadow = this.sceneBVH.fastTestRay(position, this.sun.getDirectionNegated(), Float.POSITIVE_INFINITY);
 
             if (shadow) {
                 program.setSunDiffuse(0f, 0f, 0f);
@@ -612,7 +655,7 @@ public class Game {
             program.setModel(model);
 
             glActiveTexture(GL_TEXTURE0);
-            glBindTexture(GL_TEXTURE_2D, geo.getMesh().getTextureHint());
+            glBindTexture(GL_TEXTURE_2D, Textures.textureOrError(geo.getMesh().getTextureHint()));
             glActiveTexture(GL_TEXTURE1);
             glBindTexture(GL_TEXTURE_2D_ARRAY, Textures.EMPTY_LIGHTMAP);
 
@@ -635,7 +678,12 @@ public class Game {
                 .append(this.status.getASCIIProgressBar()).append('\n')
                 .append(this.status.getCurrentStatus()).append('\n')
                 .append(this.status.getRaysPerSecondFormatted()).append('\n')
+                .append(this.status.getRaysFormatted()).append('\n')
+                .append(this.status.getTexelsPerSecondFormatted()).append('\n')
+                .append(this.status.getIndirectRaysPerSampleFormatted()).append('\n')
+                .append(this.status.getEstimatedPeakMemoryFormatted()).append('\n')
                 .append("Estimated Time: ").append(this.status.getEstimatedTimeFormatted()).append("\n")
+                .append(this.status.isStopRequested() ? "Finishing Current Pass\n" : "B - Stop Refining\n")
                 .toString()
             };
             GLFontRenderer.render(-0.895f, 0.795f, new GLFontSpecification[]{GLFontSpecifications.SPACE_MONO_REGULAR_0_035_BLACK}, text);
@@ -661,48 +709,29 @@ public class Game {
         Main.WINDOW_TITLE += " (x:" + (int) Math.floor(camera.getPosition().x()) + ",y:" + (int) Math.floor(camera.getPosition().y()) + ",z:" + (int) Math.ceil(camera.getPosition().z()) + ")";
 
         if (glfwGetMouseButton(Main.WINDOW_POINTER, GLFW_MOUSE_BUTTON_RIGHT) == GLFW_PRESS) {
-            List<Geometry> geoList = new ArrayList<>();
-            Map<Geometry, PhysicsRigidBody> map = new HashMap<>();
-            for (Geometry g : this.scene.getGeometries()) {
-                geoList.add(g);
-            }
-            for (PhysicsRigidBody b : this.rigidBodies) {
-                Geometry g = (Geometry) b.getUserObject();
-                geoList.add(g);
-                map.put(g, b);
-            }
-            RayResult[] results = Geometry.testRay(
-                    new Vector3f().set(this.camera.getPosition()),
-                    this.camera.getFront(),
-                    geoList
-            );
-            if (results.length != 0) {
-                RayResult closest = results[0];
-
-                PhysicsRigidBody sphere = map.get(closest.getGeometry());
-                if (sphere != null) {
-                    Vector3f camTarget = new Vector3f();
-                    camTarget.set(this.camera.getFront()).mul(0.25f);
-                    camTarget.add(new Vector3f().set(this.camera.getPosition()));
-
-                    Vector3f spherePosition = new Vector3f();
-                    com.jme3.math.Vector3f center = sphere.getPhysicsLocation(null);
-                    spherePosition.set(
-                            center.x * Main.FROM_PHYSICS_ENGINE_UNITS,
-                            center.y * Main.FROM_PHYSICS_ENGINE_UNITS,
-                            center.z * Main.FROM_PHYSICS_ENGINE_UNITS
-                    );
-
-                    camTarget.sub(spherePosition).normalize();
-
-                    sphere.applyCentralForce(
-                            new com.jme3.math.Vector3f(
-                                    camTarget.x() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS,
-                                    camTarget.y() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS,
-                                    camTarget.z() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS
-                            )
-                    );
-                }
+            PhysicsRigidBody sphere = pickRigidBody();
+            if (sphere != null) {
+                Vector3f camTarget = new Vector3f();
+                camTarget.set(this.camera.getFront()).mul(0.25f);
+                camTarget.add(new Vector3f().set(this.camera.getPosition()));
+
+                Vector3f spherePosition = new Vector3f();
+                com.jme3.math.Vector3f center = sphere.getPhysicsLocation(null);
+                spherePosition.set(
+                        center.x * Main.FROM_PHYSICS_ENGINE_UNITS,
+                        center.y * Main.FROM_PHYSICS_ENGINE_UNITS,
+                        center.z * Main.FROM_PHYSICS_ENGINE_UNITS
+                );
+
+                camTarget.sub(spherePosition).normalize();
+
+                sphere.applyCentralForce(
+                        new com.jme3.math.Vector3f(
+                                camTarget.x() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS,
+                                camTarget.y() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS,
+                                camTarget.z() * sphere.getMass() * 20f * Main.TO_PHYSICS_ENGINE_UNITS
+                        )
+                );
             }
         }
 
@@ -714,26 +743,69 @@ public class Game {
             }
         }
         this.rigidBodies.removeAll(removed);
+        if (!removed.isEmpty()) {
+            this.rigidBodiesBVH = null;
+        }
 
         this.physicsSpace.update((float) Main.TPF);
         
         Main.WINDOW_TITLE += " (Speed: "+String.format("%.2f", this.player.getCharacterController().getRigidBody().getLinearVelocity(null).length())+")";
     }
 
+    private void updateSceneBVH() {
+        if (this.sceneBVH == null || this.sceneBVH.getAmountOfGeometries() != this.scene.getGeometries().size()) {
+            this.sceneBVH = InstanceBVH.create(this.scene.getGeometries());
+        } else {
+            this.sceneBVH.update();
+        }
+    }
+
+    private void updateRigidBodiesBVH() {
+        if (this.rigidBodiesBVH == null || this.rigidBodiesBVH.getAmountOfGeometries() != this.rigidBodies.size()) {
+            List<Geometry> geometries = new ArrayList<>();
+            this.rigidBodiesGeometries.clear();
+            for (PhysicsRigidBody b : this.rigidBodies) {
+                Geometry g = (Geometry) b.getUserObject();
+                geometries.add(g);
+                this.rigidBodiesGeometries.put(g, b);
+            }
+            this.rigidBodiesBVH = InstanceBVH.create(geometries);
+        } else {
+            this.rigidBodiesBVH.update();
+        }
+    }
+
+    private PhysicsRigidBody pickRigidBody() {
+        updateSceneBVH();
+        updateRigidBodiesBVH();
+
+        Vector3f origin = new Vector3f().set(this.camera.getPosition());
+        Vector3fc direction = this.camera.getFront();
+
+        float distance = Float.POSITIVE_INFINITY;
+        if (this.sceneBVH.closestHit(origin, direction, distance, this.pickHit)) {
+            distance = this.pickHit.getDistance();
+        }
+        if (this.rigidBodiesBVH.closestHit(origin, direction, distance, this.pickHit)) {
+            return this.rigidBodiesGeometries.get(this.pickHit.getGeometry());
+        }
+        return null;
+    }
+
     public void bakePopupCallback(BakePopup popup) {
         if (!this.status.isDone()) {
             return;
         }
 
         for (Geometry geo : this.scene.getGeometries()) {
-            if (geo.getLightmapTextureHint() != Textures.EMPTY_LIGHTMAP) {
+            if (geo.getLightmapTextureHint() != 0) {
                 glDeleteTextures(geo.getLightmapTextureHint());
-                geo.setLightmapTextureHint(Textures.EMPTY_LIGHTMAP);
+                geo.setLightmapTextureHint(0);
             }
         }
 
         BakePopup.toScene(this.scene, popup);
-        this.status = BakedLighting.bake(this.writeToTexture, this.scene);
+        this.status = BakedLighting.bake(this.writeToTexture, this.scene, new HashMap<>(this.geometryLightmaps));
     }
 
     public void resetPlayer() {
@@ -906,6 +978,9 @@ public class Game {
                 this.player.jump();
             }
         }
+        if (key == GLFW_KEY_B && action == GLFW_PRESS) {
+            this.status.requestStop();
+        }
         if (key == GLFW_KEY_V && action == GLFW_PRESS) {
             if (this.playerActive) {
                 this.player.getCharacterController().setNoclipEnabled(!this.player.getCharacterController().isNoclipEnabled());
@@ -915,50 +990,31 @@ public class Game {
 
     public void mouseCallback(long window, int button, int action, int mods) {
         if (button == GLFW_MOUSE_BUTTON_LEFT && action == GLFW_PRESS) {
-            List<Geometry> geoList = new ArrayList<>();
-            Map<Geometry, PhysicsRigidBody> map = new HashMap<>();
-            for (Geometry g : this.scene.getGeometries()) {
-                geoList.add(g);
-            }
-            for (PhysicsRigidBody b : this.rigidBodies) {
-                Geometry g = (Geometry) b.getUserObject();
-                geoList.add(g);
-                map.put(g, b);
-            }
-            RayResult[] results = Geometry.testRay(
-                    new Vector3f().set(this.camera.getPosition()),
-                    this.camera.getFront(),
-                    geoList
-            );
-            if (results.length != 0) {
-                RayResult closest = results[0];
-
-                PhysicsRigidBody sphere = map.get(closest.getGeometry());
-                if (sphere != null) {
-                    Vector3f position = new Vector3f();
-                    position.set(closest.getHitPosition());
-                    com.jme3.math.Vector3f center = sphere.getPhysicsLocation(null);
-                    position.sub(
-                            center.x * Main.FROM_PHYSICS_ENGINE_UNITS,
-                            center.y * Main.FROM_PHYSICS_ENGINE_UNITS,
-                            center.z * Main.FROM_PHYSICS_ENGINE_UNITS
-                    );
-
-                    com.jme3.math.Vector3f o = new com.jme3.math.Vector3f(
-                            position.x() * Main.TO_PHYSICS_ENGINE_UNITS,
-                            position.y() * Main.TO_PHYSICS_ENGINE_UNITS,
-                            position.z() * Main.TO_PHYSICS_ENGINE_UNITS
-                    );
-
-                    sphere.applyImpulse(
-                            new com.jme3.math.Vector3f(
-                                    this.camera.getFront().x() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS,
-                                    this.camera.getFront().y() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS,
-                                    this.camera.getFront().z() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS
-                            ),
-                            o
-                    );
-                }
+            PhysicsRigidBody sphere = pickRigidBody();
+            if (sphere != null) {
+                Vector3f position = new Vector3f();
+                position.set(this.pickHit.getHitPosition());
+                com.jme3.math.Vector3f center = sphere.getPhysicsLocation(null);
+                position.sub(
+                        center.x * Main.FROM_PHYSICS_ENGINE_UNITS,
+                        center.y * Main.FROM_PHYSICS_ENGINE_UNITS,
+                        center.z * Main.FROM_PHYSICS_ENGINE_UNITS
+                );
+
+                com.jme3.math.Vector3f o = new com.jme3.math.Vector3f(
+                        position.x() * Main.TO_PHYSICS_ENGINE_UNITS,
+                        position.y() * Main.TO_PHYSICS_ENGINE_UNITS,
+                        position.z() * Main.TO_PHYSICS_ENGINE_UNITS
+                );
+
+                sphere.applyImpulse(
+                        new com.jme3.math.Vector3f(
+                                this.camera.getFront().x() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS,
+                                this.camera.getFront().y() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS,
+                                this.camera.getFront().z() * sphere.getMass() * 10f * Main.TO_PHYSICS_ENGINE_UNITS
+                        ),
+                        o
+                );
             }
         }
     }
@@ -30,9 +30,12 @@ import cientistavuador.physicsexperiment.resources.mesh.MeshConfiguration;
 import cientistavuador.physicsexperiment.resources.mesh.MeshData;
 import cientistavuador.physicsexperiment.texture.Textures;
 import cientistavuador.physicsexperiment.util.MeshStore;
+import cientistavuador.physicsexperiment.util.raycast.BVHStore;
+import cientistavuador.physicsexperiment.util.raycast.LinearBVH;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -93,7 +96,8 @@ public class Geometries {
             sphere = new MeshData(
                     "sphere",
                     storedSphere.vertices(),
-                    storedSphere.indices()
+                    storedSphere.indices(),
+                    loadBVH("sphere.bvh", storedSphere)
             );
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
@@ -107,7 +111,8 @@ public class Geometries {
             monkey = new MeshData(
                     "monkey",
                     storedMonkey.vertices(),
-                    storedMonkey.indices()
+                    storedMonkey.indices(),
+                    loadBVH("monkey.bvh", storedMonkey)
             );
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
@@ -127,6 +132,9 @@ public class Geometries {
                             out
                     );
                 }
+                try (FileOutputStream out = new FileOutputStream(new File(m.getName() + ".bvh"))) {
+                    BVHStore.encode(m.getBVH(), out);
+                }
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -139,6 +147,18 @@ public class Geometries {
         ASTEROID.setTextureHint(Textures.STONE);
     }
 
+    private static LinearBVH loadBVH(String name, MeshStore.MeshStoreOutput mesh) {
+        InputStream input = Geometries.class.getResourceAsStream(name);
+        if (input == null) {
+            return null;
+        }
+        try (input) {
+            return BVHStore.decode(input, mesh.vertices(), mesh.indices(), MeshData.SIZE, MeshData.XYZ_OFFSET);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
     public static void init() {
 
     }
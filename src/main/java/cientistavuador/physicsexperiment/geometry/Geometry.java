@@ -27,9 +27,15 @@
 package cientistavuador.physicsexperiment.geometry;
 
 import cientistavuador.physicsexperiment.resources.mesh.MeshData;
-import cientistavuador.physicsexperiment.texture.Textures;
+import cientistavuador.physicsexperiment.util.raycast.BVHCache;
+import cientistavuador.physicsexperiment.util.raycast.LinearBVH;
 import cientistavuador.physicsexperiment.util.raycast.LocalRayResult;
+import cientistavuador.physicsexperiment.util.raycast.PointHit;
+import cientistavuador.physicsexperiment.util.raycast.RayHit;
+import cientistavuador.physicsexperiment.util.raycast.RayQueryContext;
 import cientistavuador.physicsexperiment.util.raycast.RayResult;
+import cientistavuador.physicsexperiment.util.raycast.ShapeHit;
+import cientistavuador.physicsexperiment.util.raycast.WideBVH;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -46,42 +52,60 @@ import org.joml.Vector3fc;
  */
 public class Geometry {
 
-    public static boolean fastTestRay(Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries) {
-        if (geometries.isEmpty()) {
-            return false;
+    private static WideBVH toLocal(Geometry g, Vector3fc origin, Vector3fc direction, Vector3f localOrigin, Vector3f localDirection) {
+        if (g.isStatic()) {
+            localOrigin.set(origin);
+            localDirection.set(direction);
+            return g.getWorldBVH();
         }
+        g.getInverseModel().transformProject(localOrigin.set(origin));
+        g.getInverseModel().transformDirection(localDirection.set(direction));
+        return g.getMesh().getWideBVH();
+    }
 
-        Vector3f transformedOrigin = new Vector3f();
-        Vector3f transformedDirection = new Vector3f();
+    public static boolean fastTestRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries) {
+        Vector3f transformedOrigin = context.getLocalOrigin();
+        Vector3f transformedDirection = context.getLocalDirection();
 
-        for (Geometry g : geometries) {
-            g.getInverseModel().transformProject(transformedOrigin.set(origin));
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
 
-            float length = maxLength;
-            if (Float.isFinite(length)) {
-                g.getInverseModel().transformProject(transformedDirection
-                        .set(direction)
-                        .mul(maxLength)
-                        .add(origin)
-                );
-                transformedDirection.sub(transformedOrigin);
-                length = transformedDirection.length();
-                transformedDirection.div(length);
-            } else {
-                g.getInverseModel().transformProject(transformedDirection
-                        .set(direction)
-                        .add(origin)
-                );
-                transformedDirection.sub(transformedOrigin).normalize();
-            }
-
-            if (g.getMesh().getBVH().fastTestRay(transformedOrigin, transformedDirection, length)) {
+            WideBVH bvh = toLocal(g, origin, direction, transformedOrigin, transformedDirection);
+            if (bvh.fastTestRay(context, transformedOrigin, transformedDirection, maxLength)) {
                 return true;
             }
         }
         return false;
     }
 
+    public static boolean fastTestRay(Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries) {
+        return fastTestRay(RayQueryContext.threadLocal(), origin, direction, maxLength, geometries);
+    }
+
+    /**
+     * Clears the hit buffer of the context and fills it with all hits sorted
+     * by distance, returns the amount of hits.
+     */
+    public static int testRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries) {
+        context.clearHits();
+
+        Vector3f transformedOrigin = context.getLocalOrigin();
+        Vector3f transformedDirection = context.getLocalDirection();
+
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+
+            WideBVH bvh = toLocal(g, origin, direction, transformedOrigin, transformedDirection);
+            int from = context.getHitCount();
+            if (bvh.getLinearBVH().testRay(context, transformedOrigin, transformedDirection, maxLength) != 0) {
+                context.setHitGeometry(from, g);
+            }
+        }
+
+        context.sortHits();
+        return context.getHitCount();
+    }
+
     public static RayResult[] testRay(Vector3fc origin, Vector3fc direction, List<Geometry> geometries) {
         if (geometries.isEmpty()) {
             return new RayResult[0];
@@ -109,6 +133,45 @@ public class Geometry {
         return array;
     }
 
+    public static boolean closestHit(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries, RayHit hit) {
+        Vector3f transformedOrigin = context.getLocalOrigin();
+        Vector3f transformedDirection = context.getLocalDirection();
+
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+        boolean closestWorldSpace = false;
+
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+
+            WideBVH bvh = toLocal(g, origin, direction, transformedOrigin, transformedDirection);
+            if (bvh.closestHit(context, transformedOrigin, transformedDirection, closest, hit)) {
+                closest = hit.getDistance();
+                closestGeometry = g;
+                closestWorldSpace = g.isStatic();
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        if (closestWorldSpace) {
+            hit.setWorldSpace(closestGeometry);
+        } else {
+            hit.setWorld(closestGeometry, origin, direction);
+        }
+        return true;
+    }
+
+    public static boolean closestHit(Vector3fc origin, Vector3fc direction, float maxLength, List<Geometry> geometries, RayHit hit) {
+        return closestHit(RayQueryContext.threadLocal(), origin, direction, maxLength, geometries, hit);
+    }
+
+    public static boolean closestHit(Vector3fc origin, Vector3fc direction, float maxLength, RayHit hit, Geometry... geometries) {
+        return closestHit(origin, direction, maxLength, Arrays.asList(geometries), hit);
+    }
+
     public static RayResult[] testRay(Vector3fc origin, Vector3fc direction, Geometry... geometries) {
         return testRay(origin, direction, Arrays.asList(geometries));
     }
@@ -117,6 +180,139 @@ public class Geometry {
         return fastTestRay(origin, direction, maxLength, Arrays.asList(geometries));
     }
     
+    private static LinearBVH shapeBVH(Geometry g) {
+        if (g.isStatic()) {
+            return g.getWorldBVH().getLinearBVH();
+        }
+        return g.getMesh().getBVH();
+    }
+
+    /**
+     * Sweeps a sphere along the direction against the geometries and writes
+     * the first hit in world space.
+     */
+    public static boolean sweepSphere(RayQueryContext context, Vector3fc center, Vector3fc direction, float radius, float maxLength, List<Geometry> geometries, ShapeHit hit) {
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            Matrix4fc model = (g.isStatic() ? null : g.getModel());
+            Matrix4fc inverseModel = (g.isStatic() ? null : g.getInverseModel());
+
+            if (shapeBVH(g).sweepSphere(context, model, inverseModel, center, direction, radius, closest, hit)) {
+                closest = hit.getDistance();
+                closestGeometry = g;
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        hit.setGeometry(closestGeometry);
+        return true;
+    }
+
+    public static boolean sweepSphere(Vector3fc center, Vector3fc direction, float radius, float maxLength, List<Geometry> geometries, ShapeHit hit) {
+        return sweepSphere(RayQueryContext.threadLocal(), center, direction, radius, maxLength, geometries, hit);
+    }
+
+    /**
+     * Sweeps a capsule with the segment a b along the direction against the
+     * geometries and writes the first hit in world space.
+     */
+    public static boolean sweepCapsule(RayQueryContext context, Vector3fc a, Vector3fc b, Vector3fc direction, float radius, float maxLength, List<Geometry> geometries, ShapeHit hit) {
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            Matrix4fc model = (g.isStatic() ? null : g.getModel());
+            Matrix4fc inverseModel = (g.isStatic() ? null : g.getInverseModel());
+
+            if (shapeBVH(g).sweepCapsule(context, model, inverseModel, a, b, direction, radius, closest, hit)) {
+                closest = hit.getDistance();
+                closestGeometry = g;
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        hit.setGeometry(closestGeometry);
+        return true;
+    }
+
+    public static boolean sweepCapsule(Vector3fc a, Vector3fc b, Vector3fc direction, float radius, float maxLength, List<Geometry> geometries, ShapeHit hit) {
+        return sweepCapsule(RayQueryContext.threadLocal(), a, b, direction, radius, maxLength, geometries, hit);
+    }
+
+    public static boolean testSphere(RayQueryContext context, Vector3fc center, float radius, List<Geometry> geometries) {
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            Matrix4fc model = (g.isStatic() ? null : g.getModel());
+            Matrix4fc inverseModel = (g.isStatic() ? null : g.getInverseModel());
+
+            if (shapeBVH(g).testSphere(context, model, inverseModel, center, radius)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean testSphere(Vector3fc center, float radius, List<Geometry> geometries) {
+        return testSphere(RayQueryContext.threadLocal(), center, radius, geometries);
+    }
+
+    public static boolean testAab(RayQueryContext context, Vector3fc min, Vector3fc max, List<Geometry> geometries) {
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            Matrix4fc model = (g.isStatic() ? null : g.getModel());
+            Matrix4fc inverseModel = (g.isStatic() ? null : g.getInverseModel());
+
+            if (shapeBVH(g).testAab(context, model, inverseModel, min, max)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean testAab(Vector3fc min, Vector3fc max, List<Geometry> geometries) {
+        return testAab(RayQueryContext.threadLocal(), min, max, geometries);
+    }
+
+    /**
+     * Finds the closest point on the geometries to the point within the max
+     * distance and writes it in world space.
+     */
+    public static boolean closestPoint(RayQueryContext context, Vector3fc point, float maxDistance, List<Geometry> geometries, PointHit hit) {
+        float closest = (Float.isFinite(maxDistance) ? maxDistance : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            Matrix4fc model = (g.isStatic() ? null : g.getModel());
+            Matrix4fc inverseModel = (g.isStatic() ? null : g.getInverseModel());
+            if (shapeBVH(g).closestPoint(context, model, inverseModel, point, closest, hit)) {
+                closest = hit.getDistance();
+                closestGeometry = g;
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        hit.setGeometry(closestGeometry);
+        return true;
+    }
+
+    public static boolean closestPoint(Vector3fc point, float maxDistance, List<Geometry> geometries, PointHit hit) {
+        return closestPoint(RayQueryContext.threadLocal(), point, maxDistance, geometries, hit);
+    }
+
     private final MeshData mesh;
     
     private final Matrix4f model = new Matrix4f();
@@ -124,10 +320,26 @@ public class Geometry {
     private final Matrix3f normalModel = new Matrix3f();
     private final Matrix3f inverseNormalModel = new Matrix3f();
     
-    private int lightmapTextureHint = Textures.EMPTY_LIGHTMAP;
+    private int lightmapTextureHint = 0;
     private MeshData.LightmapMesh lightmapMesh = null;
     
     private float lightmapScale = 1f;
+
+    private int modelVersion = 0;
+
+    private static class WorldBVH {
+
+        private final int modelVersion;
+        private final WideBVH bvh;
+
+        public WorldBVH(int modelVersion, WideBVH bvh) {
+            this.modelVersion = modelVersion;
+            this.bvh = bvh;
+        }
+    }
+
+    private boolean staticGeometry = false;
+    private volatile WorldBVH worldBVH = null;
     
     public Geometry(MeshData mesh) {
         this.mesh = mesh;
@@ -158,6 +370,88 @@ public class Geometry {
         this.model.invert(this.inverseModel);
         this.inverseModel.transpose3x3(this.normalModel);
         this.normalModel.invert(this.inverseNormalModel);
+        this.modelVersion++;
+    }
+
+    public int getModelVersion() {
+        return modelVersion;
+    }
+
+    public boolean isStatic() {
+        return staticGeometry;
+    }
+
+    /**
+     * Static geometries are raycasted against a world space copy of their
+     * bvh, so rays skip the transform into local space, the copy is built
+     * again if the model changes.
+     */
+    public void setStatic(boolean staticGeometry) {
+        this.staticGeometry = staticGeometry;
+        if (!staticGeometry) {
+            this.worldBVH = null;
+        }
+    }
+
+    /**
+     * Returns a bvh of the mesh triangles transformed by the model, it is
+     * built (or read from the {@link BVHCache}) the first time it is requested
+     * after the model changes.
+     */
+    public WideBVH getWorldBVH() {
+        WorldBVH world = this.worldBVH;
+        if (world != null && world.modelVersion == this.modelVersion) {
+            return world.bvh;
+        }
+        synchronized (this) {
+            world = this.worldBVH;
+            int version = this.modelVersion;
+            if (world != null && world.modelVersion == version) {
+                return world.bvh;
+            }
+
+            float[] vertices = this.mesh.getVertices();
+            int[] indices = this.mesh.getIndices();
+
+            Vector3f position = new Vector3f();
+            float[] worldVertices = new float[this.mesh.getAmountOfVertices() * 3];
+            for (int v = 0; v < worldVertices.length; v += 3) {
+                int offset = ((v / 3) * MeshData.SIZE) + MeshData.XYZ_OFFSET;
+                this.model.transformPosition(position.set(
+                        vertices[offset + 0],
+                        vertices[offset + 1],
+                        vertices[offset + 2]
+                ));
+                worldVertices[v + 0] = position.x();
+                worldVertices[v + 1] = position.y();
+                worldVertices[v + 2] = position.z();
+            }
+
+            //mirrored models flip the winding, swap it back so front faces stay front faces
+            int[] worldIndices = indices;
+            if (this.model.determinant3x3() < 0f) {
+                worldIndices = indices.clone();
+                for (int i = 0; i < worldIndices.length; i += 3) {
+                    worldIndices[i + 1] = indices[i + 2];
+                    worldIndices[i + 2] = indices[i + 1];
+                }
+            }
+
+            WideBVH bvh = WideBVH.collapse(BVHCache.get(worldVertices, worldIndices, 3, 0));
+            this.worldBVH = new WorldBVH(version, bvh);
+            return bvh;
+        }
+    }
+
+    /**
+     * Writes the bounds of the mesh transformed by the model, they contain the
+     * world bvh but may be larger than it, no world bvh is built.
+     */
+    public void getWorldBounds(Vector3f min, Vector3f max) {
+        LinearBVH bvh = this.mesh.getBVH();
+        bvh.getMin(min);
+        bvh.getMax(max);
+        this.model.transformAab(min, max, min, max);
     }
 
     public int getLightmapTextureHint() {
@@ -27,8 +27,9 @@
 package cientistavuador.physicsexperiment.resources.mesh;
 
 import cientistavuador.physicsexperiment.Main;
-import cientistavuador.physicsexperiment.texture.Textures;
-import cientistavuador.physicsexperiment.util.raycast.BVH;
+import cientistavuador.physicsexperiment.util.raycast.BVHCache;
+import cientistavuador.physicsexperiment.util.raycast.LinearBVH;
+import cientistavuador.physicsexperiment.util.raycast.WideBVH;
 import cientistavuador.physicsexperiment.util.bakedlighting.LightmapUVs;
 import cientistavuador.physicsexperiment.util.MeshUtils;
 import cientistavuador.physicsexperiment.util.ObjectCleaner;
@@ -224,18 +225,23 @@ public class MeshData {
 
     private final float[] vertices;
     private final int[] indices;
-    private final CompletableFuture<BVH> futureBvh;
+    private final CompletableFuture<LinearBVH> futureBvh;
 
     private final boolean lightmapSupport;
     private final List<LightmapMesh> lightmapMeshes = new ArrayList<>();
 
-    private BVH bvh = null;
+    private LinearBVH bvh = null;
+    private WideBVH wideBvh = null;
     private int vao = 0;
     private int ebo = 0;
     private int vbo = 0;
-    private int textureHint = Textures.ERROR_TEXTURE;
+    private int textureHint = 0;
 
     public MeshData(String name, float[] vertices, int[] indices) {
+        this(name, vertices, indices, null);
+    }
+
+    public MeshData(String name, float[] vertices, int[] indices, LinearBVH bvh) {
         this.name = name;
         boolean lightmapSupported = false;
         if ((vertices.length / MeshData.SIZE) == indices.length) {
@@ -250,9 +256,13 @@ public class MeshData {
         this.lightmapSupport = lightmapSupported;
         this.vertices = vertices;
         this.indices = indices;
-        this.futureBvh = CompletableFuture.supplyAsync(() -> {
-            return BVH.create(this.vertices, this.indices, MeshData.SIZE, MeshData.XYZ_OFFSET);
-        });
+        if (bvh != null) {
+            this.futureBvh = CompletableFuture.completedFuture(bvh);
+        } else {
+            this.futureBvh = CompletableFuture.supplyAsync(() -> {
+                return BVHCache.get(this.vertices, this.indices, MeshData.SIZE, MeshData.XYZ_OFFSET);
+            });
+        }
     }
 
     public String getName() {
@@ -357,7 +367,7 @@ public class MeshData {
         unbind();
     }
 
-    public BVH getBVH() {
+    public LinearBVH getBVH() {
         if (this.bvh == null) {
             try {
                 this.bvh = this.futureBvh.get();
@@ -368,6 +378,13 @@ public class MeshData {
         return this.bvh;
     }
 
+    public WideBVH getWideBVH() {
+        if (this.wideBvh == null) {
+            this.wideBvh = WideBVH.collapse(getBVH());
+        }
+        return this.wideBvh;
+    }
+
     public boolean hasLightmapSupport() {
         return this.lightmapSupport;
     }
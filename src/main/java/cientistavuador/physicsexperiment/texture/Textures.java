@@ -137,6 +137,22 @@ public class Textures {
         STONE = textures[5];
     }
 
+    //meshes and geometries are created without a texture (hint 0) so they
+    //can be used without an OpenGL context, renderers fall back to these
+    public static int textureOrError(int textureHint) {
+        if (textureHint == 0) {
+            return ERROR_TEXTURE;
+        }
+        return textureHint;
+    }
+
+    public static int lightmapOrEmpty(int lightmapTextureHint) {
+        if (lightmapTextureHint == 0) {
+            return EMPTY_LIGHTMAP;
+        }
+        return lightmapTextureHint;
+    }
+
     public static void init() {
 
     }
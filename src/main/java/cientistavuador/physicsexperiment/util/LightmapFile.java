@@ -60,10 +60,16 @@ public class LightmapFile {
 
         private final String groupName;
         private final float[] lightmap;
+        private final long hash;
 
         public Lightmap(String groupName, float[] lightmap) {
+            this(groupName, lightmap, 0L);
+        }
+
+        public Lightmap(String groupName, float[] lightmap, long hash) {
             this.groupName = groupName;
             this.lightmap = lightmap;
+            this.hash = hash;
         }
 
         public String groupName() {
@@ -74,6 +80,11 @@ public class LightmapFile {
             return lightmap;
         }
 
+        //content hash of the bake inputs or 0 if unknown
+        public long hash() {
+            return hash;
+        }
+
     }
 
     public static class LightmapData {
@@ -131,6 +142,7 @@ public class LightmapFile {
     
     private final Map<Integer, float[]> lightmapsRaw = new HashMap<>();
     private final Map<Integer, String> lightmapsNames = new HashMap<>();
+    private final Map<Integer, Long> lightmapsHashes = new HashMap<>();
     
     private float precision = 0f;
 
@@ -189,6 +201,9 @@ public class LightmapFile {
         for (int i = 0; i < this.lightmaps.length; i++) {
             Lightmap lightmap = this.lightmaps[i];
             lightmapProperties.put(Integer.toString(i), lightmap.groupName());
+            if (lightmap.hash() != 0L) {
+                lightmapProperties.put("hash" + i, Long.toHexString(lightmap.hash()).toUpperCase());
+            }
             
             this.comments
                     .append("Index ")
@@ -257,6 +272,11 @@ public class LightmapFile {
             String key = entry.getKey().toString();
             String value = entry.getValue().toString();
             
+            if (key.startsWith("hash")) {
+                this.lightmapsHashes.put(Integer.valueOf(key.substring("hash".length())), Long.parseUnsignedLong(value, 16));
+                continue;
+            }
+            
             switch (key) {
                 case "pixelToWorldRatio" -> {
                     this.pixelToWorldRatio = Float.intBitsToFloat((int) Long.parseLong(value, 16));
@@ -293,7 +313,7 @@ public class LightmapFile {
             readEntry(entry);
         }
         for (int i = 0; i < this.lightmaps.length; i++) {
-            this.lightmaps[i] = new Lightmap(this.lightmapsNames.get(i), this.lightmapsRaw.get(i));
+            this.lightmaps[i] = new Lightmap(this.lightmapsNames.get(i), this.lightmapsRaw.get(i), this.lightmapsHashes.getOrDefault(i, 0L));
         }
         return new LightmapData(
                 this.pixelToWorldRatio,
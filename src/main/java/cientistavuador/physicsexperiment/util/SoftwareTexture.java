@@ -26,6 +26,8 @@
  */
 package cientistavuador.physicsexperiment.util;
 
+import cientistavuador.physicsexperiment.resources.image.NativeImage;
+import java.nio.ByteBuffer;
 import static org.lwjgl.opengl.GL33C.*;
 
 //texture
@@ -95,6 +97,44 @@ public interface SoftwareTexture {
         
         glBindTexture(GL_TEXTURE_2D, 0);
         
+        return fromPixels(width, height, pixels, wX, wY, f);
+    }
+    
+    //decodes the image on the cpu with the parameters used by
+    //NativeImage.createTexture, no OpenGL context is needed
+    public static SoftwareTexture fromNativeImage(NativeImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int channels = image.getChannels();
+        ByteBuffer data = image.getData();
+        
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int offset = i * channels;
+            int r = data.get(offset + 0) & 0xFF;
+            int g = (channels >= 3 ? data.get(offset + 1) & 0xFF : r);
+            int b = (channels >= 3 ? data.get(offset + 2) & 0xFF : r);
+            int a = 0xFF;
+            if (channels == 2) {
+                a = data.get(offset + 1) & 0xFF;
+            } else if (channels == 4) {
+                a = data.get(offset + 3) & 0xFF;
+            }
+            pixels[i] = (r << 24) | (g << 16) | (b << 8) | a;
+        }
+        
+        return fromPixels(
+                width, height, pixels,
+                TextureWrapping.REPEAT, TextureWrapping.REPEAT,
+                TextureFiltering.BILINEAR
+        );
+    }
+    
+    //pixels are rgba packed from the most significant byte
+    private static SoftwareTexture fromPixels(
+            int width, int height, int[] pixels,
+            TextureWrapping wX, TextureWrapping wY, TextureFiltering f
+    ) {
         return new SoftwareTexture() {
             private final int w = width;
             private final int h = height;
@@ -130,7 +170,7 @@ public interface SoftwareTexture {
             
             @Override
             public void fetch(int x, int y, float[] result, int offset) {
-                int pixel = this.p[x + (y * height())];
+                int pixel = this.p[x + (y * width())];
                 float r = ((pixel >> 24) & 0xFF) / 255f;
                 float g = ((pixel >> 16) & 0xFF) / 255f;
                 float b = ((pixel >> 8) & 0xFF) / 255f;
@@ -26,16 +26,14 @@
  */
 package cientistavuador.physicsexperiment.util;
 
-import cientistavuador.physicsexperiment.util.raycast.BVH;
+import cientistavuador.physicsexperiment.util.raycast.RayQueryService;
+import cientistavuador.physicsexperiment.util.raycast.WideBVH;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import org.joml.Matrix3f;
 import org.joml.Vector3f;
 
@@ -46,6 +44,7 @@ import org.joml.Vector3f;
 public class VertexAO {
     
     private static final float EPSILON = 0.0001f;
+    private static final int MAX_RAYS_PER_PASS = 65536;
 
     public static void vertexAO(float[] vertices, int vertexSize, int xyzOffset, int outAoOffset, float aoSize, int aoRays, float rayOffset) {
         new VertexAO(vertices, vertexSize, xyzOffset, outAoOffset, aoSize, aoRays, rayOffset).process();
@@ -87,7 +86,6 @@ public class VertexAO {
         }
     }
 
-    private final ExecutorService service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     private final float[] vertices;
     private final int vertexSize;
     private final int xyzOffset;
@@ -96,7 +94,7 @@ public class VertexAO {
     private final int aoRays;
     private final float rayOffset;
 
-    private BVH bvh = null;
+    private WideBVH bvh = null;
     private final Map<Vertex, List<Vertex>> mappedVertices = new HashMap<>();
 
     private VertexAO(float[] vertices, int vertexSize, int xyzOffset, int outAoOffset, float aoSize, int aoRays, float rayOffset) {
@@ -114,7 +112,7 @@ public class VertexAO {
         for (int i = 0; i < indices.length; i++) {
             indices[i] = i;
         }
-        this.bvh = BVH.create(
+        this.bvh = WideBVH.create(
                 this.vertices,
                 indices,
                 this.vertexSize,
@@ -136,30 +134,92 @@ public class VertexAO {
     }
 
     private void computeAO() {
-        List<Map.Entry<Vertex, List<Vertex>>> entryList = new ArrayList<>();
-        entryList.addAll(this.mappedVertices.entrySet());
-
-        int numberOfProcessors = Runtime.getRuntime().availableProcessors();
-        List<Future<?>> tasks = new ArrayList<>();
-        for (int i = 0; i < entryList.size(); i += numberOfProcessors) {
-            for (int j = 0; j < numberOfProcessors; j++) {
-                if ((i + j) < entryList.size()) {
-                    final List<Vertex> finalVertexList = entryList.get(i + j).getValue();
-                    tasks.add(this.service.submit(() -> {
-                        computeAO(finalVertexList);
-                    }));
+        if (this.aoRays <= 0) {
+            return;
+        }
+
+        List<List<Vertex>> groups = new ArrayList<>(this.mappedVertices.values());
+
+        int groupsPerPass = Math.max(1, MAX_RAYS_PER_PASS / this.aoRays);
+        int maxRays = Math.min(groups.size(), groupsPerPass) * this.aoRays;
+
+        float[] origins = new float[maxRays * 3];
+        float[] directions = new float[maxRays * 3];
+        float[] maxLengths = new float[maxRays];
+        boolean[] occluded = new boolean[maxRays];
+        boolean[] traced = new boolean[groupsPerPass];
+        Arrays.fill(maxLengths, this.aoSize);
+
+        Random random = new Random();
+        Vector3f normal = new Vector3f();
+        Vector3f tangent = new Vector3f();
+        Vector3f bitangent = new Vector3f();
+        Vector3f direction = new Vector3f();
+        Matrix3f TBN = new Matrix3f();
+
+        for (int first = 0; first < groups.size(); first += groupsPerPass) {
+            int end = Math.min(first + groupsPerPass, groups.size());
+
+            int rays = 0;
+            for (int g = first; g < end; g++) {
+                List<Vertex> group = groups.get(g);
+                traced[g - first] = groupNormal(group, normal);
+                if (!traced[g - first]) {
+                    continue;
                 }
-            }
 
-            for (Future<?> fut : tasks) {
-                try {
-                    fut.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
+                float upX = 0f;
+                float upY = 1f;
+                float upZ = 0f;
+
+                if (Math.abs(normal.dot(upX, upY, upZ)) >= (1f - EPSILON)) {
+                    upY = 0f;
+                    upX = 1f;
+                }
+
+                normal.cross(upX, upY, upZ, tangent).normalize();
+                normal.cross(tangent, bitangent).normalize();
+                TBN.set(tangent, bitangent, normal);
+
+                int vertex = group.get(0).vertex;
+                float originX = this.vertices[vertex + this.xyzOffset + 0] + (normal.x() * this.rayOffset);
+                float originY = this.vertices[vertex + this.xyzOffset + 1] + (normal.y() * this.rayOffset);
+                float originZ = this.vertices[vertex + this.xyzOffset + 2] + (normal.z() * this.rayOffset);
+
+                for (int i = 0; i < this.aoRays; i++) {
+                    randomTangentDirection(direction, random);
+                    TBN.transform(direction).normalize();
+
+                    origins[(rays * 3) + 0] = originX;
+                    origins[(rays * 3) + 1] = originY;
+                    origins[(rays * 3) + 2] = originZ;
+                    directions[(rays * 3) + 0] = direction.x();
+                    directions[(rays * 3) + 1] = direction.y();
+                    directions[(rays * 3) + 2] = direction.z();
+                    rays++;
                 }
             }
 
-            tasks.clear();
+            RayQueryService.getDefault().fastTestRays(this.bvh, origins, directions, maxLengths, rays, occluded);
+
+            int ray = 0;
+            for (int g = first; g < end; g++) {
+                if (!traced[g - first]) {
+                    continue;
+                }
+
+                float result = 0f;
+                for (int i = 0; i < this.aoRays; i++) {
+                    if (occluded[ray++]) {
+                        result++;
+                    }
+                }
+                result /= this.aoRays;
+
+                for (Vertex v : groups.get(g)) {
+                    this.vertices[v.vertex + this.outAoOffset] = result;
+                }
+            }
         }
     }
 
@@ -200,72 +260,27 @@ public class VertexAO {
                 .normalize();
     }
 
-    private void computeAO(List<Vertex> vertices) {
+    private boolean groupNormal(List<Vertex> vertices, Vector3f outNormal) {
         float nX = 0f;
         float nY = 0f;
         float nZ = 0f;
-        Vector3f normal = new Vector3f();
 
         for (Vertex v : vertices) {
-            calculateNormal(v, normal);
-            if (normal.isFinite()) {
-                nX += normal.x();
-                nY += normal.y();
-                nZ += normal.z();
+            calculateNormal(v, outNormal);
+            if (outNormal.isFinite()) {
+                nX += outNormal.x();
+                nY += outNormal.y();
+                nZ += outNormal.z();
             }
         }
 
-        normal.set(nX, nY, nZ).normalize();
-        if (!normal.isFinite()) {
-            return;
-        }
-
-        float upX = 0f;
-        float upY = 1f;
-        float upZ = 0f;
-
-        if (Math.abs(normal.dot(upX, upY, upZ)) >= (1f - EPSILON)) {
-            upY = 0f;
-            upX = 1f;
-        }
-
-        Vector3f tangent = normal.cross(upX, upY, upZ, new Vector3f()).normalize();
-        Vector3f bitangent = normal.cross(tangent, new Vector3f()).normalize();
-
-        Matrix3f TBN = new Matrix3f(tangent, bitangent, normal);
-
-        int vertex = vertices.get(0).vertex;
-        Vector3f offsetPosition = new Vector3f(normal).mul(this.rayOffset).add(
-                this.vertices[vertex + this.xyzOffset + 0],
-                this.vertices[vertex + this.xyzOffset + 1],
-                this.vertices[vertex + this.xyzOffset + 2]
-        );
-
-        Random random = new Random();
-        Vector3f tangentDirection = new Vector3f();
-        float result = 0f;
-        for (int i = 0; i < this.aoRays; i++) {
-            randomTangentDirection(tangentDirection, random);
-            TBN.transform(tangentDirection).normalize();
-
-            if (this.bvh.fastTestRay(offsetPosition, tangentDirection, this.aoSize)) {
-                result++;
-            }
-        }
-        result /= this.aoRays;
-
-        for (Vertex v : vertices) {
-            this.vertices[v.vertex + this.outAoOffset] = result;
-        }
+        outNormal.set(nX, nY, nZ).normalize();
+        return outNormal.isFinite();
     }
-    
+
     private void process() {
-        try {
-            createBVH();
-            mapVertices();
-            computeAO();
-        } finally {
-            this.service.shutdownNow();
-        }
+        createBVH();
+        mapVertices();
+        computeAO();
     }
 }
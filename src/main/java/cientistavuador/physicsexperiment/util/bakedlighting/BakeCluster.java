@@ -0,0 +1,368 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator of a distributed bake, the light units of a bake with a cluster
+ * send their tiles to {@link BakeWorker} processes instead of baking them on
+ * this process.
+ * <p>
+ * The scene description is sent once to every worker, then tiles are handed
+ * to the workers as they finish the previous ones and the values they send
+ * back are written to the light buffers of the unit before it is denoised.
+ * The tiles of a worker that dies are given to the other workers, and tiles
+ * left with no worker alive are baked by this process.
+ *
+ * @author Cien
+ */
+public class BakeCluster implements AutoCloseable {
+
+    public static final int CONNECT_TIMEOUT = 60000;
+
+    //meshes, bvhs and textures of the copy of the scene of a worker
+    public static final long WORKER_SCENE_HEAP = 512L * 1024L * 1024L;
+
+    /**
+     * The heap of a worker, the units of a worker are bounded by the memory
+     * budget of the scene and the rest holds its copy of the scene.
+     */
+    public static long workerHeapSize(Scene scene) {
+        return scene.getBakeMemoryBudget() + WORKER_SCENE_HEAP;
+    }
+
+    //heap options of this jvm are replaced by the heap size of the workers
+    private static boolean isHeapArgument(String argument) {
+        return argument.startsWith("-Xmx")
+                || argument.startsWith("-Xms")
+                || argument.startsWith("-XX:MaxHeapSize")
+                || argument.startsWith("-XX:InitialHeapSize")
+                || argument.startsWith("-XX:MaxRAMPercentage")
+                || argument.startsWith("-XX:InitialRAMPercentage")
+                || argument.startsWith("-XX:MinRAMPercentage");
+    }
+
+    /**
+     * Starts a cluster of workers spawned on this machine, every worker runs
+     * on its own JVM with the classpath and the JVM arguments of this one,
+     * except for debugger agents and heap options, the heap of every worker
+     * is set to the given size in bytes.
+     */
+    public static BakeCluster start(String sceneName, List<String> sceneDescription, int workers, long heapSize) throws IOException {
+        ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+        BakeCluster cluster = new BakeCluster(server, sceneName, sceneDescription);
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            //--add-modules jdk.incubator.vector among others
+            for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (argument.startsWith("-agentlib:jdwp") || argument.startsWith("-Xrunjdwp") || isHeapArgument(argument)) {
+                    continue;
+                }
+                command.add(argument);
+            }
+            command.add("-Xmx" + Math.max(heapSize / (1024L * 1024L), 64L) + "m");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BakeWorker.class.getName());
+            command.add(server.getInetAddress().getHostAddress());
+            command.add(Integer.toString(server.getLocalPort()));
+            for (int i = 0; i < workers; i++) {
+                cluster.processes.add(new ProcessBuilder(command).inheritIO().start());
+            }
+            cluster.accept(workers);
+        } catch (IOException | RuntimeException ex) {
+            cluster.close();
+            throw ex;
+        }
+        return cluster;
+    }
+
+    private static class Batch {
+
+        private final CountDownLatch remaining;
+
+        public Batch(int tiles) {
+            this.remaining = new CountDownLatch(tiles);
+        }
+    }
+
+    private static class Job {
+
+        private final BakedLighting unit;
+        private final int tile;
+        private final Batch batch;
+
+        public Job(BakedLighting unit, int tile, Batch batch) {
+            this.unit = unit;
+            this.tile = tile;
+            this.batch = batch;
+        }
+    }
+
+    private class Worker {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Map<Integer, Job> running = new ConcurrentHashMap<>();
+        private final AtomicBoolean dead = new AtomicBoolean(false);
+        private final long[] metrics = new long[6];
+        private Semaphore slots = null;
+
+        public Worker(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void fail(Throwable t) {
+            if (!this.dead.compareAndSet(false, true)) {
+                return;
+            }
+            if (!BakeCluster.this.closed) {
+                System.out.println("Bake worker " + this.socket.getRemoteSocketAddress() + " lost: " + t);
+            }
+            try {
+                this.socket.close();
+            } catch (IOException ex) {
+                t.addSuppressed(ex);
+            }
+            for (Integer id : this.running.keySet()) {
+                Job job = this.running.remove(id);
+                if (job != null) {
+                    BakeCluster.this.jobs.addFirst(job);
+                }
+            }
+            BakeCluster.this.alive.decrementAndGet();
+        }
+
+        private void send() {
+            try {
+                while (!this.dead.get()) {
+                    this.slots.acquire();
+                    Job job = BakeCluster.this.jobs.take();
+                    int id = BakeCluster.this.ids.getAndIncrement();
+                    this.running.put(id, job);
+                    if (this.dead.get()) {
+                        if (this.running.remove(id) != null) {
+                            BakeCluster.this.jobs.addFirst(job);
+                        }
+                        return;
+                    }
+                    this.out.writeInt(id);
+                    job.unit.writeRemoteUnit(this.out);
+                    this.out.writeInt(job.tile);
+                    this.out.writeBoolean(!job.unit.isRemoteFirstPass());
+                    if (!job.unit.isRemoteFirstPass()) {
+                        ByteArrayOutputStream tileData = new ByteArrayOutputStream();
+                        job.unit.writeRemoteTile(job.tile, new DataOutputStream(tileData));
+                        this.out.writeInt(tileData.size());
+                        tileData.writeTo(this.out);
+                    }
+                    this.out.flush();
+                }
+            } catch (IOException | RuntimeException | InterruptedException ex) {
+                fail(ex);
+            }
+        }
+
+        private void receive() {
+            try {
+                int threads = this.in.readInt();
+                this.slots = new Semaphore(threads * 2);
+                Thread sender = new Thread(this::send, "Bake Worker Sender");
+                sender.setDaemon(true);
+                sender.start();
+
+                while (true) {
+                    int id = this.in.readInt();
+                    long[] delta = new long[this.metrics.length];
+                    for (int i = 0; i < delta.length; i++) {
+                        long value = this.in.readLong();
+                        delta[i] = value - this.metrics[i];
+                        this.metrics[i] = value;
+                    }
+                    byte[] tileData = new byte[this.in.readInt()];
+                    this.in.readFully(tileData);
+
+                    Job job = this.running.remove(id);
+                    this.slots.release();
+                    if (job == null) {
+                        continue;
+                    }
+                    try {
+                        job.unit.readRemoteTile(job.tile, new DataInputStream(new ByteArrayInputStream(tileData)));
+                    } catch (IOException | RuntimeException ex) {
+                        BakeCluster.this.jobs.addFirst(job);
+                        throw ex;
+                    }
+                    job.unit.addRemoteMetrics(delta);
+                    job.unit.remoteTileDone();
+                    job.batch.remaining.countDown();
+                    BakeCluster.this.receivedTiles.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    private final ServerSocket server;
+    private final String sceneName;
+    private final List<String> sceneDescription;
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private final LinkedBlockingDeque<Job> jobs = new LinkedBlockingDeque<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger alive = new AtomicInteger();
+    private final AtomicInteger receivedTiles = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private BakeCluster(ServerSocket server, String sceneName, List<String> sceneDescription) {
+        this.server = server;
+        this.sceneName = sceneName;
+        this.sceneDescription = sceneDescription;
+    }
+
+    private void accept(int workers) throws IOException {
+        this.server.setSoTimeout(CONNECT_TIMEOUT);
+        for (int i = 0; i < workers; i++) {
+            Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch (SocketTimeoutException ex) {
+                System.out.println("Only " + i + " of " + workers + " bake workers connected.");
+                break;
+            }
+            Worker worker = new Worker(socket);
+            worker.out.writeUTF(this.sceneName);
+            worker.out.writeInt(this.sceneDescription.size());
+            for (String line : this.sceneDescription) {
+                worker.out.writeUTF(line);
+            }
+            worker.out.flush();
+
+            this.workers.add(worker);
+            this.alive.incrementAndGet();
+            Thread receiver = new Thread(worker::receive, "Bake Worker Receiver");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    public int getAliveWorkers() {
+        return this.alive.get();
+    }
+
+    //tiles baked by the workers so far
+    int getReceivedTiles() {
+        return this.receivedTiles.get();
+    }
+
+    //kills the process of a worker as if it crashed
+    void killWorker(int index) {
+        this.processes.get(index).destroyForcibly();
+    }
+
+    //bakes every tile of the light unit and returns when all of them were
+    //written back to its buffers
+    void bake(BakedLighting unit) {
+        Batch batch = new Batch(unit.remoteTiles());
+        List<Job> batchJobs = new ArrayList<>();
+        for (int i = 0; i < unit.remoteTiles(); i++) {
+            batchJobs.add(new Job(unit, i, batch));
+        }
+        this.jobs.addAll(batchJobs);
+
+        try {
+            while (!batch.remaining.await(100, TimeUnit.MILLISECONDS)) {
+                if (this.alive.get() > 0) {
+                    continue;
+                }
+                List<Job> left = new ArrayList<>();
+                for (Job job : batchJobs) {
+                    if (this.jobs.removeFirstOccurrence(job)) {
+                        left.add(job);
+                    }
+                }
+                int[] tiles = new int[left.size()];
+                for (int i = 0; i < tiles.length; i++) {
+                    tiles[i] = left.get(i).tile;
+                }
+                unit.bakeLocalTiles(tiles);
+                for (int i = 0; i < tiles.length; i++) {
+                    batch.remaining.countDown();
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.server.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (Worker worker : this.workers) {
+                worker.fail(new IOException("Cluster closed."));
+            }
+            for (Process process : this.processes) {
+                process.destroy();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import cientistavuador.physicsexperiment.resources.mesh.MeshData;
+import cientistavuador.physicsexperiment.util.SoftwareTexture;
+import java.util.List;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+/**
+ * Content hashes of the inputs of a bake, a (geometry, light group) unit with
+ * the same hash as a previous bake produces the same lightmap and does not
+ * need to be baked again.
+ * <p>
+ * {@link #NONE} is never returned by a hash and marks lightmaps without a
+ * known hash.
+ *
+ * @author Cien
+ */
+public class BakeHash {
+
+    public static final long NONE = 0L;
+
+    private static final long SEED = 0x4C49474854424B48L;
+
+    public static long mix(long hash, int value) {
+        hash ^= (value & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(hash, 31) * 0xBF58476D1CE4E5B9L;
+    }
+
+    public static long mix(long hash, long value) {
+        hash = mix(hash, (int) value);
+        return mix(hash, (int) (value >>> 32));
+    }
+
+    public static long mix(long hash, float value) {
+        return mix(hash, Float.floatToRawIntBits(value));
+    }
+
+    public static long mix(long hash, boolean value) {
+        return mix(hash, (value ? 1 : 0));
+    }
+
+    public static long mix(long hash, String value) {
+        hash = mix(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            hash = mix(hash, value.charAt(i));
+        }
+        return hash;
+    }
+
+    public static long mix(long hash, Matrix4fc matrix) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                hash = mix(hash, matrix.get(column, row));
+            }
+        }
+        return hash;
+    }
+
+    public static long finish(long hash) {
+        hash ^= (hash >>> 33);
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= (hash >>> 33);
+        if (hash == NONE) {
+            hash = SEED;
+        }
+        return hash;
+    }
+
+    public static long hashMesh(MeshData mesh) {
+        float[] vertices = mesh.getVertices();
+        int[] indices = mesh.getIndices();
+
+        long hash = SEED;
+        hash = mix(hash, vertices.length);
+        hash = mix(hash, indices.length);
+        for (int i = 0; i < vertices.length; i++) {
+            hash = mix(hash, vertices[i]);
+        }
+        for (int i = 0; i < indices.length; i++) {
+            hash = mix(hash, indices[i]);
+        }
+        return finish(hash);
+    }
+
+    public static long hashTexture(SoftwareTexture texture) {
+        float[] color = new float[4];
+
+        long hash = SEED;
+        hash = mix(hash, texture.width());
+        hash = mix(hash, texture.height());
+        for (int y = 0; y < texture.height(); y++) {
+            for (int x = 0; x < texture.width(); x++) {
+                texture.fetch(x, y, color, 0);
+                for (int i = 0; i < color.length; i++) {
+                    hash = mix(hash, color[i]);
+                }
+            }
+        }
+        return finish(hash);
+    }
+
+    public static long hashSettings(Scene scene) {
+        long hash = SEED;
+
+        hash = mix(hash, scene.getPixelToWorldRatio());
+        SamplingMode mode = scene.getSamplingMode();
+        hash = mix(hash, mode.numSamples());
+        for (int i = 0; i < mode.numSamples(); i++) {
+            hash = mix(hash, mode.sampleX(i));
+            hash = mix(hash, mode.sampleY(i));
+        }
+
+        hash = mix(hash, scene.isDirectLightingEnabled());
+        hash = mix(hash, scene.getDirectLightingAttenuation());
+
+        hash = mix(hash, scene.isShadowsEnabled());
+        hash = mix(hash, scene.getShadowRaysPerSample());
+        hash = mix(hash, scene.getShadowBlurArea());
+
+        hash = mix(hash, scene.isIndirectLightingEnabled());
+        hash = mix(hash, scene.getIndirectRaysPerSample());
+        hash = mix(hash, scene.getIndirectBounces());
+        hash = mix(hash, scene.getIndirectLightingBlurArea());
+        hash = mix(hash, scene.getIndirectLightReflectionFactor());
+        hash = mix(hash, scene.getIndirectErrorTarget());
+        hash = mix(hash, scene.getIndirectMinRaysPerSample());
+        hash = mix(hash, scene.getIndirectMaxRaysPerSample());
+
+        hash = mix(hash, scene.getRayOffset());
+        hash = mix(hash, scene.fillEmptyValuesWithLightColors());
+        hash = mix(hash, scene.isFastModeEnabled());
+        hash = mix(hash, scene.getProgressivePasses());
+        hash = mix(hash, scene.isLightSamplingEnabled());
+        hash = mix(hash, scene.isHalfFloatBuffersEnabled());
+
+        return finish(hash);
+    }
+
+    public static long mix(long hash, Scene.Light light) {
+        hash = mix(hash, light.getClass().getName());
+        hash = mix(hash, light.getGroupName());
+        hash = mix(hash, light.getDiffuse().x());
+        hash = mix(hash, light.getDiffuse().y());
+        hash = mix(hash, light.getDiffuse().z());
+        hash = mix(hash, light.getLightSize());
+        if (light instanceof Scene.DirectionalLight sun) {
+            hash = mix(hash, sun.getDirection().x());
+            hash = mix(hash, sun.getDirection().y());
+            hash = mix(hash, sun.getDirection().z());
+            hash = mix(hash, sun.getAmbient().x());
+            hash = mix(hash, sun.getAmbient().y());
+            hash = mix(hash, sun.getAmbient().z());
+        }
+        if (light instanceof Scene.PointLight point) {
+            hash = mix(hash, point.getPosition().x());
+            hash = mix(hash, point.getPosition().y());
+            hash = mix(hash, point.getPosition().z());
+            hash = mix(hash, point.getBakeCutoff());
+        }
+        if (light instanceof Scene.SpotLight spot) {
+            hash = mix(hash, spot.getDirection().x());
+            hash = mix(hash, spot.getDirection().y());
+            hash = mix(hash, spot.getDirection().z());
+            hash = mix(hash, spot.getCutoffAngle());
+            hash = mix(hash, spot.getOuterCutoffAngle());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns true if the geometry at the index can change the lightmap of the
+     * receiver under the lights. Indirect lighting and directional lights can
+     * reach the receiver from anywhere so every geometry is relevant, for
+     * direct lighting of point and spot lights only geometries crossing the
+     * bounds of the receiver and the light spheres can cast shadows on it,
+     * shadow rays target random points within the light size of a light.
+     */
+    public static boolean isRelevant(Scene scene, Geometry receiver, Geometry other, List<Scene.Light> lights) {
+        if (other == receiver) {
+            return true;
+        }
+        if (scene.isIndirectLightingEnabled() && !scene.isFastModeEnabled()) {
+            return true;
+        }
+        if (!scene.isShadowsEnabled()) {
+            return false;
+        }
+
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+        Vector3f lightMin = new Vector3f();
+        Vector3f lightMax = new Vector3f();
+        receiver.getWorldBounds(min, max);
+        for (Scene.Light light : lights) {
+            if (!(light instanceof Scene.PointLight point)) {
+                return true;
+            }
+            float size = Math.abs(point.getLightSize());
+            point.getPosition().sub(size, size, size, lightMin);
+            point.getPosition().add(size, size, size, lightMax);
+            min.min(lightMin);
+            max.max(lightMax);
+        }
+
+        Vector3f otherMin = new Vector3f();
+        Vector3f otherMax = new Vector3f();
+        other.getWorldBounds(otherMin, otherMax);
+
+        return otherMin.x() <= max.x() && otherMax.x() >= min.x()
+                && otherMin.y() <= max.y() && otherMax.y() >= min.y()
+                && otherMin.z() <= max.z() && otherMax.z() >= min.z();
+    }
+
+    private BakeHash() {
+
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Worker process of a {@link BakeCluster}, connects to the coordinator,
+ * receives the scene description and bakes the tiles it is given until the
+ * coordinator closes the connection.
+ * <p>
+ * Geometry and light units are kept between tiles while they fit in the
+ * memory budget of the scene, idle units are released least recently used
+ * first to make room for new ones. Units are loaded outside of the lock of
+ * the worker, so tiles of loaded units keep baking while a new unit loads,
+ * tiles of a unit being loaded wait for it.
+ * <p>
+ * Usage: BakeWorker [coordinator host] [coordinator port]
+ *
+ * @author Cien
+ */
+public class BakeWorker {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: BakeWorker [coordinator host] [coordinator port]");
+            System.exit(1);
+            return;
+        }
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            new BakeWorker(socket).run();
+        } catch (Throwable t) {
+            t.printStackTrace(System.out);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    //users of a geometry unit are its light units, users of a light unit are
+    //the tiles baking on it, only units without users are released, a unit
+    //being loaded always has a user so it is never released
+    private static class Unit {
+
+        private final CompletableFuture<BakedLighting> baked = new CompletableFuture<>();
+        private final long bytes;
+        private final Unit geometry;
+        private int users = 0;
+
+        public Unit(long bytes, Unit geometry) {
+            this.bytes = bytes;
+            this.geometry = geometry;
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Integer, Unit> geometryUnits = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Unit> lightUnits = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+    private BakedLighting baked = null;
+
+    private BakeWorker(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    //releases idle units until the bytes fit in the budget or no unit is
+    //idle, if every unit is in use the new unit goes over the budget
+    private void makeRoom(long bytes) {
+        long budget = this.baked.remoteBudget();
+        Iterator<Unit> lights = this.lightUnits.values().iterator();
+        while ((this.usedBytes + bytes) > budget && lights.hasNext()) {
+            Unit unit = lights.next();
+            if (unit.users != 0) {
+                continue;
+            }
+            lights.remove();
+            unit.baked.join().releaseRemoteLights();
+            unit.geometry.users--;
+            this.usedBytes -= unit.bytes;
+        }
+        Iterator<Unit> geometries = this.geometryUnits.values().iterator();
+        while ((this.usedBytes + bytes) > budget && geometries.hasNext()) {
+            Unit unit = geometries.next();
+            if (unit.users != 0) {
+                continue;
+            }
+            geometries.remove();
+            unit.baked.join().releaseRemoteGeometry();
+            this.usedBytes -= unit.bytes;
+        }
+    }
+
+    //a unit that failed to load is forgotten, the tiles waiting for it fail
+    private synchronized void failed(Map<?, Unit> units, Object key, Unit unit, Throwable t) {
+        unit.baked.completeExceptionally(t);
+        units.remove(key, unit);
+        this.usedBytes -= unit.bytes;
+        if (unit.geometry != null) {
+            unit.geometry.users--;
+        }
+    }
+
+    //only the bookkeeping is done under the lock, the thread that creates a
+    //unit loads it after leaving the lock
+    private Unit acquire(int geometry, int group, int[] lights) {
+        String key = geometry + ":" + group + ":" + Arrays.toString(lights);
+        Unit unit;
+        Unit geometryUnit = null;
+        boolean loadGeometry = false;
+        boolean loadLights = false;
+        synchronized (this) {
+            unit = this.lightUnits.get(key);
+            if (unit == null) {
+                geometryUnit = this.geometryUnits.get(geometry);
+                if (geometryUnit == null) {
+                    long bytes = this.baked.remoteGeometryBytes(geometry);
+                    makeRoom(bytes);
+                    geometryUnit = new Unit(bytes, null);
+                    this.geometryUnits.put(geometry, geometryUnit);
+                    this.usedBytes += bytes;
+                    loadGeometry = true;
+                }
+                geometryUnit.users++;
+                long bytes = this.baked.remoteLightBytes(geometry);
+                makeRoom(bytes);
+                unit = new Unit(bytes, geometryUnit);
+                this.lightUnits.put(key, unit);
+                this.usedBytes += bytes;
+                loadLights = true;
+            }
+            unit.users++;
+        }
+
+        if (loadGeometry) {
+            try {
+                geometryUnit.baked.complete(this.baked.remoteGeometry(geometry));
+            } catch (Throwable t) {
+                failed(this.geometryUnits, geometry, geometryUnit, t);
+            }
+        }
+        if (loadLights) {
+            try {
+                unit.baked.complete(geometryUnit.baked.join().remoteLights(group, lights));
+            } catch (Throwable t) {
+                failed(this.lightUnits, key, unit, t);
+            }
+        }
+        return unit;
+    }
+
+    private synchronized void release(Unit unit) {
+        unit.users--;
+    }
+
+    private void bake(int id, int geometry, int group, int[] lights, int pass, int tile, byte[] tileData) {
+        Unit lightUnit = null;
+        try {
+            lightUnit = acquire(geometry, group, lights);
+            BakedLighting unit = lightUnit.baked.join().remotePass(pass);
+            if (tileData != null) {
+                unit.readRemoteTile(tile, new DataInputStream(new ByteArrayInputStream(tileData)));
+            }
+            unit.bakeRemoteTile(tile);
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            unit.writeRemoteTile(tile, new DataOutputStream(result));
+
+            synchronized (this.out) {
+                this.out.writeInt(id);
+                for (long metric : this.baked.remoteMetrics()) {
+                    this.out.writeLong(metric);
+                }
+                this.out.writeInt(result.size());
+                result.writeTo(this.out);
+                this.out.flush();
+            }
+        } catch (Throwable t) {
+            //the coordinator gives the tiles of a closed connection to other workers
+            t.printStackTrace(System.out);
+            try {
+                this.socket.close();
+            } catch (IOException ex) {
+                t.addSuppressed(ex);
+            }
+        } finally {
+            if (lightUnit != null) {
+                release(lightUnit);
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        String sceneName = this.in.readUTF();
+        List<String> sceneDescription = new ArrayList<>();
+        int lines = this.in.readInt();
+        for (int i = 0; i < lines; i++) {
+            sceneDescription.add(this.in.readUTF());
+        }
+        this.baked = BakedLighting.remote(LightmapBaker.load(sceneName, sceneDescription));
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            synchronized (this.out) {
+                this.out.writeInt(threads);
+                this.out.flush();
+            }
+
+            while (true) {
+                int id;
+                try {
+                    id = this.in.readInt();
+                } catch (EOFException ex) {
+                    return;
+                }
+                int geometry = this.in.readInt();
+                int group = this.in.readInt();
+                int[] lights = new int[this.in.readInt()];
+                for (int i = 0; i < lights.length; i++) {
+                    lights[i] = this.in.readInt();
+                }
+                int pass = this.in.readInt();
+                int tile = this.in.readInt();
+                byte[] tileData = null;
+                if (this.in.readBoolean()) {
+                    tileData = new byte[this.in.readInt()];
+                    this.in.readFully(tileData);
+                }
+                final byte[] finalTileData = tileData;
+                pool.execute(() -> {
+                    bake(id, geometry, group, lights, pass, tile, finalTileData);
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
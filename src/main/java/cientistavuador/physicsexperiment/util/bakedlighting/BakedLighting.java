@@ -31,21 +31,51 @@ import cientistavuador.physicsexperiment.util.postprocess.GaussianBlur;
 import cientistavuador.physicsexperiment.Main;
 import cientistavuador.physicsexperiment.geometry.Geometry;
 import cientistavuador.physicsexperiment.resources.mesh.MeshData;
+import cientistavuador.physicsexperiment.util.LightmapFile;
 import cientistavuador.physicsexperiment.util.MeshUtils;
 import cientistavuador.physicsexperiment.util.RasterUtils;
-import cientistavuador.physicsexperiment.util.raycast.RayResult;
+import cientistavuador.physicsexperiment.util.raycast.InstanceBVH;
+import cientistavuador.physicsexperiment.util.raycast.PointHit;
+import cientistavuador.physicsexperiment.util.raycast.RayHit;
+import cientistavuador.physicsexperiment.util.raycast.RayQueryContext;
+import cientistavuador.physicsexperiment.util.raycast.RayQueryService;
 import cientistavuador.physicsexperiment.util.SoftwareTexture;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 import org.joml.Matrix3f;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
@@ -57,6 +87,14 @@ import org.joml.Vector3fc;
 public class BakedLighting {
 
     private static final float EPSILON = 0.0001f;
+    private static final int RAY_OFFSET_ULPS = 32;
+    private static final int SHADOW_QUEUE_SIZE = 4096;
+    private static final int TILE_SIZE = 32;
+    private static final float INDIRECT_ERROR_FLOOR = 0.001f;
+    private static final float CULLING_MARGIN = 1.001f;
+    private static final int BLUR_KERNEL_SIZE = 51;
+    private static final int FILTER_TILE_SIZE = 128;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
     
     private static class LightGroup {
 
@@ -69,6 +107,40 @@ public class BakedLighting {
         public void prepare(Geometry geometry, MeshData.LightmapMesh mesh, int lightmapSize, String[] groups);
 
         public void write(float[] lightmap, int groupIndex);
+
+        //intermediate lightmaps of a progressive bake are sent with preview
+        //set to true, the final lightmap of a group is always sent to
+        //write(float[], int) after them
+        public default void write(float[] lightmap, int groupIndex, boolean preview) {
+            if (!preview) {
+                write(lightmap, groupIndex);
+            }
+        }
+
+        //final lightmap of a group with the BakeHash of the inputs that
+        //produced it, lightmaps reused from a previous bake are written too
+        public default void write(float[] lightmap, int groupIndex, long hash) {
+            write(lightmap, groupIndex);
+        }
+    }
+
+    public static enum Phase {
+        GEOMETRY_BUFFERS("geometryBuffers"),
+        BAKE("bake"),
+        DENOISE("denoise"),
+        COMBINE("combine"),
+        MARGINS("margins"),
+        OUTPUT("output");
+
+        private final String key;
+
+        private Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
     }
 
     public static class Status {
@@ -81,11 +153,37 @@ public class BakedLighting {
 
         private float progressBarStep = 0f;
 
-        private long timeStart = 0;
-        private volatile long rays = 0;
+        private volatile long timeStart = 0;
+        private volatile long timeEnd = 0;
+
+        //counted by every worker, adders do not lose counts under contention
+        private final LongAdder shadowRays = new LongAdder();
+        private final LongAdder bounceRays = new LongAdder();
+        private final LongAdder lightRays = new LongAdder();
+        private final LongAdder texels = new LongAdder();
+        private final LongAdder[] phaseWallTime = new LongAdder[Phase.values().length];
+        private final LongAdder[] phaseCpuTime = new LongAdder[Phase.values().length];
+
+        {
+            for (int i = 0; i < this.phaseWallTime.length; i++) {
+                this.phaseWallTime[i] = new LongAdder();
+                this.phaseCpuTime[i] = new LongAdder();
+            }
+        }
 
         private long progressBarStart = System.currentTimeMillis();
 
+        private volatile int totalTiles = 0;
+        private final AtomicInteger tilesDone = new AtomicInteger();
+
+        private volatile boolean stopRequested = false;
+        private volatile int reusedUnits = 0;
+        private volatile int culledUnits = 0;
+        private volatile long estimatedPeakMemory = 0;
+
+        private final AtomicLong indirectSamples = new AtomicLong();
+        private final AtomicLong indirectRays = new AtomicLong();
+
         public Status() {
 
         }
@@ -105,6 +203,196 @@ public class BakedLighting {
             this.currentProgress += this.progressBarStep;
         }
 
+        private void setTiles(int total) {
+            this.tilesDone.set(0);
+            this.totalTiles = total;
+            setProgressBarStep(total);
+        }
+
+        private int stepTile() {
+            int done = this.tilesDone.incrementAndGet();
+            this.currentProgress = Math.min((done * 100f) / this.totalTiles, 100f);
+            return done;
+        }
+
+        private void resetMetrics() {
+            this.shadowRays.reset();
+            this.bounceRays.reset();
+            this.lightRays.reset();
+            this.texels.reset();
+            for (int i = 0; i < this.phaseWallTime.length; i++) {
+                this.phaseWallTime[i].reset();
+                this.phaseCpuTime[i].reset();
+            }
+            this.timeEnd = 0;
+            this.timeStart = System.currentTimeMillis();
+        }
+
+        private void addPhaseTime(Phase phase, long wallNanos, long cpuNanos) {
+            this.phaseWallTime[phase.ordinal()].add(wallNanos);
+            this.phaseCpuTime[phase.ordinal()].add(cpuNanos);
+        }
+
+        public long getShadowRays() {
+            return this.shadowRays.sum();
+        }
+
+        public long getBounceRays() {
+            return this.bounceRays.sum();
+        }
+
+        public long getLightRays() {
+            return this.lightRays.sum();
+        }
+
+        public long getRays() {
+            return getShadowRays() + getBounceRays() + getLightRays();
+        }
+
+        public String getRaysFormatted() {
+            StringBuilder b = new StringBuilder();
+            Formatter formatter = new Formatter(b);
+            formatter.format("%,d Shadow, %,d Bounce, %,d Light Rays", getShadowRays(), getBounceRays(), getLightRays());
+            return b.toString();
+        }
+
+        public long getTexels() {
+            return this.texels.sum();
+        }
+
+        //seconds since the tiles started, up to the end of the bake
+        public double getElapsedTime() {
+            if (this.timeStart == 0) {
+                return 0;
+            }
+            long end = this.timeEnd;
+            if (end == 0) {
+                end = System.currentTimeMillis();
+            }
+            return (end - this.timeStart) / 1000.0;
+        }
+
+        public double getTexelsPerSecond() {
+            double time = getElapsedTime();
+            if (time == 0) {
+                return 0;
+            }
+            return getTexels() / time;
+        }
+
+        public String getTexelsPerSecondFormatted() {
+            StringBuilder b = new StringBuilder();
+            Formatter formatter = new Formatter(b);
+            formatter.format("%,.2f", getTexelsPerSecond());
+            b.append(" Texels Per Second");
+            return b.toString();
+        }
+
+        //wall time is summed over the units running the phase, cpu time is
+        //summed over every thread working for the phase
+        public double getPhaseWallTime(Phase phase) {
+            return this.phaseWallTime[phase.ordinal()].sum() / 1E9;
+        }
+
+        public double getPhaseCpuTime(Phase phase) {
+            return this.phaseCpuTime[phase.ordinal()].sum() / 1E9;
+        }
+
+        public String getMetricsReport() {
+            StringBuilder b = new StringBuilder();
+            Formatter formatter = new Formatter(b, Locale.ROOT);
+            formatter.format("{\n");
+            formatter.format("  \"elapsedSeconds\": %.3f,\n", getElapsedTime());
+            formatter.format("  \"rays\": {\n");
+            formatter.format("    \"shadow\": %d,\n", getShadowRays());
+            formatter.format("    \"bounce\": %d,\n", getBounceRays());
+            formatter.format("    \"light\": %d,\n", getLightRays());
+            formatter.format("    \"total\": %d,\n", getRays());
+            formatter.format("    \"perSecond\": %.2f,\n", getRaysPerSecond());
+            formatter.format("    \"indirectPerSample\": %.2f\n", getIndirectRaysPerSample());
+            formatter.format("  },\n");
+            formatter.format("  \"texels\": {\n");
+            formatter.format("    \"baked\": %d,\n", getTexels());
+            formatter.format("    \"perSecond\": %.2f\n", getTexelsPerSecond());
+            formatter.format("  },\n");
+            formatter.format("  \"units\": {\n");
+            formatter.format("    \"reused\": %d,\n", getReusedUnits());
+            formatter.format("    \"culled\": %d\n", getCulledUnits());
+            formatter.format("  },\n");
+            formatter.format("  \"estimatedPeakMemoryBytes\": %d,\n", getEstimatedPeakMemory());
+            formatter.format("  \"phases\": {\n");
+            Phase[] phases = Phase.values();
+            for (int i = 0; i < phases.length; i++) {
+                formatter.format(
+                        "    \"%s\": {\"wallSeconds\": %.3f, \"cpuSeconds\": %.3f}%s\n",
+                        phases[i].getKey(),
+                        getPhaseWallTime(phases[i]),
+                        getPhaseCpuTime(phases[i]),
+                        (i == (phases.length - 1) ? "" : ",")
+                );
+            }
+            formatter.format("  }\n");
+            formatter.format("}\n");
+            return b.toString();
+        }
+
+        private void addIndirectRays(long samples, long rays) {
+            this.indirectSamples.addAndGet(samples);
+            this.indirectRays.addAndGet(rays);
+        }
+
+        public double getIndirectRaysPerSample() {
+            long samples = this.indirectSamples.get();
+            if (samples == 0) {
+                return 0;
+            }
+            return ((double) this.indirectRays.get()) / samples;
+        }
+
+        public String getIndirectRaysPerSampleFormatted() {
+            StringBuilder b = new StringBuilder();
+            Formatter formatter = new Formatter(b);
+            formatter.format("%,.2f", getIndirectRaysPerSample());
+            b.append(" Indirect Rays Per Sample");
+            return b.toString();
+        }
+
+        public int getReusedUnits() {
+            return this.reusedUnits;
+        }
+
+        public int getCulledUnits() {
+            return this.culledUnits;
+        }
+
+        public long getEstimatedPeakMemory() {
+            return this.estimatedPeakMemory;
+        }
+
+        public String getEstimatedPeakMemoryFormatted() {
+            StringBuilder b = new StringBuilder();
+            Formatter formatter = new Formatter(b);
+            formatter.format("%,.2f", getEstimatedPeakMemory() / (1024.0 * 1024.0));
+            b.append(" MiB Estimated Peak Memory");
+            return b.toString();
+        }
+
+        public void requestStop() {
+            this.stopRequested = true;
+        }
+
+        public boolean isStopRequested() {
+            return this.stopRequested;
+        }
+
+        public int getTilesDone() {
+            return this.tilesDone.get();
+        }
+
+        public int getTotalTiles() {
+            return this.totalTiles;
+        }
+
         public int getCurrentProgress() {
             return (int) this.currentProgress;
         }
@@ -147,12 +435,11 @@ public class BakedLighting {
         }
 
         public double getRaysPerSecond() {
-            double time = (System.currentTimeMillis() - this.timeStart);
+            double time = getElapsedTime();
             if (time == 0) {
                 return 0;
             }
-            double raysPerSecond = (this.rays / time) * 1000f;
-            return raysPerSecond;
+            return getRays() / time;
         }
 
         public String getRaysPerSecondFormatted() {
@@ -195,8 +482,16 @@ public class BakedLighting {
     }
 
     public static Status bake(BakedLightingOutput output, Scene scene) {
+        return bake(output, scene, Collections.emptyMap());
+    }
+
+    /**
+     * Bakes the scene reusing the lightmaps of the previous bake for every
+     * (geometry, light group) whose {@link BakeHash} did not change.
+     */
+    public static Status bake(BakedLightingOutput output, Scene scene, Map<Geometry, LightmapFile.LightmapData> previous) {
         Status status = new Status();
-        BakedLighting baked = new BakedLighting(output, scene, status);
+        BakedLighting baked = new BakedLighting(output, scene, status, previous);
         status.task = CompletableFuture.runAsync(() -> {
             try {
                 baked.bake();
@@ -212,151 +507,609 @@ public class BakedLighting {
         return status;
     }
 
-    private static class WeightsBuffer {
+    //recycles the arrays of the buffers between lights and geometries, idle
+    //arrays are dropped when the memory budget needs their space and are only
+    //kept while the idle and the used memory fit in the budget
+    //
+    //out of core pools give scratch files instead of arrays, scratch files
+    //are recycled the same way and are closed when dropped, idle scratch
+    //files are bounded by the budget so the disk used is at most the live
+    //buffers plus the budget, plus the closed files whose mappings were not
+    //collected yet
+    private static class BufferPool {
+
+        private static final int FLOAT = 0;
+        private static final int SHORT = 1;
+        private static final int INT = 2;
+        private static final int LONG = 3;
+
+        private final MemoryBudget budget;
+        private final Path scratchDirectory;
+        private final Map<Long, Queue<Object>> arrays = new ConcurrentHashMap<>();
+        private final AtomicLong pooled = new AtomicLong();
+        private final Queue<ScratchFile> scratchFiles = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pooledScratch = new AtomicLong();
+
+        public BufferPool(MemoryBudget budget, Path scratchDirectory) {
+            this.budget = budget;
+            this.scratchDirectory = scratchDirectory;
+        }
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
-        private final float[] data;
+        public boolean isOutOfCore() {
+            return this.scratchDirectory != null;
+        }
 
-        public WeightsBuffer(int size, int samples) {
-            this.sampleSize = 3;
+        public ScratchFile scratch(long bytes) {
+            if (this.scratchDirectory == null) {
+                return null;
+            }
+            for (ScratchFile file : this.scratchFiles) {
+                if (file.size() == bytes && this.scratchFiles.remove(file)) {
+                    this.pooledScratch.addAndGet(-bytes);
+                    file.clear();
+                    return file;
+                }
+            }
+            //the oldest idle files are closed to make room on the disk
+            trimScratch(this.budget.getBudget() - bytes);
+            try {
+                return new ScratchFile(this.scratchDirectory, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        public void release(ScratchFile file) {
+            if (file == null) {
+                return;
+            }
+            if ((this.pooledScratch.get() + file.size()) > this.budget.getBudget()) {
+                close(file);
+                return;
+            }
+            this.pooledScratch.addAndGet(file.size());
+            this.scratchFiles.offer(file);
+        }
+
+        private void trimScratch(long target) {
+            ScratchFile file;
+            while (this.pooledScratch.get() > target && (file = this.scratchFiles.poll()) != null) {
+                this.pooledScratch.addAndGet(-file.size());
+                close(file);
+            }
+        }
+
+        private static void close(ScratchFile file) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private static int type(Object array) {
+            if (array instanceof float[]) {
+                return FLOAT;
+            } else if (array instanceof short[]) {
+                return SHORT;
+            } else if (array instanceof int[]) {
+                return INT;
+            } else if (array instanceof long[]) {
+                return LONG;
+            }
+            throw new IllegalArgumentException("Unsupported Array: " + array.getClass());
+        }
+
+        private static long bytes(int type, int length) {
+            return switch (type) {
+                case SHORT ->
+                    length * 2L;
+                case LONG ->
+                    length * 8L;
+                default ->
+                    length * 4L;
+            };
+        }
+
+        private static long key(int type, int length) {
+            return (((long) type) << 32) | length;
+        }
+
+        private Object poll(int type, int length) {
+            Queue<Object> queue = this.arrays.get(key(type, length));
+            if (queue == null) {
+                return null;
+            }
+            Object array = queue.poll();
+            if (array != null) {
+                this.pooled.addAndGet(-bytes(type, length));
+            }
+            return array;
+        }
+
+        public float[] floats(int length) {
+            float[] array = (float[]) poll(FLOAT, length);
+            if (array == null) {
+                return new float[length];
+            }
+            Arrays.fill(array, 0f);
+            return array;
+        }
+
+        public short[] shorts(int length) {
+            short[] array = (short[]) poll(SHORT, length);
+            if (array == null) {
+                return new short[length];
+            }
+            Arrays.fill(array, (short) 0);
+            return array;
+        }
+
+        public int[] ints(int length) {
+            int[] array = (int[]) poll(INT, length);
+            if (array == null) {
+                return new int[length];
+            }
+            Arrays.fill(array, 0);
+            return array;
+        }
+
+        public long[] longs(int length) {
+            long[] array = (long[]) poll(LONG, length);
+            if (array == null) {
+                return new long[length];
+            }
+            Arrays.fill(array, 0L);
+            return array;
+        }
+
+        public void release(Object array) {
+            if (array == null) {
+                return;
+            }
+            int type = type(array);
+            int length = Array.getLength(array);
+            long bytes = bytes(type, length);
+            //the array is still counted as used by the unit releasing it, so
+            //pooling it moves it from used to pooled
+            if ((this.pooled.get() + this.budget.getUsed()) > this.budget.getBudget()) {
+                return;
+            }
+            this.pooled.addAndGet(bytes);
+            this.arrays.computeIfAbsent(key(type, length), (k) -> new ConcurrentLinkedQueue<>()).offer(array);
+        }
+
+        public void trim(long target) {
+            for (Queue<Object> queue : this.arrays.values()) {
+                Object array;
+                while (this.pooled.get() > target && (array = queue.poll()) != null) {
+                    this.pooled.addAndGet(-bytes(type(array), Array.getLength(array)));
+                }
+            }
+        }
+
+        public long getPooledBytes() {
+            return this.pooled.get();
+        }
+
+        public void clear() {
+            this.arrays.clear();
+            this.pooled.set(0);
+            trimScratch(0);
+        }
+    }
+
+    //samples are stored line by line in a heap array or tile by tile in a
+    //scratch file, so baking a tile only touches a few pages of the file
+    private static abstract class SampleBuffer {
+
+        protected final int lineSize;
+        protected final int sampleSize;
+        protected final int vectorSize;
+        protected final int tilesPerLine;
+        protected final boolean tiled;
+        protected final long length;
+
+        public SampleBuffer(int size, int samples, int sampleSize, boolean tiled) {
+            this.sampleSize = sampleSize;
             this.vectorSize = this.sampleSize * samples;
             this.lineSize = size * this.vectorSize;
-            this.data = new float[size * this.lineSize];
+            this.tilesPerLine = (size + (TILE_SIZE - 1)) / TILE_SIZE;
+            this.tiled = tiled;
+            if (tiled) {
+                this.length = ((long) this.tilesPerLine) * this.tilesPerLine * TILE_SIZE * TILE_SIZE * this.vectorSize;
+            } else {
+                this.length = ((long) size) * this.lineSize;
+            }
+        }
+
+        protected long index(int x, int y, int sample) {
+            if (this.tiled) {
+                long tile = (x / TILE_SIZE) + (((long) (y / TILE_SIZE)) * this.tilesPerLine);
+                int texel = (x % TILE_SIZE) + ((y % TILE_SIZE) * TILE_SIZE);
+                return (((tile * (TILE_SIZE * TILE_SIZE)) + texel) * this.vectorSize) + (sample * this.sampleSize);
+            }
+            return (sample * this.sampleSize) + (x * this.vectorSize) + (((long) y) * this.lineSize);
+        }
+    }
+
+    private static class WeightsBuffer extends SampleBuffer {
+
+        private final float[] data;
+        private final ScratchFile file;
+
+        public WeightsBuffer(int size, int samples, BufferPool pool) {
+            super(size, samples, 3, pool.isOutOfCore());
+            this.file = pool.scratch(this.length * 4);
+            this.data = (this.file == null ? pool.floats((int) this.length) : null);
+        }
+
+        private float get(long index) {
+            if (this.file != null) {
+                return this.file.getFloat(index);
+            }
+            return this.data[(int) index];
+        }
+
+        private void set(long index, float value) {
+            if (this.file != null) {
+                this.file.putFloat(index, value);
+                return;
+            }
+            this.data[(int) index] = value;
         }
 
         public void write(Vector3f position, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = position.x();
-            this.data[1 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = position.y();
-            this.data[2 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = position.z();
+            long index = index(x, y, sample);
+            set(0 + index, position.x());
+            set(1 + index, position.y());
+            set(2 + index, position.z());
         }
 
         public void read(Vector3f position, int x, int y, int sample) {
+            long index = index(x, y, sample);
             position.set(
-                    this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)],
-                    this.data[1 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)],
-                    this.data[2 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)]
+                    get(0 + index),
+                    get(1 + index),
+                    get(2 + index)
             );
         }
 
+        public void release(BufferPool pool) {
+            pool.release(this.file);
+            pool.release(this.data);
+        }
+
     }
 
-    private static class IntegerBuffer {
+    private static class IntegerBuffer extends SampleBuffer {
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
         private final int[] data;
+        private final ScratchFile file;
 
-        public IntegerBuffer(int size, int samples) {
-            this.sampleSize = 1;
-            this.vectorSize = this.sampleSize * samples;
-            this.lineSize = size * this.vectorSize;
-            this.data = new int[size * this.lineSize];
+        public IntegerBuffer(int size, int samples, BufferPool pool) {
+            super(size, samples, 1, pool.isOutOfCore());
+            this.file = pool.scratch(this.length * 4);
+            this.data = (this.file == null ? pool.ints((int) this.length) : null);
         }
 
         public void write(int data, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = data;
+            long index = index(x, y, sample);
+            if (this.file != null) {
+                this.file.putInt(index, data);
+                return;
+            }
+            this.data[(int) index] = data;
         }
 
         public int read(int x, int y, int sample) {
-            return this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
+            long index = index(x, y, sample);
+            if (this.file != null) {
+                return this.file.getInt(index);
+            }
+            return this.data[(int) index];
+        }
+
+        public void release(BufferPool pool) {
+            pool.release(this.file);
+            pool.release(this.data);
         }
 
     }
 
-    private static class BooleanBuffer {
+    //one bit per sample, writes must not happen from more than one thread
+    private static class BooleanBuffer extends SampleBuffer {
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
-        private final boolean[] data;
+        private final long[] data;
+        private final ScratchFile file;
 
-        public BooleanBuffer(int size, int samples) {
-            this.sampleSize = 1;
-            this.vectorSize = this.sampleSize * samples;
-            this.lineSize = size * this.vectorSize;
-            this.data = new boolean[size * this.lineSize];
+        public BooleanBuffer(int size, int samples, BufferPool pool) {
+            super(size, samples, 1, pool.isOutOfCore());
+            long words = (this.length + 63) / 64;
+            this.file = pool.scratch(words * 8);
+            this.data = (this.file == null ? pool.longs((int) words) : null);
+        }
+
+        private long getWord(long word) {
+            if (this.file != null) {
+                return this.file.getLong(word);
+            }
+            return this.data[(int) word];
+        }
+
+        private void setWord(long word, long value) {
+            if (this.file != null) {
+                this.file.putLong(word, value);
+                return;
+            }
+            this.data[(int) word] = value;
         }
 
         public void write(boolean value, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = value;
+            long index = index(x, y, sample);
+            long word = getWord(index >>> 6);
+            if (value) {
+                word |= (1L << index);
+            } else {
+                word &= ~(1L << index);
+            }
+            setWord(index >>> 6, word);
         }
 
         public boolean read(int x, int y, int sample) {
-            return this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
+            long index = index(x, y, sample);
+            return (getWord(index >>> 6) & (1L << index)) != 0;
+        }
+
+        public void release(BufferPool pool) {
+            pool.release(this.file);
+            pool.release(this.data);
         }
     }
 
-    private static class ColorBuffer {
+    //colors are stored as floats or as half floats
+    private static class ColorBuffer extends SampleBuffer {
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
         private final float[] data;
+        private final short[] halfData;
+        private final ScratchFile file;
+        private final boolean half;
+
+        public ColorBuffer(int size, int samples, BufferPool pool, boolean half) {
+            super(size, samples, 3, pool.isOutOfCore());
+            this.half = half;
+            this.file = pool.scratch(this.length * (half ? 2 : 4));
+            if (this.file != null) {
+                this.data = null;
+                this.halfData = null;
+            } else if (half) {
+                this.data = null;
+                this.halfData = pool.shorts((int) this.length);
+            } else {
+                this.data = pool.floats((int) this.length);
+                this.halfData = null;
+            }
+        }
 
-        public ColorBuffer(int size, int samples) {
-            this.sampleSize = 3;
-            this.vectorSize = this.sampleSize * samples;
-            this.lineSize = size * this.vectorSize;
-            this.data = new float[size * this.lineSize];
+        public ColorBuffer(int size, int samples, BufferPool pool) {
+            this(size, samples, pool, false);
+        }
+
+        private float get(long index) {
+            if (this.file != null) {
+                if (this.half) {
+                    return HalfFloat.toFloat(this.file.getShort(index));
+                }
+                return this.file.getFloat(index);
+            }
+            if (this.half) {
+                return HalfFloat.toFloat(this.halfData[(int) index]);
+            }
+            return this.data[(int) index];
+        }
+
+        private void set(long index, float value) {
+            if (this.file != null) {
+                if (this.half) {
+                    this.file.putShort(index, HalfFloat.toHalf(value));
+                } else {
+                    this.file.putFloat(index, value);
+                }
+                return;
+            }
+            if (this.half) {
+                this.halfData[(int) index] = HalfFloat.toHalf(value);
+                return;
+            }
+            this.data[(int) index] = value;
         }
 
         public void write(Vector3f color, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = color.x();
-            this.data[1 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = color.y();
-            this.data[2 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = color.z();
+            long index = index(x, y, sample);
+            set(0 + index, color.x());
+            set(1 + index, color.y());
+            set(2 + index, color.z());
+        }
+
+        public void blend(Vector3f color, int x, int y, int sample, float weight) {
+            long index = index(x, y, sample);
+            float vx = get(0 + index);
+            float vy = get(1 + index);
+            float vz = get(2 + index);
+            set(0 + index, vx + ((color.x() - vx) * weight));
+            set(1 + index, vy + ((color.y() - vy) * weight));
+            set(2 + index, vz + ((color.z() - vz) * weight));
         }
 
         public void read(Vector3f color, int x, int y, int sample) {
-            float vx = this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
-            float vy = this.data[1 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
-            float vz = this.data[2 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
+            long index = index(x, y, sample);
+            float vx = get(0 + index);
+            float vy = get(1 + index);
+            float vz = get(2 + index);
             color.set(
                     vx,
                     vy,
                     vz
             );
         }
+
+        public void release(BufferPool pool) {
+            pool.release(this.file);
+            pool.release(this.halfData);
+            pool.release(this.data);
+        }
     }
 
-    private static class GrayBuffer {
+    private static class GrayBuffer extends SampleBuffer {
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
         private final float[] data;
+        private final ScratchFile file;
 
-        public GrayBuffer(int size, int samples) {
-            this.sampleSize = 1;
-            this.vectorSize = this.sampleSize * samples;
-            this.lineSize = size * this.vectorSize;
-            this.data = new float[size * this.lineSize];
+        public GrayBuffer(int size, int samples, BufferPool pool) {
+            super(size, samples, 1, pool.isOutOfCore());
+            this.file = pool.scratch(this.length * 4);
+            this.data = (this.file == null ? pool.floats((int) this.length) : null);
+        }
+
+        private float get(long index) {
+            if (this.file != null) {
+                return this.file.getFloat(index);
+            }
+            return this.data[(int) index];
+        }
+
+        private void set(long index, float value) {
+            if (this.file != null) {
+                this.file.putFloat(index, value);
+                return;
+            }
+            this.data[(int) index] = value;
         }
 
         public void write(float value, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = value;
+            set(index(x, y, sample), value);
+        }
+
+        public void blend(float value, int x, int y, int sample, float weight) {
+            long index = index(x, y, sample);
+            float v = get(index);
+            set(index, v + ((value - v) * weight));
         }
 
         public float read(int x, int y, int sample) {
-            return this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
+            return get(index(x, y, sample));
+        }
+
+        public void release(BufferPool pool) {
+            pool.release(this.file);
+            pool.release(this.data);
+        }
+    }
+
+    private static class MemoryBudget {
+
+        private final long budget;
+        private BufferPool pool;
+        private long used = 0;
+
+        public MemoryBudget(long budget) {
+            this.budget = budget;
+        }
+
+        public void setPool(BufferPool pool) {
+            this.pool = pool;
+        }
+
+        //pinned is the amount held by units the caller depends on, if nothing
+        //else is held the request is granted even if it goes over the budget,
+        //idle arrays of the pool are dropped to make room for the request
+        public synchronized long acquire(long bytes, long pinned) {
+            while ((this.used + bytes) > this.budget && this.used > pinned) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            this.used += bytes;
+            this.pool.trim(this.budget - this.used);
+            return bytes;
+        }
+
+        public synchronized void release(long amount) {
+            this.used -= amount;
+            notifyAll();
+        }
+
+        public long getBudget() {
+            return this.budget;
+        }
+
+        public synchronized long getUsed() {
+            return this.used;
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int first;
+        private final int end;
+        private final IntConsumer action;
+
+        public RangeTask(int first, int end, IntConsumer action) {
+            this.first = first;
+            this.end = end;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if ((this.end - this.first) > 1) {
+                int middle = (this.first + this.end) >>> 1;
+                invokeAll(
+                        new RangeTask(this.first, middle, this.action),
+                        new RangeTask(middle, this.end, this.action)
+                );
+                return;
+            }
+            this.action.accept(this.first);
         }
     }
 
     //global state
-    private final ExecutorService threads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final ExecutorService threads;
     private final BakedLightingOutput output;
+    private final Executor outputTasks;
+    private final BakeCluster cluster;
     private final Scene scene;
     private final List<Geometry> geometries;
     private final List<LightGroup> lightGroups;
     private final String[] groupsNames;
     private final SamplingMode samplingMode;
     private final boolean fastMode;
+    private final boolean lightSampling;
+    private final boolean halfFloatBuffers;
+    private final int passes;
+    private final int shadowRaysPerPass;
+    private final int indirectRaysPerPass;
+    private final float indirectErrorTarget;
+    private final int indirectMinRaysPerPass;
+    private final int indirectMaxRaysPerPass;
     private final float pixelToWorldRatio;
     private final Status status;
-    private final Map<Integer, SoftwareTexture> sceneTextures = new HashMap<>();
+    private final Status progress;
+    private final Map<Integer, SoftwareTexture> sceneTextures;
     private final MeshData.LightmapMesh[] lightmapMeshes;
+    private InstanceBVH sceneBVH = null;
+    private final RayQueryService queries;
+    private final Queue<TileState> tileStates;
+    private final MemoryBudget budget;
+    private final BufferPool pool;
+    private final Map<Geometry, LightmapFile.LightmapData> previous;
+    private long[][] unitHashes = null;
+    private volatile boolean aborted = false;
 
     //geometry state
     private int geometryIndex = 0;
@@ -371,6 +1124,7 @@ public class BakedLighting {
     private BooleanBuffer sampleBuffer = null;
     private IntegerBuffer trianglesBuffer = null;
     private WeightsBuffer weightsBuffer = null;
+    private float[] tileBounds = null;
 
     //light group state
     private int currentLightGroupIndex = 0;
@@ -381,28 +1135,57 @@ public class BakedLighting {
     private ColorBuffer lightGroupOutput = null;
 
     //light state
-    private int currentLightIndex = 0;
-    private Scene.Light currentLight = null;
-    private int lightType = 0;
-    private Scene.DirectionalLight sun = null;
-    private Scene.PointLight point = null;
-    private Scene.SpotLight spot = null;
+    private int[] currentLightIndices = null;
+    private Scene.Light[] currentLights = null;
+    private int pass = 0;
+    private float passWeight = 1f;
+    private BakedLighting[] progressiveLights = null;
 
     //light state (buffers)
     private ColorBuffer indirectColorBuffer = null;
     private ColorBuffer directColorBuffer = null;
     private GrayBuffer reverseShadowBuffer = null;
 
-    private BakedLighting(BakedLightingOutput output, Scene scene, Status status) {
+    private BakedLighting(BakedLightingOutput output, Scene scene, Status status, Map<Geometry, LightmapFile.LightmapData> previous) {
+        this.previous = previous;
+        this.threads = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
         this.output = output;
+        Executor outputExecutor = scene.getOutputExecutor();
+        if (outputExecutor == null) {
+            outputExecutor = (task) -> Main.MAIN_TASKS.add(task);
+        }
+        this.outputTasks = outputExecutor;
+        this.cluster = scene.getBakeCluster();
         this.scene = scene;
         this.geometries = scene.getGeometries();
         this.lightmapMeshes = new MeshData.LightmapMesh[this.geometries.size()];
         this.lightGroups = new ArrayList<>();
         this.pixelToWorldRatio = scene.getPixelToWorldRatio();
         this.status = status;
+        this.progress = status;
+        this.sceneTextures = new HashMap<>(scene.getTextures());
+        this.queries = RayQueryService.getDefault();
+        this.tileStates = new ConcurrentLinkedQueue<>();
+        Path scratchDirectory = null;
+        if (scene.isOutOfCoreEnabled()) {
+            scratchDirectory = scene.getScratchDirectory();
+            if (scratchDirectory == null) {
+                scratchDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+            }
+        }
+        this.budget = new MemoryBudget(scene.getBakeMemoryBudget());
+        this.pool = new BufferPool(this.budget, scratchDirectory);
+        this.budget.setPool(this.pool);
         this.samplingMode = scene.getSamplingMode();
         this.fastMode = scene.isFastModeEnabled();
+        this.lightSampling = scene.isLightSamplingEnabled();
+        this.halfFloatBuffers = scene.isHalfFloatBuffersEnabled();
+        this.passes = Math.max(scene.getProgressivePasses(), 1);
+        this.shadowRaysPerPass = (this.fastMode ? 1 : Math.max(ceilDiv(scene.getShadowRaysPerSample(), this.passes), 1));
+        this.indirectRaysPerPass = Math.max(ceilDiv(scene.getIndirectRaysPerSample(), this.passes), 1);
+        this.indirectErrorTarget = scene.getIndirectErrorTarget();
+        this.indirectMaxRaysPerPass = Math.max(ceilDiv(scene.getIndirectMaxRaysPerSample(), this.passes), 1);
+        this.indirectMinRaysPerPass = Math.min(Math.max(ceilDiv(scene.getIndirectMinRaysPerSample(), this.passes), 2), this.indirectMaxRaysPerPass);
 
         List<String> names = new ArrayList<>();
         for (Scene.Light light : scene.getLights()) {
@@ -424,6 +1207,69 @@ public class BakedLighting {
         this.groupsNames = names.toArray(String[]::new);
     }
 
+    //copies the state of a parent unit, phases of the copy do not report progress
+    private BakedLighting(BakedLighting parent) {
+        this.previous = parent.previous;
+        this.unitHashes = parent.unitHashes;
+        this.threads = parent.threads;
+        this.output = parent.output;
+        this.scene = parent.scene;
+        this.geometries = parent.geometries;
+        this.lightGroups = parent.lightGroups;
+        this.groupsNames = parent.groupsNames;
+        this.samplingMode = parent.samplingMode;
+        this.fastMode = parent.fastMode;
+        this.lightSampling = parent.lightSampling;
+        this.halfFloatBuffers = parent.halfFloatBuffers;
+        this.passes = parent.passes;
+        this.shadowRaysPerPass = parent.shadowRaysPerPass;
+        this.indirectRaysPerPass = parent.indirectRaysPerPass;
+        this.indirectErrorTarget = parent.indirectErrorTarget;
+        this.indirectMinRaysPerPass = parent.indirectMinRaysPerPass;
+        this.indirectMaxRaysPerPass = parent.indirectMaxRaysPerPass;
+        this.pixelToWorldRatio = parent.pixelToWorldRatio;
+        this.status = parent.status;
+        this.progress = new Status();
+        this.sceneTextures = parent.sceneTextures;
+        this.outputTasks = parent.outputTasks;
+        this.cluster = parent.cluster;
+        this.lightmapMeshes = parent.lightmapMeshes;
+        this.sceneBVH = parent.sceneBVH;
+        this.queries = parent.queries;
+        this.tileStates = parent.tileStates;
+        this.budget = parent.budget;
+        this.pool = parent.pool;
+
+        this.geometryIndex = parent.geometryIndex;
+        this.geometry = parent.geometry;
+        this.geometryLightmapSize = parent.geometryLightmapSize;
+        this.vertices = parent.vertices;
+        this.indices = parent.indices;
+        this.lightmapperQuads = parent.lightmapperQuads;
+        this.lightmapMesh = parent.lightmapMesh;
+        this.sampleBuffer = parent.sampleBuffer;
+        this.trianglesBuffer = parent.trianglesBuffer;
+        this.weightsBuffer = parent.weightsBuffer;
+        this.tileBounds = parent.tileBounds;
+
+        this.currentLightGroupIndex = parent.currentLightGroupIndex;
+        this.currentLightGroup = parent.currentLightGroup;
+        this.currentLightGroupLights = parent.currentLightGroupLights;
+        this.lightGroupOutput = parent.lightGroupOutput;
+
+        this.currentLightIndices = parent.currentLightIndices;
+        this.currentLights = parent.currentLights;
+        this.pass = parent.pass;
+        this.passWeight = parent.passWeight;
+        this.indirectColorBuffer = parent.indirectColorBuffer;
+        this.directColorBuffer = parent.directColorBuffer;
+        this.reverseShadowBuffer = parent.reverseShadowBuffer;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + (b - 1)) / b;
+    }
+
     private void setStatusText(String s) {
         StringBuilder b = new StringBuilder();
         if (this.geometry != null) {
@@ -434,21 +1280,31 @@ public class BakedLighting {
             b.append('[').append(this.currentLightGroup.groupName).append("] ");
             b.append('[').append(this.currentLightGroupIndex).append('/').append(this.lightGroups.size()).append("] ");
         }
-        if (this.currentLight != null) {
-            b.append('[').append(this.currentLightIndex).append('/').append(this.currentLightGroupLights.size()).append("] ");
+        if (this.currentLights != null) {
+            if (this.currentLights.length == 1) {
+                b.append('[').append(this.currentLightIndices[0]).append('/').append(this.currentLightGroupLights.size()).append("] ");
+            } else {
+                b.append('[').append(this.currentLights.length).append(" Lights] ");
+            }
         }
         b.append(s);
         this.status.currentStatus = b.toString();
     }
 
     private void loadTextures() {
-        this.status.setProgressBarStep(this.geometries.size());
+        this.progress.setProgressBarStep(this.geometries.size());
 
         for (Geometry geo : this.geometries) {
             setStatusText("Loading Texture [" + geo.getMesh().getName() + "]");
 
             SoftwareTexture t = this.sceneTextures.get(geo.getMesh().getTextureHint());
-            if (t == null) {
+            if (t == null && geo.getMesh().getTextureHint() == 0) {
+                this.sceneTextures.put(0, SoftwareTexture.EMPTY);
+            } else if (t == null && (this.output == null || this.scene.getOutputExecutor() != null)) {
+                //remote units and headless bakes have no main loop to read
+                //OpenGL textures back, waiting for one would never return
+                throw new IllegalStateException("Texture " + geo.getMesh().getTextureHint() + " of mesh " + geo.getMesh().getName() + " is not a scene texture.");
+            } else if (t == null) {
                 CompletableFuture<Void> future = new CompletableFuture<>();
                 Main.MAIN_TASKS.add(() -> {
                     try {
@@ -469,12 +1325,12 @@ public class BakedLighting {
                 }
             }
 
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
     }
 
     private void scheduleLightmapMeshes() {
-        this.status.setProgressBarStep(this.geometries.size());
+        this.progress.setProgressBarStep(this.geometries.size());
 
         Vector3f scale = new Vector3f();
 
@@ -492,12 +1348,12 @@ public class BakedLighting {
                             scale.z() * geo.getLightmapScale()
                     );
 
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
     }
 
     private void waitForLightmapMeshes() {
-        this.status.setProgressBarStep(this.geometries.size());
+        this.progress.setProgressBarStep(this.geometries.size());
 
         for (int i = 0; i < this.lightmapMeshes.length; i++) {
             Geometry geo = this.geometries.get(i);
@@ -506,17 +1362,93 @@ public class BakedLighting {
 
             this.lightmapMeshes[i].getLightmapSize();
 
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
     }
 
+    //only geometries traced in world space get a world bvh, instances of a
+    //shared mesh are traced against the bvh of the mesh
     private void waitForBVHs() {
-        this.status.setProgressBarStep(this.geometries.size());
-        for (Geometry geo : this.geometries) {
-            setStatusText("[" + geo.getMesh().getName() + "] Waiting For BVH");
-            geo.getMesh().getBVH();
-            this.status.stepProgressBar();
+        boolean[] worldSpace = InstanceBVH.staticWorldSpace(this.geometries);
+        this.progress.setProgressBarStep(this.geometries.size());
+        for (int i = 0; i < this.geometries.size(); i++) {
+            Geometry geo = this.geometries.get(i);
+            if (worldSpace[i]) {
+                setStatusText("[" + geo.getMesh().getName() + "] Building World BVH");
+                geo.getWorldBVH();
+            } else {
+                setStatusText("[" + geo.getMesh().getName() + "] Building BVH");
+                geo.getMesh().getBVH();
+            }
+            this.progress.stepProgressBar();
+        }
+        setStatusText("Building Scene BVH");
+        this.sceneBVH = InstanceBVH.createStatic(this.geometries);
+    }
+
+    private void computeHashes() {
+        this.progress.setProgressBarStep(this.geometries.size());
+
+        long settings = BakeHash.hashSettings(this.scene);
+
+        Map<MeshData, Long> meshHashes = new HashMap<>();
+        Map<Integer, Long> textureHashes = new HashMap<>();
+        long[] geometryHashes = new long[this.geometries.size()];
+        for (int i = 0; i < geometryHashes.length; i++) {
+            Geometry geo = this.geometries.get(i);
+
+            setStatusText("[" + geo.getMesh().getName() + "] [" + i + "/" + this.geometries.size() + "] Hashing Geometry");
+
+            long meshHash = meshHashes.computeIfAbsent(geo.getMesh(), BakeHash::hashMesh);
+            long textureHash = textureHashes.computeIfAbsent(geo.getMesh().getTextureHint(), (t) -> {
+                return BakeHash.hashTexture(this.sceneTextures.get(t));
+            });
+
+            long hash = BakeHash.mix(meshHash, textureHash);
+            hash = BakeHash.mix(hash, geo.getModel());
+            geometryHashes[i] = BakeHash.finish(hash);
+
+            this.progress.stepProgressBar();
+        }
+
+        this.unitHashes = new long[this.geometries.size()][this.lightGroups.size()];
+        for (int i = 0; i < this.geometries.size(); i++) {
+            Geometry geo = this.geometries.get(i);
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                LightGroup group = this.lightGroups.get(j);
+
+                long hash = BakeHash.mix(settings, geometryHashes[i]);
+                hash = BakeHash.mix(hash, geo.getLightmapScale());
+                hash = BakeHash.mix(hash, group.groupName);
+                for (Scene.Light light : group.lights) {
+                    hash = BakeHash.mix(hash, light);
+                }
+                for (int k = 0; k < this.geometries.size(); k++) {
+                    if (BakeHash.isRelevant(this.scene, geo, this.geometries.get(k), group.lights)) {
+                        hash = BakeHash.mix(hash, k);
+                        hash = BakeHash.mix(hash, geometryHashes[k]);
+                    }
+                }
+                this.unitHashes[i][j] = BakeHash.finish(hash);
+            }
+        }
+    }
+
+    private float[] previousLightmap(int geometryIndex, int groupIndex) {
+        LightmapFile.LightmapData data = this.previous.get(this.geometries.get(geometryIndex));
+        if (data == null || data.lightmapSize() != this.lightmapMeshes[geometryIndex].getLightmapSize()) {
+            return null;
         }
+        long hash = this.unitHashes[geometryIndex][groupIndex];
+        for (LightmapFile.Lightmap lightmap : data.lightmaps()) {
+            if (lightmap != null
+                    && lightmap.hash() == hash
+                    && lightmap.data() != null
+                    && lightmap.groupName().equals(this.groupsNames[groupIndex])) {
+                return lightmap.data();
+            }
+        }
+        return null;
     }
 
     private void loadGeometry(int index) {
@@ -524,7 +1456,7 @@ public class BakedLighting {
         this.geometry = this.geometries.get(index);
 
         setStatusText("Loading Geometry...");
-        this.status.currentProgress = 0f;
+        this.progress.currentProgress = 0f;
 
         this.lightmapMesh = this.lightmapMeshes[index];
         this.geometryLightmapSize = this.lightmapMesh.getLightmapSize();
@@ -535,21 +1467,22 @@ public class BakedLighting {
 
         int numSamples = this.samplingMode.numSamples();
 
-        this.sampleBuffer = new BooleanBuffer(this.geometryLightmapSize, numSamples);
-        this.trianglesBuffer = new IntegerBuffer(this.geometryLightmapSize, numSamples);
-        this.weightsBuffer = new WeightsBuffer(this.geometryLightmapSize, numSamples);
-
-        final BakedLightingOutput finalOutput = this.output;
-        final Geometry finalGeometry = this.geometry;
-        final MeshData.LightmapMesh finalMesh = this.lightmapMesh;
-        final int finalLightmapSize = this.geometryLightmapSize;
-        final String[] finalGroupsNames = this.groupsNames;
-
-        Main.MAIN_TASKS.add(() -> {
-            finalOutput.prepare(finalGeometry, finalMesh, finalLightmapSize, finalGroupsNames);
-        });
+        this.sampleBuffer = new BooleanBuffer(this.geometryLightmapSize, numSamples, this.pool);
+        this.trianglesBuffer = new IntegerBuffer(this.geometryLightmapSize, numSamples, this.pool);
+        this.weightsBuffer = new WeightsBuffer(this.geometryLightmapSize, numSamples, this.pool);
+
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        this.tileBounds = new float[tilesPerLine * tilesPerLine * 6];
+        for (int i = 0; i < this.tileBounds.length; i += 6) {
+            this.tileBounds[i + 0] = Float.POSITIVE_INFINITY;
+            this.tileBounds[i + 1] = Float.POSITIVE_INFINITY;
+            this.tileBounds[i + 2] = Float.POSITIVE_INFINITY;
+            this.tileBounds[i + 3] = Float.NEGATIVE_INFINITY;
+            this.tileBounds[i + 4] = Float.NEGATIVE_INFINITY;
+            this.tileBounds[i + 5] = Float.NEGATIVE_INFINITY;
+        }
 
-        this.status.currentProgress = 100f;
+        this.progress.currentProgress = 100f;
     }
 
     private int clamp(int v, int min, int max) {
@@ -571,7 +1504,12 @@ public class BakedLighting {
         Vector3f b = new Vector3f();
         Vector3f c = new Vector3f();
 
-        this.status.setProgressBarStep(this.lightmapperQuads.length);
+        Vector3f worldMin = new Vector3f();
+        Vector3f worldMax = new Vector3f();
+        Vector3f worldVertex = new Vector3f();
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+
+        this.progress.setProgressBarStep(this.lightmapperQuads.length);
 
         for (int i = 0; i < this.lightmapperQuads.length; i++) {
             setStatusText("[" + i + "/" + this.lightmapperQuads.length + "] Computing Geometry Buffers");
@@ -607,6 +1545,31 @@ public class BakedLighting {
                 maxX = clamp(maxX, 0, this.geometryLightmapSize - 1);
                 maxY = clamp(maxY, 0, this.geometryLightmapSize - 1);
 
+                worldMin.set(Float.POSITIVE_INFINITY);
+                worldMax.set(Float.NEGATIVE_INFINITY);
+                for (int k = 0; k < 3; k++) {
+                    int vertex = this.indices[(triangle * 3) + k];
+                    worldVertex.set(
+                            this.vertices[(vertex * MeshData.SIZE) + MeshData.XYZ_OFFSET + 0],
+                            this.vertices[(vertex * MeshData.SIZE) + MeshData.XYZ_OFFSET + 1],
+                            this.vertices[(vertex * MeshData.SIZE) + MeshData.XYZ_OFFSET + 2]
+                    );
+                    this.geometry.getModel().transformProject(worldVertex);
+                    worldMin.min(worldVertex);
+                    worldMax.max(worldVertex);
+                }
+                for (int tileY = minY / TILE_SIZE; tileY <= maxY / TILE_SIZE; tileY++) {
+                    for (int tileX = minX / TILE_SIZE; tileX <= maxX / TILE_SIZE; tileX++) {
+                        int tile = (tileX + (tileY * tilesPerLine)) * 6;
+                        this.tileBounds[tile + 0] = Math.min(this.tileBounds[tile + 0], worldMin.x());
+                        this.tileBounds[tile + 1] = Math.min(this.tileBounds[tile + 1], worldMin.y());
+                        this.tileBounds[tile + 2] = Math.min(this.tileBounds[tile + 2], worldMin.z());
+                        this.tileBounds[tile + 3] = Math.max(this.tileBounds[tile + 3], worldMax.x());
+                        this.tileBounds[tile + 4] = Math.max(this.tileBounds[tile + 4], worldMax.y());
+                        this.tileBounds[tile + 5] = Math.max(this.tileBounds[tile + 5], worldMax.z());
+                    }
+                }
+
                 SamplingMode mode = this.samplingMode;
 
                 raster:
@@ -640,7 +1603,7 @@ public class BakedLighting {
                 }
             }
 
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
     }
 
@@ -650,46 +1613,36 @@ public class BakedLighting {
         this.currentLightGroupLights = this.currentLightGroup.lights;
 
         setStatusText("Loading Light Group...");
-        this.status.currentProgress = 0f;
+        this.progress.currentProgress = 0f;
 
-        this.lightGroupOutput = new ColorBuffer(this.geometryLightmapSize, 1);
+        this.lightGroupOutput = new ColorBuffer(this.geometryLightmapSize, 1, this.pool);
 
-        this.status.currentProgress = 100f;
+        this.progress.currentProgress = 100f;
     }
 
-    private void loadLight(int index) {
-        this.currentLight = this.currentLightGroup.lights.get(index);
-        this.currentLightIndex = index;
-
-        setStatusText("Loading Light...");
-        this.status.currentProgress = 0f;
-
-        if (this.currentLight instanceof Scene.DirectionalLight s) {
-            this.sun = s;
-            this.point = null;
-            this.spot = null;
-            this.lightType = 0;
-        } else if (this.currentLight instanceof Scene.PointLight p) {
-            this.sun = null;
-            if (this.currentLight instanceof Scene.SpotLight s) {
-                this.spot = s;
-                this.lightType = 2;
-            } else {
-                this.spot = null;
-                this.lightType = 1;
+    //the lights of a unit are baked in the same pass, every shadow ray and
+    //every bounce of an indirect path picks one of them
+    private void loadLights(int[] indices) {
+        this.currentLightIndices = indices;
+        this.currentLights = new Scene.Light[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            Scene.Light light = this.currentLightGroup.lights.get(indices[i]);
+            if (!(light instanceof Scene.DirectionalLight) && !(light instanceof Scene.PointLight)) {
+                throw new RuntimeException("Unsupported Light Type: " + light.getClass());
             }
-            this.point = p;
-        } else {
-            throw new RuntimeException("Unsupported Light Type: " + this.currentLight.getClass());
+            this.currentLights[i] = light;
         }
 
+        setStatusText("Loading Light...");
+        this.progress.currentProgress = 0f;
+
         int numSamples = this.samplingMode.numSamples();
 
-        this.indirectColorBuffer = new ColorBuffer(this.geometryLightmapSize, numSamples);
-        this.directColorBuffer = new ColorBuffer(this.geometryLightmapSize, numSamples);
-        this.reverseShadowBuffer = new GrayBuffer(this.geometryLightmapSize, numSamples);
+        this.indirectColorBuffer = new ColorBuffer(this.geometryLightmapSize, numSamples, this.pool, this.halfFloatBuffers);
+        this.directColorBuffer = new ColorBuffer(this.geometryLightmapSize, numSamples, this.pool, this.halfFloatBuffers);
+        this.reverseShadowBuffer = new GrayBuffer(this.geometryLightmapSize, numSamples, this.pool);
 
-        this.status.currentProgress = 100f;
+        this.progress.currentProgress = 100f;
     }
 
     private float lerp(Vector3fc weights, int i0, int i1, int i2, int offset) {
@@ -699,41 +1652,154 @@ public class BakedLighting {
         return (va  * weights.x()) + (vb * weights.y()) + (vc * weights.z());
     }
 
-    private void bakeLightComponents() {
-        int amountOfCores = Runtime.getRuntime().availableProcessors();
+    /**
+     * Returns true if the light can change the lightmap of samples inside of
+     * the world bounds. Point and spot lights do not reach samples past their
+     * influence radius, the cone of a spot light is only used if nothing but
+     * direct light with shadows reaches the samples, as indirect light and
+     * filled values are not limited by the cone.
+     */
+    private boolean lightReaches(Scene.Light light, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            return false;
+        }
+        if (!(light instanceof Scene.PointLight p)) {
+            return true;
+        }
 
-        this.status.setProgressBarStep(this.geometryLightmapSize);
+        Vector3fc position = p.getPosition();
+        float dx = Math.max(Math.max(minX - position.x(), position.x() - maxX), 0f);
+        float dy = Math.max(Math.max(minY - position.y(), position.y() - maxY), 0f);
+        float dz = Math.max(Math.max(minZ - position.z(), position.z() - maxZ), 0f);
+        float radius = p.getInfluenceRadius() * CULLING_MARGIN;
+        if (((dx * dx) + (dy * dy) + (dz * dz)) > (radius * radius)) {
+            return false;
+        }
 
-        List<Future<?>> tasks = new ArrayList<>(amountOfCores);
+        boolean coneOnly = !this.fastMode
+                && !this.scene.isIndirectLightingEnabled()
+                && !this.scene.fillEmptyValuesWithLightColors();
+        if (!coneOnly || !(light instanceof Scene.SpotLight s)) {
+            return true;
+        }
 
-        this.status.timeStart = System.currentTimeMillis();
-        this.status.rays = 0;
-        for (int y = 0; y < this.geometryLightmapSize; y += amountOfCores) {
+        //bounding sphere of the bounds against the outer cone
+        float centerX = ((minX + maxX) * 0.5f) - position.x();
+        float centerY = ((minY + maxY) * 0.5f) - position.y();
+        float centerZ = ((minZ + maxZ) * 0.5f) - position.z();
+        float extentX = (maxX - minX) * 0.5f;
+        float extentY = (maxY - minY) * 0.5f;
+        float extentZ = (maxZ - minZ) * 0.5f;
+        float sphereRadius = (float) Math.sqrt((extentX * extentX) + (extentY * extentY) + (extentZ * extentZ));
+        float distance = (float) Math.sqrt((centerX * centerX) + (centerY * centerY) + (centerZ * centerZ));
+        if (distance <= sphereRadius) {
+            return true;
+        }
+        float cosine = s.getDirection().dot(centerX, centerY, centerZ) / distance;
+        double angle = Math.acos(Math.min(Math.max(cosine, -1f), 1f));
+        double outer = Math.acos(s.getOuterCutoffAngleRadiansCosine());
+        return angle <= (outer + Math.asin(sphereRadius / distance)) * CULLING_MARGIN;
+    }
 
-            setStatusText("[" + y + "/" + this.geometryLightmapSize + "] Baking");
+    private boolean lightReaches(Scene.Light light, Geometry geo) {
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+        geo.getWorldBounds(min, max);
+        return lightReaches(light, min.x(), min.y(), min.z(), max.x(), max.y(), max.z());
+    }
 
-            for (int i = 0; i < amountOfCores; i++) {
-                final int line = y + i;
-                if (line >= this.geometryLightmapSize) {
-                    break;
+    //finds the lights of the unit that reach the samples of the tile
+    private int tileLights(int tile, SampleState state) {
+        state.ensureLights(this.currentLights.length);
+
+        int offset = tile * 6;
+        int count = 0;
+        for (int i = 0; i < this.currentLights.length; i++) {
+            if (lightReaches(
+                    this.currentLights[i],
+                    this.tileBounds[offset + 0], this.tileBounds[offset + 1], this.tileBounds[offset + 2],
+                    this.tileBounds[offset + 3], this.tileBounds[offset + 4], this.tileBounds[offset + 5]
+            )) {
+                state.tileLights[count++] = i;
+            }
+        }
+        state.tileLightCount = count;
+        return count;
+    }
+
+    //samples out of reach get the same values as samples below the cutoff
+    private void skipTile(int minX, int minY, int maxX, int maxY) {
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                for (int s = 0; s < this.samplingMode.numSamples(); s++) {
+                    if (this.sampleBuffer.read(x, y, s)) {
+                        this.reverseShadowBuffer.blend(1f, x, y, s, this.passWeight);
+                    }
                 }
-                tasks.add(this.threads.submit(() -> {
-                    processLine(line);
-                }));
             }
+        }
+    }
 
-            for (Future<?> f : tasks) {
+    private int tilesPerLine(int lightmapSize) {
+        return (lightmapSize + (TILE_SIZE - 1)) / TILE_SIZE;
+    }
+
+    private void parallelFor(int count, IntConsumer action) {
+        if (count <= 0) {
+            return;
+        }
+        this.queries.getPool().invoke(new RangeTask(0, count, action));
+    }
+
+    private static long cpuTime() {
+        if (!THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        return Math.max(THREAD_MX_BEAN.getCurrentThreadCpuTime(), 0);
+    }
+
+    //the caller waits for the pool, so the cpu time of a parallel phase is
+    //measured by the workers on every index
+    private void parallelFor(Phase phase, int count, IntConsumer action) {
+        long wallStart = System.nanoTime();
+        try {
+            parallelFor(count, (i) -> {
+                long cpuStart = cpuTime();
                 try {
-                    f.get();
-                    this.status.stepProgressBar();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
+                    action.accept(i);
+                } finally {
+                    this.status.addPhaseTime(phase, 0, cpuTime() - cpuStart);
                 }
-            }
+            });
+        } finally {
+            this.status.addPhaseTime(phase, System.nanoTime() - wallStart, 0);
+        }
+    }
 
-            tasks.clear();
+    private <T> T measurePhase(Phase phase, Supplier<T> action) {
+        long wallStart = System.nanoTime();
+        long cpuStart = cpuTime();
+        try {
+            return action.get();
+        } finally {
+            this.status.addPhaseTime(phase, System.nanoTime() - wallStart, cpuTime() - cpuStart);
+        }
+    }
+
+    private void measurePhase(Phase phase, Runnable action) {
+        measurePhase(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private void bakeLightComponents() {
+        if (this.cluster != null) {
+            measurePhase(Phase.BAKE, () -> this.cluster.bake(this));
+            return;
         }
-        this.status.rays = 0;
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        parallelFor(Phase.BAKE, tilesPerLine * tilesPerLine, this::processTile);
     }
 
     private static class SampleState {
@@ -747,31 +1813,69 @@ public class BakedLighting {
         public final Vector3f position = new Vector3f();
         public final Vector3f normal = new Vector3f();
         public final Matrix3f triangleTBN = new Matrix3f();
+        public final RayQueryContext query = new RayQueryContext();
+        public float rayOffset;
+        public final Vector3f offsetOrigin = new Vector3f();
+        public final PointHit clearance = new PointHit();
+
+        public int[] tileLights = new int[0];
+        public int tileLightCount = 0;
+        public int[] lights = new int[0];
+        public float[] lightWeights = new float[0];
+        public float[] bounceLightWeights = new float[0];
+        public int lightCount = 0;
+        public float lightWeightsTotal = 0f;
+        public final Vector3f lightColor = new Vector3f();
+
+        public void ensureLights(int count) {
+            if (this.lights.length < count) {
+                this.tileLights = new int[count];
+                this.lights = new int[count];
+                this.lightWeights = new float[count];
+                this.bounceLightWeights = new float[count];
+            }
+        }
     }
 
-    private class DirectState {
+    private static class DirectState {
 
         public final Vector3f output = new Vector3f();
     }
 
-    private class ShadowState {
+    private static class ShadowState {
 
         public float output;
         public final Vector3f randomDirection = new Vector3f();
         public final Vector3f offsetOrigin = new Vector3f();
 
+        //shadow rays are queued and traced together by the ray query service
+        public boolean deferred = false;
+        public final int raysPerSample;
+        public final int capacity;
+        public final float[] rayOrigins;
+        public final float[] rayDirections;
+        public final float[] rayLengths;
+        public final boolean[] rayOccluded;
+        public int rayCount = 0;
+        public int pendingCount = 0;
+        public final int[] pendingSamples;
+
+        public ShadowState(int raysPerSample) {
+            this.raysPerSample = raysPerSample;
+            this.capacity = Math.max(SHADOW_QUEUE_SIZE, this.raysPerSample);
+            this.rayOrigins = new float[this.capacity * 3];
+            this.rayDirections = new float[this.capacity * 3];
+            this.rayLengths = new float[this.capacity];
+            this.rayOccluded = new boolean[this.capacity];
+            this.pendingSamples = new int[this.capacity * 4];
+        }
+
     }
 
-    private class IndirectState {
+    private static class IndirectState {
 
         public final Vector3f output = new Vector3f();
-        public final Vector3f[] bounceColors = new Vector3f[BakedLighting.this.scene.getIndirectBounces()];
-
-        {
-            for (int i = 0; i < this.bounceColors.length; i++) {
-                this.bounceColors[i] = new Vector3f();
-            }
-        }
+        public final Vector3f[] bounceColors;
         public final Vector3f lightColor = new Vector3f();
         public final Vector3f randomLightDirection = new Vector3f();
         public final Vector3f bouncePosition = new Vector3f();
@@ -779,24 +1883,99 @@ public class BakedLighting {
         public final Vector3f bounceWeights = new Vector3f();
         public final Vector3f smoothNormal = new Vector3f();
         public final float[] bounceColor = new float[4];
+        public final RayHit hit = new RayHit();
+
+        public int rays = 0;
+        public long totalSamples = 0;
+        public long totalRays = 0;
+
+        public IndirectState(int bounces) {
+            this.bounceColors = new Vector3f[bounces];
+            for (int i = 0; i < this.bounceColors.length; i++) {
+                this.bounceColors[i] = new Vector3f();
+            }
+        }
     }
 
-    private void processLine(int y) {
-        SampleState state = new SampleState();
-        DirectState direct = new DirectState();
-        ShadowState shadow = new ShadowState();
-        IndirectState indirect = new IndirectState();
+    //tile states are pooled across every unit of the bake, they are static
+    //so a pooled state does not keep the unit that created it alive
+    private static class TileState {
 
-        Vector3f weights = new Vector3f();
+        public final SampleState state = new SampleState();
+        public final DirectState direct = new DirectState();
+        public final ShadowState shadow;
+        public final IndirectState indirect;
+
+        public final Vector3f weights = new Vector3f();
+        public final Vector3f tangent = new Vector3f();
+        public final Vector3f bitangent = new Vector3f();
+
+        public TileState(int shadowRaysPerSample, int indirectBounces) {
+            this.shadow = new ShadowState(shadowRaysPerSample);
+            this.indirect = new IndirectState(indirectBounces);
+        }
+    }
+
+    private void processTile(int tile) {
+        bakeTile(tile);
+        stepTile();
+    }
+
+    private void bakeTile(int tile) {
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        int minX = (tile % tilesPerLine) * TILE_SIZE;
+        int minY = (tile / tilesPerLine) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, this.geometryLightmapSize);
+        int maxY = Math.min(minY + TILE_SIZE, this.geometryLightmapSize);
+
+        TileState tileState = this.tileStates.poll();
+        if (tileState == null) {
+            tileState = new TileState(this.shadowRaysPerPass, this.scene.getIndirectBounces());
+        }
+        try {
+            if (tileLights(tile, tileState.state) == 0) {
+                skipTile(minX, minY, maxX, maxY);
+            } else {
+                for (int y = minY; y < maxY; y++) {
+                    processLine(tileState, y, minX, maxX);
+                }
+                flushShadowQueue(tileState.shadow);
+                this.status.addIndirectRays(tileState.indirect.totalSamples, tileState.indirect.totalRays);
+                this.status.texels.add((maxX - minX) * (maxY - minY));
+            }
+        } finally {
+            tileState.indirect.totalSamples = 0;
+            tileState.indirect.totalRays = 0;
+            this.tileStates.offer(tileState);
+        }
+    }
+
+    private void stepTile() {
+        int done = this.status.stepTile();
+        if (this.passes > 1) {
+            setStatusText("[" + (this.pass + 1) + "/" + this.passes + "] [" + done + "/" + this.status.getTotalTiles() + "] Baking Tiles");
+        } else {
+            setStatusText("[" + done + "/" + this.status.getTotalTiles() + "] Baking Tiles");
+        }
+    }
+
+    private void processLine(TileState tileState, int y, int minX, int maxX) {
+        SampleState state = tileState.state;
+        DirectState direct = tileState.direct;
+        ShadowState shadow = tileState.shadow;
+        IndirectState indirect = tileState.indirect;
+
+        Vector3f weights = tileState.weights;
 
-        Vector3f tangent = new Vector3f();
-        Vector3f bitangent = new Vector3f();
+        Vector3f tangent = tileState.tangent;
+        Vector3f bitangent = tileState.bitangent;
 
         int i0 = -1;
         int i1 = -1;
         int i2 = -1;
+        state.triangle = -1;
 
-        for (int x = 0; x < this.geometryLightmapSize; x++) {
+        for (int x = minX; x < maxX; x++) {
             for (int s = 0; s < this.samplingMode.numSamples(); s++) {
                 boolean filled = this.sampleBuffer.read(x, y, s);
                 if (!filled) {
@@ -866,7 +2045,9 @@ public class BakedLighting {
 
                 direct.output.zero();
                 shadow.output = 0f;
+                shadow.deferred = false;
                 indirect.output.zero();
+                indirect.rays = 0;
 
                 processSample(
                         state,
@@ -875,21 +2056,63 @@ public class BakedLighting {
                         indirect
                 );
 
-                this.directColorBuffer.write(direct.output, x, y, s);
-                this.reverseShadowBuffer.write(shadow.output, x, y, s);
-                this.indirectColorBuffer.write(indirect.output, x, y, s);
+                if (indirect.rays != 0) {
+                    indirect.totalSamples++;
+                    indirect.totalRays += indirect.rays;
+                }
+
+                this.directColorBuffer.blend(direct.output, x, y, s, this.passWeight);
+                if (!shadow.deferred) {
+                    this.reverseShadowBuffer.blend(shadow.output, x, y, s, this.passWeight);
+                }
+                this.indirectColorBuffer.blend(indirect.output, x, y, s, this.passWeight);
             }
         }
     }
 
-    private void randomLightDirection(Vector3f position, Vector3f outDirection, Random random) {
-        switch (this.lightType) {
-            case 0 -> {
-                if (this.fastMode) {
-                    outDirection.set(this.sun.getDirectionNegated());
-                    return;
-                }
+    private void randomLightDirection(Scene.Light light, Vector3f position, Vector3f outDirection, Random random) {
+        if (light instanceof Scene.DirectionalLight sun) {
+            if (this.fastMode) {
+                outDirection.set(sun.getDirectionNegated());
+                return;
+            }
+
+            float x;
+            float y;
+            float z;
+            float dist;
+
+            do {
+                x = (random.nextFloat() * 2f) - 1f;
+                y = (random.nextFloat() * 2f) - 1f;
+                z = (random.nextFloat() * 2f) - 1f;
+                dist = (x * x) + (y * y) + (z * z);
+            } while (dist > 1f);
+
+            outDirection.set(
+                    x,
+                    y,
+                    z
+            )
+                    .normalize()
+                    .mul(sun.getLightSize())
+                    .add(sun.getDirectionNegated())
+                    .normalize();
+        } else if (light instanceof Scene.PointLight point) {
+            if (this.fastMode) {
+                outDirection.set(point.getPosition()).sub(position);
+                return;
+            }
 
+            float dirX = point.getPosition().x() - position.x();
+            float dirY = point.getPosition().y() - position.y();
+            float dirZ = point.getPosition().z() - position.z();
+            float invlength = (float) (1f / Math.sqrt((dirX * dirX) + (dirY * dirY) + (dirZ * dirZ)));
+            dirX *= invlength;
+            dirY *= invlength;
+            dirZ *= invlength;
+
+            do {
                 float x;
                 float y;
                 float z;
@@ -902,52 +2125,14 @@ public class BakedLighting {
                     dist = (x * x) + (y * y) + (z * z);
                 } while (dist > 1f);
 
-                outDirection.set(
-                        x,
-                        y,
-                        z
-                )
-                        .normalize()
-                        .mul(this.sun.getLightSize())
-                        .add(this.sun.getDirectionNegated())
-                        .normalize();
-            }
-            case 1, 2 -> {
-                if (this.fastMode) {
-                    outDirection.set(this.point.getPosition()).sub(position);
-                    return;
-                }
-
-                float dirX = this.point.getPosition().x() - position.x();
-                float dirY = this.point.getPosition().y() - position.y();
-                float dirZ = this.point.getPosition().z() - position.z();
-                float invlength = (float) (1f / Math.sqrt((dirX * dirX) + (dirY * dirY) + (dirZ * dirZ)));
-                dirX *= invlength;
-                dirY *= invlength;
-                dirZ *= invlength;
-
-                do {
-                    float x;
-                    float y;
-                    float z;
-                    float dist;
-
-                    do {
-                        x = (random.nextFloat() * 2f) - 1f;
-                        y = (random.nextFloat() * 2f) - 1f;
-                        z = (random.nextFloat() * 2f) - 1f;
-                        dist = (x * x) + (y * y) + (z * z);
-                    } while (dist > 1f);
-
-                    outDirection.set(x, y, z).normalize();
+                outDirection.set(x, y, z).normalize();
 
-                } while (outDirection.dot(-dirX, -dirY, -dirZ) < 0f);
+            } while (outDirection.dot(-dirX, -dirY, -dirZ) < 0f);
 
-                outDirection
-                        .mul(this.point.getLightSize())
-                        .add(this.point.getPosition())
-                        .sub(position);
-            }
+            outDirection
+                    .mul(point.getLightSize())
+                    .add(point.getPosition())
+                    .sub(position);
         }
 
     }
@@ -973,34 +2158,109 @@ public class BakedLighting {
                 .normalize();
     }
 
-    private void processSample(SampleState state, DirectState direct, ShadowState shadow, IndirectState indirect) {
-        if (this.lightType == 1 || this.lightType == 2) {
-            float falloff = state.position.distance(this.point.getPosition());
+    private static float luminance(Vector3fc color) {
+        return (color.x() * 0.2126f)
+                + (color.y() * 0.7152f)
+                + (color.z() * 0.0722f);
+    }
+
+    private boolean belowCutoff(Scene.Light light, Vector3fc position) {
+        if (light instanceof Scene.PointLight point) {
+            float falloff = position.distance(point.getPosition());
             falloff = 1f / (falloff * falloff);
-            float luminance = falloff * this.point.getLuminance();
-            if (luminance < this.point.getBakeCutoff()) {
-                direct.output.zero();
-                shadow.output = 1f;
-                indirect.output.zero();
-                return;
+            float luminance = falloff * point.getLuminance();
+            return luminance < point.getBakeCutoff();
+        }
+        return false;
+    }
+
+    private void fillDirect(Scene.Light light, Vector3fc position, Vector3f output) {
+        if (light instanceof Scene.DirectionalLight sun) {
+            output
+                    .set(sun.getDiffuse());
+        } else if (light instanceof Scene.PointLight point) {
+            output
+                    .set(point.getDiffuse())
+                    .div(point.getPosition().distanceSquared(position) + this.scene.getDirectLightingAttenuation());
+        }
+    }
+
+    private void fillIndirect(Scene.Light light, Vector3fc position, Vector3f output) {
+        if (light instanceof Scene.DirectionalLight sun) {
+            output
+                    .set(sun.getAmbient());
+        } else if (light instanceof Scene.PointLight point) {
+            output
+                    .set(point.getDiffuse())
+                    .mul(0.03f)
+                    .div(point.getPosition().distanceSquared(position) + this.scene.getDirectLightingAttenuation());
+        }
+    }
+
+    //picks a light with a chance proportional to its weight, the total must
+    //be above zero
+    private int pickLight(float[] weights, int count, float total, Random random) {
+        float target = random.nextFloat() * total;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] <= 0f) {
+                continue;
+            }
+            last = i;
+            target -= weights[i];
+            if (target < 0f) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    private void processSample(SampleState state, DirectState direct, ShadowState shadow, IndirectState indirect) {
+        state.lightCount = 0;
+        for (int i = 0; i < state.tileLightCount; i++) {
+            int light = state.tileLights[i];
+            if (!belowCutoff(this.currentLights[light], state.position)) {
+                state.lights[state.lightCount++] = light;
             }
         }
 
-        if (this.scene.isDirectLightingEnabled()) {
-            processDirect(state, direct);
-        } else if (this.scene.fillEmptyValuesWithLightColors()) {
-            switch (this.lightType) {
-                case 0 -> {
-                    direct.output
-                            .set(this.sun.getDiffuse());
-                }
-                case 1, 2 -> {
-                    direct.output
-                            .set(this.point.getDiffuse())
-                            .div(this.point.getPosition().distanceSquared(state.position) + this.scene.getDirectLightingAttenuation());
-                }
+        if (state.lightCount == 0) {
+            direct.output.zero();
+            shadow.output = 1f;
+            indirect.output.zero();
+            return;
+        }
+
+        state.rayOffset = sampleRayOffset(state);
+
+        Vector3fc normal = state.normal;
+        if (!normal.isFinite()) {
+            normal = state.triangleNormal;
+        }
+
+        //the direct light of every light also weights the shadow rays
+        state.lightWeightsTotal = 0f;
+        for (int i = 0; i < state.lightCount; i++) {
+            Scene.Light light = this.currentLights[state.lights[i]];
+
+            calculateDirect(light, state.position, normal, state.lightColor);
+            float weight = luminance(state.lightColor);
+            state.lightWeights[i] = weight;
+            state.lightWeightsTotal += weight;
+
+            if (this.scene.isDirectLightingEnabled()) {
+                direct.output.add(state.lightColor);
+            } else if (this.scene.fillEmptyValuesWithLightColors()) {
+                fillDirect(light, state.position, state.lightColor);
+                direct.output.add(state.lightColor);
             }
         }
+        if (state.lightWeightsTotal <= 0f) {
+            for (int i = 0; i < state.lightCount; i++) {
+                state.lightWeights[i] = 1f;
+            }
+            state.lightWeightsTotal = state.lightCount;
+        }
 
         if (this.scene.isShadowsEnabled()) {
             processShadow(state, shadow);
@@ -1011,254 +2271,388 @@ public class BakedLighting {
         if (this.scene.isIndirectLightingEnabled() && !this.fastMode) {
             processIndirect(state, indirect);
         } else if (this.scene.fillEmptyValuesWithLightColors() || this.fastMode) {
-            switch (this.lightType) {
-                case 0 -> {
-                    indirect.output
-                            .set(this.sun.getAmbient());
-                }
-                case 1, 2 -> {
-                    indirect.output
-                            .set(this.point.getDiffuse())
-                            .mul(0.03f)
-                            .div(this.point.getPosition().distanceSquared(state.position) + this.scene.getDirectLightingAttenuation());
-                }
+            for (int i = 0; i < state.lightCount; i++) {
+                fillIndirect(this.currentLights[state.lights[i]], state.position, state.lightColor);
+                indirect.output.add(state.lightColor);
             }
         }
     }
 
-    private void calculateDirect(Vector3fc position, Vector3fc normal, Vector3f output) {
-        switch (this.lightType) {
-            case 0 -> {
-                output
-                        .set(this.sun.getDiffuse())
-                        .mul(Math.max(normal.dot(this.sun.getDirectionNegated()), 0f));
-            }
-            case 1, 2 -> {
-                float dirX = this.point.getPosition().x() - position.x();
-                float dirY = this.point.getPosition().y() - position.y();
-                float dirZ = this.point.getPosition().z() - position.z();
-                float length = (float) Math.sqrt((dirX * dirX) + (dirY * dirY) + (dirZ * dirZ));
-                float invlength = 1f / length;
-                dirX *= invlength;
-                dirY *= invlength;
-                dirZ *= invlength;
-                float intensity = 1f;
-                if (this.lightType == 2) {
-                    float theta = this.spot.getDirection().dot(-dirX, -dirY, -dirZ);
-                    float epsilon = this.spot.getCutoffAngleRadiansCosine() - this.spot.getOuterCutoffAngleRadiansCosine();
-                    intensity = Math.min(Math.max((theta - this.spot.getOuterCutoffAngleRadiansCosine()) / epsilon, 0f), 1f);
-                }
-                output
-                        .set(this.point.getDiffuse())
-                        .mul(Math.max(normal.dot(dirX, dirY, dirZ), 0f))
-                        .div((length * length) + this.scene.getDirectLightingAttenuation())
-                        .mul(intensity);
+    /**
+     * Chooses the ray offset of a sample, the offset of the scene is raised to
+     * a few ulps of the position so far away samples do not hit themselves
+     * and lowered to half of the distance from the offset origin to any other
+     * surface so samples in corners and thin gaps do not start their rays
+     * behind the neighbouring geometry.
+     */
+    private float sampleRayOffset(SampleState state) {
+        Vector3f position = state.position;
+        float largest = Math.max(Math.abs(position.x()), Math.max(Math.abs(position.y()), Math.abs(position.z())));
+        float minOffset = Math.ulp(largest) * RAY_OFFSET_ULPS;
+        float offset = Math.max(this.scene.getRayOffset(), minOffset);
+
+        state.offsetOrigin
+                .set(state.triangleNormal)
+                .mul(offset)
+                .add(position);
+
+        //the triangle of the sample is at the offset give or take the
+        //precision of the position, anything closer is other geometry
+        if (this.sceneBVH.closestPoint(state.query, state.offsetOrigin, offset - minOffset, state.clearance)) {
+            float clearance = state.clearance.getSignedDistance();
+            offset = Math.max(Math.min(offset, clearance * 0.5f), minOffset);
+        }
+
+        return offset;
+    }
+
+    private void calculateDirect(Scene.Light light, Vector3fc position, Vector3fc normal, Vector3f output) {
+        if (light instanceof Scene.DirectionalLight sun) {
+            output
+                    .set(sun.getDiffuse())
+                    .mul(Math.max(normal.dot(sun.getDirectionNegated()), 0f));
+        } else if (light instanceof Scene.PointLight point) {
+            float dirX = point.getPosition().x() - position.x();
+            float dirY = point.getPosition().y() - position.y();
+            float dirZ = point.getPosition().z() - position.z();
+            float length = (float) Math.sqrt((dirX * dirX) + (dirY * dirY) + (dirZ * dirZ));
+            float invlength = 1f / length;
+            dirX *= invlength;
+            dirY *= invlength;
+            dirZ *= invlength;
+            float intensity = 1f;
+            if (point instanceof Scene.SpotLight spot) {
+                float theta = spot.getDirection().dot(-dirX, -dirY, -dirZ);
+                float epsilon = spot.getCutoffAngleRadiansCosine() - spot.getOuterCutoffAngleRadiansCosine();
+                intensity = Math.min(Math.max((theta - spot.getOuterCutoffAngleRadiansCosine()) / epsilon, 0f), 1f);
             }
+            output
+                    .set(point.getDiffuse())
+                    .mul(Math.max(normal.dot(dirX, dirY, dirZ), 0f))
+                    .div((length * length) + this.scene.getDirectLightingAttenuation())
+                    .mul(intensity);
         }
     }
 
-    private void processDirect(SampleState state, DirectState direct) {
-        Vector3fc normal = state.normal;
-        if (!normal.isFinite()) {
-            normal = state.triangleNormal;
+    private void flushShadowQueue(ShadowState shadow) {
+        if (shadow.pendingCount == 0) {
+            return;
+        }
+
+        this.queries.fastTestRays(
+                this.sceneBVH,
+                shadow.rayOrigins, shadow.rayDirections, shadow.rayLengths,
+                shadow.rayCount,
+                shadow.rayOccluded
+        );
+
+        for (int i = 0; i < shadow.pendingCount; i++) {
+            int x = shadow.pendingSamples[(i * 4) + 0];
+            int y = shadow.pendingSamples[(i * 4) + 1];
+            int s = shadow.pendingSamples[(i * 4) + 2];
+            int start = shadow.pendingSamples[(i * 4) + 3];
+
+            float shadowValue = 0f;
+            for (int j = start; j < start + shadow.raysPerSample; j++) {
+                if (shadow.rayOccluded[j]) {
+                    shadowValue++;
+                }
+            }
+            shadowValue /= shadow.raysPerSample;
+
+            this.reverseShadowBuffer.blend(1f - shadowValue, x, y, s, this.passWeight);
         }
-        calculateDirect(state.position, normal, direct.output);
+
+        shadow.rayCount = 0;
+        shadow.pendingCount = 0;
     }
 
     private void processShadow(SampleState state, ShadowState shadow) {
         shadow.offsetOrigin
                 .set(state.triangleNormal)
-                .mul(this.scene.getRayOffset())
+                .mul(state.rayOffset)
                 .add(state.position);
 
-        int rays = this.scene.getShadowRaysPerSample();
-        if (this.fastMode) {
-            rays = 1;
+        int rays = shadow.raysPerSample;
+        if ((shadow.capacity - shadow.rayCount) < rays) {
+            flushShadowQueue(shadow);
         }
 
-        float shadowValue = 0f;
+        int start = shadow.rayCount;
         for (int i = 0; i < rays; i++) {
-            randomLightDirection(state.position, shadow.randomDirection, state.random);
-            switch (this.lightType) {
-                case 0 -> {
-                    if (Geometry.fastTestRay(shadow.offsetOrigin, shadow.randomDirection, Float.POSITIVE_INFINITY, this.geometries)) {
-                        shadowValue++;
-                    }
-                }
-                case 1, 2 -> {
-                    float length = shadow.randomDirection.length();
-                    if (Geometry.fastTestRay(shadow.offsetOrigin, shadow.randomDirection.div(length), length, this.geometries)) {
-                        shadowValue++;
-                    }
-                }
+            int picked = pickLight(state.lightWeights, state.lightCount, state.lightWeightsTotal, state.random);
+            Scene.Light light = this.currentLights[state.lights[picked]];
+
+            randomLightDirection(light, state.position, shadow.randomDirection, state.random);
+
+            float length = Float.POSITIVE_INFINITY;
+            if (!(light instanceof Scene.DirectionalLight)) {
+                length = shadow.randomDirection.length();
+                shadow.randomDirection.div(length);
             }
-            this.status.rays++;
+
+            int ray = shadow.rayCount++;
+            shadow.rayOrigins[(ray * 3) + 0] = shadow.offsetOrigin.x();
+            shadow.rayOrigins[(ray * 3) + 1] = shadow.offsetOrigin.y();
+            shadow.rayOrigins[(ray * 3) + 2] = shadow.offsetOrigin.z();
+            shadow.rayDirections[(ray * 3) + 0] = shadow.randomDirection.x();
+            shadow.rayDirections[(ray * 3) + 1] = shadow.randomDirection.y();
+            shadow.rayDirections[(ray * 3) + 2] = shadow.randomDirection.z();
+            shadow.rayLengths[ray] = length;
+
+            this.status.shadowRays.increment();
         }
-        shadowValue /= rays;
 
-        shadow.output = 1f - shadowValue;
-    }
+        shadow.pendingSamples[(shadow.pendingCount * 4) + 0] = state.x;
+        shadow.pendingSamples[(shadow.pendingCount * 4) + 1] = state.y;
+        shadow.pendingSamples[(shadow.pendingCount * 4) + 2] = state.s;
+        shadow.pendingSamples[(shadow.pendingCount * 4) + 3] = start;
+        shadow.pendingCount++;
 
-    private void processIndirect(SampleState state, IndirectState indirect) {
-        for (int i = 0; i < this.scene.getIndirectRaysPerSample(); i++) {
-            randomTangentDirection(indirect.bounceDirection, state.random);
-            state.triangleTBN.transform(indirect.bounceDirection);
+        shadow.deferred = true;
+    }
 
-            float rayOffset = this.scene.getRayOffset();
-            float offsetX = state.triangleNormal.x() * rayOffset;
-            float offsetY = state.triangleNormal.y() * rayOffset;
-            float offsetZ = state.triangleNormal.z() * rayOffset;
+    private boolean traceIndirectPath(SampleState state, IndirectState indirect) {
+        randomTangentDirection(indirect.bounceDirection, state.random);
+        state.triangleTBN.transform(indirect.bounceDirection);
 
-            if (state.normal.isFinite()) {
-                indirect.smoothNormal.set(state.normal);
-            } else {
-                indirect.smoothNormal.set(state.triangleNormal);
-            }
+        float rayOffset = state.rayOffset;
+        float offsetX = state.triangleNormal.x() * rayOffset;
+        float offsetY = state.triangleNormal.y() * rayOffset;
+        float offsetZ = state.triangleNormal.z() * rayOffset;
 
-            indirect.bouncePosition
-                    .set(state.position)
-                    .add(offsetX, offsetY, offsetZ);
-
-            boolean foundLight = false;
-            int bounceCount = 0;
-            for (int j = 0; j < this.scene.getIndirectBounces(); j++) {
-                if (j != 0) {
-                    calculateDirect(indirect.bouncePosition, indirect.smoothNormal, indirect.lightColor);
-                    if (!indirect.lightColor.equals(0f, 0f, 0f)) {
-                        randomLightDirection(indirect.bouncePosition, indirect.randomLightDirection, state.random);
-                        this.status.rays++;
-
-                        switch (this.lightType) {
-                            case 0 -> {
-                                if (!Geometry.fastTestRay(indirect.bouncePosition, indirect.randomLightDirection, Float.POSITIVE_INFINITY, this.geometries)) {
-                                    foundLight = true;
-                                }
-                            }
-                            case 1, 2 -> {
-                                float length = indirect.randomLightDirection.length();
-                                if (!Geometry.fastTestRay(indirect.bouncePosition, indirect.randomLightDirection.div(length), length, this.geometries)) {
-                                    foundLight = true;
-                                }
-                            }
-                        }
+        if (state.normal.isFinite()) {
+            indirect.smoothNormal.set(state.normal);
+        } else {
+            indirect.smoothNormal.set(state.triangleNormal);
+        }
 
-                        if (foundLight) {
-                            break;
-                        }
+        indirect.bouncePosition
+                .set(state.position)
+                .add(offsetX, offsetY, offsetZ);
+
+        boolean foundLight = false;
+        int bounceCount = 0;
+        for (int j = 0; j < this.scene.getIndirectBounces(); j++) {
+            if (j != 0) {
+                Scene.Light light = bounceLight(state, indirect);
+                if (light != null) {
+                    randomLightDirection(light, indirect.bouncePosition, indirect.randomLightDirection, state.random);
+                    this.status.lightRays.increment();
+
+                    float length = Float.POSITIVE_INFINITY;
+                    if (!(light instanceof Scene.DirectionalLight)) {
+                        length = indirect.randomLightDirection.length();
+                        indirect.randomLightDirection.div(length);
+                    }
+                    if (!this.sceneBVH.fastTestRay(state.query, indirect.bouncePosition, indirect.randomLightDirection, length)) {
+                        foundLight = true;
+                        break;
                     }
                 }
-                
-                this.status.rays++;
-                RayResult[] results = Geometry.testRay(indirect.bouncePosition, indirect.bounceDirection, this.scene.getGeometries());
-                if (results.length == 0) {
-                    if (this.lightType == 0) {
+            }
+            
+            this.status.bounceRays.increment();
+            if (!this.sceneBVH.closestHit(state.query, indirect.bouncePosition, indirect.bounceDirection, Float.POSITIVE_INFINITY, indirect.hit)) {
+                indirect.lightColor.zero();
+                for (int i = 0; i < state.lightCount; i++) {
+                    if (this.currentLights[state.lights[i]] instanceof Scene.DirectionalLight sun) {
                         foundLight = true;
-                        indirect.lightColor.set(this.sun.getAmbient());
+                        indirect.lightColor.add(sun.getAmbient());
                     }
-                    break;
                 }
-                
-                RayResult closestRay = results[0];
-                closestRay.weights(indirect.bounceWeights);
+                break;
+            }
+            
+            RayHit closestRay = indirect.hit;
+            closestRay.weights(indirect.bounceWeights);
 
-                float u = closestRay.lerp(indirect.bounceWeights, MeshData.UV_OFFSET + 0);
-                float v = closestRay.lerp(indirect.bounceWeights, MeshData.UV_OFFSET + 1);
+            float u = closestRay.lerp(indirect.bounceWeights, MeshData.UV_OFFSET + 0);
+            float v = closestRay.lerp(indirect.bounceWeights, MeshData.UV_OFFSET + 1);
 
-                float nx = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 0);
-                float ny = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 1);
-                float nz = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 2);
+            float nx = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 0);
+            float ny = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 1);
+            float nz = closestRay.lerp(indirect.bounceWeights, MeshData.N_XYZ_OFFSET + 2);
 
-                indirect.smoothNormal.set(nx, ny, nz).normalize();
-                if (!indirect.smoothNormal.isFinite()) {
-                    indirect.smoothNormal.set(closestRay.getTriangleNormal());
-                }
+            indirect.smoothNormal.set(nx, ny, nz).normalize();
+            if (!indirect.smoothNormal.isFinite()) {
+                indirect.smoothNormal.set(closestRay.getTriangleNormal());
+            }
+
+            SoftwareTexture rayTexture = this.sceneTextures.get(closestRay.getGeometry().getMesh().getTextureHint());
+            rayTexture.sampleNearest(u, v, indirect.bounceColor, 0);
 
-                SoftwareTexture rayTexture = this.sceneTextures.get(closestRay.getGeometry().getMesh().getTextureHint());
-                rayTexture.sampleNearest(u, v, indirect.bounceColor, 0);
+            indirect.bounceColor[0] = (float) Math.pow(indirect.bounceColor[0], 2.2);
+            indirect.bounceColor[1] = (float) Math.pow(indirect.bounceColor[1], 2.2);
+            indirect.bounceColor[2] = (float) Math.pow(indirect.bounceColor[2], 2.2);
 
-                indirect.bounceColor[0] = (float) Math.pow(indirect.bounceColor[0], 2.2);
-                indirect.bounceColor[1] = (float) Math.pow(indirect.bounceColor[1], 2.2);
-                indirect.bounceColor[2] = (float) Math.pow(indirect.bounceColor[2], 2.2);
+            indirect.bounceColors[bounceCount].set(indirect.bounceColor);
+            bounceCount++;
+
+            indirect.bouncePosition.set(closestRay.getTriangleNormal());
+            if (!closestRay.frontFace()) {
+                indirect.bouncePosition.negate();
+            }
+            indirect.bouncePosition
+                    .mul(this.scene.getRayOffset())
+                    .add(closestRay.getHitPosition());
 
-                indirect.bounceColors[bounceCount].set(indirect.bounceColor);
-                bounceCount++;
+            indirect.bounceDirection.reflect(closestRay.getTriangleNormal());
+        }
 
-                indirect.bouncePosition.set(closestRay.getTriangleNormal());
-                if (!closestRay.frontFace()) {
-                    indirect.bouncePosition.negate();
+        if (foundLight) {
+            if (bounceCount != 0) {
+                Vector3f first = indirect.bounceColors[0];
+                for (int j = 1; j < bounceCount; j++) {
+                    first.mul(indirect.bounceColors[j]);
                 }
-                indirect.bouncePosition
-                        .mul(this.scene.getRayOffset())
-                        .add(closestRay.getHitPosition());
+                first.mul(this.scene.getIndirectLightReflectionFactor());
+                float r = Math.min(Math.max(first.x(), 0f), 1f);
+                float g = Math.min(Math.max(first.y(), 0f), 1f);
+                float b = Math.min(Math.max(first.z(), 0f), 1f);
+                indirect.lightColor.mul(r, g, b);
+            }
+        }
+        return foundLight;
+    }
+
+    /**
+     * Picks the light of a bounce with a chance proportional to the direct
+     * light it gives to the bounce, the direct light of the picked light is
+     * divided by that chance and written to the light color of the path.
+     * Returns null if no light reaches the bounce.
+     */
+    private Scene.Light bounceLight(SampleState state, IndirectState indirect) {
+        float total = 0f;
+        for (int i = 0; i < state.lightCount; i++) {
+            calculateDirect(this.currentLights[state.lights[i]], indirect.bouncePosition, indirect.smoothNormal, indirect.lightColor);
+            float weight = luminance(indirect.lightColor);
+            state.bounceLightWeights[i] = weight;
+            total += weight;
+        }
+        if (total <= 0f) {
+            return null;
+        }
 
-                indirect.bounceDirection.reflect(closestRay.getTriangleNormal());
+        int picked = pickLight(state.bounceLightWeights, state.lightCount, total, state.random);
+        Scene.Light light = this.currentLights[state.lights[picked]];
+        if (picked != (state.lightCount - 1)) {
+            calculateDirect(light, indirect.bouncePosition, indirect.smoothNormal, indirect.lightColor);
+        }
+        indirect.lightColor.mul(total / state.bounceLightWeights[picked]);
+        return light;
+    }
+
+    /**
+     * Traces indirect paths until the standard error of the mean luminance of
+     * the sample is below the error target of the scene relative to the mean,
+     * at least the minimum and at most the maximum amount of rays are traced.
+     * Without an error target the amount of rays is fixed.
+     */
+    private void processIndirect(SampleState state, IndirectState indirect) {
+        boolean adaptive = this.indirectErrorTarget > 0f;
+        int minRays = (adaptive ? this.indirectMinRaysPerPass : this.indirectRaysPerPass);
+        int maxRays = (adaptive ? this.indirectMaxRaysPerPass : this.indirectRaysPerPass);
+
+        float mean = 0f;
+        float m2 = 0f;
+        int count = 0;
+        while (count < maxRays) {
+            float luminance = 0f;
+            if (traceIndirectPath(state, indirect)) {
+                indirect.output.add(indirect.lightColor);
+                luminance = luminance(indirect.lightColor);
             }
+            count++;
 
-            if (foundLight) {
-                if (bounceCount != 0) {
-                    Vector3f first = indirect.bounceColors[0];
-                    for (int j = 1; j < bounceCount; j++) {
-                        first.mul(indirect.bounceColors[j]);
-                    }
-                    first.mul(this.scene.getIndirectLightReflectionFactor());
-                    float r = Math.min(Math.max(first.x(), 0f), 1f);
-                    float g = Math.min(Math.max(first.y(), 0f), 1f);
-                    float b = Math.min(Math.max(first.z(), 0f), 1f);
-                    indirect.lightColor.mul(r, g, b);
+            float delta = luminance - mean;
+            mean += delta / count;
+            m2 += delta * (luminance - mean);
+
+            if (adaptive && count >= minRays && count > 1) {
+                float error = (float) Math.sqrt((m2 / (count - 1)) / count);
+                if (error <= this.indirectErrorTarget * Math.max(mean, INDIRECT_ERROR_FLOOR)) {
+                    break;
                 }
-                indirect.output.add(indirect.lightColor);
             }
         }
-        indirect.output.div(this.scene.getIndirectRaysPerSample());
+        indirect.output.div(count);
+        indirect.rays = count;
     }
 
-    private void denoiseComponents() {
+    //the noisy buffers are returned to the pool unless they are still used
+    //by the caller
+    private void denoiseComponents(boolean releaseNoisy) {
         if (this.fastMode) {
             return;
         }
 
         int numSamples = this.samplingMode.numSamples();
-        final ColorBuffer indirectOutput = new ColorBuffer(this.geometryLightmapSize, numSamples);
-        final GrayBuffer reversedShadowOutput = new GrayBuffer(this.geometryLightmapSize, numSamples);
+        final ColorBuffer indirectOutput = new ColorBuffer(this.geometryLightmapSize, numSamples, this.pool, this.halfFloatBuffers);
+        final GrayBuffer reversedShadowOutput = new GrayBuffer(this.geometryLightmapSize, numSamples, this.pool);
 
-        int amountOfCores = Runtime.getRuntime().availableProcessors();
-        List<Future<?>> tasks = new ArrayList<>(amountOfCores);
+        setStatusText("Denoising");
+        parallelFor(Phase.DENOISE, this.lightmapperQuads.length, (quad) -> {
+            denoiseQuad(indirectOutput, reversedShadowOutput, quad);
+        });
 
-        this.status.setProgressBarStep(this.lightmapperQuads.length);
-        for (int i = 0; i < this.lightmapperQuads.length; i += amountOfCores) {
-            setStatusText("[" + i + "/" + this.lightmapperQuads.length + "] Denoising");
+        if (releaseNoisy) {
+            this.indirectColorBuffer.release(this.pool);
+            this.reverseShadowBuffer.release(this.pool);
+        }
+        this.indirectColorBuffer = indirectOutput;
+        this.reverseShadowBuffer = reversedShadowOutput;
+    }
 
-            for (int j = 0; j < amountOfCores; j++) {
-                int quad = i + j;
-                if (quad >= this.lightmapperQuads.length) {
-                    break;
-                }
-                tasks.add(this.threads.submit(() -> {
-                    denoiseQuad(indirectOutput, reversedShadowOutput, quad);
-                }));
-            }
+    //a region read by a filter, only the texels inside of the inner bounds
+    //are written
+    private static class FilterWindow {
+
+        public int minX;
+        public int minY;
+        public int maxX;
+        public int maxY;
+        public int innerMinX;
+        public int innerMinY;
+        public int innerMaxX;
+        public int innerMaxY;
+
+        public boolean inner(int x, int y) {
+            return x >= this.innerMinX && y >= this.innerMinY && x < this.innerMaxX && y < this.innerMaxY;
+        }
+    }
 
-            for (Future<?> f : tasks) {
-                try {
-                    f.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
-                }
-                this.status.stepProgressBar();
-            }
+    //out of core bakes filter regions tile by tile, every tile is read with
+    //an apron as wide as the reach of the filter so the texels of the tile
+    //get the same values they would get if the whole region was filtered,
+    //bakes in the heap filter the whole region at once
+    private void forEachWindow(int minX, int minY, int maxX, int maxY, int apron, Consumer<FilterWindow> action) {
+        if (maxX <= minX || maxY <= minY) {
+            return;
+        }
 
-            tasks.clear();
+        int tileSize = Math.max(maxX - minX, maxY - minY);
+        if (this.pool.isOutOfCore()) {
+            tileSize = FILTER_TILE_SIZE;
         }
 
-        this.indirectColorBuffer = indirectOutput;
-        this.reverseShadowBuffer = reversedShadowOutput;
+        for (int y = minY; y < maxY; y += tileSize) {
+            for (int x = minX; x < maxX; x += tileSize) {
+                FilterWindow window = new FilterWindow();
+                window.innerMinX = x;
+                window.innerMinY = y;
+                window.innerMaxX = Math.min(x + tileSize, maxX);
+                window.innerMaxY = Math.min(y + tileSize, maxY);
+                window.minX = Math.max(window.innerMinX - apron, minX);
+                window.minY = Math.max(window.innerMinY - apron, minY);
+                window.maxX = Math.min(window.innerMaxX + apron, maxX);
+                window.maxY = Math.min(window.innerMaxY + apron, maxY);
+                action.accept(window);
+            }
+        }
     }
 
     private void denoiseQuad(ColorBuffer indirectOutput, GrayBuffer reversedShadowOutput, int i) {
-        int numSamples = this.samplingMode.numSamples();
-
-        Vector3f color = new Vector3f();
-
         LightmapUVs.LightmapperQuad quad = this.lightmapperQuads[i];
 
         int minX = clamp(quad.getX(), 0, this.geometryLightmapSize);
@@ -1266,6 +2660,21 @@ public class BakedLighting {
         int maxX = clamp(quad.getX() + quad.getWidth(), 0, this.geometryLightmapSize);
         int maxY = clamp(quad.getY() + quad.getHeight(), 0, this.geometryLightmapSize);
 
+        forEachWindow(minX, minY, maxX, maxY, BLUR_KERNEL_SIZE / 2, (window) -> {
+            denoiseWindow(indirectOutput, reversedShadowOutput, window);
+        });
+    }
+
+    private void denoiseWindow(ColorBuffer indirectOutput, GrayBuffer reversedShadowOutput, FilterWindow window) {
+        int numSamples = this.samplingMode.numSamples();
+
+        Vector3f color = new Vector3f();
+
+        int minX = window.minX;
+        int minY = window.minY;
+        int maxX = window.maxX;
+        int maxY = window.maxY;
+
         final int width = maxX - minX;
         final int height = maxY - minY;
         final int xOffset = minX;
@@ -1343,6 +2752,9 @@ public class BakedLighting {
 
             @Override
             public void write(int x, int y, GaussianBlur.GaussianColor color) {
+                if (!window.inner(x + xOffset, y + yOffset)) {
+                    return;
+                }
                 this.ioColor.set(color.r, color.g, color.b);
                 for (int s = 0; s < numSamples; s++) {
                     if (sampleMap[s + (x * numSamples) + (y * width * numSamples)]) {
@@ -1361,7 +2773,7 @@ public class BakedLighting {
 
         GaussianBlur.blur(
                 indirectIO,
-                51,
+                BLUR_KERNEL_SIZE,
                 this.scene.getIndirectLightingBlurArea()
         );
 
@@ -1386,6 +2798,9 @@ public class BakedLighting {
 
             @Override
             public void write(int x, int y, GaussianBlur.GaussianColor color) {
+                if (!window.inner(x + xOffset, y + yOffset)) {
+                    return;
+                }
                 float shadow = (color.r + color.g + color.b) / 3f;
                 for (int s = 0; s < numSamples; s++) {
                     if (sampleMap[s + (x * numSamples) + (y * width * numSamples)]) {
@@ -1405,7 +2820,7 @@ public class BakedLighting {
 
         GaussianBlur.blur(
                 reversedShadowIO,
-                51,
+                BLUR_KERNEL_SIZE,
                 this.scene.getShadowBlurArea()
         );
     }
@@ -1419,117 +2834,118 @@ public class BakedLighting {
         Vector3f indirect = new Vector3f();
         Vector3f sampleAverage = new Vector3f();
 
-        this.status.setProgressBarStep(this.geometryLightmapSize);
-        for (int y = 0; y < this.geometryLightmapSize; y++) {
-            setStatusText("[" + y + "/" + this.geometryLightmapSize + "] Combining Light Components");
-
-            for (int x = 0; x < this.geometryLightmapSize; x++) {
-                int processedSamples = 0;
-                for (int s = 0; s < numSamples; s++) {
-                    if (this.sampleBuffer.read(x, y, s)) {
-                        processedSamples++;
+        //tile by tile, so out of core buffers are read a few pages at a time
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        int tiles = tilesPerLine * tilesPerLine;
+        this.progress.setProgressBarStep(tiles);
+        for (int tile = 0; tile < tiles; tile++) {
+            setStatusText("[" + tile + "/" + tiles + "] Combining Light Components");
+
+            int minX = (tile % tilesPerLine) * TILE_SIZE;
+            int minY = (tile / tilesPerLine) * TILE_SIZE;
+            int maxX = Math.min(minX + TILE_SIZE, this.geometryLightmapSize);
+            int maxY = Math.min(minY + TILE_SIZE, this.geometryLightmapSize);
+
+            for (int y = minY; y < maxY; y++) {
+                for (int x = minX; x < maxX; x++) {
+                    int processedSamples = 0;
+                    for (int s = 0; s < numSamples; s++) {
+                        if (this.sampleBuffer.read(x, y, s)) {
+                            processedSamples++;
+                        }
                     }
-                }
 
-                direct.zero();
-                indirect.zero();
+                    direct.zero();
+                    indirect.zero();
 
-                if (processedSamples != 0) {
-                    float invProcessedSamples = 1f / processedSamples;
+                    if (processedSamples != 0) {
+                        float invProcessedSamples = 1f / processedSamples;
 
-                    //direct
-                    sampleAverage.zero();
-                    for (int s = 0; s < numSamples; s++) {
-                        this.directColorBuffer.read(direct, x, y, s);
-                        sampleAverage.add(direct);
-                    }
-                    direct.set(sampleAverage.mul(invProcessedSamples));
+                        //direct
+                        sampleAverage.zero();
+                        for (int s = 0; s < numSamples; s++) {
+                            this.directColorBuffer.read(direct, x, y, s);
+                            sampleAverage.add(direct);
+                        }
+                        direct.set(sampleAverage.mul(invProcessedSamples));
 
-                    //shadow
-                    float reversedShadowAverage = 0f;
-                    for (int s = 0; s < numSamples; s++) {
-                        reversedShadowAverage += this.reverseShadowBuffer.read(x, y, s);
-                    }
-                    reversedShadowAverage *= invProcessedSamples;
+                        //shadow
+                        float reversedShadowAverage = 0f;
+                        for (int s = 0; s < numSamples; s++) {
+                            reversedShadowAverage += this.reverseShadowBuffer.read(x, y, s);
+                        }
+                        reversedShadowAverage *= invProcessedSamples;
 
-                    direct.mul(reversedShadowAverage);
+                        direct.mul(reversedShadowAverage);
 
-                    //indirect
-                    sampleAverage.zero();
-                    for (int s = 0; s < numSamples; s++) {
-                        this.indirectColorBuffer.read(indirect, x, y, s);
-                        sampleAverage.add(indirect);
+                        //indirect
+                        sampleAverage.zero();
+                        for (int s = 0; s < numSamples; s++) {
+                            this.indirectColorBuffer.read(indirect, x, y, s);
+                            sampleAverage.add(indirect);
+                        }
+                        indirect.set(sampleAverage.mul(invProcessedSamples));
+
+                        direct.add(indirect);
                     }
-                    indirect.set(sampleAverage.mul(invProcessedSamples));
 
-                    direct.add(indirect);
+                    this.lightGroupOutput.read(currentColor, x, y, 0);
+                    currentColor.add(direct);
+                    this.lightGroupOutput.write(currentColor, x, y, 0);
                 }
-
-                this.lightGroupOutput.read(currentColor, x, y, 0);
-                currentColor.add(direct);
-                this.lightGroupOutput.write(currentColor, x, y, 0);
             }
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
 
     }
 
     private void unloadLight() {
         setStatusText("Unloading Light...");
-        this.status.currentProgress = 0f;
-
-        this.currentLightIndex = 0;
-        this.currentLight = null;
-        this.lightType = 0;
-        this.sun = null;
-        this.point = null;
-        this.spot = null;
+        this.progress.currentProgress = 0f;
+
+        this.currentLightIndices = null;
+        this.currentLights = null;
+        this.indirectColorBuffer.release(this.pool);
+        this.directColorBuffer.release(this.pool);
+        this.reverseShadowBuffer.release(this.pool);
         this.indirectColorBuffer = null;
         this.directColorBuffer = null;
         this.reverseShadowBuffer = null;
 
-        this.status.currentProgress = 100f;
+        this.progress.currentProgress = 100f;
     }
 
     private void generateMargins() {
-        int numberOfCores = Runtime.getRuntime().availableProcessors();
-        this.status.setProgressBarStep(this.lightmapperQuads.length);
-
-        List<Future<?>> tasks = new ArrayList<>();
-        for (int i = 0; i < this.lightmapperQuads.length; i += numberOfCores) {
-            setStatusText("[" + i + "/" + this.lightmapperQuads.length + "] Generating Margins");
-            for (int j = 0; j < numberOfCores; j++) {
-                final int index = i + j;
-                if (index < this.lightmapperQuads.length) {
-                    tasks.add(this.threads.submit(() -> {
-                        generateMargin(this.lightmapperQuads[index]);
-                    }));
-                }
-            }
-            for (Future<?> task : tasks) {
-                try {
-                    task.get();
-                    this.status.stepProgressBar();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
-                }
-            }
-            tasks.clear();
-        }
+        setStatusText("Generating Margins");
+        parallelFor(Phase.MARGINS, this.lightmapperQuads.length, (index) -> {
+            generateMargin(this.lightmapperQuads[index]);
+        });
     }
 
     private void generateMargin(LightmapUVs.LightmapperQuad quad) {
+        int iterations = 3 + LightmapUVs.MARGIN;
+        forEachWindow(0, 0, quad.getWidth(), quad.getHeight(), iterations, (window) -> {
+            generateMargin(quad, window, iterations);
+        });
+    }
+
+    //a margin grows by one texel every iteration, so the apron of a window
+    //is as wide as the amount of iterations
+    private void generateMargin(LightmapUVs.LightmapperQuad quad, FilterWindow window, int iterations) {
+        final int xOffset = quad.getX() + window.minX;
+        final int yOffset = quad.getY() + window.minY;
+
         MarginAutomata.MarginAutomataIO io = new MarginAutomata.MarginAutomataIO() {
             final Vector3f vec = new Vector3f();
 
             @Override
             public int width() {
-                return quad.getWidth();
+                return window.maxX - window.minX;
             }
 
             @Override
             public int height() {
-                return quad.getHeight();
+                return window.maxY - window.minY;
             }
 
             @Override
@@ -1540,7 +2956,7 @@ public class BakedLighting {
             @Override
             public boolean empty(int x, int y) {
                 for (int s = 0; s < BakedLighting.this.samplingMode.numSamples(); s++) {
-                    if (BakedLighting.this.sampleBuffer.read(quad.getX() + x, quad.getY() + y, s)) {
+                    if (BakedLighting.this.sampleBuffer.read(xOffset + x, yOffset + y, s)) {
                         return false;
                     }
                 }
@@ -1549,7 +2965,7 @@ public class BakedLighting {
 
             @Override
             public void read(int x, int y, MarginAutomata.MarginAutomataColor color) {
-                BakedLighting.this.lightGroupOutput.read(this.vec, quad.getX() + x, quad.getY() + y, 0);
+                BakedLighting.this.lightGroupOutput.read(this.vec, xOffset + x, yOffset + y, 0);
                 color.r = this.vec.x();
                 color.g = this.vec.y();
                 color.b = this.vec.z();
@@ -1557,22 +2973,23 @@ public class BakedLighting {
 
             @Override
             public void write(int x, int y, MarginAutomata.MarginAutomataColor color) {
+                if (!window.inner(window.minX + x, window.minY + y)) {
+                    return;
+                }
                 this.vec.set(color.r, color.g, color.b);
-                BakedLighting.this.lightGroupOutput.write(this.vec, quad.getX() + x, quad.getY() + y, 0);
+                BakedLighting.this.lightGroupOutput.write(this.vec, xOffset + x, yOffset + y, 0);
             }
         };
 
-        MarginAutomata.generateMargin(io, 3 + LightmapUVs.MARGIN);
+        MarginAutomata.generateMargin(io, iterations);
     }
 
-    private void outputLightmap() {
+    private float[] outputLightmap() {
         final float[] finalOutputBuffer = new float[this.geometryLightmapSize * this.geometryLightmapSize * 3];
-        final int finalGroupIndex = this.currentLightGroupIndex;
-        final BakedLightingOutput finalOutput = this.output;
 
         Vector3f color = new Vector3f();
 
-        this.status.setProgressBarStep(this.geometryLightmapSize);
+        this.progress.setProgressBarStep(this.geometryLightmapSize);
         for (int y = 0; y < this.geometryLightmapSize; y++) {
             setStatusText("[" + y + "/" + this.geometryLightmapSize + "] Writing to Lightmap");
             for (int x = 0; x < this.geometryLightmapSize; x++) {
@@ -1582,29 +2999,28 @@ public class BakedLighting {
                 finalOutputBuffer[1 + (x * 3) + (y * this.geometryLightmapSize * 3)] = color.y();
                 finalOutputBuffer[2 + (x * 3) + (y * this.geometryLightmapSize * 3)] = color.z();
             }
-            this.status.stepProgressBar();
+            this.progress.stepProgressBar();
         }
 
-        Main.MAIN_TASKS.add(() -> {
-            finalOutput.write(finalOutputBuffer, finalGroupIndex);
-        });
+        return finalOutputBuffer;
     }
 
     private void unloadLightGroup() {
         setStatusText("Unloading Light Group...");
-        this.status.currentProgress = 0f;
+        this.progress.currentProgress = 0f;
 
         this.currentLightGroupIndex = 0;
         this.currentLightGroup = null;
         this.currentLightGroupLights = null;
+        this.lightGroupOutput.release(this.pool);
         this.lightGroupOutput = null;
 
-        this.status.currentProgress = 100f;
+        this.progress.currentProgress = 100f;
     }
 
     private void unloadGeometry() {
         setStatusText("Unloading Geometry...");
-        this.status.currentProgress = 0f;
+        this.progress.currentProgress = 0f;
 
         this.geometryIndex = 0;
         this.geometry = null;
@@ -1613,11 +3029,585 @@ public class BakedLighting {
         this.indices = null;
         this.lightmapperQuads = null;
         this.lightmapMesh = null;
+        this.sampleBuffer.release(this.pool);
+        this.trianglesBuffer.release(this.pool);
+        this.weightsBuffer.release(this.pool);
         this.sampleBuffer = null;
         this.trianglesBuffer = null;
         this.weightsBuffer = null;
+        this.tileBounds = null;
+
+        this.progress.currentProgress = 100f;
+    }
+
+    private long sampleBufferBytes(int lightmapSize) {
+        long samples = ((long) lightmapSize) * lightmapSize * this.samplingMode.numSamples();
+        //sample bits, triangles and weights
+        return (((samples + 63) / 64) * 8) + (samples * (4 + (3 * 4)));
+    }
+
+    private long geometryBufferBytes(int lightmapSize) {
+        long texels = ((long) lightmapSize) * lightmapSize;
+        long groupBytes = texels * (3 * 4) * this.lightGroups.size();
+        return sampleBufferBytes(lightmapSize) + groupBytes;
+    }
+
+    private long lightBufferBytes(int lightmapSize) {
+        long texels = ((long) lightmapSize) * lightmapSize;
+        //direct, indirect and shadow, plus the denoised indirect and shadow
+        long colorBytes = (3 + 3 + (this.fastMode ? 0 : 3)) * (this.halfFloatBuffers ? 2 : 4);
+        long grayBytes = (1 + (this.fastMode ? 0 : 1)) * 4;
+        return texels * this.samplingMode.numSamples() * (colorBytes + grayBytes);
+    }
+
+    /**
+     * Estimates the peak heap used by the bake. The buffers of the units in
+     * flight stay inside of the memory budget unless a single unit needs more
+     * than the budget, the scene textures and the lightmaps of a geometry
+     * waiting to be delivered are added on top of that. The scene BVH and the
+     * lightmap meshes are not included. Out of core buffers are in scratch
+     * files and are not part of the heap.
+     */
+    private long estimatePeakMemory(float[][][] reused, int[][][] reaching) {
+        long textureBytes = 0;
+        for (SoftwareTexture texture : this.sceneTextures.values()) {
+            textureBytes += ((long) texture.width()) * texture.height() * 4;
+        }
+
+        long totalBytes = 0;
+        long largestUnit = 0;
+        long largestOutput = 0;
+        for (int i = 0; i < this.geometries.size(); i++) {
+            int lightmapSize = this.lightmapMeshes[i].getLightmapSize();
+            long lightBytes = lightBufferBytes(lightmapSize);
+
+            long geometryLights = 0;
+            long largestLights = 0;
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                if (reused[i][j] != null || reaching[i][j].length == 0) {
+                    continue;
+                }
+                int sets = lightSets(reaching[i][j]).length;
+                geometryLights += lightBytes * sets;
+                largestLights = Math.max(largestLights, (this.passes > 1 ? lightBytes * sets : lightBytes));
+            }
+            if (geometryLights == 0) {
+                continue;
+            }
+
+            long geometryBytes = geometryBufferBytes(lightmapSize);
+            totalBytes += geometryBytes + geometryLights;
+            largestUnit = Math.max(largestUnit, geometryBytes + largestLights);
+            largestOutput = Math.max(largestOutput, ((long) lightmapSize) * lightmapSize * 3 * 4 * this.lightGroups.size());
+        }
+
+        long bufferBytes = Math.max(Math.min(totalBytes, this.budget.getBudget()), largestUnit);
+        if (this.pool.isOutOfCore()) {
+            bufferBytes = 0;
+        }
+        return textureBytes + bufferBytes + largestOutput;
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        return future.whenComplete((r, t) -> {
+            if (t != null) {
+                this.aborted = true;
+            }
+        });
+    }
+
+    private void prepare(int geometryIndex) {
+        final BakedLightingOutput finalOutput = this.output;
+        final Geometry finalGeometry = this.geometries.get(geometryIndex);
+        final MeshData.LightmapMesh finalMesh = this.lightmapMeshes[geometryIndex];
+        final int finalLightmapSize = finalMesh.getLightmapSize();
+        final String[] finalGroupsNames = this.groupsNames;
+
+        this.outputTasks.execute(() -> {
+            finalOutput.prepare(finalGeometry, finalMesh, finalLightmapSize, finalGroupsNames);
+        });
+    }
+
+    private void deliver(int geometryIndex, List<CompletableFuture<float[]>> lightmaps) {
+        final BakedLightingOutput finalOutput = this.output;
+        final Geometry finalGeometry = this.geometries.get(geometryIndex);
+        final MeshData.LightmapMesh finalMesh = this.lightmapMeshes[geometryIndex];
+        final int finalLightmapSize = finalMesh.getLightmapSize();
+        final String[] finalGroupsNames = this.groupsNames;
+        final boolean finalProgressive = this.passes > 1;
+        final long[] finalHashes = this.unitHashes[geometryIndex];
+        final float[][] finalLightmaps = new float[lightmaps.size()][];
+        for (int i = 0; i < finalLightmaps.length; i++) {
+            finalLightmaps[i] = lightmaps.get(i).join();
+        }
+
+        this.outputTasks.execute(() -> {
+            if (!finalProgressive) {
+                finalOutput.prepare(finalGeometry, finalMesh, finalLightmapSize, finalGroupsNames);
+            }
+            for (int i = 0; i < finalLightmaps.length; i++) {
+                finalOutput.write(finalLightmaps[i], i, finalHashes[i]);
+            }
+        });
+    }
+
+    private void preview() {
+        BakedLighting preview = new BakedLighting(this);
+        preview.lightGroupOutput = new ColorBuffer(this.geometryLightmapSize, 1, this.pool);
+        for (int i = 0; i < this.progressiveLights.length; i++) {
+            BakedLighting view = new BakedLighting(this.progressiveLights[i]);
+            view.lightGroupOutput = preview.lightGroupOutput;
+            view.denoiseComponents(false);
+            view.measurePhase(Phase.COMBINE, view::combineComponents);
+            if (!this.fastMode) {
+                view.indirectColorBuffer.release(this.pool);
+                view.reverseShadowBuffer.release(this.pool);
+            }
+        }
+        preview.generateMargins();
+
+        final float[] finalLightmap = preview.measurePhase(Phase.OUTPUT, preview::outputLightmap);
+        preview.lightGroupOutput.release(this.pool);
+        final int finalGroupIndex = this.currentLightGroupIndex;
+        final BakedLightingOutput finalOutput = this.output;
+        this.outputTasks.execute(() -> {
+            finalOutput.write(finalLightmap, finalGroupIndex, true);
+        });
+    }
+
+    //lights baked together by each light unit of a group, every light on its
+    //own or every light of the group in a single pass if lights are sampled
+    private int[][] lightSets(int[] lights) {
+        if (this.lightSampling) {
+            return new int[][]{lights};
+        }
+        int[][] sets = new int[lights.length][];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = new int[]{lights[i]};
+        }
+        return sets;
+    }
+
+    //every pass adds a few rays per sample to the accumulated means of every
+    //light of the group, a preview is written after every pass but the last
+    //and the passes stop early if a stop was requested, a lightmap stopped
+    //early has no hash so later bakes do not reuse it as a final one
+    private float[] bakeProgressive(int[] lights) {
+        int[][] sets = lightSets(lights);
+        this.progressiveLights = new BakedLighting[sets.length];
+        for (int i = 0; i < this.progressiveLights.length; i++) {
+            this.progressiveLights[i] = new BakedLighting(this);
+            this.progressiveLights[i].loadLights(sets[i]);
+        }
+
+        int finishedPasses = 0;
+        for (int p = 0; p < this.passes; p++) {
+            if (p != 0 && this.status.isStopRequested()) {
+                break;
+            }
+            for (BakedLighting light : this.progressiveLights) {
+                light.pass = p;
+                light.passWeight = 1f / (p + 1);
+                light.bakeLightComponents();
+            }
+            finishedPasses++;
+            if (p == (this.passes - 1) || this.status.isStopRequested()) {
+                break;
+            }
+            setStatusText("[" + (p + 1) + "/" + this.passes + "] Writing Preview");
+            preview();
+        }
+        if (finishedPasses < this.passes) {
+            this.unitHashes[this.geometryIndex][this.currentLightGroupIndex] = BakeHash.NONE;
+        }
+
+        for (BakedLighting light : this.progressiveLights) {
+            light.denoiseComponents(true);
+            light.measurePhase(Phase.COMBINE, light::combineComponents);
+            light.unloadLight();
+        }
+        this.progressiveLights = null;
+
+        generateMargins();
+        float[] lightmap = measurePhase(Phase.OUTPUT, this::outputLightmap);
+        unloadLightGroup();
+        return lightmap;
+    }
+
+    //remote tiles, the light units of a bake with a BakeCluster send their
+    //tiles to BakeWorker processes, every worker bakes them on units of its
+    //own copy of the scene and sends back the tile values of the light
+    //buffers, tiles of later passes are sent with their current values as
+    //the passes blend into them
+    static BakedLighting remote(Scene scene) {
+        BakedLighting baked = new BakedLighting(null, scene, new Status(), Collections.emptyMap());
+        try {
+            baked.loadTextures();
+            baked.scheduleLightmapMeshes();
+            baked.waitForLightmapMeshes();
+            baked.waitForBVHs();
+        } finally {
+            baked.threads.shutdownNow();
+        }
+        return baked;
+    }
+
+    //units of a worker are accounted in the memory budget, the worker keeps
+    //them while they fit in it
+    long remoteBudget() {
+        return this.budget.getBudget();
+    }
+
+    long remoteGeometryBytes(int index) {
+        return sampleBufferBytes(this.lightmapMeshes[index].getLightmapSize());
+    }
+
+    long remoteLightBytes(int index) {
+        int lightmapSize = this.lightmapMeshes[index].getLightmapSize();
+        long texels = ((long) lightmapSize) * lightmapSize;
+        //direct, indirect and shadow, remote units are never denoised
+        long bytes = ((3 + 3) * (this.halfFloatBuffers ? 2 : 4)) + 4;
+        return texels * this.samplingMode.numSamples() * bytes;
+    }
+
+    BakedLighting remoteGeometry(int index) {
+        this.budget.acquire(remoteGeometryBytes(index), Long.MAX_VALUE);
+        BakedLighting unit = new BakedLighting(this);
+        unit.loadGeometry(index);
+        unit.computeGeometryBuffers();
+        return unit;
+    }
+
+    void releaseRemoteGeometry() {
+        long bytes = remoteGeometryBytes(this.geometryIndex);
+        unloadGeometry();
+        this.budget.release(bytes);
+    }
+
+    BakedLighting remoteLights(int groupIndex, int[] lights) {
+        this.budget.acquire(remoteLightBytes(this.geometryIndex), Long.MAX_VALUE);
+        BakedLighting unit = new BakedLighting(this);
+        unit.currentLightGroupIndex = groupIndex;
+        unit.currentLightGroup = this.lightGroups.get(groupIndex);
+        unit.currentLightGroupLights = unit.currentLightGroup.lights;
+        unit.loadLights(lights);
+        return unit;
+    }
+
+    void releaseRemoteLights() {
+        long bytes = remoteLightBytes(this.geometryIndex);
+        unloadLight();
+        this.budget.release(bytes);
+    }
+
+    BakedLighting remotePass(int pass) {
+        BakedLighting unit = new BakedLighting(this);
+        unit.pass = pass;
+        unit.passWeight = 1f / (pass + 1);
+        return unit;
+    }
+
+    int remoteTiles() {
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        return tilesPerLine * tilesPerLine;
+    }
+
+    boolean isRemoteFirstPass() {
+        return this.pass == 0;
+    }
+
+    void writeRemoteUnit(DataOutput out) throws IOException {
+        out.writeInt(this.geometryIndex);
+        out.writeInt(this.currentLightGroupIndex);
+        out.writeInt(this.currentLightIndices.length);
+        for (int light : this.currentLightIndices) {
+            out.writeInt(light);
+        }
+        out.writeInt(this.pass);
+    }
+
+    void writeRemoteTile(int tile, DataOutput out) throws IOException {
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        int minX = (tile % tilesPerLine) * TILE_SIZE;
+        int minY = (tile / tilesPerLine) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, this.geometryLightmapSize);
+        int maxY = Math.min(minY + TILE_SIZE, this.geometryLightmapSize);
+
+        Vector3f color = new Vector3f();
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                for (int s = 0; s < this.samplingMode.numSamples(); s++) {
+                    this.directColorBuffer.read(color, x, y, s);
+                    out.writeFloat(color.x());
+                    out.writeFloat(color.y());
+                    out.writeFloat(color.z());
+                    this.indirectColorBuffer.read(color, x, y, s);
+                    out.writeFloat(color.x());
+                    out.writeFloat(color.y());
+                    out.writeFloat(color.z());
+                    out.writeFloat(this.reverseShadowBuffer.read(x, y, s));
+                }
+            }
+        }
+    }
+
+    void readRemoteTile(int tile, DataInput in) throws IOException {
+        int tilesPerLine = tilesPerLine(this.geometryLightmapSize);
+        int minX = (tile % tilesPerLine) * TILE_SIZE;
+        int minY = (tile / tilesPerLine) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, this.geometryLightmapSize);
+        int maxY = Math.min(minY + TILE_SIZE, this.geometryLightmapSize);
+
+        Vector3f color = new Vector3f();
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                for (int s = 0; s < this.samplingMode.numSamples(); s++) {
+                    color.set(in.readFloat(), in.readFloat(), in.readFloat());
+                    this.directColorBuffer.write(color, x, y, s);
+                    color.set(in.readFloat(), in.readFloat(), in.readFloat());
+                    this.indirectColorBuffer.write(color, x, y, s);
+                    this.reverseShadowBuffer.write(in.readFloat(), x, y, s);
+                }
+            }
+        }
+    }
+
+    void bakeRemoteTile(int tile) {
+        bakeTile(tile);
+    }
+
+    //tiles left when no worker is alive are baked by the coordinator
+    void bakeLocalTiles(int[] tiles) {
+        parallelFor(tiles.length, (i) -> processTile(tiles[i]));
+    }
+
+    void remoteTileDone() {
+        stepTile();
+    }
 
-        this.status.currentProgress = 100f;
+    //shadow, bounce and light rays, texels, indirect samples and indirect rays
+    long[] remoteMetrics() {
+        return new long[]{
+            this.status.getShadowRays(),
+            this.status.getBounceRays(),
+            this.status.getLightRays(),
+            this.status.getTexels(),
+            this.status.indirectSamples.get(),
+            this.status.indirectRays.get()
+        };
+    }
+
+    void addRemoteMetrics(long[] metrics) {
+        this.status.shadowRays.add(metrics[0]);
+        this.status.bounceRays.add(metrics[1]);
+        this.status.lightRays.add(metrics[2]);
+        this.status.texels.add(metrics[3]);
+        this.status.addIndirectRays(metrics[4], metrics[5]);
+    }
+
+    //every (geometry, light) unit runs on its own copy of the baker, units of
+    //different lights and geometries overlap while their sample buffers fit in
+    //the memory budget, lights are combined in order and geometries are
+    //delivered to the output in order
+    //
+    //with light sampling a group has a single light unit that bakes all of
+    //its lights, so samples are set up once and rays are shared by the lights
+    //
+    //progressive bakes keep every light of a group until its last pass and
+    //bake geometries one after the other, so the output receives the previews
+    //of a single geometry between prepare and the final writes
+    private void bakeUnits() {
+        boolean progressive = this.passes > 1;
+
+        float[][][] reused = new float[this.geometries.size()][this.lightGroups.size()][];
+        int[][][] reaching = new int[this.geometries.size()][this.lightGroups.size()][];
+        int reusedUnits = 0;
+        int culledUnits = 0;
+
+        int totalTiles = 0;
+        for (int i = 0; i < this.geometries.size(); i++) {
+            Geometry geo = this.geometries.get(i);
+            int tilesPerLine = tilesPerLine(this.lightmapMeshes[i].getLightmapSize());
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                List<Scene.Light> lights = this.lightGroups.get(j).lights;
+
+                reaching[i][j] = new int[lights.size()];
+                int count = 0;
+                for (int k = 0; k < lights.size(); k++) {
+                    if (lightReaches(lights.get(k), geo)) {
+                        reaching[i][j][count++] = k;
+                    } else {
+                        culledUnits++;
+                    }
+                }
+                reaching[i][j] = Arrays.copyOf(reaching[i][j], count);
+
+                reused[i][j] = previousLightmap(i, j);
+                if (reused[i][j] != null) {
+                    reusedUnits++;
+                    continue;
+                }
+                totalTiles += tilesPerLine * tilesPerLine * lightSets(reaching[i][j]).length * this.passes;
+            }
+        }
+        this.status.reusedUnits = reusedUnits;
+        this.status.culledUnits = culledUnits;
+        this.status.estimatedPeakMemory = estimatePeakMemory(reused, reaching);
+
+        this.status.setTiles(totalTiles);
+        this.status.resetMetrics();
+        setStatusText("[0/" + totalTiles + "] Baking Tiles");
+
+        List<CompletableFuture<?>> units = new ArrayList<>();
+        CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+
+        for (int i = 0; i < this.geometries.size() && !this.aborted; i++) {
+            final int geometryIndex = i;
+            final int lightmapSize = this.lightmapMeshes[i].getLightmapSize();
+
+            if (progressive) {
+                try {
+                    delivered.join();
+                } catch (CompletionException ex) {
+                    break;
+                }
+                prepare(geometryIndex);
+            }
+
+            boolean dirty = false;
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                if (reused[i][j] == null && reaching[i][j].length != 0) {
+                    dirty = true;
+                    break;
+                }
+            }
+
+            final long geometryBytes;
+            CompletableFuture<BakedLighting> geometryUnit;
+            if (dirty) {
+                geometryBytes = this.budget.acquire(geometryBufferBytes(lightmapSize), 0L);
+                geometryUnit = track(CompletableFuture.supplyAsync(() -> {
+                    BakedLighting unit = new BakedLighting(this);
+                    unit.loadGeometry(geometryIndex);
+                    unit.measurePhase(Phase.GEOMETRY_BUFFERS, unit::computeGeometryBuffers);
+                    return unit;
+                }, this.threads));
+            } else {
+                geometryBytes = 0L;
+                geometryUnit = CompletableFuture.completedFuture(null);
+            }
+
+            List<CompletableFuture<float[]>> lightmaps = new ArrayList<>();
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                final int groupIndex = j;
+
+                if (reused[i][j] != null) {
+                    lightmaps.add(CompletableFuture.completedFuture(reused[i][j]));
+                    continue;
+                }
+
+                //no light of the group reaches the geometry
+                if (reaching[i][j].length == 0) {
+                    lightmaps.add(CompletableFuture.completedFuture(new float[lightmapSize * lightmapSize * 3]));
+                    continue;
+                }
+
+                final int[] groupLights = reaching[i][j];
+
+                CompletableFuture<BakedLighting> groupUnit = geometryUnit.thenApply((g) -> {
+                    BakedLighting unit = new BakedLighting(g);
+                    unit.loadLightGroup(groupIndex);
+                    return unit;
+                });
+
+                if (progressive) {
+                    final long groupBytes = this.budget.acquire(
+                            lightBufferBytes(lightmapSize) * lightSets(groupLights).length,
+                            geometryBytes
+                    );
+                    CompletableFuture<float[]> lightmap = track(groupUnit.thenApplyAsync((g) -> {
+                        return g.bakeProgressive(groupLights);
+                    }, this.threads));
+                    lightmap.whenComplete((r, t) -> this.budget.release(groupBytes));
+                    lightmaps.add(lightmap);
+                    continue;
+                }
+
+                CompletableFuture<BakedLighting> combined = groupUnit;
+                for (final int[] lightSet : lightSets(groupLights)) {
+                    final long lightBytes = this.budget.acquire(lightBufferBytes(lightmapSize), geometryBytes);
+                    CompletableFuture<BakedLighting> lightUnit = groupUnit.thenApplyAsync((g) -> {
+                        BakedLighting unit = new BakedLighting(g);
+                        unit.loadLights(lightSet);
+                        unit.bakeLightComponents();
+                        unit.denoiseComponents(true);
+                        return unit;
+                    }, this.threads);
+
+                    combined = track(combined.thenCombineAsync(lightUnit, (g, unit) -> {
+                        unit.measurePhase(Phase.COMBINE, unit::combineComponents);
+                        unit.unloadLight();
+                        return g;
+                    }, this.threads));
+                    combined.whenComplete((r, t) -> this.budget.release(lightBytes));
+                }
+
+                lightmaps.add(track(combined.thenApplyAsync((g) -> {
+                    g.generateMargins();
+                    float[] lightmap = g.measurePhase(Phase.OUTPUT, g::outputLightmap);
+                    g.unloadLightGroup();
+                    return lightmap;
+                }, this.threads)));
+            }
+
+            List<CompletableFuture<?>> geometryUnits = new ArrayList<>(lightmaps);
+            geometryUnits.add(geometryUnit);
+            CompletableFuture<Void> geometryDone = CompletableFuture
+                    .allOf(geometryUnits.toArray(CompletableFuture[]::new));
+            final CompletableFuture<BakedLighting> finalGeometryUnit = geometryUnit;
+            geometryDone.whenComplete((r, t) -> {
+                finalGeometryUnit.thenAccept((g) -> {
+                    if (g != null) {
+                        g.unloadGeometry();
+                    }
+                });
+                this.budget.release(geometryBytes);
+            });
+            units.add(geometryDone);
+
+            delivered = delivered.thenCombine(geometryDone, (a, b) -> {
+                deliver(geometryIndex, lightmaps);
+                return null;
+            });
+        }
+
+        try {
+            CompletableFuture.allOf(units.toArray(CompletableFuture[]::new)).join();
+            delivered.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException e) {
+                throw e;
+            }
+            if (cause instanceof Error e) {
+                throw e;
+            }
+            throw ex;
+        } finally {
+            this.status.timeEnd = System.currentTimeMillis();
+        }
+    }
+
+    private void writeMetricsReport() {
+        Path file = this.scene.getMetricsReportFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.writeString(file, this.status.getMetricsReport(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     public void bake() {
@@ -1626,26 +3616,14 @@ public class BakedLighting {
             scheduleLightmapMeshes();
             waitForLightmapMeshes();
             waitForBVHs();
-            for (int i = 0; i < this.geometries.size(); i++) {
-                loadGeometry(i);
-                computeGeometryBuffers();
-                for (int j = 0; j < this.lightGroups.size(); j++) {
-                    loadLightGroup(j);
-                    for (int k = 0; k < this.currentLightGroupLights.size(); k++) {
-                        loadLight(k);
-                        bakeLightComponents();
-                        denoiseComponents();
-                        combineComponents();
-                        unloadLight();
-                    }
-                    generateMargins();
-                    outputLightmap();
-                    unloadLightGroup();
-                }
-                unloadGeometry();
+            computeHashes();
+            bakeUnits();
+            if (!this.aborted) {
+                writeMetricsReport();
             }
         } finally {
             this.threads.shutdownNow();
+            this.pool.clear();
         }
     }
 
@@ -0,0 +1,83 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+/**
+ * Conversions between floats and IEEE 754 half floats stored in shorts.
+ * <p>
+ * Values are rounded to the nearest half float, values too large for a half
+ * float are clamped to the largest finite half float with the same sign so
+ * buffers never hold infinities.
+ *
+ * @author Cien
+ */
+public class HalfFloat {
+
+    public static final float MAX_VALUE = 65504f;
+
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7FFFFFFF;
+
+        if (abs > 0x7F800000) {
+            return (short) (sign | 0x7E00);
+        }
+        if (abs >= 0x477FE000) {
+            return (short) (sign | 0x7BFF);
+        }
+        if (abs < 0x38800000) {
+            //subnormal, rounding up to 1024 gives the smallest normal
+            int mantissa = Math.round(Float.intBitsToFloat(abs) * 0x1p24f);
+            return (short) (sign | mantissa);
+        }
+
+        //round to nearest even, a carry moves into the exponent
+        int rounded = abs + 0x0FFF + ((abs >>> 13) & 1);
+        return (short) (sign | ((rounded - 0x38000000) >>> 13));
+    }
+
+    public static float toFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x03FF;
+
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return (sign != 0 ? -value : value);
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    private HalfFloat() {
+
+    }
+
+}
@@ -0,0 +1,440 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import cientistavuador.physicsexperiment.resources.image.ImageResources;
+import cientistavuador.physicsexperiment.resources.image.NativeImage;
+import cientistavuador.physicsexperiment.resources.mesh.MeshConfiguration;
+import cientistavuador.physicsexperiment.resources.mesh.MeshData;
+import cientistavuador.physicsexperiment.resources.mesh.MeshResources;
+import cientistavuador.physicsexperiment.util.LightmapFile;
+import cientistavuador.physicsexperiment.util.SoftwareTexture;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.joml.Matrix4f;
+
+/**
+ * Headless lightmap baker, bakes a scene description without a window or an
+ * OpenGL context and writes a .lightmap file for every geometry.
+ * <p>
+ * Usage: LightmapBaker [scene file] [output directory] (workers)
+ * <p>
+ * The scene file has one command per line, empty lines and lines starting
+ * with # are ignored, meshes and images are loaded from the resources:
+ * <pre>
+ * set [scene property] [value]
+ * mesh [obj resource]
+ * texture [mesh name] [image resource]
+ * geometry [mesh name] [lightmap scale] (model matrix, 16 floats column major)
+ * sun [group] [direction xyz] [diffuse rgb] (ambient rgb)
+ * point [group] [position xyz] [diffuse rgb] (light size)
+ * spot [group] [position xyz] [direction xyz] [diffuse rgb] [cutoff] [outer cutoff]
+ * </pre>
+ * Meshes without a texture are baked as white, no OpenGL texture is ever
+ * read back.
+ * <p>
+ * Lightmaps already in the output directory are reused if their inputs did
+ * not change. If a number of workers is given, tiles are baked by that many
+ * {@link BakeWorker} processes of a {@link BakeCluster}, the heap of every
+ * worker is the bake memory budget of the scene plus room for the scene.
+ *
+ * @author Cien
+ */
+public class LightmapBaker {
+
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: LightmapBaker [scene file] [output directory] (workers)");
+            System.exit(1);
+            return;
+        }
+        try {
+            Path file = Path.of(args[0]);
+            List<String> description = Files.readAllLines(file, StandardCharsets.UTF_8);
+            LightmapBaker baker = new LightmapBaker(file.toString());
+            baker.load(description);
+            if (args.length == 3) {
+                try (BakeCluster cluster = BakeCluster.start(
+                        file.toString(), description,
+                        Integer.parseInt(args[2]), BakeCluster.workerHeapSize(baker.scene)
+                )) {
+                    baker.scene.setBakeCluster(cluster);
+                    baker.bake(Path.of(args[1]));
+                }
+            } else {
+                baker.bake(Path.of(args[1]));
+            }
+        } catch (Throwable t) {
+            t.printStackTrace(System.out);
+            System.exit(1);
+        }
+    }
+
+    //bakes the description into the output directory, tiles are baked by the
+    //workers of the cluster if it is not null
+    static void bake(String name, List<String> description, Path outputDirectory, BakeCluster cluster) throws IOException, InterruptedException, ExecutionException {
+        LightmapBaker baker = new LightmapBaker(name);
+        baker.load(description);
+        baker.scene.setBakeCluster(cluster);
+        baker.bake(outputDirectory);
+    }
+
+    //workers build the scene of the coordinator from the same description
+    static Scene load(String name, List<String> description) {
+        LightmapBaker baker = new LightmapBaker(name);
+        baker.load(description);
+        return baker.scene;
+    }
+
+    //IO
+    private final String file;
+    private int currentLine = 0;
+
+    //scene
+    private final Scene scene = new Scene();
+    private final Map<String, MeshData> meshes = new HashMap<>();
+    private final Map<String, Integer> textureHints = new HashMap<>();
+
+    private LightmapBaker(String file) {
+        this.file = file;
+    }
+
+    private float parseFloat(String[] split, int splitIndex) {
+        try {
+            return Float.parseFloat(split[splitIndex]);
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Float parse error, in " + this.file + ", line " + this.currentLine + ", argument " + splitIndex, ex);
+        }
+    }
+
+    private void requireArguments(String[] split, int... amounts) {
+        for (int amount : amounts) {
+            if ((split.length - 1) == amount) {
+                return;
+            }
+        }
+        throw new RuntimeException("In " + this.file + ", line " + this.currentLine + ", " + split[0] + " has the wrong amount of arguments.");
+    }
+
+    private MeshData mesh(String name) {
+        MeshData mesh = this.meshes.get(name);
+        if (mesh == null) {
+            throw new RuntimeException("In " + this.file + ", line " + this.currentLine + ", mesh '" + name + "' not loaded.");
+        }
+        return mesh;
+    }
+
+    private int texture(String name) {
+        Integer hint = this.textureHints.get(name);
+        if (hint != null) {
+            return hint;
+        }
+        NativeImage image = ImageResources.load(name, 4);
+        SoftwareTexture texture;
+        try {
+            texture = SoftwareTexture.fromNativeImage(image);
+        } finally {
+            image.free();
+        }
+        //hints are only keys of the scene textures, no OpenGL texture exists
+        hint = this.textureHints.size() + 1;
+        this.textureHints.put(name, hint);
+        this.scene.getTextures().put(hint, texture);
+        return hint;
+    }
+
+    private void set(String property, String value) {
+        String setter = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Method method : Scene.class.getMethods()) {
+            if (!method.getName().equals(setter) || method.getParameterCount() != 1) {
+                continue;
+            }
+            Class<?> type = method.getParameterTypes()[0];
+            Object argument;
+            try {
+                if (type == boolean.class) {
+                    argument = Boolean.parseBoolean(value);
+                } else if (type == int.class) {
+                    argument = Integer.parseInt(value);
+                } else if (type == long.class) {
+                    argument = Long.parseLong(value);
+                } else if (type == float.class) {
+                    argument = Float.parseFloat(value);
+                } else if (type == Path.class) {
+                    argument = Path.of(value);
+                } else if (type.isEnum()) {
+                    argument = enumValue(type, value);
+                } else {
+                    continue;
+                }
+            } catch (IllegalArgumentException ex) {
+                throw new RuntimeException("In " + this.file + ", line " + this.currentLine + ", invalid value '" + value + "' for " + property + ".", ex);
+            }
+            try {
+                method.invoke(this.scene, argument);
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                throw new RuntimeException(ex);
+            }
+            return;
+        }
+        throw new RuntimeException("In " + this.file + ", line " + this.currentLine + ", unknown scene property '" + property + "'.");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String value) {
+        return Enum.valueOf((Class) type, value);
+    }
+
+    private void processLine(String line) {
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        String[] split = line.split(Pattern.quote(" ") + "+");
+        switch (split[0]) {
+            case "set" -> {
+                requireArguments(split, 2);
+                set(split[1], split[2]);
+            }
+            case "mesh" -> {
+                requireArguments(split, 1);
+                for (MeshData mesh : MeshResources.load(MeshConfiguration.lightmapped(split[1]))) {
+                    this.meshes.put(mesh.getName(), mesh);
+                }
+            }
+            case "texture" -> {
+                requireArguments(split, 2);
+                mesh(split[1]).setTextureHint(texture(split[2]));
+            }
+            case "geometry" -> {
+                requireArguments(split, 2, 18);
+                Geometry geometry = new Geometry(mesh(split[1]));
+                geometry.setLightmapScale(parseFloat(split, 2));
+                if (split.length > 3) {
+                    float[] model = new float[16];
+                    for (int i = 0; i < model.length; i++) {
+                        model[i] = parseFloat(split, 3 + i);
+                    }
+                    geometry.setModel(new Matrix4f().set(model));
+                }
+                geometry.setStatic(true);
+                this.scene.getGeometries().add(geometry);
+            }
+            case "sun" -> {
+                requireArguments(split, 7, 10);
+                Scene.DirectionalLight sun = new Scene.DirectionalLight();
+                sun.setGroupName(split[1]);
+                sun.setDirection(parseFloat(split, 2), parseFloat(split, 3), parseFloat(split, 4));
+                sun.setDiffuse(parseFloat(split, 5), parseFloat(split, 6), parseFloat(split, 7));
+                if (split.length > 8) {
+                    sun.setAmbient(parseFloat(split, 8), parseFloat(split, 9), parseFloat(split, 10));
+                }
+                this.scene.getLights().add(sun);
+            }
+            case "point" -> {
+                requireArguments(split, 7, 8);
+                Scene.PointLight point = new Scene.PointLight();
+                point.setGroupName(split[1]);
+                point.setPosition(parseFloat(split, 2), parseFloat(split, 3), parseFloat(split, 4));
+                point.setDiffuse(parseFloat(split, 5), parseFloat(split, 6), parseFloat(split, 7));
+                if (split.length > 8) {
+                    point.setLightSize(parseFloat(split, 8));
+                }
+                this.scene.getLights().add(point);
+            }
+            case "spot" -> {
+                requireArguments(split, 12);
+                Scene.SpotLight spot = new Scene.SpotLight();
+                spot.setGroupName(split[1]);
+                spot.setPosition(parseFloat(split, 2), parseFloat(split, 3), parseFloat(split, 4));
+                spot.setDirection(parseFloat(split, 5), parseFloat(split, 6), parseFloat(split, 7));
+                spot.setDiffuse(parseFloat(split, 8), parseFloat(split, 9), parseFloat(split, 10));
+                spot.setCutoffAngle(parseFloat(split, 11));
+                spot.setOuterCutoffAngle(parseFloat(split, 12));
+                this.scene.getLights().add(spot);
+            }
+            default -> {
+                throw new RuntimeException("In " + this.file + ", line " + this.currentLine + ", unknown command '" + split[0] + "'.");
+            }
+        }
+    }
+
+    private void load(List<String> description) {
+        for (String line : description) {
+            this.currentLine++;
+            processLine(line);
+        }
+    }
+
+    private static Path lightmapFile(Path directory, int index, Geometry geometry) {
+        return directory.resolve(index + "_" + geometry.getMesh().getName() + ".lightmap");
+    }
+
+    private Map<Geometry, LightmapFile.LightmapData> previous(Path directory) throws IOException {
+        Map<Geometry, LightmapFile.LightmapData> previous = new HashMap<>();
+        List<Geometry> geometries = this.scene.getGeometries();
+        for (int i = 0; i < geometries.size(); i++) {
+            Path lightmap = lightmapFile(directory, i, geometries.get(i));
+            if (!Files.isRegularFile(lightmap)) {
+                continue;
+            }
+            try (InputStream stream = Files.newInputStream(lightmap)) {
+                previous.put(geometries.get(i), LightmapFile.decode(stream));
+            }
+        }
+        return previous;
+    }
+
+    //collects the groups of a geometry and writes them when the last arrives,
+    //every call comes from the single output thread
+    private static class LightmapWriter implements BakedLighting.BakedLightingOutput {
+
+        private final Path directory;
+        private final Map<Geometry, Integer> indices = new HashMap<>();
+
+        private Geometry geometry = null;
+        private MeshData.LightmapMesh mesh = null;
+        private int lightmapSize = 0;
+        private String[] groups = null;
+        private int count = 0;
+        private float[][] lightmaps = null;
+        private long[] hashes = null;
+
+        public LightmapWriter(Path directory, List<Geometry> geometries) {
+            this.directory = directory;
+            for (int i = 0; i < geometries.size(); i++) {
+                this.indices.put(geometries.get(i), i);
+            }
+        }
+
+        @Override
+        public void prepare(Geometry geometry, MeshData.LightmapMesh mesh, int lightmapSize, String[] groups) {
+            this.geometry = geometry;
+            this.mesh = mesh;
+            this.lightmapSize = lightmapSize;
+            this.groups = groups;
+            this.count = groups.length;
+            this.lightmaps = new float[groups.length][];
+            this.hashes = new long[groups.length];
+        }
+
+        @Override
+        public void write(float[] lightmap, int groupIndex, long hash) {
+            this.hashes[groupIndex] = hash;
+            write(lightmap, groupIndex);
+        }
+
+        @Override
+        public void write(float[] lightmap, int groupIndex) {
+            this.lightmaps[groupIndex] = lightmap;
+
+            this.count--;
+            if (this.count != 0) {
+                return;
+            }
+
+            LightmapFile.Lightmap[] output = new LightmapFile.Lightmap[this.groups.length];
+            for (int i = 0; i < output.length; i++) {
+                output[i] = new LightmapFile.Lightmap(this.groups[i], this.lightmaps[i], this.hashes[i]);
+            }
+            LightmapFile.LightmapData data = new LightmapFile.LightmapData(
+                    this.mesh.getPixelToWorldRatio(),
+                    this.mesh.getScaleX(),
+                    this.mesh.getScaleY(),
+                    this.mesh.getScaleZ(),
+                    this.lightmapSize,
+                    output
+            );
+
+            Path lightmapFile = lightmapFile(this.directory, this.indices.get(this.geometry), this.geometry);
+            try (OutputStream stream = Files.newOutputStream(lightmapFile)) {
+                LightmapFile.encode(data, 0.001f, stream);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            System.out.println("Wrote " + lightmapFile);
+
+            this.lightmaps = null;
+        }
+    }
+
+    private void bake(Path outputDirectory) throws IOException, InterruptedException, ExecutionException {
+        Files.createDirectories(outputDirectory);
+
+        ExecutorService outputThread = Executors.newSingleThreadExecutor();
+        Queue<Future<?>> outputTasks = new ConcurrentLinkedQueue<>();
+        this.scene.setOutputExecutor((task) -> outputTasks.add(outputThread.submit(task)));
+
+        BakedLighting.Status status = BakedLighting.bake(
+                new LightmapWriter(outputDirectory, this.scene.getGeometries()),
+                this.scene,
+                previous(outputDirectory)
+        );
+
+        String lastStatus = null;
+        while (!status.isDone()) {
+            String currentStatus = status.getCurrentStatus();
+            if (!currentStatus.equals(lastStatus)) {
+                System.out.println(status.getASCIIProgressBar() + " " + currentStatus);
+                lastStatus = currentStatus;
+            }
+            Thread.sleep(1000);
+        }
+
+        outputThread.shutdown();
+        outputThread.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        status.throwException();
+        Future<?> outputTask;
+        while ((outputTask = outputTasks.poll()) != null) {
+            outputTask.get();
+        }
+        System.out.println(status.getCurrentStatus());
+        System.out.println(status.getRaysPerSecondFormatted());
+        System.out.println(status.getTexelsPerSecondFormatted());
+    }
+
+}
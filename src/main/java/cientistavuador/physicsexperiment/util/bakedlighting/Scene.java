@@ -27,8 +27,13 @@
 package cientistavuador.physicsexperiment.util.bakedlighting;
 
 import cientistavuador.physicsexperiment.geometry.Geometry;
+import cientistavuador.physicsexperiment.util.SoftwareTexture;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 
@@ -156,6 +161,14 @@ public class Scene {
         public void setBakeCutoff(float bakeCutoff) {
             this.bakeCutoff = bakeCutoff;
         }
+
+        //distance where the luminance of the light falls below the bake cutoff
+        public float getInfluenceRadius() {
+            if (this.bakeCutoff <= 0f) {
+                return Float.POSITIVE_INFINITY;
+            }
+            return (float) Math.sqrt(getLuminance() / this.bakeCutoff);
+        }
         
     }
     
@@ -234,12 +247,26 @@ public class Scene {
     private int indirectBounces = 4;
     private float indirectLightingBlurArea = 4f;
     private float indirectLightReflectionFactor = 1f;
+    private float indirectErrorTarget = 0f;
+    private int indirectMinRaysPerSample = 4;
+    private int indirectMaxRaysPerSample = 32;
 
     private float rayOffset = 0.001f;
     private boolean fillDisabledValuesWithLightColors = false;
 
     private boolean fastModeEnabled = false;
 
+    private long bakeMemoryBudget = 512L * 1024L * 1024L;
+    private int progressivePasses = 1;
+    private boolean lightSamplingEnabled = false;
+    private boolean halfFloatBuffersEnabled = false;
+    private boolean outOfCoreEnabled = false;
+    private Path scratchDirectory = null;
+    private Path metricsReportFile = null;
+    private final Map<Integer, SoftwareTexture> textures = new HashMap<>();
+    private Executor outputExecutor = null;
+    private BakeCluster bakeCluster = null;
+
     public Scene() {
 
     }
@@ -340,6 +367,30 @@ public class Scene {
         this.indirectLightReflectionFactor = indirectLightReflectionFactor;
     }
 
+    public float getIndirectErrorTarget() {
+        return indirectErrorTarget;
+    }
+
+    public void setIndirectErrorTarget(float indirectErrorTarget) {
+        this.indirectErrorTarget = indirectErrorTarget;
+    }
+
+    public int getIndirectMinRaysPerSample() {
+        return indirectMinRaysPerSample;
+    }
+
+    public void setIndirectMinRaysPerSample(int indirectMinRaysPerSample) {
+        this.indirectMinRaysPerSample = indirectMinRaysPerSample;
+    }
+
+    public int getIndirectMaxRaysPerSample() {
+        return indirectMaxRaysPerSample;
+    }
+
+    public void setIndirectMaxRaysPerSample(int indirectMaxRaysPerSample) {
+        this.indirectMaxRaysPerSample = indirectMaxRaysPerSample;
+    }
+
     public float getRayOffset() {
         return rayOffset;
     }
@@ -356,6 +407,86 @@ public class Scene {
         this.fastModeEnabled = fastModeEnabled;
     }
 
+    public long getBakeMemoryBudget() {
+        return bakeMemoryBudget;
+    }
+
+    public void setBakeMemoryBudget(long bakeMemoryBudget) {
+        this.bakeMemoryBudget = bakeMemoryBudget;
+    }
+
+    public int getProgressivePasses() {
+        return progressivePasses;
+    }
+
+    public void setProgressivePasses(int progressivePasses) {
+        this.progressivePasses = progressivePasses;
+    }
+
+    public boolean isLightSamplingEnabled() {
+        return lightSamplingEnabled;
+    }
+
+    public void setLightSamplingEnabled(boolean lightSamplingEnabled) {
+        this.lightSamplingEnabled = lightSamplingEnabled;
+    }
+
+    public boolean isHalfFloatBuffersEnabled() {
+        return halfFloatBuffersEnabled;
+    }
+
+    public void setHalfFloatBuffersEnabled(boolean halfFloatBuffersEnabled) {
+        this.halfFloatBuffersEnabled = halfFloatBuffersEnabled;
+    }
+
+    public boolean isOutOfCoreEnabled() {
+        return outOfCoreEnabled;
+    }
+
+    public void setOutOfCoreEnabled(boolean outOfCoreEnabled) {
+        this.outOfCoreEnabled = outOfCoreEnabled;
+    }
+
+    public Path getScratchDirectory() {
+        return scratchDirectory;
+    }
+
+    public void setScratchDirectory(Path scratchDirectory) {
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    public Path getMetricsReportFile() {
+        return metricsReportFile;
+    }
+
+    public void setMetricsReportFile(Path metricsReportFile) {
+        this.metricsReportFile = metricsReportFile;
+    }
+
+    //textures decoded on the cpu by texture hint, textures of the other hints
+    //are read back from OpenGL on the main thread
+    public Map<Integer, SoftwareTexture> getTextures() {
+        return textures;
+    }
+
+    public Executor getOutputExecutor() {
+        return outputExecutor;
+    }
+
+    //the output is called on the main thread of the game if null
+    public void setOutputExecutor(Executor outputExecutor) {
+        this.outputExecutor = outputExecutor;
+    }
+
+    public BakeCluster getBakeCluster() {
+        return bakeCluster;
+    }
+
+    //tiles are baked by the workers of the cluster if not null
+    public void setBakeCluster(BakeCluster bakeCluster) {
+        this.bakeCluster = bakeCluster;
+    }
+
     public void setFillDisabledValuesWithLightColors(boolean fillDisabledValuesWithLightColors) {
         this.fillDisabledValuesWithLightColors = fillDisabledValuesWithLightColors;
     }
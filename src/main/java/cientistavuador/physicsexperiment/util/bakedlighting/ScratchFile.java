@@ -0,0 +1,147 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file mapped in memory, used to keep the buffers of a bake out
+ * of the heap so only the pages being worked on are resident.
+ * <p>
+ * A single mapping can not be larger than 2 GiB, so the file is mapped in
+ * chunks of {@link #CHUNK_SIZE} bytes. Values are accessed by element index
+ * and a file must only hold one type of element, so no value crosses a
+ * chunk. The file starts filled with zeros, can be zeroed again with
+ * {@link #clear()} to be reused and is deleted when closed.
+ *
+ * @author Cien
+ */
+public class ScratchFile implements AutoCloseable {
+
+    public static final int CHUNK_SHIFT = 30;
+    public static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    public static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final byte[] ZEROS = new byte[65536];
+
+    private final long size;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+
+    public ScratchFile(Path directory, long size) throws IOException {
+        this.size = size;
+
+        Path path = Files.createTempFile(directory, "bake", ".scratch");
+        this.channel = FileChannel.open(
+                path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE
+        );
+
+        try {
+            int count = (int) Math.max((size + CHUNK_MASK) >>> CHUNK_SHIFT, 1);
+            this.chunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = ((long) i) << CHUNK_SHIFT;
+                long length = Math.min(size - position, CHUNK_SIZE);
+                this.chunks[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(length, 0));
+                this.chunks[i].order(ByteOrder.nativeOrder());
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.channel.close();
+            throw ex;
+        }
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public void clear() {
+        for (MappedByteBuffer chunk : this.chunks) {
+            int capacity = chunk.capacity();
+            for (int i = 0; i < capacity; i += ZEROS.length) {
+                chunk.put(i, ZEROS, 0, Math.min(ZEROS.length, capacity - i));
+            }
+        }
+    }
+
+    public short getShort(long index) {
+        long offset = index << 1;
+        return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getShort((int) (offset & CHUNK_MASK));
+    }
+
+    public void putShort(long index, short value) {
+        long offset = index << 1;
+        this.chunks[(int) (offset >>> CHUNK_SHIFT)].putShort((int) (offset & CHUNK_MASK), value);
+    }
+
+    public int getInt(long index) {
+        long offset = index << 2;
+        return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+    }
+
+    public void putInt(long index, int value) {
+        long offset = index << 2;
+        this.chunks[(int) (offset >>> CHUNK_SHIFT)].putInt((int) (offset & CHUNK_MASK), value);
+    }
+
+    public float getFloat(long index) {
+        long offset = index << 2;
+        return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getFloat((int) (offset & CHUNK_MASK));
+    }
+
+    public void putFloat(long index, float value) {
+        long offset = index << 2;
+        this.chunks[(int) (offset >>> CHUNK_SHIFT)].putFloat((int) (offset & CHUNK_MASK), value);
+    }
+
+    public long getLong(long index) {
+        long offset = index << 3;
+        return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+    }
+
+    public void putLong(long index, long value) {
+        long offset = index << 3;
+        this.chunks[(int) (offset >>> CHUNK_SHIFT)].putLong((int) (offset & CHUNK_MASK), value);
+    }
+
+    //the file is deleted now, its disk space is given back when the
+    //mappings are collected, so they stay valid and never fault
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
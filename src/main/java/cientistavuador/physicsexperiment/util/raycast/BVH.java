@@ -29,9 +29,9 @@ package cientistavuador.physicsexperiment.util.raycast;
 import cientistavuador.physicsexperiment.util.Aab;
 import cientistavuador.physicsexperiment.util.MeshUtils;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 
@@ -41,187 +41,334 @@ import org.joml.Vector3fc;
  */
 public class BVH implements Aab {
 
-    public static BVH create(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
-        if (vertices.length == 0) {
-            return new BVH(vertices, indices, vertexSize, xyzOffset, new Vector3f(), new Vector3f());
-        }
+    public static final int MAX_LEAF_TRIANGLES = 4;
 
-        final float aabOffset = 0.0001f;
-        final int numberOfTriangles = indices.length / 3;
+    private static final int SAH_BINS = 16;
+    private static final float SAH_TRAVERSAL_COST = 1f;
+    private static final float SAH_INTERSECTION_COST = 1f;
+    private static final int PARALLEL_BUILD_THRESHOLD = 4096;
 
-        BVH[] currentArray = new BVH[numberOfTriangles];
+    private static class SAHBuilder {
 
-        for (int i = 0; i < numberOfTriangles; i++) {
-            int v0 = (indices[(i * 3) + 0] * vertexSize) + xyzOffset;
-            int v1 = (indices[(i * 3) + 1] * vertexSize) + xyzOffset;
-            int v2 = (indices[(i * 3) + 2] * vertexSize) + xyzOffset;
+        private final float[] vertices;
+        private final int[] indices;
+        private final int vertexSize;
+        private final int xyzOffset;
 
-            float v0x = vertices[v0 + 0];
-            float v0y = vertices[v0 + 1];
-            float v0z = vertices[v0 + 2];
+        private final int numberOfTriangles;
+        private final float[] triangleBounds;
+        private final float[] triangleCentroids;
+        private final int[] triangleOrder;
 
-            float v1x = vertices[v1 + 0];
-            float v1y = vertices[v1 + 1];
-            float v1z = vertices[v1 + 2];
+        public SAHBuilder(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+            this.vertices = vertices;
+            this.indices = indices;
+            this.vertexSize = vertexSize;
+            this.xyzOffset = xyzOffset;
 
-            float v2x = vertices[v2 + 0];
-            float v2y = vertices[v2 + 1];
-            float v2z = vertices[v2 + 2];
+            this.numberOfTriangles = indices.length / 3;
+            this.triangleBounds = new float[this.numberOfTriangles * 6];
+            this.triangleCentroids = new float[this.numberOfTriangles * 3];
+            this.triangleOrder = new int[this.numberOfTriangles];
+        }
 
-            float minX = Math.min(v0x, Math.min(v1x, v2x));
-            float minY = Math.min(v0y, Math.min(v1y, v2y));
-            float minZ = Math.min(v0z, Math.min(v1z, v2z));
+        private void computeTriangleBounds() {
+            final float aabOffset = 0.0001f;
 
-            float maxX = Math.max(v0x, Math.max(v1x, v2x));
-            float maxY = Math.max(v0y, Math.max(v1y, v2y));
-            float maxZ = Math.max(v0z, Math.max(v1z, v2z));
+            for (int i = 0; i < this.numberOfTriangles; i++) {
+                int v0 = (this.indices[(i * 3) + 0] * this.vertexSize) + this.xyzOffset;
+                int v1 = (this.indices[(i * 3) + 1] * this.vertexSize) + this.xyzOffset;
+                int v2 = (this.indices[(i * 3) + 2] * this.vertexSize) + this.xyzOffset;
 
-            if (Math.abs(maxX - minX) < aabOffset) {
-                minX -= aabOffset;
-                maxX += aabOffset;
-            }
+                float v0x = this.vertices[v0 + 0];
+                float v0y = this.vertices[v0 + 1];
+                float v0z = this.vertices[v0 + 2];
 
-            if (Math.abs(maxY - minY) < aabOffset) {
-                minY -= aabOffset;
-                maxY += aabOffset;
-            }
+                float v1x = this.vertices[v1 + 0];
+                float v1y = this.vertices[v1 + 1];
+                float v1z = this.vertices[v1 + 2];
 
-            if (Math.abs(maxZ - minZ) < aabOffset) {
-                minZ -= aabOffset;
-                maxZ += aabOffset;
-            }
+                float v2x = this.vertices[v2 + 0];
+                float v2y = this.vertices[v2 + 1];
+                float v2z = this.vertices[v2 + 2];
 
-            BVH e = new BVH(
-                    vertices,
-                    indices,
-                    vertexSize,
-                    xyzOffset,
-                    minX, minY, minZ,
-                    maxX, maxY, maxZ
-            );
-            e.amountOfTriangles = 1;
-            e.triangles = new int[]{i};
-            currentArray[i] = e;
-        }
+                float minX = Math.min(v0x, Math.min(v1x, v2x));
+                float minY = Math.min(v0y, Math.min(v1y, v2y));
+                float minZ = Math.min(v0z, Math.min(v1z, v2z));
 
-        BVH[] nextArray = new BVH[numberOfTriangles];
-        int currentLength = nextArray.length;
-        int nextIndex = 0;
+                float maxX = Math.max(v0x, Math.max(v1x, v2x));
+                float maxY = Math.max(v0y, Math.max(v1y, v2y));
+                float maxZ = Math.max(v0z, Math.max(v1z, v2z));
 
-        while (currentLength != 1) {
-            for (int i = 0; i < currentLength; i++) {
-                BVH current = currentArray[i];
+                if (Math.abs(maxX - minX) < aabOffset) {
+                    minX -= aabOffset;
+                    maxX += aabOffset;
+                }
 
-                if (current == null) {
-                    continue;
+                if (Math.abs(maxY - minY) < aabOffset) {
+                    minY -= aabOffset;
+                    maxY += aabOffset;
                 }
 
-                float minX = current.getMin().x();
-                float minY = current.getMin().y();
-                float minZ = current.getMin().z();
+                if (Math.abs(maxZ - minZ) < aabOffset) {
+                    minZ -= aabOffset;
+                    maxZ += aabOffset;
+                }
 
-                float maxX = current.getMax().x();
-                float maxY = current.getMax().y();
-                float maxZ = current.getMax().z();
+                this.triangleBounds[(i * 6) + 0] = minX;
+                this.triangleBounds[(i * 6) + 1] = minY;
+                this.triangleBounds[(i * 6) + 2] = minZ;
+                this.triangleBounds[(i * 6) + 3] = maxX;
+                this.triangleBounds[(i * 6) + 4] = maxY;
+                this.triangleBounds[(i * 6) + 5] = maxZ;
 
-                float centerX = (minX * 0.5f) + (maxX * 0.5f);
-                float centerY = (minY * 0.5f) + (maxY * 0.5f);
-                float centerZ = (minZ * 0.5f) + (maxZ * 0.5f);
+                this.triangleCentroids[(i * 3) + 0] = (minX * 0.5f) + (maxX * 0.5f);
+                this.triangleCentroids[(i * 3) + 1] = (minY * 0.5f) + (maxY * 0.5f);
+                this.triangleCentroids[(i * 3) + 2] = (minZ * 0.5f) + (maxZ * 0.5f);
 
-                BVH closest = null;
-                float closestDistanceSquared = Float.POSITIVE_INFINITY;
-                int closestIndex = -1;
+                this.triangleOrder[i] = i;
+            }
+        }
 
-                float closestMinX = 0f;
-                float closestMinY = 0f;
-                float closestMinZ = 0f;
+        private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+            float dX = maxX - minX;
+            float dY = maxY - minY;
+            float dZ = maxZ - minZ;
+            return 2f * ((dX * dY) + (dY * dZ) + (dZ * dX));
+        }
 
-                float closestMaxX = 0f;
-                float closestMaxY = 0f;
-                float closestMaxZ = 0f;
+        private int binIndex(int triangle, int axis, float centroidMin, float binScale) {
+            int bin = (int) ((this.triangleCentroids[(triangle * 3) + axis] - centroidMin) * binScale);
+            if (bin < 0) {
+                return 0;
+            }
+            if (bin >= SAH_BINS) {
+                return SAH_BINS - 1;
+            }
+            return bin;
+        }
 
-                for (int j = (i+1); j < currentLength; j++) {
-                    BVH other = currentArray[j];
-                    
-                    if (other == null) {
-                        continue;
-                    }
+        private BVH leaf(BVH node, int start, int end) {
+            node.triangles = new int[end - start];
+            System.arraycopy(this.triangleOrder, start, node.triangles, 0, node.triangles.length);
+            return node;
+        }
 
-                    float otherMinX = other.getMin().x();
-                    float otherMinY = other.getMin().y();
-                    float otherMinZ = other.getMin().z();
+        private BVH build(int start, int end) {
+            float minX = Float.POSITIVE_INFINITY;
+            float minY = Float.POSITIVE_INFINITY;
+            float minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY;
+            float maxY = Float.NEGATIVE_INFINITY;
+            float maxZ = Float.NEGATIVE_INFINITY;
+
+            float[] centroidMin = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            float[] centroidMax = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+            for (int i = start; i < end; i++) {
+                int triangle = this.triangleOrder[i];
+
+                minX = Math.min(minX, this.triangleBounds[(triangle * 6) + 0]);
+                minY = Math.min(minY, this.triangleBounds[(triangle * 6) + 1]);
+                minZ = Math.min(minZ, this.triangleBounds[(triangle * 6) + 2]);
+                maxX = Math.max(maxX, this.triangleBounds[(triangle * 6) + 3]);
+                maxY = Math.max(maxY, this.triangleBounds[(triangle * 6) + 4]);
+                maxZ = Math.max(maxZ, this.triangleBounds[(triangle * 6) + 5]);
+
+                for (int axis = 0; axis < 3; axis++) {
+                    float c = this.triangleCentroids[(triangle * 3) + axis];
+                    centroidMin[axis] = Math.min(centroidMin[axis], c);
+                    centroidMax[axis] = Math.max(centroidMax[axis], c);
+                }
+            }
 
-                    float otherMaxX = other.getMax().x();
-                    float otherMaxY = other.getMax().y();
-                    float otherMaxZ = other.getMax().z();
+            BVH node = new BVH(
+                    this.vertices,
+                    this.indices,
+                    this.vertexSize,
+                    this.xyzOffset,
+                    minX, minY, minZ,
+                    maxX, maxY, maxZ
+            );
 
-                    float otherCenterX = (otherMinX * 0.5f) + (otherMaxX * 0.5f);
-                    float otherCenterY = (otherMinY * 0.5f) + (otherMaxY * 0.5f);
-                    float otherCenterZ = (otherMinZ * 0.5f) + (otherMaxZ * 0.5f);
+            int count = end - start;
+            node.amountOfTriangles = count;
 
-                    float dX = centerX - otherCenterX;
-                    float dY = centerY - otherCenterY;
-                    float dZ = centerZ - otherCenterZ;
+            if (count <= 1) {
+                return leaf(node, start, end);
+            }
 
-                    float distanceSquared = (dX * dX) + (dY * dY) + (dZ * dZ);
+            int[] binCounts = new int[SAH_BINS];
+            float[] binBounds = new float[SAH_BINS * 6];
+            float[] rightAreas = new float[SAH_BINS];
+            int[] rightCounts = new int[SAH_BINS];
 
-                    if (distanceSquared < closestDistanceSquared) {
-                        closest = other;
-                        closestDistanceSquared = distanceSquared;
-                        closestIndex = j;
+            float bestCost = Float.POSITIVE_INFINITY;
+            int bestAxis = -1;
+            int bestSplit = -1;
 
-                        closestMinX = otherMinX;
-                        closestMinY = otherMinY;
-                        closestMinZ = otherMinZ;
+            for (int axis = 0; axis < 3; axis++) {
+                float extent = centroidMax[axis] - centroidMin[axis];
+                if (extent <= 0f) {
+                    continue;
+                }
+                float binScale = (SAH_BINS / extent) * (1f - 0.0001f);
+
+                for (int b = 0; b < SAH_BINS; b++) {
+                    binCounts[b] = 0;
+                    binBounds[(b * 6) + 0] = Float.POSITIVE_INFINITY;
+                    binBounds[(b * 6) + 1] = Float.POSITIVE_INFINITY;
+                    binBounds[(b * 6) + 2] = Float.POSITIVE_INFINITY;
+                    binBounds[(b * 6) + 3] = Float.NEGATIVE_INFINITY;
+                    binBounds[(b * 6) + 4] = Float.NEGATIVE_INFINITY;
+                    binBounds[(b * 6) + 5] = Float.NEGATIVE_INFINITY;
+                }
 
-                        closestMaxX = otherMaxX;
-                        closestMaxY = otherMaxY;
-                        closestMaxZ = otherMaxZ;
+                for (int i = start; i < end; i++) {
+                    int triangle = this.triangleOrder[i];
+                    int b = binIndex(triangle, axis, centroidMin[axis], binScale);
+                    binCounts[b]++;
+                    for (int j = 0; j < 3; j++) {
+                        binBounds[(b * 6) + j] = Math.min(binBounds[(b * 6) + j], this.triangleBounds[(triangle * 6) + j]);
+                        binBounds[(b * 6) + 3 + j] = Math.max(binBounds[(b * 6) + 3 + j], this.triangleBounds[(triangle * 6) + 3 + j]);
                     }
                 }
 
-                currentArray[i] = null;
+                float rMinX = Float.POSITIVE_INFINITY;
+                float rMinY = Float.POSITIVE_INFINITY;
+                float rMinZ = Float.POSITIVE_INFINITY;
+                float rMaxX = Float.NEGATIVE_INFINITY;
+                float rMaxY = Float.NEGATIVE_INFINITY;
+                float rMaxZ = Float.NEGATIVE_INFINITY;
+                int rCount = 0;
+                for (int b = SAH_BINS - 1; b > 0; b--) {
+                    if (binCounts[b] != 0) {
+                        rMinX = Math.min(rMinX, binBounds[(b * 6) + 0]);
+                        rMinY = Math.min(rMinY, binBounds[(b * 6) + 1]);
+                        rMinZ = Math.min(rMinZ, binBounds[(b * 6) + 2]);
+                        rMaxX = Math.max(rMaxX, binBounds[(b * 6) + 3]);
+                        rMaxY = Math.max(rMaxY, binBounds[(b * 6) + 4]);
+                        rMaxZ = Math.max(rMaxZ, binBounds[(b * 6) + 5]);
+                        rCount += binCounts[b];
+                    }
+                    rightCounts[b] = rCount;
+                    rightAreas[b] = (rCount == 0 ? 0f : area(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ));
+                }
 
-                if (closest == null) {
-                    nextArray[nextIndex++] = current;
-                    continue;
+                float lMinX = Float.POSITIVE_INFINITY;
+                float lMinY = Float.POSITIVE_INFINITY;
+                float lMinZ = Float.POSITIVE_INFINITY;
+                float lMaxX = Float.NEGATIVE_INFINITY;
+                float lMaxY = Float.NEGATIVE_INFINITY;
+                float lMaxZ = Float.NEGATIVE_INFINITY;
+                int lCount = 0;
+                for (int b = 0; b < SAH_BINS - 1; b++) {
+                    if (binCounts[b] != 0) {
+                        lMinX = Math.min(lMinX, binBounds[(b * 6) + 0]);
+                        lMinY = Math.min(lMinY, binBounds[(b * 6) + 1]);
+                        lMinZ = Math.min(lMinZ, binBounds[(b * 6) + 2]);
+                        lMaxX = Math.max(lMaxX, binBounds[(b * 6) + 3]);
+                        lMaxY = Math.max(lMaxY, binBounds[(b * 6) + 4]);
+                        lMaxZ = Math.max(lMaxZ, binBounds[(b * 6) + 5]);
+                        lCount += binCounts[b];
+                    }
+                    int rightCount = rightCounts[b + 1];
+                    if (lCount == 0 || rightCount == 0) {
+                        continue;
+                    }
+                    float cost = (area(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ) * lCount) + (rightAreas[b + 1] * rightCount);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestSplit = b + 1;
+                    }
+                }
+            }
+
+            int middle;
+            if (bestAxis == -1) {
+                if (count <= MAX_LEAF_TRIANGLES) {
+                    return leaf(node, start, end);
+                }
+                middle = start + (count / 2);
+            } else {
+                float nodeArea = area(minX, minY, minZ, maxX, maxY, maxZ);
+                float splitCost = SAH_TRAVERSAL_COST + ((bestCost / nodeArea) * SAH_INTERSECTION_COST);
+                float leafCost = count * SAH_INTERSECTION_COST;
+                if (count <= MAX_LEAF_TRIANGLES && leafCost <= splitCost) {
+                    return leaf(node, start, end);
+                }
+
+                float extent = centroidMax[bestAxis] - centroidMin[bestAxis];
+                float binScale = (SAH_BINS / extent) * (1f - 0.0001f);
+
+                int left = start;
+                int right = end - 1;
+                while (left <= right) {
+                    int triangle = this.triangleOrder[left];
+                    if (binIndex(triangle, bestAxis, centroidMin[bestAxis], binScale) < bestSplit) {
+                        left++;
+                    } else {
+                        this.triangleOrder[left] = this.triangleOrder[right];
+                        this.triangleOrder[right] = triangle;
+                        right--;
+                    }
+                }
+                middle = left;
+                if (middle == start || middle == end) {
+                    middle = start + (count / 2);
                 }
-                currentArray[closestIndex] = null;
-
-                float newMinX = Math.min(Math.min(minX, closestMinX), Math.min(maxX, closestMaxX));
-                float newMinY = Math.min(Math.min(minY, closestMinY), Math.min(maxY, closestMaxY));
-                float newMinZ = Math.min(Math.min(minZ, closestMinZ), Math.min(maxZ, closestMaxZ));
-
-                float newMaxX = Math.max(Math.max(minX, closestMinX), Math.max(maxX, closestMaxX));
-                float newMaxY = Math.max(Math.max(minY, closestMinY), Math.max(maxY, closestMaxY));
-                float newMaxZ = Math.max(Math.max(minZ, closestMinZ), Math.max(maxZ, closestMaxZ));
-
-                BVH merge = new BVH(
-                        vertices,
-                        indices,
-                        vertexSize,
-                        xyzOffset,
-                        newMinX, newMinY, newMinZ,
-                        newMaxX, newMaxY, newMaxZ
-                );
-                merge.amountOfTriangles = current.amountOfTriangles + closest.amountOfTriangles;
-                merge.left = current;
-                merge.right = closest;
-                current.parent = merge;
-                closest.parent = merge;
-
-                nextArray[nextIndex++] = merge;
             }
 
-            currentLength = nextIndex;
-            nextIndex = 0;
+            BVH leftNode;
+            BVH rightNode;
+            if (count >= PARALLEL_BUILD_THRESHOLD) {
+                final int leftStart = start;
+                final int leftEnd = middle;
+                RecursiveTask<BVH> leftTask = new RecursiveTask<>() {
+                    @Override
+                    protected BVH compute() {
+                        return build(leftStart, leftEnd);
+                    }
+                };
+                leftTask.fork();
+                rightNode = build(middle, end);
+                leftNode = leftTask.join();
+            } else {
+                leftNode = build(start, middle);
+                rightNode = build(middle, end);
+            }
+
+            node.left = leftNode;
+            node.right = rightNode;
+            leftNode.parent = node;
+            rightNode.parent = node;
+
+            return node;
+        }
+
+        public BVH create() {
+            computeTriangleBounds();
+
+            RecursiveTask<BVH> root = new RecursiveTask<>() {
+                @Override
+                protected BVH compute() {
+                    return build(0, SAHBuilder.this.numberOfTriangles);
+                }
+            };
+
+            return ForkJoinPool.commonPool().invoke(root);
+        }
+    }
 
-            BVH[] currentStore = currentArray;
-            currentArray = nextArray;
-            nextArray = currentStore;
+    public static BVH create(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        if (vertices.length == 0 || indices.length < 3) {
+            BVH empty = new BVH(vertices, indices, vertexSize, xyzOffset, new Vector3f(), new Vector3f());
+            empty.triangles = new int[0];
+            return empty;
         }
 
-        return currentArray[0];
+        return new SAHBuilder(vertices, indices, vertexSize, xyzOffset).create();
     }
 
     private final float[] vertices;
@@ -255,6 +402,10 @@ public class BVH implements Aab {
         return vertices;
     }
 
+    public int[] getIndices() {
+        return indices;
+    }
+
     public int getVertexSize() {
         return vertexSize;
     }
@@ -301,7 +452,7 @@ public class BVH implements Aab {
         max.set(this.max);
     }
     
-    private boolean fastTestRay(Vector3f a, Vector3f b, Vector3f c, Set<Integer> tested, BVH e, Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+    private boolean fastTestRay(Vector3f a, Vector3f b, Vector3f c, BVH e, Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
         if (IntersectionUtils.testRayAab(localOrigin, localDirection, e.getMin(), e.getMax())) {
             if (e.getLeft() == null && e.getRight() == null) {
                 int[] nodeTriangles = e.getTriangles();
@@ -312,40 +463,36 @@ public class BVH implements Aab {
                     int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
                     int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
 
-                    if (!tested.contains(triangle)) {
-                        tested.add(triangle);
-
-                        a.set(
-                                this.vertices[v0xyz + 0],
-                                this.vertices[v0xyz + 1],
-                                this.vertices[v0xyz + 2]
-                        );
-                        b.set(
-                                this.vertices[v1xyz + 0],
-                                this.vertices[v1xyz + 1],
-                                this.vertices[v1xyz + 2]
-                        );
-                        c.set(
-                                this.vertices[v2xyz + 0],
-                                this.vertices[v2xyz + 1],
-                                this.vertices[v2xyz + 2]
-                        );
+                    a.set(
+                            this.vertices[v0xyz + 0],
+                            this.vertices[v0xyz + 1],
+                            this.vertices[v0xyz + 2]
+                    );
+                    b.set(
+                            this.vertices[v1xyz + 0],
+                            this.vertices[v1xyz + 1],
+                            this.vertices[v1xyz + 2]
+                    );
+                    c.set(
+                            this.vertices[v2xyz + 0],
+                            this.vertices[v2xyz + 1],
+                            this.vertices[v2xyz + 2]
+                    );
 
-                        float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
-                        if (hit >= 0f && (!Float.isFinite(maxLength) || hit <= maxLength)) {
-                            return true;
-                        }
+                    float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
+                    if (hit >= 0f && (!Float.isFinite(maxLength) || hit <= maxLength)) {
+                        return true;
                     }
                 }
             }
 
             if (e.getLeft() != null) {
-                if (fastTestRay(a, b, c, tested, e.getLeft(), localOrigin, localDirection, maxLength)) {
+                if (fastTestRay(a, b, c, e.getLeft(), localOrigin, localDirection, maxLength)) {
                     return true;
                 }
             }
             if (e.getRight() != null) {
-                if (fastTestRay(a, b, c, tested, e.getRight(), localOrigin, localDirection, maxLength)) {
+                if (fastTestRay(a, b, c, e.getRight(), localOrigin, localDirection, maxLength)) {
                     return true;
                 }
             }
@@ -358,14 +505,12 @@ public class BVH implements Aab {
         Vector3f b = new Vector3f();
         Vector3f c = new Vector3f();
 
-        Set<Integer> tested = new HashSet<>();
-
-        return fastTestRay(a, b, c, tested, this, localOrigin, localDirection, maxLength);
+        return fastTestRay(a, b, c, this, localOrigin, localDirection, maxLength);
     }
 
     private void testRay(
             Vector3fc localOrigin, Vector3fc localDirection,
-            List<LocalRayResult> resultsOutput, BVH bvh, Set<Integer> tested,
+            List<LocalRayResult> resultsOutput, BVH bvh,
             Vector3f normal, Vector3f hitposition, Vector3f a, Vector3f b, Vector3f c
     ) {
         if (IntersectionUtils.testRayAab(localOrigin, localDirection, bvh.getMin(), bvh.getMax())) {
@@ -374,12 +519,6 @@ public class BVH implements Aab {
                 for (int i = 0; i < nodeTriangles.length; i++) {
                     int triangle = nodeTriangles[i];
 
-                    if (tested.contains(triangle)) {
-                        continue;
-                    }
-
-                    tested.add(triangle);
-
                     int i0 = this.indices[(triangle * 3) + 0];
                     int i1 = this.indices[(triangle * 3) + 1];
                     int i2 = this.indices[(triangle * 3) + 2];
@@ -425,10 +564,10 @@ public class BVH implements Aab {
             }
 
             if (bvh.getLeft() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getLeft(), tested, normal, hitposition, a, b, c);
+                testRay(localOrigin, localDirection, resultsOutput, bvh.getLeft(), normal, hitposition, a, b, c);
             }
             if (bvh.getRight() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getRight(), tested, normal, hitposition, a, b, c);
+                testRay(localOrigin, localDirection, resultsOutput, bvh.getRight(), normal, hitposition, a, b, c);
             }
         }
     }
@@ -439,13 +578,11 @@ public class BVH implements Aab {
         Vector3f normal = new Vector3f();
         Vector3f hitposition = new Vector3f();
 
-        Set<Integer> tested = new HashSet<>();
-
         Vector3f a = new Vector3f();
         Vector3f b = new Vector3f();
         Vector3f c = new Vector3f();
 
-        testRay(localOrigin, localDirection, resultsOutput, this, tested, normal, hitposition, a, b, c);
+        testRay(localOrigin, localDirection, resultsOutput, this, normal, hitposition, a, b, c);
 
         return resultsOutput;
     }
@@ -0,0 +1,218 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.natives.Natives;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A disk cache of {@link LinearBVH}s in the temp folder, the files are
+ * named by the {@link BVHStore} hash of the mesh and memory mapped on load,
+ * so a mesh that was seen before does not need to build its bvh again.
+ * <p>
+ * The cache is kept under {@link #MAX_CACHE_SIZE} bytes by deleting the least
+ * recently used files after each write.
+ *
+ * @author Cien
+ */
+public class BVHCache {
+
+    public static final String CACHE_FOLDER_NAME = "bvhcache";
+    public static final long MAX_CACHE_SIZE = 512L * 1024L * 1024L;
+
+    //temp files older than this were left behind by a process that died
+    private static final long STALE_TEMP_MILLIS = 24L * 60L * 60L * 1000L;
+
+    private static final System.Logger LOGGER = System.getLogger(BVHCache.class.getName());
+
+    private static final Path FOLDER = Paths.get(
+            System.getProperty("java.io.tmpdir"),
+            Natives.TEMP_FOLDER_NAME,
+            CACHE_FOLDER_NAME
+    );
+
+    public static Path getFolder() {
+        return FOLDER;
+    }
+
+    public static Path getFile(long hash) {
+        return FOLDER.resolve(String.format("%016x", hash) + ".bvh");
+    }
+
+    public static LinearBVH read(Path file, float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            LinearBVH bvh = BVHStore.decode(mapped, vertices, indices, vertexSize, xyzOffset);
+            touch(file);
+            return bvh;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    //the modified time is used as the last use time for eviction
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            //not an error, the file is only evicted earlier
+        }
+    }
+
+    /**
+     * Deletes the least recently used bvh files until the cache is under
+     * {@link #MAX_CACHE_SIZE} bytes and deletes stale temp files, files that
+     * cannot be deleted (because they are mapped on some systems) are
+     * skipped.
+     */
+    public static synchronized void evict() throws IOException {
+        if (!Files.isDirectory(FOLDER)) {
+            return;
+        }
+
+        record Entry(Path file, long size, long lastUsed) {
+
+        }
+
+        long now = System.currentTimeMillis();
+        long total = 0;
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(FOLDER)) {
+            for (Path file : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException ex) {
+                    continue;
+                }
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                long lastUsed = attributes.lastModifiedTime().toMillis();
+                if (name.endsWith(".tmp")) {
+                    if ((now - lastUsed) > STALE_TEMP_MILLIS) {
+                        deleteQuietly(file);
+                    }
+                    continue;
+                }
+                if (!name.endsWith(".bvh")) {
+                    continue;
+                }
+                entries.add(new Entry(file, attributes.size(), lastUsed));
+                total += attributes.size();
+            }
+        }
+
+        if (total <= MAX_CACHE_SIZE) {
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        for (Entry e : entries) {
+            if (total <= MAX_CACHE_SIZE) {
+                break;
+            }
+            if (deleteQuietly(e.file())) {
+                total -= e.size();
+            }
+        }
+    }
+
+    private static boolean deleteQuietly(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public static void write(Path file, LinearBVH bvh) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), null, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = BVHStore.encode(bvh);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the bvh of the mesh from the cache or builds and writes it if it
+     * is not cached yet, failing to write the cache is not an error.
+     */
+    public static LinearBVH get(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        long hash = BVHStore.hash(vertices, indices, vertexSize, xyzOffset);
+        Path file = getFile(hash);
+
+        LinearBVH bvh = read(file, vertices, indices, vertexSize, xyzOffset);
+        if (bvh != null) {
+            return bvh;
+        }
+
+        bvh = LinearBVH.create(vertices, indices, vertexSize, xyzOffset);
+
+        //the mesh may have been modified while the bvh was being built
+        if (BVHStore.hash(vertices, indices, vertexSize, xyzOffset) == hash) {
+            try {
+                write(file, bvh);
+                evict();
+            } catch (IOException ex) {
+                LOGGER.log(System.Logger.Level.WARNING, "Failed to write bvh cache " + file, ex);
+            }
+        }
+
+        return bvh;
+    }
+
+    private BVHCache() {
+
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stores a {@link LinearBVH} as a flat little endian binary, the node arrays
+ * are written as they are in memory so they can be read back in bulk from a
+ * byte buffer or a memory mapped file.
+ * <p>
+ * The vertices and indices are not stored, the file is keyed by a hash of
+ * the vertex positions and indices instead, a file that does not match the
+ * mesh it is being loaded for is rejected, as is a file whose nodes do not
+ * form a depth first tree with the stored depth and leaves that fit in a
+ * {@link WideBVH} leaf.
+ *
+ * @author Cien
+ */
+public class BVHStore {
+
+    public static final long MAGIC = 6830916128731648543L;
+
+    //must be increased if the bvh builder or the file layout changes
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 48;
+
+    public static long hash(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        long hash = MAGIC;
+        hash = mix(hash, vertexSize);
+        hash = mix(hash, xyzOffset);
+        hash = mix(hash, vertices.length);
+        hash = mix(hash, indices.length);
+        for (int v = 0; v < vertices.length; v += vertexSize) {
+            hash = mix(hash, Float.floatToRawIntBits(vertices[v + xyzOffset + 0]));
+            hash = mix(hash, Float.floatToRawIntBits(vertices[v + xyzOffset + 1]));
+            hash = mix(hash, Float.floatToRawIntBits(vertices[v + xyzOffset + 2]));
+        }
+        for (int i = 0; i < indices.length; i++) {
+            hash = mix(hash, indices[i]);
+        }
+        hash ^= (hash >>> 33);
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        hash ^= (value & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(hash, 31) * 0xBF58476D1CE4E5B9L;
+    }
+
+    public static int encodedSize(LinearBVH bvh) {
+        return HEADER_SIZE
+                + (bvh.getAmountOfNodes() * 6 * Float.BYTES)
+                + (bvh.getAmountOfNodes() * 2 * Integer.BYTES)
+                + (bvh.getAmountOfTriangles() * Integer.BYTES);
+    }
+
+    public static ByteBuffer encode(LinearBVH bvh) {
+        ByteBuffer buffer = ByteBuffer
+                .allocate(encodedSize(bvh))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer
+                .putLong(MAGIC)
+                .putInt(VERSION)
+                .putLong(hash(bvh.getVertices(), bvh.getIndices(), bvh.getVertexSize(), bvh.getXyzOffset()))
+                .putInt(bvh.getVertexSize())
+                .putInt(bvh.getXyzOffset())
+                .putInt(bvh.getVertices().length)
+                .putInt(bvh.getIndices().length)
+                .putInt(bvh.getAmountOfNodes())
+                .putInt(bvh.getAmountOfTriangles())
+                .putInt(bvh.getMaxDepth());
+
+        int position = HEADER_SIZE;
+        buffer.position(position);
+        buffer.asFloatBuffer().put(bvh.bounds);
+        position += bvh.bounds.length * Float.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().put(bvh.offsets);
+        position += bvh.offsets.length * Integer.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().put(bvh.counts);
+        position += bvh.counts.length * Integer.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().put(bvh.triangles);
+
+        buffer.position(0);
+        return buffer;
+    }
+
+    public static void encode(LinearBVH bvh, OutputStream output) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(output);
+        ByteBuffer buffer = encode(bvh);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        output.flush();
+    }
+
+    public static LinearBVH decode(ByteBuffer data, float[] vertices, int[] indices, int vertexSize, int xyzOffset) throws IOException {
+        ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated header.");
+        }
+
+        if (buffer.getLong() != MAGIC) {
+            throw new IOException("Invalid magic number.");
+        }
+        if (buffer.getInt() != VERSION) {
+            throw new IOException("Outdated version.");
+        }
+        long hash = buffer.getLong();
+        if (buffer.getInt() != vertexSize
+                || buffer.getInt() != xyzOffset
+                || buffer.getInt() != vertices.length
+                || buffer.getInt() != indices.length) {
+            throw new IOException("Mesh layout does not match.");
+        }
+        int amountOfNodes = buffer.getInt();
+        int amountOfTriangles = buffer.getInt();
+        int maxDepth = buffer.getInt();
+
+        if (amountOfNodes <= 0 || amountOfTriangles != (indices.length / 3) || maxDepth < 0 || maxDepth >= amountOfNodes) {
+            throw new IOException("Invalid header.");
+        }
+        if (buffer.capacity() != ((HEADER_SIZE + (amountOfNodes * 8L * Integer.BYTES)) + (amountOfTriangles * (long) Integer.BYTES))) {
+            throw new IOException("Invalid size.");
+        }
+        if (hash != hash(vertices, indices, vertexSize, xyzOffset)) {
+            throw new IOException("Hash does not match.");
+        }
+
+        float[] bounds = new float[amountOfNodes * 6];
+        int[] offsets = new int[amountOfNodes];
+        int[] counts = new int[amountOfNodes];
+        int[] triangles = new int[amountOfTriangles];
+
+        int position = HEADER_SIZE;
+        buffer.position(position);
+        buffer.asFloatBuffer().get(bounds);
+        position += bounds.length * Float.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().get(offsets);
+        position += offsets.length * Integer.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().get(counts);
+        position += counts.length * Integer.BYTES;
+        buffer.position(position);
+        buffer.asIntBuffer().get(triangles);
+
+        validateNodes(offsets, counts, triangles, maxDepth);
+
+        return new LinearBVH(
+                vertices, indices, vertexSize, xyzOffset,
+                bounds, offsets, counts, triangles,
+                maxDepth
+        );
+    }
+
+    //the nodes must be visited in index order by a depth first traversal
+    //that goes left first, leaves must take the triangles in order and every
+    //triangle must be in exactly one leaf, an empty bvh is a single leaf
+    //without triangles
+    private static void validateNodes(int[] offsets, int[] counts, int[] triangles, int maxDepth) throws IOException {
+        int amountOfNodes = counts.length;
+        int amountOfTriangles = triangles.length;
+
+        if (amountOfTriangles == 0) {
+            if (amountOfNodes != 1 || counts[0] != 0 || offsets[0] != 0 || maxDepth != 0) {
+                throw new IOException("Invalid empty bvh.");
+            }
+            return;
+        }
+
+        int[] stack = new int[(maxDepth + 1) * 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = 0;
+
+        int nextNode = 0;
+        int nextTriangle = 0;
+        int realDepth = 0;
+        while (stackSize != 0) {
+            int depth = stack[--stackSize];
+            int node = stack[--stackSize];
+            if (node != nextNode || depth > maxDepth) {
+                throw new IOException("Invalid tree at node " + node + ".");
+            }
+            nextNode++;
+            realDepth = Math.max(realDepth, depth);
+
+            int offset = offsets[node];
+            int count = counts[node];
+            if (count == 0) {
+                if (offset <= (node + 1) || offset >= amountOfNodes || stackSize > (stack.length - 4)) {
+                    throw new IOException("Invalid node " + node + ".");
+                }
+                stack[stackSize++] = offset;
+                stack[stackSize++] = depth + 1;
+                stack[stackSize++] = node + 1;
+                stack[stackSize++] = depth + 1;
+                continue;
+            }
+            if (count < 0 || count > WideKernels.WIDTH || offset != nextTriangle || offset > (amountOfTriangles - count)) {
+                throw new IOException("Invalid leaf " + node + ".");
+            }
+            nextTriangle += count;
+        }
+        if (nextNode != amountOfNodes || nextTriangle != amountOfTriangles || realDepth != maxDepth) {
+            throw new IOException("Invalid tree.");
+        }
+
+        boolean[] used = new boolean[amountOfTriangles];
+        for (int i = 0; i < amountOfTriangles; i++) {
+            int triangle = triangles[i];
+            if (triangle < 0 || triangle >= amountOfTriangles || used[triangle]) {
+                throw new IOException("Invalid triangle " + i + ".");
+            }
+            used[triangle] = true;
+        }
+    }
+
+    public static LinearBVH decode(InputStream input, float[] vertices, int[] indices, int vertexSize, int xyzOffset) throws IOException {
+        return decode(ByteBuffer.wrap(input.readAllBytes()), vertices, indices, vertexSize, xyzOffset);
+    }
+
+    private BVHStore() {
+
+    }
+
+}
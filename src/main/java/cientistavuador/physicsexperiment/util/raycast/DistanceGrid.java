@@ -0,0 +1,334 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import java.util.Arrays;
+import java.util.List;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A sparse grid of distances to the surface of a geometry in world space,
+ * generated from the model the geometry had at the time, the grid is split
+ * in bricks of {@link #BRICK_SIZE} cells and only the bricks closer to the
+ * surface than the band store samples, the other bricks read as the band
+ * distance, negative if the brick is inside of the mesh in a signed grid.
+ * <p>
+ * Signed grids take the sign from the closest triangle, so they only make
+ * sense for closed meshes.
+ *
+ * @author Cien
+ */
+public class DistanceGrid {
+
+    public static final int BRICK_SIZE = 8;
+    public static final int BRICK_SAMPLES = BRICK_SIZE + 1;
+
+    private static final int EMPTY_OUTSIDE = -1;
+    private static final int EMPTY_INSIDE = -2;
+
+    public static DistanceGrid generate(Geometry geometry, float cellSize, float band, boolean signed) {
+        if (!(cellSize > 0f) || !Float.isFinite(cellSize)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        if (!(band > 0f) || !Float.isFinite(band)) {
+            throw new IllegalArgumentException("Invalid band: " + band);
+        }
+
+        RayQueryContext context = RayQueryContext.threadLocal();
+        List<Geometry> list = List.of(geometry);
+
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+        if (geometry.isStatic()) {
+            geometry.getWorldBVH().getMin(min);
+            geometry.getWorldBVH().getMax(max);
+        } else {
+            LinearBVH mesh = geometry.getMesh().getBVH();
+            mesh.getMin(min);
+            mesh.getMax(max);
+            Matrix4fc model = geometry.getModel();
+            model.transformAab(min, max, min, max);
+        }
+        min.sub(band, band, band);
+        max.add(band, band, band);
+
+        float brickLength = cellSize * BRICK_SIZE;
+        int bricksX = Math.max((int) Math.ceil((max.x() - min.x()) / brickLength), 1);
+        int bricksY = Math.max((int) Math.ceil((max.y() - min.y()) / brickLength), 1);
+        int bricksZ = Math.max((int) Math.ceil((max.z() - min.z()) / brickLength), 1);
+
+        DistanceGrid grid = new DistanceGrid(min, cellSize, band, signed, bricksX, bricksY, bricksZ);
+
+        //any point of an occupied brick is closer than this to the surface
+        float brickDiagonal = (float) Math.sqrt(3.0) * brickLength;
+        float searchDistance = band + brickDiagonal;
+
+        Vector3f brickMin = new Vector3f();
+        Vector3f brickMax = new Vector3f();
+        Vector3f samplePosition = new Vector3f();
+        PointHit hit = new PointHit();
+
+        float[] distances = new float[64 * BRICK_SAMPLES * BRICK_SAMPLES * BRICK_SAMPLES];
+        int distancesLength = 0;
+
+        for (int bz = 0; bz < bricksZ; bz++) {
+            for (int by = 0; by < bricksY; by++) {
+                for (int bx = 0; bx < bricksX; bx++) {
+                    int brick = grid.brickIndex(bx, by, bz);
+
+                    brickMin.set(bx, by, bz).mul(brickLength).add(min);
+                    brickMax.set(brickMin).add(brickLength, brickLength, brickLength);
+                    brickMin.sub(band, band, band);
+                    brickMax.add(band, band, band);
+
+                    if (!Geometry.testAab(context, brickMin, brickMax, list)) {
+                        grid.brickOffsets[brick] = EMPTY_OUTSIDE;
+                        if (signed) {
+                            samplePosition.set(bx + 0.5f, by + 0.5f, bz + 0.5f).mul(brickLength).add(min);
+                            if (Geometry.closestPoint(context, samplePosition, Float.POSITIVE_INFINITY, list, hit) && !hit.frontSide()) {
+                                grid.brickOffsets[brick] = EMPTY_INSIDE;
+                            }
+                        }
+                        continue;
+                    }
+
+                    int samples = BRICK_SAMPLES * BRICK_SAMPLES * BRICK_SAMPLES;
+                    if (distancesLength + samples > distances.length) {
+                        distances = Arrays.copyOf(distances, distances.length * 2);
+                    }
+                    grid.brickOffsets[brick] = distancesLength;
+
+                    for (int sz = 0; sz < BRICK_SAMPLES; sz++) {
+                        for (int sy = 0; sy < BRICK_SAMPLES; sy++) {
+                            for (int sx = 0; sx < BRICK_SAMPLES; sx++) {
+                                samplePosition.set(
+                                        (bx * BRICK_SIZE) + sx,
+                                        (by * BRICK_SIZE) + sy,
+                                        (bz * BRICK_SIZE) + sz
+                                ).mul(cellSize).add(min);
+
+                                float distance = band;
+                                if (Geometry.closestPoint(context, samplePosition, searchDistance, list, hit)) {
+                                    distance = Math.min(hit.getDistance(), band);
+                                    if (signed && !hit.frontSide()) {
+                                        distance = -distance;
+                                    }
+                                }
+                                distances[distancesLength++] = distance;
+                            }
+                        }
+                    }
+                    grid.amountOfBricks++;
+                }
+            }
+        }
+
+        grid.distances = Arrays.copyOf(distances, distancesLength);
+
+        return grid;
+    }
+
+    private final Vector3f min = new Vector3f();
+    private final float cellSize;
+    private final float band;
+    private final boolean signed;
+    private final int bricksX;
+    private final int bricksY;
+    private final int bricksZ;
+    private final int[] brickOffsets;
+    private float[] distances = null;
+    private int amountOfBricks = 0;
+
+    private DistanceGrid(Vector3fc min, float cellSize, float band, boolean signed, int bricksX, int bricksY, int bricksZ) {
+        this.min.set(min);
+        this.cellSize = cellSize;
+        this.band = band;
+        this.signed = signed;
+        this.bricksX = bricksX;
+        this.bricksY = bricksY;
+        this.bricksZ = bricksZ;
+        this.brickOffsets = new int[bricksX * bricksY * bricksZ];
+    }
+
+    private int brickIndex(int bx, int by, int bz) {
+        return (((bz * this.bricksY) + by) * this.bricksX) + bx;
+    }
+
+    public Vector3fc getMin() {
+        return min;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public float getBand() {
+        return band;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    public int getBricksX() {
+        return bricksX;
+    }
+
+    public int getBricksY() {
+        return bricksY;
+    }
+
+    public int getBricksZ() {
+        return bricksZ;
+    }
+
+    public int getAmountOfBricks() {
+        return amountOfBricks;
+    }
+
+    public int getAmountOfSamples() {
+        return this.distances.length;
+    }
+
+    private float read(int offset, int sx, int sy, int sz) {
+        return this.distances[offset + (((sz * BRICK_SAMPLES) + sy) * BRICK_SAMPLES) + sx];
+    }
+
+    /**
+     * Returns the trilinear interpolated distance at the position, clamped to
+     * the band, positions outside of the grid read as the band.
+     */
+    public float sample(float x, float y, float z) {
+        float gx = (x - this.min.x()) / this.cellSize;
+        float gy = (y - this.min.y()) / this.cellSize;
+        float gz = (z - this.min.z()) / this.cellSize;
+
+        if (!(gx >= 0f && gy >= 0f && gz >= 0f)
+                || gx >= this.bricksX * BRICK_SIZE
+                || gy >= this.bricksY * BRICK_SIZE
+                || gz >= this.bricksZ * BRICK_SIZE) {
+            return this.band;
+        }
+
+        int cx = (int) gx;
+        int cy = (int) gy;
+        int cz = (int) gz;
+        float fx = gx - cx;
+        float fy = gy - cy;
+        float fz = gz - cz;
+
+        int bx = cx / BRICK_SIZE;
+        int by = cy / BRICK_SIZE;
+        int bz = cz / BRICK_SIZE;
+
+        int offset = this.brickOffsets[brickIndex(bx, by, bz)];
+        if (offset == EMPTY_OUTSIDE) {
+            return this.band;
+        }
+        if (offset == EMPTY_INSIDE) {
+            return -this.band;
+        }
+
+        int sx = cx - (bx * BRICK_SIZE);
+        int sy = cy - (by * BRICK_SIZE);
+        int sz = cz - (bz * BRICK_SIZE);
+
+        float d000 = read(offset, sx, sy, sz);
+        float d100 = read(offset, sx + 1, sy, sz);
+        float d010 = read(offset, sx, sy + 1, sz);
+        float d110 = read(offset, sx + 1, sy + 1, sz);
+        float d001 = read(offset, sx, sy, sz + 1);
+        float d101 = read(offset, sx + 1, sy, sz + 1);
+        float d011 = read(offset, sx, sy + 1, sz + 1);
+        float d111 = read(offset, sx + 1, sy + 1, sz + 1);
+
+        float d00 = d000 + ((d100 - d000) * fx);
+        float d10 = d010 + ((d110 - d010) * fx);
+        float d01 = d001 + ((d101 - d001) * fx);
+        float d11 = d011 + ((d111 - d011) * fx);
+
+        float d0 = d00 + ((d10 - d00) * fy);
+        float d1 = d01 + ((d11 - d01) * fy);
+
+        return d0 + ((d1 - d0) * fz);
+    }
+
+    public float sample(Vector3fc position) {
+        return sample(position.x(), position.y(), position.z());
+    }
+
+    /**
+     * Writes the normalized gradient of the distance at the position, which
+     * points away from the closest surface.
+     */
+    public void gradient(Vector3fc position, Vector3f outGradient) {
+        float h = this.cellSize * 0.5f;
+        float x = position.x();
+        float y = position.y();
+        float z = position.z();
+        outGradient.set(
+                sample(x + h, y, z) - sample(x - h, y, z),
+                sample(x, y + h, z) - sample(x, y - h, z),
+                sample(x, y, z + h) - sample(x, y, z - h)
+        );
+        float lengthSquared = outGradient.lengthSquared();
+        if (lengthSquared > 0f) {
+            outGradient.div((float) Math.sqrt(lengthSquared));
+        }
+    }
+
+    /**
+     * Estimates the ambient occlusion at a surface position by comparing the
+     * distance stored at steps along the normal with the length of each step,
+     * closer steps weight more, returns 1 for fully unoccluded and 0 for fully
+     * occluded.
+     */
+    public float ambientOcclusion(Vector3fc position, Vector3fc normal, int steps, float stepLength) {
+        float occlusion = 0f;
+        float total = 0f;
+        float weight = 1f;
+        for (int i = 1; i <= steps; i++) {
+            float length = stepLength * i;
+            float distance = sample(
+                    position.x() + (normal.x() * length),
+                    position.y() + (normal.y() * length),
+                    position.z() + (normal.z() * length)
+            );
+            occlusion += (length - Math.min(Math.max(distance, 0f), length)) * weight;
+            total += length * weight;
+            weight *= 0.5f;
+        }
+        if (total <= 0f) {
+            return 1f;
+        }
+        return 1f - Math.min(Math.max(occlusion / total, 0f), 1f);
+    }
+
+}
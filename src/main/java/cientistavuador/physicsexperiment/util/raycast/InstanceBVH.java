@@ -0,0 +1,973 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import cientistavuador.physicsexperiment.resources.mesh.MeshData;
+import cientistavuador.physicsexperiment.util.Aab;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A top level BVH built over the world space bounds of a list of geometries,
+ * the leaves point to the {@link LinearBVH} of each geometry mesh, so a ray
+ * only visits the geometries whose bounds it crosses.
+ * <p>
+ * Geometries that are static when the tree is created are tested against
+ * their world space bvh without transforming the ray.
+ * <p>
+ * The nodes are stored in the same depth first layout as {@link LinearBVH},
+ * call {@link #update()} after changing the model of a geometry to refit the
+ * bounds, the tree is rebuilt automatically once the SAH cost of the refitted
+ * tree grows past {@link #REBUILD_COST_RATIO} times the cost it had when it
+ * was built.
+ *
+ * @author Cien
+ */
+public class InstanceBVH implements Aab, RayTraceable {
+
+    public static final int MAX_LEAF_INSTANCES = 2;
+    public static final int SAH_BINS = 16;
+    public static final float SAH_TRAVERSAL_COST = 1f;
+    public static final float SAH_INSTANCE_COST = 2f;
+    public static final float REBUILD_COST_RATIO = 1.5f;
+
+    public static InstanceBVH create(List<Geometry> geometries) {
+        InstanceBVH bvh = new InstanceBVH(geometries.toArray(Geometry[]::new), false);
+        bvh.rebuild();
+        return bvh;
+    }
+
+    /**
+     * Creates a bvh for geometries that will not move, the world space bvh
+     * is used for every geometry whose mesh is not shared with another
+     * geometry, shared meshes keep their single local bvh because a world
+     * space copy per instance multiplies the memory used by the rays.
+     */
+    public static InstanceBVH createStatic(List<Geometry> geometries) {
+        InstanceBVH bvh = new InstanceBVH(geometries.toArray(Geometry[]::new), true);
+        bvh.rebuild();
+        return bvh;
+    }
+
+    /**
+     * Returns which of the geometries a bvh from {@link #createStatic} traces
+     * in world space, only those need a world bvh.
+     */
+    public static boolean[] staticWorldSpace(List<Geometry> geometries) {
+        return worldSpace(geometries.toArray(Geometry[]::new), true);
+    }
+
+    private static boolean[] worldSpace(Geometry[] geometries, boolean allStatic) {
+        boolean[] worldSpace = new boolean[geometries.length];
+        Map<MeshData, Integer> meshUsers = new IdentityHashMap<>();
+        for (Geometry geometry : geometries) {
+            meshUsers.merge(geometry.getMesh(), 1, Integer::sum);
+        }
+        for (int i = 0; i < geometries.length; i++) {
+            boolean uniqueMesh = meshUsers.get(geometries[i].getMesh()) == 1;
+            worldSpace[i] = geometries[i].isStatic() || (allStatic && uniqueMesh);
+        }
+        return worldSpace;
+    }
+
+    private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float dX = maxX - minX;
+        float dY = maxY - minY;
+        float dZ = maxZ - minZ;
+        return 2f * ((dX * dY) + (dY * dZ) + (dZ * dX));
+    }
+
+    private class Builder {
+
+        private final float[] centroids = new float[InstanceBVH.this.geometries.length * 3];
+
+        private final int[] binCounts = new int[SAH_BINS];
+        private final float[] binBounds = new float[SAH_BINS * 6];
+        private final float[] rightAreas = new float[SAH_BINS];
+        private final int[] rightCounts = new int[SAH_BINS];
+
+        private int nodeIndex = 0;
+        private int maxDepth = 0;
+
+        public Builder() {
+            float[] instanceBounds = InstanceBVH.this.instanceBounds;
+            for (int i = 0; i < InstanceBVH.this.geometries.length; i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    this.centroids[(i * 3) + axis] = (instanceBounds[(i * 6) + axis] * 0.5f) + (instanceBounds[(i * 6) + 3 + axis] * 0.5f);
+                }
+                InstanceBVH.this.instances[i] = i;
+            }
+        }
+
+        private int binIndex(int instance, int axis, float centroidMin, float binScale) {
+            int bin = (int) ((this.centroids[(instance * 3) + axis] - centroidMin) * binScale);
+            if (bin < 0) {
+                return 0;
+            }
+            if (bin >= SAH_BINS) {
+                return SAH_BINS - 1;
+            }
+            return bin;
+        }
+
+        private int partition(int start, int end, int axis, float centroidMin, float binScale, int split) {
+            int[] instances = InstanceBVH.this.instances;
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                if (binIndex(instances[i], axis, centroidMin, binScale) < split) {
+                    i++;
+                } else {
+                    int swap = instances[i];
+                    instances[i] = instances[j];
+                    instances[j] = swap;
+                    j--;
+                }
+            }
+            return i;
+        }
+
+        public void build(int start, int end, int depth) {
+            this.maxDepth = Math.max(this.maxDepth, depth);
+
+            int node = this.nodeIndex++;
+
+            float[] instanceBounds = InstanceBVH.this.instanceBounds;
+            int[] instances = InstanceBVH.this.instances;
+
+            float[] centroidMin = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            float[] centroidMax = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for (int i = start; i < end; i++) {
+                int instance = instances[i];
+                for (int axis = 0; axis < 3; axis++) {
+                    float c = this.centroids[(instance * 3) + axis];
+                    centroidMin[axis] = Math.min(centroidMin[axis], c);
+                    centroidMax[axis] = Math.max(centroidMax[axis], c);
+                }
+            }
+
+            int count = end - start;
+
+            float bestCost = Float.POSITIVE_INFINITY;
+            int bestAxis = -1;
+            int bestSplit = -1;
+            float bestScale = 0f;
+
+            for (int axis = 0; axis < 3 && count > 1; axis++) {
+                float extent = centroidMax[axis] - centroidMin[axis];
+                if (extent <= 0f) {
+                    continue;
+                }
+                float binScale = (SAH_BINS / extent) * (1f - 0.0001f);
+
+                for (int b = 0; b < SAH_BINS; b++) {
+                    this.binCounts[b] = 0;
+                    for (int j = 0; j < 3; j++) {
+                        this.binBounds[(b * 6) + j] = Float.POSITIVE_INFINITY;
+                        this.binBounds[(b * 6) + 3 + j] = Float.NEGATIVE_INFINITY;
+                    }
+                }
+
+                for (int i = start; i < end; i++) {
+                    int instance = instances[i];
+                    int b = binIndex(instance, axis, centroidMin[axis], binScale);
+                    this.binCounts[b]++;
+                    for (int j = 0; j < 3; j++) {
+                        this.binBounds[(b * 6) + j] = Math.min(this.binBounds[(b * 6) + j], instanceBounds[(instance * 6) + j]);
+                        this.binBounds[(b * 6) + 3 + j] = Math.max(this.binBounds[(b * 6) + 3 + j], instanceBounds[(instance * 6) + 3 + j]);
+                    }
+                }
+
+                float[] right = {
+                    Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                    Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+                };
+                int rCount = 0;
+                for (int b = SAH_BINS - 1; b > 0; b--) {
+                    if (this.binCounts[b] != 0) {
+                        for (int j = 0; j < 3; j++) {
+                            right[j] = Math.min(right[j], this.binBounds[(b * 6) + j]);
+                            right[3 + j] = Math.max(right[3 + j], this.binBounds[(b * 6) + 3 + j]);
+                        }
+                        rCount += this.binCounts[b];
+                    }
+                    this.rightCounts[b] = rCount;
+                    this.rightAreas[b] = (rCount == 0 ? 0f : area(right[0], right[1], right[2], right[3], right[4], right[5]));
+                }
+
+                float[] left = {
+                    Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                    Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+                };
+                int lCount = 0;
+                for (int b = 0; b < SAH_BINS - 1; b++) {
+                    if (this.binCounts[b] != 0) {
+                        for (int j = 0; j < 3; j++) {
+                            left[j] = Math.min(left[j], this.binBounds[(b * 6) + j]);
+                            left[3 + j] = Math.max(left[3 + j], this.binBounds[(b * 6) + 3 + j]);
+                        }
+                        lCount += this.binCounts[b];
+                    }
+                    int rightCount = this.rightCounts[b + 1];
+                    if (lCount == 0 || rightCount == 0) {
+                        continue;
+                    }
+                    float cost = (area(left[0], left[1], left[2], left[3], left[4], left[5]) * lCount) + (this.rightAreas[b + 1] * rightCount);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestSplit = b + 1;
+                        bestScale = binScale;
+                    }
+                }
+            }
+
+            boolean leaf;
+            if (bestAxis == -1) {
+                leaf = count <= MAX_LEAF_INSTANCES;
+            } else {
+                float splitCost = SAH_TRAVERSAL_COST + ((bestCost / areaOf(start, end)) * SAH_INSTANCE_COST);
+                float leafCost = count * SAH_INSTANCE_COST;
+                leaf = count <= MAX_LEAF_INSTANCES && leafCost <= splitCost;
+            }
+
+            if (leaf) {
+                InstanceBVH.this.offsets[node] = start;
+                InstanceBVH.this.counts[node] = count;
+                return;
+            }
+
+            int middle;
+            if (bestAxis == -1) {
+                middle = start + (count / 2);
+            } else {
+                middle = partition(start, end, bestAxis, centroidMin[bestAxis], bestScale, bestSplit);
+            }
+
+            build(start, middle, depth + 1);
+            InstanceBVH.this.offsets[node] = this.nodeIndex;
+            InstanceBVH.this.counts[node] = 0;
+            build(middle, end, depth + 1);
+        }
+
+        private float areaOf(int start, int end) {
+            float[] instanceBounds = InstanceBVH.this.instanceBounds;
+            int[] instances = InstanceBVH.this.instances;
+            float[] b = {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+            };
+            for (int i = start; i < end; i++) {
+                int instance = instances[i];
+                for (int j = 0; j < 3; j++) {
+                    b[j] = Math.min(b[j], instanceBounds[(instance * 6) + j]);
+                    b[3 + j] = Math.max(b[3 + j], instanceBounds[(instance * 6) + 3 + j]);
+                }
+            }
+            return area(b[0], b[1], b[2], b[3], b[4], b[5]);
+        }
+    }
+
+    private final Geometry[] geometries;
+    private final boolean[] worldSpace;
+    private final int[] modelVersions;
+    private final float[] instanceBounds;
+    private final int[] instances;
+
+    private final float[] bounds;
+    private final int[] offsets;
+    private final int[] counts;
+    private int amountOfNodes = 0;
+    private int maxDepth = 0;
+
+    private float cost = 0f;
+    private float builtCost = 0f;
+    private int amountOfRebuilds = 0;
+
+    private final Vector3f updateMin = new Vector3f();
+    private final Vector3f updateMax = new Vector3f();
+
+    private InstanceBVH(Geometry[] geometries, boolean allStatic) {
+        this.geometries = geometries;
+        this.worldSpace = worldSpace(geometries, allStatic);
+        this.modelVersions = new int[geometries.length];
+        this.instanceBounds = new float[geometries.length * 6];
+        this.instances = new int[geometries.length];
+
+        int maxNodes = Math.max(1, (geometries.length * 2) - 1);
+        this.bounds = new float[maxNodes * 6];
+        this.offsets = new int[maxNodes];
+        this.counts = new int[maxNodes];
+    }
+
+    public int getAmountOfGeometries() {
+        return this.geometries.length;
+    }
+
+    public Geometry getGeometry(int index) {
+        return this.geometries[index];
+    }
+
+    public int getAmountOfNodes() {
+        return amountOfNodes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public float getCost() {
+        return cost;
+    }
+
+    public float getBuiltCost() {
+        return builtCost;
+    }
+
+    public int getAmountOfRebuilds() {
+        return amountOfRebuilds;
+    }
+
+    @Override
+    public void getMin(Vector3f min) {
+        min.set(this.bounds[0], this.bounds[1], this.bounds[2]);
+    }
+
+    @Override
+    public void getMax(Vector3f max) {
+        max.set(this.bounds[3], this.bounds[4], this.bounds[5]);
+    }
+
+    private void computeInstanceBounds(int instance, Vector3f min, Vector3f max) {
+        Geometry geometry = this.geometries[instance];
+        if (this.worldSpace[instance]) {
+            WideBVH world = geometry.getWorldBVH();
+            world.getMin(min);
+            world.getMax(max);
+        } else {
+            LinearBVH mesh = geometry.getMesh().getBVH();
+            mesh.getMin(min);
+            mesh.getMax(max);
+            Matrix4fc model = geometry.getModel();
+            model.transformAab(min, max, min, max);
+        }
+
+        this.instanceBounds[(instance * 6) + 0] = min.x();
+        this.instanceBounds[(instance * 6) + 1] = min.y();
+        this.instanceBounds[(instance * 6) + 2] = min.z();
+        this.instanceBounds[(instance * 6) + 3] = max.x();
+        this.instanceBounds[(instance * 6) + 4] = max.y();
+        this.instanceBounds[(instance * 6) + 5] = max.z();
+
+        this.modelVersions[instance] = geometry.getModelVersion();
+    }
+
+    /**
+     * Recomputes the bounds of every node from the bounds of the geometries
+     * without changing the tree structure.
+     */
+    public void refit() {
+        for (int node = this.amountOfNodes - 1; node >= 0; node--) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+                for (int j = 0; j < 3; j++) {
+                    this.bounds[(node * 6) + j] = Math.min(this.bounds[(left * 6) + j], this.bounds[(right * 6) + j]);
+                    this.bounds[(node * 6) + 3 + j] = Math.max(this.bounds[(left * 6) + 3 + j], this.bounds[(right * 6) + 3 + j]);
+                }
+                continue;
+            }
+            int offset = this.offsets[node];
+            for (int j = 0; j < 3; j++) {
+                this.bounds[(node * 6) + j] = Float.POSITIVE_INFINITY;
+                this.bounds[(node * 6) + 3 + j] = Float.NEGATIVE_INFINITY;
+            }
+            for (int i = 0; i < count; i++) {
+                int instance = this.instances[offset + i];
+                for (int j = 0; j < 3; j++) {
+                    this.bounds[(node * 6) + j] = Math.min(this.bounds[(node * 6) + j], this.instanceBounds[(instance * 6) + j]);
+                    this.bounds[(node * 6) + 3 + j] = Math.max(this.bounds[(node * 6) + 3 + j], this.instanceBounds[(instance * 6) + 3 + j]);
+                }
+            }
+        }
+    }
+
+    private float computeCost() {
+        float rootArea = area(
+                this.bounds[0], this.bounds[1], this.bounds[2],
+                this.bounds[3], this.bounds[4], this.bounds[5]
+        );
+        if (!(rootArea > 0f) || !Float.isFinite(rootArea)) {
+            return 0f;
+        }
+
+        float sum = 0f;
+        for (int node = 0; node < this.amountOfNodes; node++) {
+            float nodeArea = area(
+                    this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                    this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5]
+            );
+            int count = this.counts[node];
+            if (count == 0) {
+                sum += nodeArea * SAH_TRAVERSAL_COST;
+            } else {
+                sum += nodeArea * count * SAH_INSTANCE_COST;
+            }
+        }
+        return sum / rootArea;
+    }
+
+    /**
+     * Checks the model version of every geometry and refits the tree if any
+     * geometry had its model changed, if the refitted tree is too degraded it
+     * is rebuilt instead, returns true if the tree was refitted or rebuilt.
+     */
+    public boolean update() {
+        boolean changed = false;
+        for (int i = 0; i < this.geometries.length; i++) {
+            if (this.geometries[i].getModelVersion() != this.modelVersions[i]) {
+                computeInstanceBounds(i, this.updateMin, this.updateMax);
+                changed = true;
+            }
+        }
+        if (changed) {
+            refit();
+            this.cost = computeCost();
+            if (this.cost > this.builtCost * REBUILD_COST_RATIO) {
+                rebuild();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Rebuilds the tree from the current models of the geometries.
+     */
+    public void rebuild() {
+        for (int i = 0; i < this.geometries.length; i++) {
+            computeInstanceBounds(i, this.updateMin, this.updateMax);
+        }
+
+        if (this.geometries.length == 0) {
+            this.amountOfNodes = 1;
+            this.maxDepth = 0;
+            this.offsets[0] = 0;
+            this.counts[0] = 0;
+            for (int j = 0; j < 3; j++) {
+                this.bounds[j] = Float.POSITIVE_INFINITY;
+                this.bounds[3 + j] = Float.NEGATIVE_INFINITY;
+            }
+            return;
+        }
+
+        Builder builder = new Builder();
+        builder.build(0, this.geometries.length, 0);
+        this.amountOfNodes = builder.nodeIndex;
+        this.maxDepth = builder.maxDepth;
+
+        refit();
+
+        this.cost = computeCost();
+        this.builtCost = this.cost;
+        this.amountOfRebuilds++;
+    }
+
+    private boolean testRayNode(
+            int node,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        return IntersectionUtils.testRayAab(
+                originX, originY, originZ,
+                invDirX, invDirY, invDirZ,
+                this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5],
+                maxLength
+        );
+    }
+
+    private float intersectRayNode(
+            int node,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        return IntersectionUtils.intersectRayAab(
+                originX, originY, originZ,
+                invDirX, invDirY, invDirZ,
+                this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5],
+                maxLength
+        );
+    }
+
+    private WideBVH toLocal(RayQueryContext context, int instance, Vector3fc origin, Vector3fc direction) {
+        Geometry geometry = this.geometries[instance];
+        if (this.worldSpace[instance]) {
+            context.getLocalOrigin().set(origin);
+            context.getLocalDirection().set(direction);
+            return geometry.getWorldBVH();
+        }
+        geometry.getInverseModel().transformProject(context.getLocalOrigin().set(origin));
+        geometry.getInverseModel().transformDirection(context.getLocalDirection().set(direction));
+        return geometry.getMesh().getWideBVH();
+    }
+
+    @Override
+    public boolean fastTestRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength) {
+        if (this.geometries.length == 0) {
+            return false;
+        }
+
+        float originX = origin.x();
+        float originY = origin.y();
+        float originZ = origin.z();
+
+        float invDirX = 1f / direction.x();
+        float invDirY = 1f / direction.y();
+        float invDirZ = 1f / direction.z();
+
+        float length = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        context.ensureInstanceStackSize(this.maxDepth + 1);
+        int[] stack = context.instanceStack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            if (testRayNode(node, originX, originY, originZ, invDirX, invDirY, invDirZ, length)) {
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[stackSize++] = this.offsets[node];
+                    node++;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    WideBVH mesh = toLocal(context, this.instances[offset + i], origin, direction);
+                    if (mesh.fastTestRay(context, context.getLocalOrigin(), context.getLocalDirection(), length)) {
+                        return true;
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+
+        return false;
+    }
+
+    public boolean fastTestRay(Vector3fc origin, Vector3fc direction, float maxLength) {
+        return fastTestRay(RayQueryContext.threadLocal(), origin, direction, maxLength);
+    }
+
+    @Override
+    public boolean closestHit(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, RayHit hit) {
+        if (this.geometries.length == 0) {
+            return false;
+        }
+
+        float originX = origin.x();
+        float originY = origin.y();
+        float originZ = origin.z();
+
+        float invDirX = 1f / direction.x();
+        float invDirY = 1f / direction.y();
+        float invDirZ = 1f / direction.z();
+
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+        boolean closestWorldSpace = false;
+
+        if (intersectRayNode(0, originX, originY, originZ, invDirX, invDirY, invDirZ, closest) < 0f) {
+            return false;
+        }
+
+        context.ensureInstanceStackSize(this.maxDepth + 1);
+        int[] stack = context.instanceStack;
+        float[] stackDistances = context.instanceStackDistances;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+
+                float leftDistance = intersectRayNode(left, originX, originY, originZ, invDirX, invDirY, invDirZ, closest);
+                float rightDistance = intersectRayNode(right, originX, originY, originZ, invDirX, invDirY, invDirZ, closest);
+
+                if (leftDistance >= 0f && rightDistance >= 0f) {
+                    if (leftDistance <= rightDistance) {
+                        stack[stackSize] = right;
+                        stackDistances[stackSize] = rightDistance;
+                        node = left;
+                    } else {
+                        stack[stackSize] = left;
+                        stackDistances[stackSize] = leftDistance;
+                        node = right;
+                    }
+                    stackSize++;
+                    continue;
+                }
+                if (leftDistance >= 0f) {
+                    node = left;
+                    continue;
+                }
+                if (rightDistance >= 0f) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int instance = this.instances[offset + i];
+                    WideBVH mesh = toLocal(context, instance, origin, direction);
+                    if (mesh.closestHit(context, context.getLocalOrigin(), context.getLocalDirection(), closest, hit)) {
+                        closest = hit.getDistance();
+                        closestGeometry = this.geometries[instance];
+                        closestWorldSpace = this.worldSpace[instance];
+                    }
+                }
+            }
+
+            node = -1;
+            while (stackSize != 0) {
+                stackSize--;
+                if (stackDistances[stackSize] <= closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node == -1) {
+                break;
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        if (closestWorldSpace) {
+            hit.setWorldSpace(closestGeometry);
+        } else {
+            hit.setWorld(closestGeometry, origin, direction);
+        }
+        return true;
+    }
+
+    public boolean closestHit(Vector3fc origin, Vector3fc direction, float maxLength, RayHit hit) {
+        return closestHit(RayQueryContext.threadLocal(), origin, direction, maxLength, hit);
+    }
+
+    private float pointNodeDistanceSquared(int node, Vector3fc point) {
+        float dx = Math.max(Math.max(this.bounds[(node * 6) + 0] - point.x(), point.x() - this.bounds[(node * 6) + 3]), 0f);
+        float dy = Math.max(Math.max(this.bounds[(node * 6) + 1] - point.y(), point.y() - this.bounds[(node * 6) + 4]), 0f);
+        float dz = Math.max(Math.max(this.bounds[(node * 6) + 2] - point.z(), point.z() - this.bounds[(node * 6) + 5]), 0f);
+        return (dx * dx) + (dy * dy) + (dz * dz);
+    }
+
+    /**
+     * Finds the closest point on the geometries to the point within the max
+     * distance, see
+     * {@link LinearBVH#closestPoint(RayQueryContext, Matrix4fc, Matrix4fc, Vector3fc, float, PointHit)}.
+     */
+    public boolean closestPoint(RayQueryContext context, Vector3fc point, float maxDistance, PointHit hit) {
+        if (this.geometries.length == 0) {
+            return false;
+        }
+
+        float closest = (Float.isFinite(maxDistance) ? maxDistance : Float.POSITIVE_INFINITY);
+        Geometry closestGeometry = null;
+
+        if (pointNodeDistanceSquared(0, point) > closest * closest) {
+            return false;
+        }
+
+        context.ensureInstanceStackSize(this.maxDepth + 1);
+        int[] stack = context.instanceStack;
+        float[] stackDistances = context.instanceStackDistances;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+
+                float bound = closest * closest;
+                float leftDistance = pointNodeDistanceSquared(left, point);
+                float rightDistance = pointNodeDistanceSquared(right, point);
+
+                if (leftDistance <= bound && rightDistance <= bound) {
+                    if (leftDistance <= rightDistance) {
+                        stack[stackSize] = right;
+                        stackDistances[stackSize] = rightDistance;
+                        node = left;
+                    } else {
+                        stack[stackSize] = left;
+                        stackDistances[stackSize] = leftDistance;
+                        node = right;
+                    }
+                    stackSize++;
+                    continue;
+                }
+                if (leftDistance <= bound) {
+                    node = left;
+                    continue;
+                }
+                if (rightDistance <= bound) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int instance = this.instances[offset + i];
+                    Geometry geometry = this.geometries[instance];
+                    boolean found;
+                    if (this.worldSpace[instance]) {
+                        found = geometry.getWorldBVH().getLinearBVH()
+                                .closestPoint(context, null, null, point, closest, hit);
+                    } else {
+                        found = geometry.getMesh().getBVH()
+                                .closestPoint(context, geometry.getModel(), geometry.getInverseModel(), point, closest, hit);
+                    }
+                    if (found) {
+                        closest = hit.getDistance();
+                        closestGeometry = geometry;
+                    }
+                }
+            }
+
+            node = -1;
+            while (stackSize != 0) {
+                stackSize--;
+                if (stackDistances[stackSize] <= closest * closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node == -1) {
+                break;
+            }
+        }
+
+        if (closestGeometry == null) {
+            return false;
+        }
+
+        hit.setGeometry(closestGeometry);
+        return true;
+    }
+
+    public boolean closestPoint(Vector3fc point, float maxDistance, PointHit hit) {
+        return closestPoint(RayQueryContext.threadLocal(), point, maxDistance, hit);
+    }
+
+    /**
+     * Clears the hit buffer of the context and fills it with all hits sorted
+     * by distance, returns the amount of hits.
+     */
+    public int testRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength) {
+        context.clearHits();
+
+        if (this.geometries.length == 0) {
+            return 0;
+        }
+
+        float originX = origin.x();
+        float originY = origin.y();
+        float originZ = origin.z();
+
+        float invDirX = 1f / direction.x();
+        float invDirY = 1f / direction.y();
+        float invDirZ = 1f / direction.z();
+
+        float length = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        context.ensureInstanceStackSize(this.maxDepth + 1);
+        int[] stack = context.instanceStack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            if (testRayNode(node, originX, originY, originZ, invDirX, invDirY, invDirZ, length)) {
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[stackSize++] = this.offsets[node];
+                    node++;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int instance = this.instances[offset + i];
+                    LinearBVH mesh = toLocal(context, instance, origin, direction).getLinearBVH();
+                    int from = context.getHitCount();
+                    if (mesh.testRay(context, context.getLocalOrigin(), context.getLocalDirection(), length) != 0) {
+                        context.setHitGeometry(from, this.geometries[instance]);
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+
+        context.sortHits();
+        return context.getHitCount();
+    }
+
+    private boolean testRayNode(int node, RayBatch batch, int ray) {
+        return testRayNode(node,
+                batch.originX[ray], batch.originY[ray], batch.originZ[ray],
+                batch.invDirectionX[ray], batch.invDirectionY[ray], batch.invDirectionZ[ray],
+                batch.maxLength[ray]
+        );
+    }
+
+    /**
+     * Traces all rays of the batch together as a packet, the packet keeps
+     * the range of rays that entered each node, the rays are transformed into
+     * the local space of every geometry they reach and the result is written
+     * to the occluded array of the batch, batches that are not coherent are
+     * traced ray by ray.
+     */
+    @Override
+    public void fastTestRays(RayQueryContext context, RayBatch batch) {
+        batch.clearOutputs();
+
+        int first = 0;
+        int end = batch.getCount();
+        if (this.geometries.length == 0 || end == 0) {
+            return;
+        }
+
+        if (!batch.isCoherent()) {
+            for (int ray = 0; ray < end; ray++) {
+                batch.occluded[ray] = fastTestRay(context,
+                        context.batchOrigin.set(batch.originX[ray], batch.originY[ray], batch.originZ[ray]),
+                        context.batchDirection.set(batch.directionX[ray], batch.directionY[ray], batch.directionZ[ray]),
+                        batch.maxLength[ray]
+                );
+            }
+            return;
+        }
+
+        boolean[] occluded = batch.occluded;
+        RayBatch local = context.localBatch(batch.getCapacity());
+        Vector3f localOrigin = context.getLocalOrigin();
+        Vector3f localDirection = context.getLocalDirection();
+
+        context.instancePacketStack = RayQueryContext.ensureSize(context.instancePacketStack, (this.maxDepth + 1) * 3);
+        int[] stack = context.instancePacketStack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int rangeFirst = first;
+            while (rangeFirst < end && (occluded[rangeFirst] || !testRayNode(node, batch, rangeFirst))) {
+                rangeFirst++;
+            }
+
+            if (rangeFirst < end) {
+                int rangeEnd = end;
+                while ((rangeEnd - 1) > rangeFirst && (occluded[rangeEnd - 1] || !testRayNode(node, batch, rangeEnd - 1))) {
+                    rangeEnd--;
+                }
+
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[(stackSize * 3) + 0] = this.offsets[node];
+                    stack[(stackSize * 3) + 1] = rangeFirst;
+                    stack[(stackSize * 3) + 2] = rangeEnd;
+                    stackSize++;
+
+                    node++;
+                    first = rangeFirst;
+                    end = rangeEnd;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int instance = this.instances[offset + i];
+                    Geometry geometry = this.geometries[instance];
+                    if (this.worldSpace[instance]) {
+                        geometry.getWorldBVH().getLinearBVH().fastTestRays(context, batch, rangeFirst, rangeEnd, occluded);
+                        continue;
+                    }
+                    Matrix4fc inverseModel = geometry.getInverseModel();
+
+                    for (int ray = rangeFirst; ray < rangeEnd; ray++) {
+                        if (occluded[ray]) {
+                            continue;
+                        }
+                        inverseModel.transformProject(batch.originX[ray], batch.originY[ray], batch.originZ[ray], localOrigin);
+                        inverseModel.transformDirection(batch.directionX[ray], batch.directionY[ray], batch.directionZ[ray], localDirection);
+                        local.set(ray,
+                                localOrigin.x(), localOrigin.y(), localOrigin.z(),
+                                localDirection.x(), localDirection.y(), localDirection.z(),
+                                batch.maxLength[ray]
+                        );
+                    }
+
+                    geometry.getMesh().getBVH().fastTestRays(context, local, rangeFirst, rangeEnd, occluded);
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            stackSize--;
+            node = stack[(stackSize * 3) + 0];
+            first = stack[(stackSize * 3) + 1];
+            end = stack[(stackSize * 3) + 2];
+        }
+    }
+
+    public void fastTestRays(RayBatch batch) {
+        fastTestRays(RayQueryContext.threadLocal(), batch);
+    }
+
+}
@@ -28,6 +28,7 @@ package cientistavuador.physicsexperiment.util.raycast;
 
 import org.joml.Intersectionf;
 import org.joml.Vector2f;
+import org.joml.Vector3f;
 import org.joml.Vector3fc;
 
 /**
@@ -43,6 +44,136 @@ public class IntersectionUtils {
     public static float intersectRayTriangle(Vector3fc origin, Vector3fc dir, Vector3fc a, Vector3fc b, Vector3fc c) {
         return Intersectionf.intersectRayTriangle(origin, dir, a, b, c, 1f / 100000f);
     }
+
+    public static float intersectRayTriangle(
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ
+    ) {
+        return Intersectionf.intersectRayTriangle(
+                originX, originY, originZ,
+                dirX, dirY, dirZ,
+                aX, aY, aZ,
+                bX, bY, bZ,
+                cX, cY, cZ,
+                1f / 100000f
+        );
+    }
+
+    public static float intersectRayAab(
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            float maxLength
+    ) {
+        float tNear = 0f;
+        float tFar = maxLength;
+
+        float t0 = (minX - originX) * invDirX;
+        float t1 = (maxX - originX) * invDirX;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        t0 = (minY - originY) * invDirY;
+        t1 = (maxY - originY) * invDirY;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        t0 = (minZ - originZ) * invDirZ;
+        t1 = (maxZ - originZ) * invDirZ;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        if (tNear <= tFar) {
+            return tNear;
+        }
+        return -1f;
+    }
+
+    public static boolean testRayAab(
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            float maxLength
+    ) {
+        float tNear = 0f;
+        float tFar = maxLength;
+
+        float t0 = (minX - originX) * invDirX;
+        float t1 = (maxX - originX) * invDirX;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        t0 = (minY - originY) * invDirY;
+        t1 = (maxY - originY) * invDirY;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        t0 = (minZ - originZ) * invDirZ;
+        t1 = (maxZ - originZ) * invDirZ;
+        if (t0 > t1) {
+            float swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        if (t0 > tNear) {
+            tNear = t0;
+        }
+        if (t1 < tFar) {
+            tFar = t1;
+        }
+
+        return tNear <= tFar;
+    }
     
     public static boolean lineSegmentLineSegment(float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4, Vector2f p) {
         float denom = 1f / ((x1 - x2) * (y3 - y4) - (y1 - y2) * (x3 - x4));
@@ -58,6 +189,444 @@ public class IntersectionUtils {
         return false;
     }
     
+    /**
+     * Returns the first distance along the ray where it enters the sphere, or
+     * -1 if it does not enter it before maxLength or starts inside it.
+     */
+    public static float intersectRaySphere(
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float centerX, float centerY, float centerZ,
+            float radius,
+            float maxLength
+    ) {
+        float mX = originX - centerX;
+        float mY = originY - centerY;
+        float mZ = originZ - centerZ;
+
+        float a = (dirX * dirX) + (dirY * dirY) + (dirZ * dirZ);
+        float b = (mX * dirX) + (mY * dirY) + (mZ * dirZ);
+        float c = ((mX * mX) + (mY * mY) + (mZ * mZ)) - (radius * radius);
+        if (a <= 0f || (b > 0f && c > 0f)) {
+            return -1f;
+        }
+
+        float discriminant = (b * b) - (a * c);
+        if (discriminant < 0f) {
+            return -1f;
+        }
+
+        float t = (-b - (float) Math.sqrt(discriminant)) / a;
+        if (t < 0f || t > maxLength) {
+            return -1f;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the first distance along the ray where it enters the cylinder
+     * of the given radius around the segment p q (without caps), or -1 if it
+     * does not enter it before maxLength.
+     */
+    public static float intersectRayCylinder(
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float pX, float pY, float pZ,
+            float qX, float qY, float qZ,
+            float radius,
+            float maxLength
+    ) {
+        float eX = qX - pX;
+        float eY = qY - pY;
+        float eZ = qZ - pZ;
+
+        float mX = originX - pX;
+        float mY = originY - pY;
+        float mZ = originZ - pZ;
+
+        float ee = (eX * eX) + (eY * eY) + (eZ * eZ);
+        float ed = (eX * dirX) + (eY * dirY) + (eZ * dirZ);
+        float em = (eX * mX) + (eY * mY) + (eZ * mZ);
+        float dd = (dirX * dirX) + (dirY * dirY) + (dirZ * dirZ);
+        float dm = (dirX * mX) + (dirY * mY) + (dirZ * mZ);
+        float mm = (mX * mX) + (mY * mY) + (mZ * mZ);
+
+        float a = (ee * dd) - (ed * ed);
+        if (a <= (ee * dd) * (1f / 100000f)) {
+            //parallel to the axis, the caps or vertices are hit first
+            return -1f;
+        }
+        float b = (ee * dm) - (em * ed);
+        float c = (ee * (mm - (radius * radius))) - (em * em);
+        if (b > 0f && c > 0f) {
+            return -1f;
+        }
+
+        float discriminant = (b * b) - (a * c);
+        if (discriminant < 0f) {
+            return -1f;
+        }
+
+        float t = (-b - (float) Math.sqrt(discriminant)) / a;
+        if (t < 0f || t > maxLength) {
+            return -1f;
+        }
+
+        float f = em + (t * ed);
+        if (f < 0f || f > ee) {
+            return -1f;
+        }
+        return t;
+    }
+
+    /**
+     * Sweeps a sphere along the direction and returns the distance where it
+     * first touches the triangle, 0 if it already overlaps the triangle or -1
+     * if it does not touch it before maxLength, the contact point on the
+     * triangle is written to outContact.
+     */
+    public static float sweepSphereTriangle(
+            float centerX, float centerY, float centerZ,
+            float radius,
+            float dirX, float dirY, float dirZ,
+            float maxLength,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ,
+            Vector3f outContact
+    ) {
+        Intersectionf.findClosestPointOnTriangle(
+                aX, aY, aZ,
+                bX, bY, bZ,
+                cX, cY, cZ,
+                centerX, centerY, centerZ,
+                outContact
+        );
+        if (outContact.distanceSquared(centerX, centerY, centerZ) <= (radius * radius)) {
+            return 0f;
+        }
+
+        float nX = ((bY - aY) * (cZ - aZ)) - ((bZ - aZ) * (cY - aY));
+        float nY = ((bZ - aZ) * (cX - aX)) - ((bX - aX) * (cZ - aZ));
+        float nZ = ((bX - aX) * (cY - aY)) - ((bY - aY) * (cX - aX));
+        float nLength = (float) Math.sqrt((nX * nX) + (nY * nY) + (nZ * nZ));
+        if (nLength > 0f) {
+            nX /= nLength;
+            nY /= nLength;
+            nZ /= nLength;
+
+            float s0 = (nX * (centerX - aX)) + (nY * (centerY - aY)) + (nZ * (centerZ - aZ));
+            float sd = (nX * dirX) + (nY * dirY) + (nZ * dirZ);
+            if (s0 < 0f) {
+                nX = -nX;
+                nY = -nY;
+                nZ = -nZ;
+                s0 = -s0;
+                sd = -sd;
+            }
+            if (sd < 0f) {
+                float t = (s0 - radius) / -sd;
+                if (t >= 0f && t <= maxLength) {
+                    float pX = (centerX + (dirX * t)) - (nX * radius);
+                    float pY = (centerY + (dirY * t)) - (nY * radius);
+                    float pZ = (centerZ + (dirZ * t)) - (nZ * radius);
+                    if (Intersectionf.testPointInTriangle(pX, pY, pZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)) {
+                        //nothing can be touched before the face
+                        outContact.set(pX, pY, pZ);
+                        return t;
+                    }
+                }
+            }
+        }
+
+        float closest = maxLength;
+        boolean hit = false;
+
+        float t = intersectRayCylinder(centerX, centerY, centerZ, dirX, dirY, dirZ, aX, aY, aZ, bX, bY, bZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            Intersectionf.findClosestPointOnLineSegment(aX, aY, aZ, bX, bY, bZ, centerX + (dirX * t), centerY + (dirY * t), centerZ + (dirZ * t), outContact);
+        }
+        t = intersectRayCylinder(centerX, centerY, centerZ, dirX, dirY, dirZ, bX, bY, bZ, cX, cY, cZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            Intersectionf.findClosestPointOnLineSegment(bX, bY, bZ, cX, cY, cZ, centerX + (dirX * t), centerY + (dirY * t), centerZ + (dirZ * t), outContact);
+        }
+        t = intersectRayCylinder(centerX, centerY, centerZ, dirX, dirY, dirZ, cX, cY, cZ, aX, aY, aZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            Intersectionf.findClosestPointOnLineSegment(cX, cY, cZ, aX, aY, aZ, centerX + (dirX * t), centerY + (dirY * t), centerZ + (dirZ * t), outContact);
+        }
+
+        t = intersectRaySphere(centerX, centerY, centerZ, dirX, dirY, dirZ, aX, aY, aZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(aX, aY, aZ);
+        }
+        t = intersectRaySphere(centerX, centerY, centerZ, dirX, dirY, dirZ, bX, bY, bZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(bX, bY, bZ);
+        }
+        t = intersectRaySphere(centerX, centerY, centerZ, dirX, dirY, dirZ, cX, cY, cZ, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(cX, cY, cZ);
+        }
+
+        if (hit) {
+            return closest;
+        }
+        return -1f;
+    }
+
+    private static float sweepSegmentEdge(
+            float p0X, float p0Y, float p0Z,
+            float p1X, float p1Y, float p1Z,
+            float radius,
+            float dirX, float dirY, float dirZ,
+            float maxLength,
+            float q0X, float q0Y, float q0Z,
+            float q1X, float q1Y, float q1Z,
+            Vector3f outContact
+    ) {
+        float e1X = p1X - p0X;
+        float e1Y = p1Y - p0Y;
+        float e1Z = p1Z - p0Z;
+
+        float e2X = q1X - q0X;
+        float e2Y = q1Y - q0Y;
+        float e2Z = q1Z - q0Z;
+
+        float mX = (e1Y * e2Z) - (e1Z * e2Y);
+        float mY = (e1Z * e2X) - (e1X * e2Z);
+        float mZ = (e1X * e2Y) - (e1Y * e2X);
+        float mLengthSquared = (mX * mX) + (mY * mY) + (mZ * mZ);
+        float a = (e1X * e1X) + (e1Y * e1Y) + (e1Z * e1Z);
+        float e = (e2X * e2X) + (e2Y * e2Y) + (e2Z * e2Z);
+        if (mLengthSquared <= (a * e) * (1f / 100000f)) {
+            //parallel, the ends are touched first
+            return -1f;
+        }
+        float mLength = (float) Math.sqrt(mLengthSquared);
+        mX /= mLength;
+        mY /= mLength;
+        mZ /= mLength;
+
+        float s0 = (mX * (p0X - q0X)) + (mY * (p0Y - q0Y)) + (mZ * (p0Z - q0Z));
+        float sd = (mX * dirX) + (mY * dirY) + (mZ * dirZ);
+        if (s0 < 0f) {
+            s0 = -s0;
+            sd = -sd;
+        }
+        if (sd >= 0f) {
+            return -1f;
+        }
+        float t = (s0 - radius) / -sd;
+        if (t < 0f || t > maxLength) {
+            return -1f;
+        }
+
+        float rX = (p0X + (dirX * t)) - q0X;
+        float rY = (p0Y + (dirY * t)) - q0Y;
+        float rZ = (p0Z + (dirZ * t)) - q0Z;
+
+        float b = (e1X * e2X) + (e1Y * e2Y) + (e1Z * e2Z);
+        float c = (e1X * rX) + (e1Y * rY) + (e1Z * rZ);
+        float f = (e2X * rX) + (e2Y * rY) + (e2Z * rZ);
+        float denominator = (a * e) - (b * b);
+
+        float u = ((b * f) - (c * e)) / denominator;
+        float v = ((a * f) - (b * c)) / denominator;
+        if (u < 0f || u > 1f || v < 0f || v > 1f) {
+            return -1f;
+        }
+
+        outContact.set(q0X + (e2X * v), q0Y + (e2Y * v), q0Z + (e2Z * v));
+        return t;
+    }
+
+    /**
+     * Sweeps a capsule with the segment p0 p1 along the direction and
+     * returns the distance where it first touches the triangle, 0 if it
+     * already overlaps the triangle or -1 if it does not touch it before
+     * maxLength, the contact point on the triangle is written to outContact,
+     * scratch is used as temporary storage.
+     */
+    public static float sweepCapsuleTriangle(
+            float p0X, float p0Y, float p0Z,
+            float p1X, float p1Y, float p1Z,
+            float radius,
+            float dirX, float dirY, float dirZ,
+            float maxLength,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ,
+            Vector3f outContact,
+            Vector3f scratch
+    ) {
+        float distanceSquared = Intersectionf.findClosestPointsLineSegmentTriangle(
+                p0X, p0Y, p0Z,
+                p1X, p1Y, p1Z,
+                aX, aY, aZ,
+                bX, bY, bZ,
+                cX, cY, cZ,
+                scratch,
+                outContact
+        );
+        if (distanceSquared <= (radius * radius)) {
+            return 0f;
+        }
+
+        float closest = maxLength;
+        boolean hit = false;
+
+        //the caps
+        float t = sweepSphereTriangle(p0X, p0Y, p0Z, radius, dirX, dirY, dirZ, closest, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, scratch);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(scratch);
+        }
+        t = sweepSphereTriangle(p1X, p1Y, p1Z, radius, dirX, dirY, dirZ, closest, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, scratch);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(scratch);
+        }
+
+        //the vertices against the side of the capsule
+        t = intersectRayCylinder(aX, aY, aZ, -dirX, -dirY, -dirZ, p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(aX, aY, aZ);
+        }
+        t = intersectRayCylinder(bX, bY, bZ, -dirX, -dirY, -dirZ, p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(bX, bY, bZ);
+        }
+        t = intersectRayCylinder(cX, cY, cZ, -dirX, -dirY, -dirZ, p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, closest);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(cX, cY, cZ);
+        }
+
+        //the edges against the side of the capsule
+        t = sweepSegmentEdge(p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, dirX, dirY, dirZ, closest, aX, aY, aZ, bX, bY, bZ, scratch);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(scratch);
+        }
+        t = sweepSegmentEdge(p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, dirX, dirY, dirZ, closest, bX, bY, bZ, cX, cY, cZ, scratch);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(scratch);
+        }
+        t = sweepSegmentEdge(p0X, p0Y, p0Z, p1X, p1Y, p1Z, radius, dirX, dirY, dirZ, closest, cX, cY, cZ, aX, aY, aZ, scratch);
+        if (t >= 0f) {
+            closest = t;
+            hit = true;
+            outContact.set(scratch);
+        }
+
+        if (hit) {
+            return closest;
+        }
+        return -1f;
+    }
+
+    private static boolean separated(float p0, float p1, float p2, float radius) {
+        float min = Math.min(p0, Math.min(p1, p2));
+        float max = Math.max(p0, Math.max(p1, p2));
+        return min > radius || max < -radius;
+    }
+
+    private static boolean separatedByEdge(
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ,
+            float eX, float eY, float eZ,
+            float hX, float hY, float hZ
+    ) {
+        return separated(
+                (aZ * eY) - (aY * eZ),
+                (bZ * eY) - (bY * eZ),
+                (cZ * eY) - (cY * eZ),
+                (hY * Math.abs(eZ)) + (hZ * Math.abs(eY)))
+                || separated(
+                        (aX * eZ) - (aZ * eX),
+                        (bX * eZ) - (bZ * eX),
+                        (cX * eZ) - (cZ * eX),
+                        (hX * Math.abs(eZ)) + (hZ * Math.abs(eX)))
+                || separated(
+                        (aY * eX) - (aX * eY),
+                        (bY * eX) - (bX * eY),
+                        (cY * eX) - (cX * eY),
+                        (hX * Math.abs(eY)) + (hY * Math.abs(eX)));
+    }
+
+    /**
+     * Tests if the axis aligned box overlaps the triangle using the
+     * separating axis theorem.
+     */
+    public static boolean testAabTriangle(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ
+    ) {
+        float centerX = (minX * 0.5f) + (maxX * 0.5f);
+        float centerY = (minY * 0.5f) + (maxY * 0.5f);
+        float centerZ = (minZ * 0.5f) + (maxZ * 0.5f);
+
+        float hX = (maxX - minX) * 0.5f;
+        float hY = (maxY - minY) * 0.5f;
+        float hZ = (maxZ - minZ) * 0.5f;
+
+        aX -= centerX;
+        aY -= centerY;
+        aZ -= centerZ;
+        bX -= centerX;
+        bY -= centerY;
+        bZ -= centerZ;
+        cX -= centerX;
+        cY -= centerY;
+        cZ -= centerZ;
+
+        //box axes
+        if (separated(aX, bX, cX, hX) || separated(aY, bY, cY, hY) || separated(aZ, bZ, cZ, hZ)) {
+            return false;
+        }
+
+        //box axes cross triangle edges
+        if (separatedByEdge(aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, bX - aX, bY - aY, bZ - aZ, hX, hY, hZ)
+                || separatedByEdge(aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, cX - bX, cY - bY, cZ - bZ, hX, hY, hZ)
+                || separatedByEdge(aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, aX - cX, aY - cY, aZ - cZ, hX, hY, hZ)) {
+            return false;
+        }
+
+        //triangle plane
+        float nX = ((bY - aY) * (cZ - aZ)) - ((bZ - aZ) * (cY - aY));
+        float nY = ((bZ - aZ) * (cX - aX)) - ((bX - aX) * (cZ - aZ));
+        float nZ = ((bX - aX) * (cY - aY)) - ((bY - aY) * (cX - aX));
+        float distance = (nX * aX) + (nY * aY) + (nZ * aZ);
+        float radius = (hX * Math.abs(nX)) + (hY * Math.abs(nY)) + (hZ * Math.abs(nZ));
+        return Math.abs(distance) <= radius;
+    }
+
     private IntersectionUtils() {
 
     }
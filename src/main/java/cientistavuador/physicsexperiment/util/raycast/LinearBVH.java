@@ -0,0 +1,1224 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.util.Aab;
+import cientistavuador.physicsexperiment.util.MeshUtils;
+import cientistavuador.physicsexperiment.util.RasterUtils;
+import java.util.ArrayList;
+import java.util.List;
+import org.joml.Intersectionf;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A flattened {@link BVH} with the nodes stored in depth first order inside
+ * primitive arrays, the left child of a node is always the next node and the
+ * right child is stored in the offsets array.
+ *
+ * @author Cien
+ */
+public class LinearBVH implements Aab, RayTraceable {
+
+    public static final float CLOSEST_POINT_TOLERANCE = 0.0001f;
+
+    public static LinearBVH create(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        return flatten(BVH.create(vertices, indices, vertexSize, xyzOffset));
+    }
+
+    private static class Flattener {
+
+        private final float[] bounds;
+        private final int[] offsets;
+        private final int[] counts;
+        private final int[] triangles;
+
+        private int nodeIndex = 0;
+        private int triangleIndex = 0;
+        private int maxDepth = 0;
+
+        public Flattener(int amountOfNodes, int amountOfTriangles) {
+            this.bounds = new float[amountOfNodes * 6];
+            this.offsets = new int[amountOfNodes];
+            this.counts = new int[amountOfNodes];
+            this.triangles = new int[amountOfTriangles];
+        }
+
+        public void flatten(BVH node, int depth) {
+            this.maxDepth = Math.max(this.maxDepth, depth);
+
+            int index = this.nodeIndex++;
+
+            this.bounds[(index * 6) + 0] = node.getMin().x();
+            this.bounds[(index * 6) + 1] = node.getMin().y();
+            this.bounds[(index * 6) + 2] = node.getMin().z();
+            this.bounds[(index * 6) + 3] = node.getMax().x();
+            this.bounds[(index * 6) + 4] = node.getMax().y();
+            this.bounds[(index * 6) + 5] = node.getMax().z();
+
+            if (node.getLeft() == null && node.getRight() == null) {
+                int[] nodeTriangles = node.getTriangles();
+                this.offsets[index] = this.triangleIndex;
+                this.counts[index] = nodeTriangles.length;
+                System.arraycopy(nodeTriangles, 0, this.triangles, this.triangleIndex, nodeTriangles.length);
+                this.triangleIndex += nodeTriangles.length;
+                return;
+            }
+
+            flatten(node.getLeft(), depth + 1);
+            this.offsets[index] = this.nodeIndex;
+            this.counts[index] = 0;
+            flatten(node.getRight(), depth + 1);
+        }
+    }
+
+    private static int countNodes(BVH node) {
+        if (node.getLeft() == null && node.getRight() == null) {
+            return 1;
+        }
+        return 1 + countNodes(node.getLeft()) + countNodes(node.getRight());
+    }
+
+    private static int countTriangles(BVH node) {
+        if (node.getLeft() == null && node.getRight() == null) {
+            return node.getTriangles().length;
+        }
+        return countTriangles(node.getLeft()) + countTriangles(node.getRight());
+    }
+
+    public static LinearBVH flatten(BVH bvh) {
+        Flattener flattener = new Flattener(countNodes(bvh), countTriangles(bvh));
+        flattener.flatten(bvh, 0);
+        return new LinearBVH(
+                bvh.getVertices(), bvh.getIndices(), bvh.getVertexSize(), bvh.getXyzOffset(),
+                flattener.bounds, flattener.offsets, flattener.counts, flattener.triangles,
+                flattener.maxDepth
+        );
+    }
+
+    private final float[] vertices;
+    private final int[] indices;
+    private final int vertexSize;
+    private final int xyzOffset;
+
+    final float[] bounds;
+    final int[] offsets;
+    final int[] counts;
+    final int[] triangles;
+    final int maxDepth;
+
+    LinearBVH(
+            float[] vertices, int[] indices, int vertexSize, int xyzOffset,
+            float[] bounds, int[] offsets, int[] counts, int[] triangles,
+            int maxDepth
+    ) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.vertexSize = vertexSize;
+        this.xyzOffset = xyzOffset;
+        this.bounds = bounds;
+        this.offsets = offsets;
+        this.counts = counts;
+        this.triangles = triangles;
+        this.maxDepth = maxDepth;
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getVertexSize() {
+        return vertexSize;
+    }
+
+    public int getXyzOffset() {
+        return xyzOffset;
+    }
+
+    public int getAmountOfNodes() {
+        return this.counts.length;
+    }
+
+    public int getAmountOfTriangles() {
+        return this.triangles.length;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns true if the bvh has no triangles, an empty bvh is a single leaf
+     * whose count of zero reads as an interior node, so queries return before
+     * traversing it.
+     */
+    public boolean isEmpty() {
+        return this.triangles.length == 0;
+    }
+
+    @Override
+    public void getMin(Vector3f min) {
+        min.set(this.bounds[0], this.bounds[1], this.bounds[2]);
+    }
+
+    @Override
+    public void getMax(Vector3f max) {
+        max.set(this.bounds[3], this.bounds[4], this.bounds[5]);
+    }
+
+    private boolean testRayNode(
+            int node,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        return IntersectionUtils.testRayAab(
+                originX, originY, originZ,
+                invDirX, invDirY, invDirZ,
+                this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5],
+                maxLength
+        );
+    }
+
+    private float testRayTriangle(
+            int triangle,
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ
+    ) {
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        return IntersectionUtils.intersectRayTriangle(
+                originX, originY, originZ,
+                dirX, dirY, dirZ,
+                this.vertices[v0xyz + 0], this.vertices[v0xyz + 1], this.vertices[v0xyz + 2],
+                this.vertices[v1xyz + 0], this.vertices[v1xyz + 1], this.vertices[v1xyz + 2],
+                this.vertices[v2xyz + 0], this.vertices[v2xyz + 1], this.vertices[v2xyz + 2]
+        );
+    }
+
+    @Override
+    public boolean fastTestRay(RayQueryContext context, Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        if (isEmpty()) {
+            return false;
+        }
+        float originX = localOrigin.x();
+        float originY = localOrigin.y();
+        float originZ = localOrigin.z();
+
+        float dirX = localDirection.x();
+        float dirY = localDirection.y();
+        float dirZ = localDirection.z();
+
+        float invDirX = 1f / dirX;
+        float invDirY = 1f / dirY;
+        float invDirZ = 1f / dirZ;
+
+        float length = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            if (testRayNode(node, originX, originY, originZ, invDirX, invDirY, invDirZ, length)) {
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[stackSize++] = this.offsets[node];
+                    node++;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    float hit = testRayTriangle(
+                            this.triangles[offset + i],
+                            originX, originY, originZ,
+                            dirX, dirY, dirZ
+                    );
+                    if (hit >= 0f && hit <= length) {
+                        return true;
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+
+        return false;
+    }
+
+    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        return fastTestRay(RayQueryContext.threadLocal(), localOrigin, localDirection, maxLength);
+    }
+
+    private float intersectRayNode(
+            int node,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        return IntersectionUtils.intersectRayAab(
+                originX, originY, originZ,
+                invDirX, invDirY, invDirZ,
+                this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5],
+                maxLength
+        );
+    }
+
+    private boolean isFrontFace(RayQueryContext context, int triangle, Vector3fc localDirection) {
+        MeshUtils.calculateTriangleNormal(
+                this.vertices,
+                this.vertexSize,
+                this.xyzOffset,
+                this.indices[(triangle * 3) + 0],
+                this.indices[(triangle * 3) + 1],
+                this.indices[(triangle * 3) + 2],
+                context.normal
+        );
+        return context.normal.dot(localDirection) < 0f;
+    }
+
+    @Override
+    public boolean closestHit(RayQueryContext context, Vector3fc localOrigin, Vector3fc localDirection, float maxLength, RayHit hit) {
+        if (isEmpty()) {
+            return false;
+        }
+        float originX = localOrigin.x();
+        float originY = localOrigin.y();
+        float originZ = localOrigin.z();
+
+        float dirX = localDirection.x();
+        float dirY = localDirection.y();
+        float dirZ = localDirection.z();
+
+        float invDirX = 1f / dirX;
+        float invDirY = 1f / dirY;
+        float invDirZ = 1f / dirZ;
+
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        int closestTriangle = -1;
+
+        if (intersectRayNode(0, originX, originY, originZ, invDirX, invDirY, invDirZ, closest) < 0f) {
+            return false;
+        }
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        float[] stackDistances = context.stackDistances;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+
+                float leftDistance = intersectRayNode(left, originX, originY, originZ, invDirX, invDirY, invDirZ, closest);
+                float rightDistance = intersectRayNode(right, originX, originY, originZ, invDirX, invDirY, invDirZ, closest);
+
+                if (leftDistance >= 0f && rightDistance >= 0f) {
+                    if (leftDistance <= rightDistance) {
+                        stack[stackSize] = right;
+                        stackDistances[stackSize] = rightDistance;
+                        node = left;
+                    } else {
+                        stack[stackSize] = left;
+                        stackDistances[stackSize] = leftDistance;
+                        node = right;
+                    }
+                    stackSize++;
+                    continue;
+                }
+                if (leftDistance >= 0f) {
+                    node = left;
+                    continue;
+                }
+                if (rightDistance >= 0f) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int triangle = this.triangles[offset + i];
+                    float t = testRayTriangle(
+                            triangle,
+                            originX, originY, originZ,
+                            dirX, dirY, dirZ
+                    );
+                    if (t >= 0f && t < closest) {
+                        closest = t;
+                        closestTriangle = triangle;
+                    }
+                }
+            }
+
+            node = -1;
+            while (stackSize != 0) {
+                stackSize--;
+                if (stackDistances[stackSize] <= closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node == -1) {
+                break;
+            }
+        }
+
+        if (closestTriangle == -1) {
+            return false;
+        }
+
+        boolean frontFace = isFrontFace(context, closestTriangle, localDirection);
+        context.hitPosition.set(localDirection).mul(closest).add(localOrigin);
+
+        hit.setLocal(closestTriangle, frontFace, closest, context.hitPosition, context.normal);
+
+        return true;
+    }
+
+    public boolean closestHit(Vector3fc localOrigin, Vector3fc localDirection, float maxLength, RayHit hit) {
+        return closestHit(RayQueryContext.threadLocal(), localOrigin, localDirection, maxLength, hit);
+    }
+
+    /**
+     * Appends all hits to the hit buffer of the context without clearing it,
+     * returns the amount of hits appended.
+     */
+    public int testRay(RayQueryContext context, Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        if (isEmpty()) {
+            return 0;
+        }
+        float originX = localOrigin.x();
+        float originY = localOrigin.y();
+        float originZ = localOrigin.z();
+
+        float dirX = localDirection.x();
+        float dirY = localDirection.y();
+        float dirZ = localDirection.z();
+
+        float invDirX = 1f / dirX;
+        float invDirY = 1f / dirY;
+        float invDirZ = 1f / dirZ;
+
+        float length = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        int stackSize = 0;
+        int node = 0;
+
+        int hits = 0;
+
+        while (true) {
+            if (testRayNode(node, originX, originY, originZ, invDirX, invDirY, invDirZ, length)) {
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[stackSize++] = this.offsets[node];
+                    node++;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int triangle = this.triangles[offset + i];
+
+                    float hit = testRayTriangle(
+                            triangle,
+                            originX, originY, originZ,
+                            dirX, dirY, dirZ
+                    );
+                    if (hit >= 0f && hit <= length) {
+                        context.addHit(hit, triangle, isFrontFace(context, triangle, localDirection));
+                        hits++;
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+
+        return hits;
+    }
+
+    public List<LocalRayResult> testRay(Vector3fc localOrigin, Vector3fc localDirection) {
+        RayQueryContext context = RayQueryContext.threadLocal();
+        context.clearHits();
+
+        int hits = testRay(context, localOrigin, localDirection, Float.POSITIVE_INFINITY);
+
+        List<LocalRayResult> resultsOutput = new ArrayList<>(hits);
+
+        Vector3f normal = new Vector3f();
+        Vector3f hitposition = new Vector3f();
+
+        for (int i = 0; i < hits; i++) {
+            int triangle = context.getHitTriangle(i);
+
+            MeshUtils.calculateTriangleNormal(
+                    this.vertices,
+                    this.vertexSize,
+                    this.xyzOffset,
+                    this.indices[(triangle * 3) + 0],
+                    this.indices[(triangle * 3) + 1],
+                    this.indices[(triangle * 3) + 2],
+                    normal
+            );
+
+            hitposition.set(localDirection).mul(context.getHitDistance(i)).add(localOrigin);
+
+            resultsOutput.add(new LocalRayResult(localOrigin, localDirection, hitposition, normal, triangle, context.isHitFrontFace(i)));
+        }
+
+        context.clearHits();
+
+        return resultsOutput;
+    }
+
+    private boolean testRayNode(int node, RayBatch batch, int ray) {
+        return testRayNode(node,
+                batch.originX[ray], batch.originY[ray], batch.originZ[ray],
+                batch.invDirectionX[ray], batch.invDirectionY[ray], batch.invDirectionZ[ray],
+                batch.maxLength[ray]
+        );
+    }
+
+    void fastTestRays(RayQueryContext context, RayBatch batch, int first, int end, boolean[] occluded) {
+        if (isEmpty()) {
+            return;
+        }
+        context.packetStack = RayQueryContext.ensureSize(context.packetStack, (this.maxDepth + 1) * 3);
+        int[] stack = context.packetStack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int rangeFirst = first;
+            while (rangeFirst < end && (occluded[rangeFirst] || !testRayNode(node, batch, rangeFirst))) {
+                rangeFirst++;
+            }
+
+            if (rangeFirst < end) {
+                int rangeEnd = end;
+                while ((rangeEnd - 1) > rangeFirst && (occluded[rangeEnd - 1] || !testRayNode(node, batch, rangeEnd - 1))) {
+                    rangeEnd--;
+                }
+
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[(stackSize * 3) + 0] = this.offsets[node];
+                    stack[(stackSize * 3) + 1] = rangeFirst;
+                    stack[(stackSize * 3) + 2] = rangeEnd;
+                    stackSize++;
+
+                    node++;
+                    first = rangeFirst;
+                    end = rangeEnd;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int ray = rangeFirst; ray < rangeEnd; ray++) {
+                    if (occluded[ray]) {
+                        continue;
+                    }
+                    if (ray != rangeFirst && ray != (rangeEnd - 1) && !testRayNode(node, batch, ray)) {
+                        continue;
+                    }
+                    for (int j = 0; j < count; j++) {
+                        float hit = testRayTriangle(
+                                this.triangles[offset + j],
+                                batch.originX[ray], batch.originY[ray], batch.originZ[ray],
+                                batch.directionX[ray], batch.directionY[ray], batch.directionZ[ray]
+                        );
+                        if (hit >= 0f && hit <= batch.maxLength[ray]) {
+                            occluded[ray] = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            stackSize--;
+            node = stack[(stackSize * 3) + 0];
+            first = stack[(stackSize * 3) + 1];
+            end = stack[(stackSize * 3) + 2];
+        }
+    }
+
+    /**
+     * Traces all rays of the batch together as a packet, the packet keeps
+     * the range of rays that entered each node, so coherent rays only need
+     * the first and last rays of the range tested against interior nodes, the
+     * result is written to the occluded array of the batch, batches that are
+     * not coherent are traced ray by ray.
+     */
+    @Override
+    public void fastTestRays(RayQueryContext context, RayBatch batch) {
+        batch.clearOutputs();
+        if (!batch.isCoherent()) {
+            for (int ray = 0; ray < batch.getCount(); ray++) {
+                batch.occluded[ray] = fastTestRay(context,
+                        context.batchOrigin.set(batch.originX[ray], batch.originY[ray], batch.originZ[ray]),
+                        context.batchDirection.set(batch.directionX[ray], batch.directionY[ray], batch.directionZ[ray]),
+                        batch.maxLength[ray]
+                );
+            }
+            return;
+        }
+        fastTestRays(context, batch, 0, batch.getCount(), batch.occluded);
+    }
+
+    public void fastTestRays(RayBatch batch) {
+        fastTestRays(RayQueryContext.threadLocal(), batch);
+    }
+
+    private void loadTriangle(RayQueryContext context, Matrix4fc model, int triangle) {
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        context.triangleA.set(this.vertices[v0xyz + 0], this.vertices[v0xyz + 1], this.vertices[v0xyz + 2]);
+        context.triangleB.set(this.vertices[v1xyz + 0], this.vertices[v1xyz + 1], this.vertices[v1xyz + 2]);
+        context.triangleC.set(this.vertices[v2xyz + 0], this.vertices[v2xyz + 1], this.vertices[v2xyz + 2]);
+
+        if (model != null) {
+            model.transformPosition(context.triangleA);
+            model.transformPosition(context.triangleB);
+            model.transformPosition(context.triangleC);
+        }
+    }
+
+    private float intersectShapeNode(
+            int node,
+            RayQueryContext context,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        Vector3f origin = context.shapeOrigin;
+        Vector3f shapeMin = context.shapeMin;
+        Vector3f shapeMax = context.shapeMax;
+        return IntersectionUtils.intersectRayAab(
+                origin.x(), origin.y(), origin.z(),
+                invDirX, invDirY, invDirZ,
+                this.bounds[(node * 6) + 0] - shapeMax.x(), this.bounds[(node * 6) + 1] - shapeMax.y(), this.bounds[(node * 6) + 2] - shapeMax.z(),
+                this.bounds[(node * 6) + 3] - shapeMin.x(), this.bounds[(node * 6) + 4] - shapeMin.y(), this.bounds[(node * 6) + 5] - shapeMin.z(),
+                maxLength
+        );
+    }
+
+    private float sweepTriangle(
+            RayQueryContext context,
+            Vector3fc a, Vector3fc b, boolean capsule,
+            Vector3fc direction, float radius,
+            float maxLength
+    ) {
+        Vector3f ta = context.triangleA;
+        Vector3f tb = context.triangleB;
+        Vector3f tc = context.triangleC;
+        if (capsule) {
+            return IntersectionUtils.sweepCapsuleTriangle(
+                    a.x(), a.y(), a.z(),
+                    b.x(), b.y(), b.z(),
+                    radius,
+                    direction.x(), direction.y(), direction.z(),
+                    maxLength,
+                    ta.x(), ta.y(), ta.z(),
+                    tb.x(), tb.y(), tb.z(),
+                    tc.x(), tc.y(), tc.z(),
+                    context.contact,
+                    context.shapeScratch
+            );
+        }
+        return IntersectionUtils.sweepSphereTriangle(
+                a.x(), a.y(), a.z(),
+                radius,
+                direction.x(), direction.y(), direction.z(),
+                maxLength,
+                ta.x(), ta.y(), ta.z(),
+                tb.x(), tb.y(), tb.z(),
+                tc.x(), tc.y(), tc.z(),
+                context.contact
+        );
+    }
+
+    private boolean sweep(
+            RayQueryContext context,
+            Matrix4fc model, Matrix4fc inverseModel,
+            Vector3fc a, Vector3fc b, boolean capsule,
+            Vector3fc direction, float radius,
+            float maxLength,
+            ShapeHit hit
+    ) {
+        if (isEmpty()) {
+            return false;
+        }
+        //the traversal happens in mesh space with a box around the shape that
+        //follows a ray from the first point, the triangles are tested exactly
+        //in the space of the query
+        Vector3f localOrigin = context.shapeOrigin;
+        Vector3f localDirection = context.shapeDirection;
+        Vector3f localSegment = context.shapeSegment;
+        float extentX = radius;
+        float extentY = radius;
+        float extentZ = radius;
+        localOrigin.set(a);
+        localDirection.set(direction);
+        localSegment.set(b).sub(a);
+        if (inverseModel != null) {
+            inverseModel.transformPosition(localOrigin);
+            inverseModel.transformDirection(localDirection);
+            inverseModel.transformDirection(localSegment);
+            extentX *= (float) Math.sqrt((inverseModel.m00() * inverseModel.m00()) + (inverseModel.m10() * inverseModel.m10()) + (inverseModel.m20() * inverseModel.m20()));
+            extentY *= (float) Math.sqrt((inverseModel.m01() * inverseModel.m01()) + (inverseModel.m11() * inverseModel.m11()) + (inverseModel.m21() * inverseModel.m21()));
+            extentZ *= (float) Math.sqrt((inverseModel.m02() * inverseModel.m02()) + (inverseModel.m12() * inverseModel.m12()) + (inverseModel.m22() * inverseModel.m22()));
+        }
+        context.shapeMin.set(
+                Math.min(0f, localSegment.x()) - extentX,
+                Math.min(0f, localSegment.y()) - extentY,
+                Math.min(0f, localSegment.z()) - extentZ
+        );
+        context.shapeMax.set(
+                Math.max(0f, localSegment.x()) + extentX,
+                Math.max(0f, localSegment.y()) + extentY,
+                Math.max(0f, localSegment.z()) + extentZ
+        );
+
+        float invDirX = 1f / localDirection.x();
+        float invDirY = 1f / localDirection.y();
+        float invDirZ = 1f / localDirection.z();
+
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        int closestTriangle = -1;
+
+        if (intersectShapeNode(0, context, invDirX, invDirY, invDirZ, closest) < 0f) {
+            return false;
+        }
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        float[] stackDistances = context.stackDistances;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+
+                float leftDistance = intersectShapeNode(left, context, invDirX, invDirY, invDirZ, closest);
+                float rightDistance = intersectShapeNode(right, context, invDirX, invDirY, invDirZ, closest);
+
+                if (leftDistance >= 0f && rightDistance >= 0f) {
+                    if (leftDistance <= rightDistance) {
+                        stack[stackSize] = right;
+                        stackDistances[stackSize] = rightDistance;
+                        node = left;
+                    } else {
+                        stack[stackSize] = left;
+                        stackDistances[stackSize] = leftDistance;
+                        node = right;
+                    }
+                    stackSize++;
+                    continue;
+                }
+                if (leftDistance >= 0f) {
+                    node = left;
+                    continue;
+                }
+                if (rightDistance >= 0f) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int triangle = this.triangles[offset + i];
+                    loadTriangle(context, model, triangle);
+                    float t = sweepTriangle(context, a, b, capsule, direction, radius, closest);
+                    if (t >= 0f && (t < closest || closestTriangle == -1)) {
+                        closest = t;
+                        closestTriangle = triangle;
+                        context.closestContact.set(context.contact);
+                    }
+                }
+            }
+
+            node = -1;
+            while (stackSize != 0) {
+                stackSize--;
+                if (stackDistances[stackSize] <= closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node == -1) {
+                break;
+            }
+        }
+
+        if (closestTriangle == -1) {
+            return false;
+        }
+
+        Vector3f contact = context.closestContact;
+        Vector3f normal = context.normal;
+        Vector3f shapePoint = context.hitPosition;
+        if (capsule) {
+            Intersectionf.findClosestPointOnLineSegment(
+                    a.x() + (direction.x() * closest), a.y() + (direction.y() * closest), a.z() + (direction.z() * closest),
+                    b.x() + (direction.x() * closest), b.y() + (direction.y() * closest), b.z() + (direction.z() * closest),
+                    contact.x(), contact.y(), contact.z(),
+                    shapePoint
+            );
+        } else {
+            shapePoint.set(direction).mul(closest).add(a);
+        }
+        normal.set(shapePoint).sub(contact);
+        float lengthSquared = normal.lengthSquared();
+        if (lengthSquared > 0f && Float.isFinite(lengthSquared)) {
+            normal.div((float) Math.sqrt(lengthSquared));
+        } else {
+            //the shape is touching the triangle surface, use the face normal
+            loadTriangle(context, model, closestTriangle);
+            MeshUtils.calculateTriangleNormal(
+                    context.triangleA.x(), context.triangleA.y(), context.triangleA.z(),
+                    context.triangleB.x(), context.triangleB.y(), context.triangleB.z(),
+                    context.triangleC.x(), context.triangleC.y(), context.triangleC.z(),
+                    normal
+            );
+            if (normal.dot(direction) > 0f) {
+                normal.negate();
+            }
+        }
+
+        hit.set(closestTriangle, closest, contact, normal);
+
+        return true;
+    }
+
+    /**
+     * Sweeps a sphere along the direction and writes the first hit, the
+     * model transforms the mesh into the space of the query and may be null,
+     * nothing is allocated.
+     */
+    public boolean sweepSphere(
+            RayQueryContext context,
+            Matrix4fc model, Matrix4fc inverseModel,
+            Vector3fc center, Vector3fc direction, float radius,
+            float maxLength,
+            ShapeHit hit
+    ) {
+        return sweep(context, model, inverseModel, center, center, false, direction, radius, maxLength, hit);
+    }
+
+    public boolean sweepSphere(RayQueryContext context, Vector3fc center, Vector3fc direction, float radius, float maxLength, ShapeHit hit) {
+        return sweepSphere(context, null, null, center, direction, radius, maxLength, hit);
+    }
+
+    public boolean sweepSphere(Vector3fc center, Vector3fc direction, float radius, float maxLength, ShapeHit hit) {
+        return sweepSphere(RayQueryContext.threadLocal(), center, direction, radius, maxLength, hit);
+    }
+
+    /**
+     * Sweeps a capsule with the segment a b along the direction and writes
+     * the first hit, the model transforms the mesh into the space of the
+     * query and may be null, nothing is allocated.
+     */
+    public boolean sweepCapsule(
+            RayQueryContext context,
+            Matrix4fc model, Matrix4fc inverseModel,
+            Vector3fc a, Vector3fc b, Vector3fc direction, float radius,
+            float maxLength,
+            ShapeHit hit
+    ) {
+        return sweep(context, model, inverseModel, a, b, true, direction, radius, maxLength, hit);
+    }
+
+    public boolean sweepCapsule(RayQueryContext context, Vector3fc a, Vector3fc b, Vector3fc direction, float radius, float maxLength, ShapeHit hit) {
+        return sweepCapsule(context, null, null, a, b, direction, radius, maxLength, hit);
+    }
+
+    public boolean sweepCapsule(Vector3fc a, Vector3fc b, Vector3fc direction, float radius, float maxLength, ShapeHit hit) {
+        return sweepCapsule(RayQueryContext.threadLocal(), a, b, direction, radius, maxLength, hit);
+    }
+
+    private boolean overlaps(
+            RayQueryContext context,
+            Matrix4fc model, Matrix4fc inverseModel,
+            Vector3fc min, Vector3fc max,
+            Vector3fc center, float radius
+    ) {
+        if (isEmpty()) {
+            return false;
+        }
+        Vector3f localMin = context.shapeMin;
+        Vector3f localMax = context.shapeMax;
+        if (center != null) {
+            localMin.set(center).sub(radius, radius, radius);
+            localMax.set(center).add(radius, radius, radius);
+        } else {
+            localMin.set(min);
+            localMax.set(max);
+        }
+        if (inverseModel != null) {
+            inverseModel.transformAab(localMin, localMax, localMin, localMax);
+        }
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            if (this.bounds[(node * 6) + 0] <= localMax.x() && this.bounds[(node * 6) + 3] >= localMin.x()
+                    && this.bounds[(node * 6) + 1] <= localMax.y() && this.bounds[(node * 6) + 4] >= localMin.y()
+                    && this.bounds[(node * 6) + 2] <= localMax.z() && this.bounds[(node * 6) + 5] >= localMin.z()) {
+                int count = this.counts[node];
+                if (count == 0) {
+                    stack[stackSize++] = this.offsets[node];
+                    node++;
+                    continue;
+                }
+
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    loadTriangle(context, model, this.triangles[offset + i]);
+                    Vector3f ta = context.triangleA;
+                    Vector3f tb = context.triangleB;
+                    Vector3f tc = context.triangleC;
+                    if (center != null) {
+                        Intersectionf.findClosestPointOnTriangle(
+                                ta.x(), ta.y(), ta.z(),
+                                tb.x(), tb.y(), tb.z(),
+                                tc.x(), tc.y(), tc.z(),
+                                center.x(), center.y(), center.z(),
+                                context.contact
+                        );
+                        if (context.contact.distanceSquared(center) <= (radius * radius)) {
+                            return true;
+                        }
+                    } else if (IntersectionUtils.testAabTriangle(
+                            min.x(), min.y(), min.z(),
+                            max.x(), max.y(), max.z(),
+                            ta.x(), ta.y(), ta.z(),
+                            tb.x(), tb.y(), tb.z(),
+                            tc.x(), tc.y(), tc.z())) {
+                        return true;
+                    }
+                }
+            }
+
+            if (stackSize == 0) {
+                break;
+            }
+            node = stack[--stackSize];
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if any triangle overlaps the sphere, the model transforms
+     * the mesh into the space of the query and may be null.
+     */
+    public boolean testSphere(RayQueryContext context, Matrix4fc model, Matrix4fc inverseModel, Vector3fc center, float radius) {
+        return overlaps(context, model, inverseModel, null, null, center, radius);
+    }
+
+    public boolean testSphere(RayQueryContext context, Vector3fc center, float radius) {
+        return testSphere(context, null, null, center, radius);
+    }
+
+    public boolean testSphere(Vector3fc center, float radius) {
+        return testSphere(RayQueryContext.threadLocal(), center, radius);
+    }
+
+    /**
+     * Returns true if any triangle overlaps the box, the model transforms the
+     * mesh into the space of the query and may be null.
+     */
+    public boolean testAab(RayQueryContext context, Matrix4fc model, Matrix4fc inverseModel, Vector3fc min, Vector3fc max) {
+        return overlaps(context, model, inverseModel, min, max, null, 0f);
+    }
+
+    public boolean testAab(RayQueryContext context, Vector3fc min, Vector3fc max) {
+        return testAab(context, null, null, min, max);
+    }
+
+    public boolean testAab(Vector3fc min, Vector3fc max) {
+        return testAab(RayQueryContext.threadLocal(), min, max);
+    }
+
+
+    private float pointNodeDistanceSquared(int node, Vector3fc point, Matrix4fc model, Vector3fc localPoint, float scale) {
+        float minX = this.bounds[(node * 6) + 0];
+        float minY = this.bounds[(node * 6) + 1];
+        float minZ = this.bounds[(node * 6) + 2];
+        float maxX = this.bounds[(node * 6) + 3];
+        float maxY = this.bounds[(node * 6) + 4];
+        float maxZ = this.bounds[(node * 6) + 5];
+
+        if (model == null) {
+            float dx = Math.max(Math.max(minX - point.x(), point.x() - maxX), 0f);
+            float dy = Math.max(Math.max(minY - point.y(), point.y() - maxY), 0f);
+            float dz = Math.max(Math.max(minZ - point.z(), point.z() - maxZ), 0f);
+            return (dx * dx) + (dy * dy) + (dz * dz);
+        }
+
+        //the largest of two lower bounds, the distance to the world space
+        //bounds of the transformed node, tight for scales along the axes of
+        //the world, and the local distance shrunk by the largest stretch of
+        //the inverse model, tight for rotations
+        float localX = Math.max(Math.max(minX - localPoint.x(), localPoint.x() - maxX), 0f);
+        float localY = Math.max(Math.max(minY - localPoint.y(), localPoint.y() - maxY), 0f);
+        float localZ = Math.max(Math.max(minZ - localPoint.z(), localPoint.z() - maxZ), 0f);
+        float localDistance = ((localX * localX) + (localY * localY) + (localZ * localZ)) / scale;
+
+        float centerX = (minX + maxX) * 0.5f;
+        float centerY = (minY + maxY) * 0.5f;
+        float centerZ = (minZ + maxZ) * 0.5f;
+        float extentX = (maxX - minX) * 0.5f;
+        float extentY = (maxY - minY) * 0.5f;
+        float extentZ = (maxZ - minZ) * 0.5f;
+
+        float worldCenterX = (model.m00() * centerX) + (model.m10() * centerY) + (model.m20() * centerZ) + model.m30();
+        float worldCenterY = (model.m01() * centerX) + (model.m11() * centerY) + (model.m21() * centerZ) + model.m31();
+        float worldCenterZ = (model.m02() * centerX) + (model.m12() * centerY) + (model.m22() * centerZ) + model.m32();
+        float worldExtentX = (Math.abs(model.m00()) * extentX) + (Math.abs(model.m10()) * extentY) + (Math.abs(model.m20()) * extentZ);
+        float worldExtentY = (Math.abs(model.m01()) * extentX) + (Math.abs(model.m11()) * extentY) + (Math.abs(model.m21()) * extentZ);
+        float worldExtentZ = (Math.abs(model.m02()) * extentX) + (Math.abs(model.m12()) * extentY) + (Math.abs(model.m22()) * extentZ);
+
+        float dx = Math.max(Math.abs(point.x() - worldCenterX) - worldExtentX, 0f);
+        float dy = Math.max(Math.abs(point.y() - worldCenterY) - worldExtentY, 0f);
+        float dz = Math.max(Math.abs(point.z() - worldCenterZ) - worldExtentZ, 0f);
+        return Math.max((dx * dx) + (dy * dy) + (dz * dz), localDistance);
+    }
+
+    private float closestPointTriangle(RayQueryContext context, Vector3fc point, boolean flipNormal) {
+        Vector3f ta = context.triangleA;
+        Vector3f tb = context.triangleB;
+        Vector3f tc = context.triangleC;
+        Intersectionf.findClosestPointOnTriangle(
+                ta.x(), ta.y(), ta.z(),
+                tb.x(), tb.y(), tb.z(),
+                tc.x(), tc.y(), tc.z(),
+                point.x(), point.y(), point.z(),
+                context.contact
+        );
+        MeshUtils.calculateTriangleNormal(
+                ta.x(), ta.y(), ta.z(),
+                tb.x(), tb.y(), tb.z(),
+                tc.x(), tc.y(), tc.z(),
+                context.shapeDirection
+        );
+        if (flipNormal) {
+            context.shapeDirection.negate();
+        }
+        return context.contact.distanceSquared(point);
+    }
+
+    /**
+     * Finds the closest point on the mesh to the point within the max
+     * distance, the model transforms the mesh into the space of the query and
+     * may be null, nothing is allocated.
+     * <p>
+     * The traversal is a branch and bound that visits the nodes closer than
+     * the closest triangle so far, nearest first, with a model the distance
+     * of a node is a lower bound, so non uniform scales never prune a closer
+     * triangle. When the closest
+     * point lies on an edge or vertex shared by many triangles the one whose
+     * face normal is the most aligned with the direction to the point is
+     * chosen, which makes the sign of the distance reliable on closed meshes.
+     */
+    public boolean closestPoint(
+            RayQueryContext context,
+            Matrix4fc model, Matrix4fc inverseModel,
+            Vector3fc point, float maxDistance,
+            PointHit hit
+    ) {
+        if (isEmpty()) {
+            return false;
+        }
+        Vector3f localPoint = context.shapeOrigin.set(point);
+        float scale = 1f;
+        boolean flipNormal = false;
+        if (model != null) {
+            inverseModel.transformPosition(localPoint);
+            flipNormal = model.determinant3x3() < 0f;
+
+            //gershgorin bound of the largest eigenvalue of the inverse model
+            //transposed times itself
+            float c00 = (inverseModel.m00() * inverseModel.m00()) + (inverseModel.m01() * inverseModel.m01()) + (inverseModel.m02() * inverseModel.m02());
+            float c11 = (inverseModel.m10() * inverseModel.m10()) + (inverseModel.m11() * inverseModel.m11()) + (inverseModel.m12() * inverseModel.m12());
+            float c22 = (inverseModel.m20() * inverseModel.m20()) + (inverseModel.m21() * inverseModel.m21()) + (inverseModel.m22() * inverseModel.m22());
+            float c01 = Math.abs((inverseModel.m00() * inverseModel.m10()) + (inverseModel.m01() * inverseModel.m11()) + (inverseModel.m02() * inverseModel.m12()));
+            float c02 = Math.abs((inverseModel.m00() * inverseModel.m20()) + (inverseModel.m01() * inverseModel.m21()) + (inverseModel.m02() * inverseModel.m22()));
+            float c12 = Math.abs((inverseModel.m10() * inverseModel.m20()) + (inverseModel.m11() * inverseModel.m21()) + (inverseModel.m12() * inverseModel.m22()));
+            scale = Math.max(c00 + c01 + c02, Math.max(c01 + c11 + c12, c02 + c12 + c22));
+        }
+
+        float closest = (Float.isFinite(maxDistance) ? maxDistance * maxDistance : Float.POSITIVE_INFINITY);
+        float closestAlignment = 0f;
+        int closestTriangle = -1;
+
+        if (pointNodeDistanceSquared(0, point, model, localPoint, scale) > closest) {
+            return false;
+        }
+
+        context.ensureStackSize(this.maxDepth + 1);
+        int[] stack = context.stack;
+        float[] stackDistances = context.stackDistances;
+        int stackSize = 0;
+        int node = 0;
+
+        while (true) {
+            int count = this.counts[node];
+            if (count == 0) {
+                int left = node + 1;
+                int right = this.offsets[node];
+
+                float bound = closest;
+                float leftDistance = pointNodeDistanceSquared(left, point, model, localPoint, scale);
+                float rightDistance = pointNodeDistanceSquared(right, point, model, localPoint, scale);
+
+                if (leftDistance <= bound && rightDistance <= bound) {
+                    if (leftDistance <= rightDistance) {
+                        stack[stackSize] = right;
+                        stackDistances[stackSize] = rightDistance;
+                        node = left;
+                    } else {
+                        stack[stackSize] = left;
+                        stackDistances[stackSize] = leftDistance;
+                        node = right;
+                    }
+                    stackSize++;
+                    continue;
+                }
+                if (leftDistance <= bound) {
+                    node = left;
+                    continue;
+                }
+                if (rightDistance <= bound) {
+                    node = right;
+                    continue;
+                }
+            } else {
+                int offset = this.offsets[node];
+                for (int i = 0; i < count; i++) {
+                    int triangle = this.triangles[offset + i];
+                    loadTriangle(context, model, triangle);
+                    float distance = closestPointTriangle(context, point, flipNormal);
+                    float tolerance = (closestTriangle == -1 ? 0f : closest * CLOSEST_POINT_TOLERANCE);
+                    if (distance > closest + tolerance) {
+                        continue;
+                    }
+                    float alignment = 1f;
+                    if (distance > 0f) {
+                        alignment = Math.abs(context.shapeDirection.dot(
+                                point.x() - context.contact.x(),
+                                point.y() - context.contact.y(),
+                                point.z() - context.contact.z()
+                        )) / (float) Math.sqrt(distance);
+                    }
+                    if (closestTriangle == -1 || distance < closest - tolerance || alignment > closestAlignment) {
+                        closest = Math.min(closest, distance);
+                        closestAlignment = alignment;
+                        closestTriangle = triangle;
+                        context.closestContact.set(context.contact);
+                        context.normal.set(context.shapeDirection);
+                    }
+                }
+            }
+
+            node = -1;
+            while (stackSize != 0) {
+                stackSize--;
+                if (stackDistances[stackSize] <= closest) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node == -1) {
+                break;
+            }
+        }
+
+        if (closestTriangle == -1) {
+            return false;
+        }
+
+        Vector3f contact = context.closestContact;
+        Vector3f normal = context.normal;
+        Vector3f weights = context.hitPosition;
+        loadTriangle(context, model, closestTriangle);
+        RasterUtils.barycentricWeights(contact, context.triangleA, context.triangleB, context.triangleC, weights);
+        if (!weights.isFinite()) {
+            weights.set(1f, 0f, 0f);
+        }
+        boolean frontSide = normal.dot(
+                point.x() - contact.x(),
+                point.y() - contact.y(),
+                point.z() - contact.z()
+        ) >= 0f;
+
+        hit.set(closestTriangle, contact.distance(point), frontSide, contact, weights, normal);
+
+        return true;
+    }
+
+    public boolean closestPoint(RayQueryContext context, Vector3fc point, float maxDistance, PointHit hit) {
+        return closestPoint(context, null, null, point, maxDistance, hit);
+    }
+
+    public boolean closestPoint(Vector3fc point, float maxDistance, PointHit hit) {
+        return closestPoint(RayQueryContext.threadLocal(), point, maxDistance, hit);
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A mutable closest point record, meant to be reused between queries, the
+ * position is the closest point on the triangle, the weights are its
+ * barycentric weights and the normal is the face normal of the triangle,
+ * the distance is positive in front of the triangle and negative behind it.
+ *
+ * @author Cien
+ */
+public class PointHit {
+
+    private Geometry geometry = null;
+    private int triangle = -1;
+    private float distance = Float.POSITIVE_INFINITY;
+    private boolean frontSide = true;
+
+    private final Vector3f position = new Vector3f();
+    private final Vector3f weights = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+
+    public PointHit() {
+
+    }
+
+    public void set(int triangle, float distance, boolean frontSide, Vector3fc position, Vector3fc weights, Vector3fc normal) {
+        this.geometry = null;
+        this.triangle = triangle;
+        this.distance = distance;
+        this.frontSide = frontSide;
+        this.position.set(position);
+        this.weights.set(weights);
+        this.normal.set(normal);
+    }
+
+    public void setGeometry(Geometry geometry) {
+        this.geometry = geometry;
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public int triangle() {
+        return triangle;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    public boolean frontSide() {
+        return frontSide;
+    }
+
+    public float getSignedDistance() {
+        return (this.frontSide ? this.distance : -this.distance);
+    }
+
+    public Vector3fc getPosition() {
+        return position;
+    }
+
+    public Vector3fc getWeights() {
+        return weights;
+    }
+
+    public Vector3fc getNormal() {
+        return normal;
+    }
+
+    @Override
+    public String toString() {
+        return "point:"
+                + this.position.x()
+                + ","
+                + this.position.y()
+                + ","
+                + this.position.z()
+                + ";dist:"
+                + this.distance
+                + ";front:"
+                + this.frontSide;
+    }
+
+}
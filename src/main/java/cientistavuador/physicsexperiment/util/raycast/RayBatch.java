@@ -0,0 +1,178 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import java.util.Arrays;
+import org.joml.Vector3fc;
+
+/**
+ * A batch of rays stored as a structure of arrays, used to trace coherent
+ * rays together, the results are written to the primitive output arrays of
+ * the batch.
+ *
+ * @author Cien
+ */
+public class RayBatch {
+
+    /**
+     * Minimum cosine between the direction of the first ray and every other
+     * ray of the batch for the batch to be traced as a packet, less coherent
+     * batches are traced ray by ray.
+     */
+    public static final float COHERENT_DIRECTION_COSINE = 0.99f;
+
+    private int count = 0;
+
+    final float[] originX;
+    final float[] originY;
+    final float[] originZ;
+
+    final float[] directionX;
+    final float[] directionY;
+    final float[] directionZ;
+
+    final float[] invDirectionX;
+    final float[] invDirectionY;
+    final float[] invDirectionZ;
+
+    final float[] maxLength;
+
+    final boolean[] occluded;
+
+    public RayBatch(int capacity) {
+        this.originX = new float[capacity];
+        this.originY = new float[capacity];
+        this.originZ = new float[capacity];
+
+        this.directionX = new float[capacity];
+        this.directionY = new float[capacity];
+        this.directionZ = new float[capacity];
+
+        this.invDirectionX = new float[capacity];
+        this.invDirectionY = new float[capacity];
+        this.invDirectionZ = new float[capacity];
+
+        this.maxLength = new float[capacity];
+
+        this.occluded = new boolean[capacity];
+    }
+
+    public int getCapacity() {
+        return this.maxLength.length;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getRemaining() {
+        return getCapacity() - this.count;
+    }
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    void set(int ray, float oX, float oY, float oZ, float dX, float dY, float dZ, float length) {
+        this.originX[ray] = oX;
+        this.originY[ray] = oY;
+        this.originZ[ray] = oZ;
+
+        this.directionX[ray] = dX;
+        this.directionY[ray] = dY;
+        this.directionZ[ray] = dZ;
+
+        this.invDirectionX[ray] = 1f / dX;
+        this.invDirectionY[ray] = 1f / dY;
+        this.invDirectionZ[ray] = 1f / dZ;
+
+        this.maxLength[ray] = (Float.isFinite(length) ? length : Float.POSITIVE_INFINITY);
+    }
+
+    public int add(float oX, float oY, float oZ, float dX, float dY, float dZ, float maxLength) {
+        if (this.count == getCapacity()) {
+            throw new IllegalStateException("Ray batch is full! (capacity " + getCapacity() + ")");
+        }
+        int ray = this.count++;
+        set(ray, oX, oY, oZ, dX, dY, dZ, maxLength);
+        this.occluded[ray] = false;
+        return ray;
+    }
+
+    public int add(Vector3fc origin, Vector3fc direction, float maxLength) {
+        return add(
+                origin.x(), origin.y(), origin.z(),
+                direction.x(), direction.y(), direction.z(),
+                maxLength
+        );
+    }
+
+    public boolean isCoherent() {
+        if (this.count <= 1) {
+            return true;
+        }
+
+        float firstX = this.directionX[0];
+        float firstY = this.directionY[0];
+        float firstZ = this.directionZ[0];
+        float firstInvLength = (float) (1.0 / Math.sqrt((firstX * firstX) + (firstY * firstY) + (firstZ * firstZ)));
+        firstX *= firstInvLength;
+        firstY *= firstInvLength;
+        firstZ *= firstInvLength;
+
+        for (int i = 1; i < this.count; i++) {
+            float dX = this.directionX[i];
+            float dY = this.directionY[i];
+            float dZ = this.directionZ[i];
+            float dot = (dX * firstX) + (dY * firstY) + (dZ * firstZ);
+            if (dot < COHERENT_DIRECTION_COSINE * (float) Math.sqrt((dX * dX) + (dY * dY) + (dZ * dZ))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void clearOutputs() {
+        Arrays.fill(this.occluded, 0, this.count, false);
+    }
+
+    public boolean isOccluded(int ray) {
+        return this.occluded[ray];
+    }
+
+    public int countOccluded(int from, int to) {
+        int amount = 0;
+        for (int i = from; i < to; i++) {
+            if (this.occluded[i]) {
+                amount++;
+            }
+        }
+        return amount;
+    }
+
+}
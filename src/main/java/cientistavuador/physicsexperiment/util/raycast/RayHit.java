@@ -0,0 +1,164 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import cientistavuador.physicsexperiment.resources.mesh.MeshData;
+import cientistavuador.physicsexperiment.util.RasterUtils;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A mutable closest hit record, meant to be reused between queries.
+ *
+ * @author Cien
+ */
+public class RayHit {
+
+    private Geometry geometry = null;
+    private int triangle = -1;
+    private boolean frontFace = false;
+    private float distance = Float.POSITIVE_INFINITY;
+
+    private final Vector3f localHitPosition = new Vector3f();
+    private final Vector3f localTriangleNormal = new Vector3f();
+
+    private final Vector3f hitPosition = new Vector3f();
+    private final Vector3f triangleNormal = new Vector3f();
+
+    public RayHit() {
+
+    }
+
+    public void setLocal(int triangle, boolean frontFace, float distance, Vector3fc localHitPosition, Vector3fc localTriangleNormal) {
+        this.geometry = null;
+        this.triangle = triangle;
+        this.frontFace = frontFace;
+        this.distance = distance;
+        this.localHitPosition.set(localHitPosition);
+        this.localTriangleNormal.set(localTriangleNormal);
+        this.hitPosition.set(localHitPosition);
+        this.triangleNormal.set(localTriangleNormal);
+    }
+
+    public void setWorld(Geometry geometry, Vector3fc origin, Vector3fc direction) {
+        this.geometry = geometry;
+        this.hitPosition.set(direction).mul(this.distance).add(origin);
+        geometry.getNormalModel().transform(this.triangleNormal.set(this.localTriangleNormal)).normalize();
+    }
+
+    /**
+     * Sets the geometry of a hit found in the world space bvh of a static
+     * geometry, the local hit position and normal are computed from the world
+     * ones.
+     */
+    public void setWorldSpace(Geometry geometry) {
+        this.geometry = geometry;
+        geometry.getInverseModel().transformPosition(this.localHitPosition);
+        geometry.getInverseNormalModel().transform(this.localTriangleNormal).normalize();
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public int triangle() {
+        return triangle;
+    }
+
+    public boolean frontFace() {
+        return frontFace;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    public Vector3fc getLocalHitPosition() {
+        return localHitPosition;
+    }
+
+    public Vector3fc getLocalTriangleNormal() {
+        return localTriangleNormal;
+    }
+
+    public Vector3fc getHitPosition() {
+        return hitPosition;
+    }
+
+    public Vector3fc getTriangleNormal() {
+        return triangleNormal;
+    }
+
+    public float lerp(Vector3fc weights, int componentOffset) {
+        int[] indices = this.geometry.getMesh().getIndices();
+
+        int v0 = indices[(this.triangle * 3) + 0] * MeshData.SIZE;
+        int v1 = indices[(this.triangle * 3) + 1] * MeshData.SIZE;
+        int v2 = indices[(this.triangle * 3) + 2] * MeshData.SIZE;
+
+        float[] vertices = this.geometry.getMesh().getVertices();
+
+        float a = vertices[v0 + componentOffset];
+        float b = vertices[v1 + componentOffset];
+        float c = vertices[v2 + componentOffset];
+
+        return (a * weights.x()) + (b * weights.y()) + (c * weights.z());
+    }
+
+    public void weights(Vector3f weights) {
+        int[] indices = this.geometry.getMesh().getIndices();
+        float[] vertices = this.geometry.getMesh().getVertices();
+
+        int v0 = (indices[(this.triangle * 3) + 0] * MeshData.SIZE) + MeshData.XYZ_OFFSET;
+        int v1 = (indices[(this.triangle * 3) + 1] * MeshData.SIZE) + MeshData.XYZ_OFFSET;
+        int v2 = (indices[(this.triangle * 3) + 2] * MeshData.SIZE) + MeshData.XYZ_OFFSET;
+
+        RasterUtils.barycentricWeights(
+                this.localHitPosition.x(), this.localHitPosition.y(), this.localHitPosition.z(),
+                vertices[v0 + 0], vertices[v0 + 1], vertices[v0 + 2],
+                vertices[v1 + 0], vertices[v1 + 1], vertices[v1 + 2],
+                vertices[v2 + 0], vertices[v2 + 1], vertices[v2 + 2],
+                weights
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "hit:"
+                + this.hitPosition.x()
+                + ","
+                + this.hitPosition.y()
+                + ","
+                + this.hitPosition.z()
+                + ";dist:"
+                + this.distance
+                + ";front:"
+                + this.frontFace;
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import java.util.Arrays;
+import org.joml.Vector3f;
+
+/**
+ * Scratch state for ray queries, a context must only be used by one thread
+ * at a time, after warming up no query that receives a context allocates
+ * memory.
+ *
+ * @author Cien
+ */
+public class RayQueryContext {
+
+    private static final ThreadLocal<RayQueryContext> THREAD_LOCAL = ThreadLocal.withInitial(RayQueryContext::new);
+
+    private static final int SORT_RUN = 16;
+
+    public static RayQueryContext threadLocal() {
+        return THREAD_LOCAL.get();
+    }
+
+    //geometry level scratch
+    private final Vector3f localOrigin = new Vector3f();
+    private final Vector3f localDirection = new Vector3f();
+
+    //bvh level scratch
+    final Vector3f normal = new Vector3f();
+    final Vector3f hitPosition = new Vector3f();
+
+    int[] stack = new int[64];
+    float[] stackDistances = new float[64];
+
+    //instance level stack, used while the bvh level stack is in use
+    int[] instanceStack = new int[32];
+    float[] instanceStackDistances = new float[32];
+
+    //wide bvh scratch
+    final float[] wideDistances = new float[WideKernels.WIDTH];
+    final float[] wideTriangleDistances = new float[WideKernels.WIDTH];
+
+    //shape query scratch
+    final Vector3f shapeOrigin = new Vector3f();
+    final Vector3f shapeDirection = new Vector3f();
+    final Vector3f shapeSegment = new Vector3f();
+    final Vector3f shapeMin = new Vector3f();
+    final Vector3f shapeMax = new Vector3f();
+    final Vector3f triangleA = new Vector3f();
+    final Vector3f triangleB = new Vector3f();
+    final Vector3f triangleC = new Vector3f();
+    final Vector3f contact = new Vector3f();
+    final Vector3f closestContact = new Vector3f();
+    final Vector3f shapeScratch = new Vector3f();
+
+    //packet traversal scratch
+    final Vector3f batchOrigin = new Vector3f();
+    final Vector3f batchDirection = new Vector3f();
+    int[] packetStack = new int[64 * 3];
+    int[] instancePacketStack = new int[32 * 3];
+    private RayBatch localBatch = null;
+
+    //query service scratch
+    final Vector3f queryOrigin = new Vector3f();
+    final Vector3f queryDirection = new Vector3f();
+    final RayHit queryHit = new RayHit();
+    private RayBatch queryBatch = null;
+
+    //hit buffer
+    private int hitCount = 0;
+    private float[] hitDistances = new float[16];
+    private int[] hitTriangles = new int[16];
+    private boolean[] hitFrontFaces = new boolean[16];
+    private Geometry[] hitGeometries = new Geometry[16];
+
+    //hit sort scratch
+    private int[] hitOrder = new int[16];
+    private int[] hitOrderScratch = new int[16];
+
+    public RayQueryContext() {
+
+    }
+
+    public Vector3f getLocalOrigin() {
+        return localOrigin;
+    }
+
+    public Vector3f getLocalDirection() {
+        return localDirection;
+    }
+
+    void ensureStackSize(int size) {
+        if (this.stack.length < size) {
+            int newSize = Math.max(size, this.stack.length * 2);
+            this.stack = Arrays.copyOf(this.stack, newSize);
+            this.stackDistances = Arrays.copyOf(this.stackDistances, newSize);
+        }
+    }
+
+    void ensureInstanceStackSize(int size) {
+        if (this.instanceStack.length < size) {
+            int newSize = Math.max(size, this.instanceStack.length * 2);
+            this.instanceStack = Arrays.copyOf(this.instanceStack, newSize);
+            this.instanceStackDistances = Arrays.copyOf(this.instanceStackDistances, newSize);
+        }
+    }
+
+    static int[] ensureSize(int[] array, int size) {
+        if (array.length < size) {
+            return Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+        return array;
+    }
+
+    RayBatch localBatch(int capacity) {
+        if (this.localBatch == null || this.localBatch.getCapacity() < capacity) {
+            this.localBatch = new RayBatch(capacity);
+        }
+        return this.localBatch;
+    }
+
+    RayBatch queryBatch(int capacity) {
+        if (this.queryBatch == null || this.queryBatch.getCapacity() < capacity) {
+            this.queryBatch = new RayBatch(capacity);
+        }
+        return this.queryBatch;
+    }
+
+    public void clearHits() {
+        Arrays.fill(this.hitGeometries, 0, this.hitCount, null);
+        this.hitCount = 0;
+    }
+
+    void addHit(float distance, int triangle, boolean frontFace) {
+        if (this.hitCount == this.hitDistances.length) {
+            int newSize = this.hitCount * 2;
+            this.hitDistances = Arrays.copyOf(this.hitDistances, newSize);
+            this.hitTriangles = Arrays.copyOf(this.hitTriangles, newSize);
+            this.hitFrontFaces = Arrays.copyOf(this.hitFrontFaces, newSize);
+            this.hitGeometries = Arrays.copyOf(this.hitGeometries, newSize);
+        }
+        this.hitDistances[this.hitCount] = distance;
+        this.hitTriangles[this.hitCount] = triangle;
+        this.hitFrontFaces[this.hitCount] = frontFace;
+        this.hitGeometries[this.hitCount] = null;
+        this.hitCount++;
+    }
+
+    public void setHitGeometry(int from, Geometry geometry) {
+        Arrays.fill(this.hitGeometries, from, this.hitCount, geometry);
+    }
+
+    //sorts the indices of the hits by distance with a stable merge sort and
+    //then moves each hit once by following the cycles of the permutation
+    public void sortHits() {
+        int count = this.hitCount;
+        if (count < 2) {
+            return;
+        }
+        this.hitOrder = ensureSize(this.hitOrder, count);
+        this.hitOrderScratch = ensureSize(this.hitOrderScratch, count);
+
+        float[] distances = this.hitDistances;
+        int[] order = this.hitOrder;
+        int[] scratch = this.hitOrderScratch;
+
+        //short runs are insertion sorted first
+        for (int run = 0; run < count; run += SORT_RUN) {
+            int runEnd = Math.min(run + SORT_RUN, count);
+            for (int i = run; i < runEnd; i++) {
+                float distance = distances[i];
+                int j = i - 1;
+                while (j >= run && distances[order[j]] > distance) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = i;
+            }
+        }
+
+        for (int width = SORT_RUN; width < count; width *= 2) {
+            for (int left = 0; left < count; left += width * 2) {
+                int middle = Math.min(left + width, count);
+                int right = Math.min(left + width * 2, count);
+                int i = left;
+                int j = middle;
+                int k = left;
+                while (i < middle && j < right) {
+                    if (distances[order[j]] < distances[order[i]]) {
+                        scratch[k++] = order[j++];
+                    } else {
+                        scratch[k++] = order[i++];
+                    }
+                }
+                System.arraycopy(order, i, scratch, k, middle - i);
+                k += middle - i;
+                System.arraycopy(order, j, scratch, k, right - j);
+            }
+            int[] swap = order;
+            order = scratch;
+            scratch = swap;
+        }
+        this.hitOrder = order;
+        this.hitOrderScratch = scratch;
+
+        //order[i] is the hit that goes to i, a placed hit is marked with
+        //order[i] = i
+        for (int i = 0; i < count; i++) {
+            if (order[i] == i) {
+                continue;
+            }
+            float distance = this.hitDistances[i];
+            int triangle = this.hitTriangles[i];
+            boolean frontFace = this.hitFrontFaces[i];
+            Geometry geometry = this.hitGeometries[i];
+
+            int j = i;
+            while (true) {
+                int from = order[j];
+                order[j] = j;
+                if (from == i) {
+                    break;
+                }
+                this.hitDistances[j] = this.hitDistances[from];
+                this.hitTriangles[j] = this.hitTriangles[from];
+                this.hitFrontFaces[j] = this.hitFrontFaces[from];
+                this.hitGeometries[j] = this.hitGeometries[from];
+                j = from;
+            }
+
+            this.hitDistances[j] = distance;
+            this.hitTriangles[j] = triangle;
+            this.hitFrontFaces[j] = frontFace;
+            this.hitGeometries[j] = geometry;
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public float getHitDistance(int hit) {
+        return this.hitDistances[hit];
+    }
+
+    public int getHitTriangle(int hit) {
+        return this.hitTriangles[hit];
+    }
+
+    public boolean isHitFrontFace(int hit) {
+        return this.hitFrontFaces[hit];
+    }
+
+    public Geometry getHitGeometry(int hit) {
+        return this.hitGeometries[hit];
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.joml.Vector3fc;
+
+/**
+ * Traces large arrays of independent rays in parallel over a fork join pool
+ * and writes the results to primitive arrays.
+ * <p>
+ * The rays are stored as xyz triples in the origin and direction arrays, the
+ * max lengths array may be null for rays of infinite length. Arrays are split
+ * in ranges of at least {@link #MIN_RAYS_PER_TASK} rays, small arrays are
+ * traced on the calling thread, and every range is traced in packets of
+ * {@link #PACKET_SIZE} rays so coherent rays use the packet traversal of the
+ * target.
+ *
+ * @author Cien
+ */
+public class RayQueryService {
+
+    public static final int PACKET_SIZE = 256;
+    public static final int MIN_RAYS_PER_TASK = 1024;
+    public static final int TASKS_PER_THREAD = 4;
+
+    private static final class DefaultHolder {
+
+        private static final RayQueryService DEFAULT = new RayQueryService(
+                new ForkJoinPool(Runtime.getRuntime().availableProcessors())
+        );
+    }
+
+    public static RayQueryService getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Returns a traceable for a list of geometries in world space, see
+     * {@link Geometry#fastTestRay(RayQueryContext, Vector3fc, Vector3fc, float, List)}.
+     */
+    public static RayTraceable of(List<Geometry> geometries) {
+        Objects.requireNonNull(geometries, "Geometries is null.");
+        return new RayTraceable() {
+            @Override
+            public boolean fastTestRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength) {
+                return Geometry.fastTestRay(context, origin, direction, maxLength, geometries);
+            }
+
+            @Override
+            public boolean closestHit(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, RayHit hit) {
+                return Geometry.closestHit(context, origin, direction, maxLength, geometries, hit);
+            }
+        };
+    }
+
+    private final ForkJoinPool pool;
+
+    public RayQueryService(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool, "Pool is null.");
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    private int splitSize(int count) {
+        int tasks = this.pool.getParallelism() * TASKS_PER_THREAD;
+        int size = Math.max(MIN_RAYS_PER_TASK, (count + tasks - 1) / tasks);
+        return ((size + PACKET_SIZE - 1) / PACKET_SIZE) * PACKET_SIZE;
+    }
+
+    private static void validate(float[] origins, float[] directions, float[] maxLengths, int offset, int count) {
+        if (offset < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid range: offset " + offset + ", count " + count);
+        }
+        int end = offset + count;
+        if (origins.length < end * 3 || directions.length < end * 3 || (maxLengths != null && maxLengths.length < end)) {
+            throw new IllegalArgumentException("Ray arrays are smaller than the range: offset " + offset + ", count " + count);
+        }
+    }
+
+    private abstract class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final int first;
+        protected final int end;
+        protected final int split;
+
+        public RangeTask(int first, int end, int split) {
+            this.first = first;
+            this.end = end;
+            this.split = split;
+        }
+
+        protected abstract RangeTask create(int first, int end);
+
+        protected abstract void trace(RayQueryContext context, int first, int end);
+
+        @Override
+        protected void compute() {
+            if ((this.end - this.first) <= this.split) {
+                trace(RayQueryContext.threadLocal(), this.first, this.end);
+                return;
+            }
+            int middle = this.first + ((((this.end - this.first) / this.split) / 2) * this.split);
+            if (middle == this.first) {
+                middle += this.split;
+            }
+            invokeAll(create(this.first, middle), create(middle, this.end));
+        }
+    }
+
+    private void run(RangeTask task, int count) {
+        if (count <= task.split) {
+            task.compute();
+            return;
+        }
+        this.pool.invoke(task);
+    }
+
+    private class FastTestTask extends RangeTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RayTraceable target;
+        private final float[] origins;
+        private final float[] directions;
+        private final float[] maxLengths;
+        private final boolean[] outOccluded;
+
+        public FastTestTask(
+                RayTraceable target,
+                float[] origins, float[] directions, float[] maxLengths,
+                boolean[] outOccluded,
+                int first, int end, int split
+        ) {
+            super(first, end, split);
+            this.target = target;
+            this.origins = origins;
+            this.directions = directions;
+            this.maxLengths = maxLengths;
+            this.outOccluded = outOccluded;
+        }
+
+        @Override
+        protected RangeTask create(int first, int end) {
+            return new FastTestTask(this.target, this.origins, this.directions, this.maxLengths, this.outOccluded, first, end, this.split);
+        }
+
+        @Override
+        protected void trace(RayQueryContext context, int first, int end) {
+            RayBatch batch = context.queryBatch(PACKET_SIZE);
+            for (int packet = first; packet < end; packet += PACKET_SIZE) {
+                int packetEnd = Math.min(packet + PACKET_SIZE, end);
+
+                batch.clear();
+                for (int ray = packet; ray < packetEnd; ray++) {
+                    batch.add(
+                            this.origins[(ray * 3) + 0], this.origins[(ray * 3) + 1], this.origins[(ray * 3) + 2],
+                            this.directions[(ray * 3) + 0], this.directions[(ray * 3) + 1], this.directions[(ray * 3) + 2],
+                            (this.maxLengths == null ? Float.POSITIVE_INFINITY : this.maxLengths[ray])
+                    );
+                }
+
+                this.target.fastTestRays(context, batch);
+
+                System.arraycopy(batch.occluded, 0, this.outOccluded, packet, packetEnd - packet);
+            }
+        }
+    }
+
+    /**
+     * Tests count rays starting at the offset and writes if each ray is
+     * occluded to the output array at the same index.
+     */
+    public void fastTestRays(
+            RayTraceable target,
+            float[] origins, float[] directions, float[] maxLengths,
+            int offset, int count,
+            boolean[] outOccluded
+    ) {
+        validate(origins, directions, maxLengths, offset, count);
+        if (outOccluded.length < offset + count) {
+            throw new IllegalArgumentException("Output array is smaller than the range: offset " + offset + ", count " + count);
+        }
+        run(new FastTestTask(target, origins, directions, maxLengths, outOccluded, offset, offset + count, splitSize(count)), count);
+    }
+
+    public void fastTestRays(RayTraceable target, float[] origins, float[] directions, float[] maxLengths, int count, boolean[] outOccluded) {
+        fastTestRays(target, origins, directions, maxLengths, 0, count, outOccluded);
+    }
+
+    private class ClosestHitTask extends RangeTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RayTraceable target;
+        private final float[] origins;
+        private final float[] directions;
+        private final float[] maxLengths;
+        private final float[] outDistances;
+        private final int[] outTriangles;
+        private final Geometry[] outGeometries;
+
+        public ClosestHitTask(
+                RayTraceable target,
+                float[] origins, float[] directions, float[] maxLengths,
+                float[] outDistances, int[] outTriangles, Geometry[] outGeometries,
+                int first, int end, int split
+        ) {
+            super(first, end, split);
+            this.target = target;
+            this.origins = origins;
+            this.directions = directions;
+            this.maxLengths = maxLengths;
+            this.outDistances = outDistances;
+            this.outTriangles = outTriangles;
+            this.outGeometries = outGeometries;
+        }
+
+        @Override
+        protected RangeTask create(int first, int end) {
+            return new ClosestHitTask(
+                    this.target,
+                    this.origins, this.directions, this.maxLengths,
+                    this.outDistances, this.outTriangles, this.outGeometries,
+                    first, end, this.split
+            );
+        }
+
+        @Override
+        protected void trace(RayQueryContext context, int first, int end) {
+            RayHit hit = context.queryHit;
+            for (int ray = first; ray < end; ray++) {
+                context.queryOrigin.set(this.origins[(ray * 3) + 0], this.origins[(ray * 3) + 1], this.origins[(ray * 3) + 2]);
+                context.queryDirection.set(this.directions[(ray * 3) + 0], this.directions[(ray * 3) + 1], this.directions[(ray * 3) + 2]);
+                float maxLength = (this.maxLengths == null ? Float.POSITIVE_INFINITY : this.maxLengths[ray]);
+
+                if (this.target.closestHit(context, context.queryOrigin, context.queryDirection, maxLength, hit)) {
+                    this.outDistances[ray] = hit.getDistance();
+                    if (this.outTriangles != null) {
+                        this.outTriangles[ray] = hit.triangle();
+                    }
+                    if (this.outGeometries != null) {
+                        this.outGeometries[ray] = hit.getGeometry();
+                    }
+                } else {
+                    this.outDistances[ray] = Float.POSITIVE_INFINITY;
+                    if (this.outTriangles != null) {
+                        this.outTriangles[ray] = -1;
+                    }
+                    if (this.outGeometries != null) {
+                        this.outGeometries[ray] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the closest hit of count rays starting at the offset, the
+     * distance is written to the output array at the same index and is
+     * infinite on a miss, the triangles (-1 on a miss) and geometries arrays
+     * are optional.
+     */
+    public void closestHits(
+            RayTraceable target,
+            float[] origins, float[] directions, float[] maxLengths,
+            int offset, int count,
+            float[] outDistances, int[] outTriangles, Geometry[] outGeometries
+    ) {
+        validate(origins, directions, maxLengths, offset, count);
+        int end = offset + count;
+        if (outDistances.length < end
+                || (outTriangles != null && outTriangles.length < end)
+                || (outGeometries != null && outGeometries.length < end)) {
+            throw new IllegalArgumentException("Output arrays are smaller than the range: offset " + offset + ", count " + count);
+        }
+        run(new ClosestHitTask(
+                target,
+                origins, directions, maxLengths,
+                outDistances, outTriangles, outGeometries,
+                offset, end, splitSize(count)
+        ), count);
+    }
+
+    public void closestHits(RayTraceable target, float[] origins, float[] directions, float[] maxLengths, int count, float[] outDistances, int[] outTriangles, Geometry[] outGeometries) {
+        closestHits(target, origins, directions, maxLengths, 0, count, outDistances, outTriangles, outGeometries);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import org.joml.Vector3fc;
+
+/**
+ * Something rays can be traced against, used by {@link RayQueryService} to
+ * trace batches of rays against meshes, instance trees or lists of
+ * geometries.
+ *
+ * @author Cien
+ */
+public interface RayTraceable {
+
+    public boolean fastTestRay(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength);
+
+    public boolean closestHit(RayQueryContext context, Vector3fc origin, Vector3fc direction, float maxLength, RayHit hit);
+
+    /**
+     * Tests all rays of the batch, the default implementation tests the rays
+     * one by one.
+     */
+    public default void fastTestRays(RayQueryContext context, RayBatch batch) {
+        batch.clearOutputs();
+        for (int ray = 0; ray < batch.getCount(); ray++) {
+            batch.occluded[ray] = fastTestRay(context,
+                    context.batchOrigin.set(batch.originX[ray], batch.originY[ray], batch.originZ[ray]),
+                    context.batchDirection.set(batch.directionX[ray], batch.directionY[ray], batch.directionZ[ray]),
+                    batch.maxLength[ray]
+            );
+        }
+    }
+
+}
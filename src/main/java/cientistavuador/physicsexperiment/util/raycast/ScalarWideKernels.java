@@ -0,0 +1,121 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.TRIANGLE_EPSILON;
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.WIDTH;
+
+/**
+ *
+ * @author Cien
+ */
+class ScalarWideKernels extends WideKernels {
+
+    public ScalarWideKernels() {
+
+    }
+
+    @Override
+    public void intersectRayAab4(
+            float[] bounds, int offset,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength,
+            float[] outDistances
+    ) {
+        for (int i = 0; i < WIDTH; i++) {
+            outDistances[i] = IntersectionUtils.intersectRayAab(
+                    originX, originY, originZ,
+                    invDirX, invDirY, invDirZ,
+                    bounds[offset + (WIDTH * 0) + i],
+                    bounds[offset + (WIDTH * 1) + i],
+                    bounds[offset + (WIDTH * 2) + i],
+                    bounds[offset + (WIDTH * 3) + i],
+                    bounds[offset + (WIDTH * 4) + i],
+                    bounds[offset + (WIDTH * 5) + i],
+                    maxLength
+            );
+        }
+    }
+
+    @Override
+    public void intersectRayTriangle4(
+            float[] triangles, int offset,
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float[] outDistances
+    ) {
+        for (int i = 0; i < WIDTH; i++) {
+            float v0X = triangles[offset + (WIDTH * 0) + i];
+            float v0Y = triangles[offset + (WIDTH * 1) + i];
+            float v0Z = triangles[offset + (WIDTH * 2) + i];
+
+            float e1X = triangles[offset + (WIDTH * 3) + i];
+            float e1Y = triangles[offset + (WIDTH * 4) + i];
+            float e1Z = triangles[offset + (WIDTH * 5) + i];
+
+            float e2X = triangles[offset + (WIDTH * 6) + i];
+            float e2Y = triangles[offset + (WIDTH * 7) + i];
+            float e2Z = triangles[offset + (WIDTH * 8) + i];
+
+            float pX = (dirY * e2Z) - (dirZ * e2Y);
+            float pY = (dirZ * e2X) - (dirX * e2Z);
+            float pZ = (dirX * e2Y) - (dirY * e2X);
+
+            float det = (e1X * pX) + (e1Y * pY) + (e1Z * pZ);
+            if (det > -TRIANGLE_EPSILON && det < TRIANGLE_EPSILON) {
+                outDistances[i] = -1f;
+                continue;
+            }
+
+            float tX = originX - v0X;
+            float tY = originY - v0Y;
+            float tZ = originZ - v0Z;
+
+            float invDet = 1f / det;
+
+            float u = ((tX * pX) + (tY * pY) + (tZ * pZ)) * invDet;
+            if (u < 0f || u > 1f) {
+                outDistances[i] = -1f;
+                continue;
+            }
+
+            float qX = (tY * e1Z) - (tZ * e1Y);
+            float qY = (tZ * e1X) - (tX * e1Z);
+            float qZ = (tX * e1Y) - (tY * e1X);
+
+            float v = ((dirX * qX) + (dirY * qY) + (dirZ * qZ)) * invDet;
+            if (v < 0f || (u + v) > 1f) {
+                outDistances[i] = -1f;
+                continue;
+            }
+
+            outDistances[i] = ((e2X * qX) + (e2Y * qY) + (e2Z * qZ)) * invDet;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.geometry.Geometry;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A mutable shape cast hit record, meant to be reused between queries, the
+ * distance is the time of impact along the cast direction, the position is
+ * the contact point on the triangle and the normal points from the triangle
+ * to the shape.
+ *
+ * @author Cien
+ */
+public class ShapeHit {
+
+    private Geometry geometry = null;
+    private int triangle = -1;
+    private float distance = Float.POSITIVE_INFINITY;
+
+    private final Vector3f position = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+
+    public ShapeHit() {
+
+    }
+
+    public void set(int triangle, float distance, Vector3fc position, Vector3fc normal) {
+        this.geometry = null;
+        this.triangle = triangle;
+        this.distance = distance;
+        this.position.set(position);
+        this.normal.set(normal);
+    }
+
+    public void setGeometry(Geometry geometry) {
+        this.geometry = geometry;
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public int triangle() {
+        return triangle;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    public Vector3fc getPosition() {
+        return position;
+    }
+
+    public Vector3fc getNormal() {
+        return normal;
+    }
+
+    @Override
+    public String toString() {
+        return "contact:"
+                + this.position.x()
+                + ","
+                + this.position.y()
+                + ","
+                + this.position.z()
+                + ";normal:"
+                + this.normal.x()
+                + ","
+                + this.normal.y()
+                + ","
+                + this.normal.z()
+                + ";dist:"
+                + this.distance;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.TRIANGLE_EPSILON;
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.WIDTH;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of the wide kernels, only loaded by
+ * {@link WideKernels} through reflection so the scalar kernels can be used
+ * when the jdk.incubator.vector module is missing.
+ *
+ * @author Cien
+ */
+class VectorWideKernels extends WideKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_128;
+
+    public VectorWideKernels() {
+        if (SPECIES.length() != WIDTH) {
+            throw new LinkageError("Unsupported vector width: " + SPECIES.length());
+        }
+    }
+
+    @Override
+    public void intersectRayAab4(
+            float[] bounds, int offset,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength,
+            float[] outDistances
+    ) {
+        FloatVector tNear = FloatVector.zero(SPECIES);
+        FloatVector tFar = FloatVector.broadcast(SPECIES, maxLength);
+
+        FloatVector t0 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 0)).sub(originX).mul(invDirX);
+        FloatVector t1 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 3)).sub(originX).mul(invDirX);
+        VectorMask<Float> swap = t0.compare(VectorOperators.GT, t1);
+        FloatVector near = t0.blend(t1, swap);
+        FloatVector far = t1.blend(t0, swap);
+        tNear = tNear.blend(near, near.compare(VectorOperators.GT, tNear));
+        tFar = tFar.blend(far, far.compare(VectorOperators.LT, tFar));
+
+        t0 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 1)).sub(originY).mul(invDirY);
+        t1 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 4)).sub(originY).mul(invDirY);
+        swap = t0.compare(VectorOperators.GT, t1);
+        near = t0.blend(t1, swap);
+        far = t1.blend(t0, swap);
+        tNear = tNear.blend(near, near.compare(VectorOperators.GT, tNear));
+        tFar = tFar.blend(far, far.compare(VectorOperators.LT, tFar));
+
+        t0 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 2)).sub(originZ).mul(invDirZ);
+        t1 = FloatVector.fromArray(SPECIES, bounds, offset + (WIDTH * 5)).sub(originZ).mul(invDirZ);
+        swap = t0.compare(VectorOperators.GT, t1);
+        near = t0.blend(t1, swap);
+        far = t1.blend(t0, swap);
+        tNear = tNear.blend(near, near.compare(VectorOperators.GT, tNear));
+        tFar = tFar.blend(far, far.compare(VectorOperators.LT, tFar));
+
+        tNear
+                .blend(-1f, tNear.compare(VectorOperators.LE, tFar).not())
+                .intoArray(outDistances, 0);
+    }
+
+    @Override
+    public void intersectRayTriangle4(
+            float[] triangles, int offset,
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float[] outDistances
+    ) {
+        FloatVector e1X = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 3));
+        FloatVector e1Y = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 4));
+        FloatVector e1Z = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 5));
+
+        FloatVector e2X = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 6));
+        FloatVector e2Y = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 7));
+        FloatVector e2Z = FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 8));
+
+        FloatVector pX = e2Z.mul(dirY).sub(e2Y.mul(dirZ));
+        FloatVector pY = e2X.mul(dirZ).sub(e2Z.mul(dirX));
+        FloatVector pZ = e2Y.mul(dirX).sub(e2X.mul(dirY));
+
+        FloatVector det = e1X.mul(pX).add(e1Y.mul(pY)).add(e1Z.mul(pZ));
+        VectorMask<Float> miss = det.compare(VectorOperators.GT, -TRIANGLE_EPSILON)
+                .and(det.compare(VectorOperators.LT, TRIANGLE_EPSILON));
+
+        FloatVector tX = FloatVector.broadcast(SPECIES, originX).sub(FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 0)));
+        FloatVector tY = FloatVector.broadcast(SPECIES, originY).sub(FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 1)));
+        FloatVector tZ = FloatVector.broadcast(SPECIES, originZ).sub(FloatVector.fromArray(SPECIES, triangles, offset + (WIDTH * 2)));
+
+        FloatVector invDet = FloatVector.broadcast(SPECIES, 1f).div(det);
+
+        FloatVector u = tX.mul(pX).add(tY.mul(pY)).add(tZ.mul(pZ)).mul(invDet);
+        miss = miss
+                .or(u.compare(VectorOperators.LT, 0f))
+                .or(u.compare(VectorOperators.GT, 1f));
+
+        FloatVector qX = tY.mul(e1Z).sub(tZ.mul(e1Y));
+        FloatVector qY = tZ.mul(e1X).sub(tX.mul(e1Z));
+        FloatVector qZ = tX.mul(e1Y).sub(tY.mul(e1X));
+
+        FloatVector v = qX.mul(dirX).add(qY.mul(dirY)).add(qZ.mul(dirZ)).mul(invDet);
+        miss = miss
+                .or(v.compare(VectorOperators.LT, 0f))
+                .or(u.add(v).compare(VectorOperators.GT, 1f));
+
+        e2X.mul(qX).add(e2Y.mul(qY)).add(e2Z.mul(qZ)).mul(invDet)
+                .blend(-1f, miss)
+                .intoArray(outDistances, 0);
+    }
+
+}
@@ -0,0 +1,457 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.BOUNDS_SIZE;
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.TRIANGLES_SIZE;
+import static cientistavuador.physicsexperiment.util.raycast.WideKernels.WIDTH;
+import cientistavuador.physicsexperiment.util.Aab;
+import cientistavuador.physicsexperiment.util.MeshUtils;
+import java.util.Arrays;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * A four wide BVH collapsed from a {@link LinearBVH}, the bounds of the four
+ * children of a node are stored next to each other so they can be tested at
+ * once, the triangles of each leaf are stored as vertex and edges so a whole
+ * leaf is also tested at once.
+ * <p>
+ * The kernels use the Vector API if the jdk.incubator.vector module is
+ * available at runtime ({@code --add-modules jdk.incubator.vector}),
+ * otherwise the queries fall back to the binary {@link LinearBVH}, which is
+ * faster than running the four wide layout with scalar kernels.
+ *
+ * @author Cien
+ */
+public class WideBVH implements Aab, RayTraceable {
+
+    public static boolean isVectorized() {
+        return WideKernels.isVectorized();
+    }
+
+    public static WideBVH create(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        return collapse(LinearBVH.create(vertices, indices, vertexSize, xyzOffset));
+    }
+
+    private static class Collapser {
+
+        private final LinearBVH bvh;
+
+        private float[] nodeBounds;
+        private int[] nodeChildren;
+        private int[] nodeCounts;
+        private int amountOfNodes = 0;
+
+        private final float[] leafTriangles;
+        private final int[] leafIndices;
+        private final int[] leafCounts;
+        private int amountOfLeaves = 0;
+
+        private int maxDepth = 0;
+
+        public Collapser(LinearBVH bvh) {
+            this.bvh = bvh;
+
+            int binaryLeaves = 0;
+            for (int i = 0; i < bvh.getAmountOfNodes(); i++) {
+                if (bvh.counts[i] != 0) {
+                    binaryLeaves++;
+                }
+            }
+
+            int wideNodes = Math.max(1, bvh.getAmountOfNodes() - binaryLeaves);
+            this.nodeBounds = new float[wideNodes * BOUNDS_SIZE];
+            this.nodeChildren = new int[wideNodes * WIDTH];
+            this.nodeCounts = new int[wideNodes];
+
+            this.leafTriangles = new float[binaryLeaves * TRIANGLES_SIZE];
+            this.leafIndices = new int[binaryLeaves * WIDTH];
+            this.leafCounts = new int[binaryLeaves];
+        }
+
+        private float area(int node) {
+            float[] b = this.bvh.bounds;
+            float dX = b[(node * 6) + 3] - b[(node * 6) + 0];
+            float dY = b[(node * 6) + 4] - b[(node * 6) + 1];
+            float dZ = b[(node * 6) + 5] - b[(node * 6) + 2];
+            return 2f * ((dX * dY) + (dY * dZ) + (dZ * dX));
+        }
+
+        private int leaf(int binaryNode) {
+            int leaf = this.amountOfLeaves++;
+
+            float[] vertices = this.bvh.getVertices();
+            int[] indices = this.bvh.getIndices();
+            int vertexSize = this.bvh.getVertexSize();
+            int xyzOffset = this.bvh.getXyzOffset();
+
+            int offset = this.bvh.offsets[binaryNode];
+            int count = this.bvh.counts[binaryNode];
+
+            int triangleOffset = leaf * TRIANGLES_SIZE;
+            Arrays.fill(this.leafTriangles, triangleOffset, triangleOffset + TRIANGLES_SIZE, Float.NaN);
+            Arrays.fill(this.leafIndices, leaf * WIDTH, (leaf + 1) * WIDTH, -1);
+
+            for (int i = 0; i < count; i++) {
+                int triangle = this.bvh.triangles[offset + i];
+
+                int v0 = (indices[(triangle * 3) + 0] * vertexSize) + xyzOffset;
+                int v1 = (indices[(triangle * 3) + 1] * vertexSize) + xyzOffset;
+                int v2 = (indices[(triangle * 3) + 2] * vertexSize) + xyzOffset;
+
+                for (int j = 0; j < 3; j++) {
+                    this.leafTriangles[triangleOffset + (WIDTH * j) + i] = vertices[v0 + j];
+                    this.leafTriangles[triangleOffset + (WIDTH * (3 + j)) + i] = vertices[v1 + j] - vertices[v0 + j];
+                    this.leafTriangles[triangleOffset + (WIDTH * (6 + j)) + i] = vertices[v2 + j] - vertices[v0 + j];
+                }
+
+                this.leafIndices[(leaf * WIDTH) + i] = triangle;
+            }
+            this.leafCounts[leaf] = count;
+
+            return ~leaf;
+        }
+
+        private int child(int binaryNode, int depth) {
+            if (this.bvh.counts[binaryNode] != 0) {
+                return leaf(binaryNode);
+            }
+            return collapse(binaryNode, depth);
+        }
+
+        public int collapse(int binaryNode, int depth) {
+            this.maxDepth = Math.max(this.maxDepth, depth);
+
+            int node = this.amountOfNodes++;
+
+            int[] children = new int[WIDTH];
+            int count = 0;
+            if (this.bvh.counts[binaryNode] != 0) {
+                children[count++] = binaryNode;
+            } else {
+                children[count++] = binaryNode + 1;
+                children[count++] = this.bvh.offsets[binaryNode];
+            }
+
+            while (count < WIDTH) {
+                int largest = -1;
+                float largestArea = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < count; i++) {
+                    int c = children[i];
+                    if (this.bvh.counts[c] == 0 && area(c) > largestArea) {
+                        largestArea = area(c);
+                        largest = i;
+                    }
+                }
+                if (largest == -1) {
+                    break;
+                }
+                int c = children[largest];
+                children[largest] = c + 1;
+                children[count++] = this.bvh.offsets[c];
+            }
+
+            int boundsOffset = node * BOUNDS_SIZE;
+            Arrays.fill(this.nodeBounds, boundsOffset, boundsOffset + BOUNDS_SIZE, Float.NaN);
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < 6; j++) {
+                    this.nodeBounds[boundsOffset + (WIDTH * j) + i] = this.bvh.bounds[(children[i] * 6) + j];
+                }
+            }
+            this.nodeCounts[node] = count;
+
+            for (int i = 0; i < count; i++) {
+                this.nodeChildren[(node * WIDTH) + i] = child(children[i], depth + 1);
+            }
+
+            return node;
+        }
+    }
+
+    //an empty bvh has no nodes, queries go to the empty linear bvh
+    public static WideBVH collapse(LinearBVH bvh) {
+        Collapser collapser = new Collapser(bvh);
+        if (!bvh.isEmpty()) {
+            collapser.collapse(0, 0);
+        }
+        return new WideBVH(
+                bvh,
+                Arrays.copyOf(collapser.nodeBounds, collapser.amountOfNodes * BOUNDS_SIZE),
+                Arrays.copyOf(collapser.nodeChildren, collapser.amountOfNodes * WIDTH),
+                Arrays.copyOf(collapser.nodeCounts, collapser.amountOfNodes),
+                collapser.leafTriangles,
+                collapser.leafIndices,
+                collapser.leafCounts,
+                collapser.maxDepth
+        );
+    }
+
+    private final LinearBVH bvh;
+
+    private final float[] nodeBounds;
+    private final int[] nodeChildren;
+    private final int[] nodeCounts;
+
+    private final float[] leafTriangles;
+    private final int[] leafIndices;
+    private final int[] leafCounts;
+
+    private final int maxDepth;
+
+    private WideBVH(
+            LinearBVH bvh,
+            float[] nodeBounds, int[] nodeChildren, int[] nodeCounts,
+            float[] leafTriangles, int[] leafIndices, int[] leafCounts,
+            int maxDepth
+    ) {
+        this.bvh = bvh;
+        this.nodeBounds = nodeBounds;
+        this.nodeChildren = nodeChildren;
+        this.nodeCounts = nodeCounts;
+        this.leafTriangles = leafTriangles;
+        this.leafIndices = leafIndices;
+        this.leafCounts = leafCounts;
+        this.maxDepth = maxDepth;
+    }
+
+    public LinearBVH getLinearBVH() {
+        return bvh;
+    }
+
+    public int getAmountOfNodes() {
+        return this.nodeCounts.length;
+    }
+
+    public int getAmountOfLeaves() {
+        return this.leafCounts.length;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public void getMin(Vector3f min) {
+        this.bvh.getMin(min);
+    }
+
+    @Override
+    public void getMax(Vector3f max) {
+        this.bvh.getMax(max);
+    }
+
+    @Override
+    public boolean fastTestRay(RayQueryContext context, Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        if (!WideKernels.isVectorized() || this.bvh.isEmpty()) {
+            return this.bvh.fastTestRay(context, localOrigin, localDirection, maxLength);
+        }
+
+        WideKernels kernels = WideKernels.KERNELS;
+
+        float originX = localOrigin.x();
+        float originY = localOrigin.y();
+        float originZ = localOrigin.z();
+
+        float dirX = localDirection.x();
+        float dirY = localDirection.y();
+        float dirZ = localDirection.z();
+
+        float invDirX = 1f / dirX;
+        float invDirY = 1f / dirY;
+        float invDirZ = 1f / dirZ;
+
+        float length = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        context.ensureStackSize(((this.maxDepth + 1) * (WIDTH - 1)) + 1);
+        int[] stack = context.stack;
+        float[] distances = context.wideDistances;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize != 0) {
+            int node = stack[--stackSize];
+
+            kernels.intersectRayAab4(
+                    this.nodeBounds, node * BOUNDS_SIZE,
+                    originX, originY, originZ,
+                    invDirX, invDirY, invDirZ,
+                    length,
+                    distances
+            );
+
+            int count = this.nodeCounts[node];
+            for (int i = 0; i < count; i++) {
+                if (distances[i] < 0f) {
+                    continue;
+                }
+                int child = this.nodeChildren[(node * WIDTH) + i];
+                if (child >= 0) {
+                    stack[stackSize++] = child;
+                    continue;
+                }
+
+                int leaf = ~child;
+                kernels.intersectRayTriangle4(
+                        this.leafTriangles, leaf * TRIANGLES_SIZE,
+                        originX, originY, originZ,
+                        dirX, dirY, dirZ,
+                        context.wideTriangleDistances
+                );
+                int triangles = this.leafCounts[leaf];
+                for (int j = 0; j < triangles; j++) {
+                    float hit = context.wideTriangleDistances[j];
+                    if (hit >= 0f && hit <= length) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        return fastTestRay(RayQueryContext.threadLocal(), localOrigin, localDirection, maxLength);
+    }
+
+    @Override
+    public boolean closestHit(RayQueryContext context, Vector3fc localOrigin, Vector3fc localDirection, float maxLength, RayHit hit) {
+        if (!WideKernels.isVectorized() || this.bvh.isEmpty()) {
+            return this.bvh.closestHit(context, localOrigin, localDirection, maxLength, hit);
+        }
+
+        WideKernels kernels = WideKernels.KERNELS;
+
+        float originX = localOrigin.x();
+        float originY = localOrigin.y();
+        float originZ = localOrigin.z();
+
+        float dirX = localDirection.x();
+        float dirY = localDirection.y();
+        float dirZ = localDirection.z();
+
+        float invDirX = 1f / dirX;
+        float invDirY = 1f / dirY;
+        float invDirZ = 1f / dirZ;
+
+        float closest = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+        int closestTriangle = -1;
+
+        context.ensureStackSize(((this.maxDepth + 1) * (WIDTH - 1)) + 1);
+        int[] stack = context.stack;
+        float[] stackDistances = context.stackDistances;
+        float[] distances = context.wideDistances;
+        float[] triangleDistances = context.wideTriangleDistances;
+        int stackSize = 0;
+        stack[stackSize] = 0;
+        stackDistances[stackSize] = 0f;
+        stackSize++;
+
+        while (stackSize != 0) {
+            stackSize--;
+            if (stackDistances[stackSize] > closest) {
+                continue;
+            }
+            int node = stack[stackSize];
+
+            kernels.intersectRayAab4(
+                    this.nodeBounds, node * BOUNDS_SIZE,
+                    originX, originY, originZ,
+                    invDirX, invDirY, invDirZ,
+                    closest,
+                    distances
+            );
+
+            int pushed = stackSize;
+            int count = this.nodeCounts[node];
+            for (int i = 0; i < count; i++) {
+                float distance = distances[i];
+                if (distance < 0f) {
+                    continue;
+                }
+                int child = this.nodeChildren[(node * WIDTH) + i];
+                if (child >= 0) {
+                    //insert sorted so the nearest child is popped first
+                    int j = stackSize;
+                    while (j > pushed && stackDistances[j - 1] < distance) {
+                        stack[j] = stack[j - 1];
+                        stackDistances[j] = stackDistances[j - 1];
+                        j--;
+                    }
+                    stack[j] = child;
+                    stackDistances[j] = distance;
+                    stackSize++;
+                    continue;
+                }
+
+                int leaf = ~child;
+                kernels.intersectRayTriangle4(
+                        this.leafTriangles, leaf * TRIANGLES_SIZE,
+                        originX, originY, originZ,
+                        dirX, dirY, dirZ,
+                        triangleDistances
+                );
+                int triangles = this.leafCounts[leaf];
+                for (int j = 0; j < triangles; j++) {
+                    float t = triangleDistances[j];
+                    if (t >= 0f && t < closest) {
+                        closest = t;
+                        closestTriangle = this.leafIndices[(leaf * WIDTH) + j];
+                    }
+                }
+            }
+        }
+
+        if (closestTriangle == -1) {
+            return false;
+        }
+
+        float[] vertices = this.bvh.getVertices();
+        int[] indices = this.bvh.getIndices();
+        MeshUtils.calculateTriangleNormal(
+                vertices,
+                this.bvh.getVertexSize(),
+                this.bvh.getXyzOffset(),
+                indices[(closestTriangle * 3) + 0],
+                indices[(closestTriangle * 3) + 1],
+                indices[(closestTriangle * 3) + 2],
+                context.normal
+        );
+        boolean frontFace = context.normal.dot(localDirection) < 0f;
+        context.hitPosition.set(localDirection).mul(closest).add(localOrigin);
+
+        hit.setLocal(closestTriangle, frontFace, closest, context.hitPosition, context.normal);
+
+        return true;
+    }
+
+    public boolean closestHit(Vector3fc localOrigin, Vector3fc localDirection, float maxLength, RayHit hit) {
+        return closestHit(RayQueryContext.threadLocal(), localOrigin, localDirection, maxLength, hit);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+/**
+ * Four wide ray intersection kernels used by {@link WideBVH}, the vector
+ * implementation is used if it was compiled (the vector maven profile) and
+ * the jdk.incubator.vector module is available at runtime, otherwise the
+ * scalar implementation is used.
+ *
+ * @author Cien
+ */
+abstract class WideKernels {
+
+    public static final int WIDTH = 4;
+
+    //bounds of four boxes: minX[4] minY[4] minZ[4] maxX[4] maxY[4] maxZ[4]
+    public static final int BOUNDS_SIZE = WIDTH * 6;
+
+    //four triangles: v0X[4] v0Y[4] v0Z[4] e1X[4] e1Y[4] e1Z[4] e2X[4] e2Y[4] e2Z[4]
+    public static final int TRIANGLES_SIZE = WIDTH * 9;
+
+    public static final float TRIANGLE_EPSILON = 1f / 100000f;
+
+    public static final WideKernels SCALAR = new ScalarWideKernels();
+    public static final WideKernels KERNELS;
+
+    static {
+        WideKernels kernels;
+        try {
+            kernels = (WideKernels) Class
+                    .forName("cientistavuador.physicsexperiment.util.raycast.VectorWideKernels")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            kernels = SCALAR;
+        }
+        KERNELS = kernels;
+    }
+
+    public static boolean isVectorized() {
+        return KERNELS != SCALAR;
+    }
+
+    /**
+     * Tests the ray against four boxes, writes the entry distance of each box
+     * to the output array or -1 if the box was not hit.
+     */
+    public abstract void intersectRayAab4(
+            float[] bounds, int offset,
+            float originX, float originY, float originZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength,
+            float[] outDistances
+    );
+
+    /**
+     * Tests the ray against four triangles, writes the distance of each
+     * triangle to the output array, the distance is negative or NaN if the
+     * triangle was not hit.
+     */
+    public abstract void intersectRayTriangle4(
+            float[] triangles, int offset,
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float[] outDistances
+    );
+
+}
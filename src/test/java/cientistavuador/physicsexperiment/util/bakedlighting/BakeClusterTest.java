@@ -0,0 +1,124 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import cientistavuador.physicsexperiment.util.LightmapFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Bakes a tiny scene with two local workers, kills one of them in the middle
+ * of the bake and compares the lightmaps with a bake without the cluster.
+ *
+ * @author Cien
+ */
+public class BakeClusterTest {
+
+    private static final List<String> SCENE = List.of(
+            "set pixelToWorldRatio 16",
+            "set shadowRaysPerSample 4",
+            "set indirectRaysPerSample 4",
+            "set indirectBounces 1",
+            "set bakeMemoryBudget 67108864",
+            "mesh stupid_stair.obj",
+            "geometry stupid_stair.obj 1",
+            "geometry stupid_stair.obj 1 4 0 0 0 0 0.2 0 0 0 0 4 0 0 -1 0 1",
+            "sun sun -0.5 -1 -0.3 1 1 1 0.1 0.1 0.1"
+    );
+
+    private static float mean(float[] data) {
+        double sum = 0.0;
+        for (float value : data) {
+            sum += value;
+        }
+        return (float) (sum / data.length);
+    }
+
+    private static LightmapFile.LightmapData read(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return LightmapFile.decode(stream);
+        }
+    }
+
+    @Test
+    public void testWorkerDeath(@TempDir Path directory) throws Exception {
+        Path local = directory.resolve("local");
+        Path clustered = directory.resolve("cluster");
+
+        LightmapBaker.bake("test.scene", SCENE, local, null);
+
+        try (BakeCluster cluster = BakeCluster.start("test.scene", SCENE, 2, 512L * 1024L * 1024L)) {
+            assertEquals(2, cluster.getAliveWorkers());
+
+            Thread killer = new Thread(() -> {
+                while (cluster.getReceivedTiles() == 0) {
+                    Thread.onSpinWait();
+                }
+                cluster.killWorker(0);
+            });
+            killer.setDaemon(true);
+            killer.start();
+
+            LightmapBaker.bake("test.scene", SCENE, clustered, cluster);
+
+            killer.join();
+            assertEquals(1, cluster.getAliveWorkers());
+        }
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(local)) {
+            files = stream.sorted().toList();
+        }
+        assertEquals(2, files.size());
+        for (Path file : files) {
+            LightmapFile.LightmapData expected = read(file);
+            LightmapFile.LightmapData actual = read(clustered.resolve(file.getFileName()));
+            assertEquals(expected.lightmapSize(), actual.lightmapSize());
+            assertEquals(expected.lightmaps().length, actual.lightmaps().length);
+            for (int i = 0; i < expected.lightmaps().length; i++) {
+                float[] expectedData = expected.lightmaps()[i].data();
+                float[] actualData = actual.lightmaps()[i].data();
+                assertEquals(expectedData.length, actualData.length);
+
+                //rays are random, so only the average light must match
+                float expectedMean = mean(expectedData);
+                float actualMean = mean(actualData);
+                assertTrue(expectedMean > 0f, "lightmap is black");
+                assertEquals(expectedMean, actualMean, expectedMean * 0.05f, file.getFileName().toString());
+            }
+        }
+    }
+
+}
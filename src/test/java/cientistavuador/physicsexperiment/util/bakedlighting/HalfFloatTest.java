@@ -0,0 +1,90 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.bakedlighting;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class HalfFloatTest {
+
+    private static float expected(int half) {
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x03FF;
+        float value;
+        if (exponent == 0) {
+            value = Math.scalb((float) mantissa, -24);
+        } else {
+            value = Math.scalb(1f + (mantissa / 1024f), exponent - 15);
+        }
+        return ((half & 0x8000) != 0 ? -value : value);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (int i = 0; i < 65536; i++) {
+            short half = (short) i;
+            int exponent = (i >>> 10) & 0x1F;
+            int mantissa = i & 0x03FF;
+            int sign = i & 0x8000;
+
+            float value = HalfFloat.toFloat(half);
+            short back = HalfFloat.toHalf(value);
+
+            if (exponent == 0x1F && mantissa != 0) {
+                assertTrue(Float.isNaN(value), "half " + Integer.toHexString(i));
+                assertEquals((short) (sign | 0x7E00), back, "half " + Integer.toHexString(i));
+            } else if (exponent == 0x1F) {
+                //infinities are clamped to the largest finite half float
+                assertTrue(Float.isInfinite(value), "half " + Integer.toHexString(i));
+                assertEquals((short) (sign | 0x7BFF), back, "half " + Integer.toHexString(i));
+            } else {
+                assertEquals(
+                        Float.floatToRawIntBits(expected(i)), Float.floatToRawIntBits(value),
+                        "half " + Integer.toHexString(i)
+                );
+                assertEquals(half, back, "half " + Integer.toHexString(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRounding() {
+        //halfway between two half floats rounds to the even one
+        assertEquals((short) 0x3C00, HalfFloat.toHalf(1f + (0.5f / 1024f)));
+        assertEquals((short) 0x3C02, HalfFloat.toHalf(1f + (1.5f / 1024f)));
+        assertEquals((short) 0x7BFF, HalfFloat.toHalf(Float.POSITIVE_INFINITY));
+        assertEquals((short) 0xFBFF, HalfFloat.toHalf(-1e10f));
+        assertEquals((short) 0x0000, HalfFloat.toHalf(0x1p-26f));
+        assertEquals((short) 0x0001, HalfFloat.toHalf(0x1p-24f));
+    }
+
+}
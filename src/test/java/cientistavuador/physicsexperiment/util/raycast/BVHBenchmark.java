@@ -0,0 +1,118 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.util.raycast.BVHReference.Mesh;
+import cientistavuador.physicsexperiment.util.raycast.BVHReference.Node;
+import java.util.Locale;
+
+/**
+ * Compares the SAH builder of {@link BVH} with the nearest centroid builder it
+ * replaced, build time, tree cost and depth, and closest hit throughput of both
+ * trees with the same traversal on one thread.
+ * <p>
+ * It is not a test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=cientistavuador.physicsexperiment.util.raycast.BVHBenchmark
+ * </pre>
+ *
+ * @author Cien
+ */
+public class BVHBenchmark {
+
+    private static final int RAYS = 200000;
+    private static final int RUNS = 3;
+
+    private interface Builder {
+
+        Node build(Mesh mesh);
+    }
+
+    //best of a few runs, the first run warms up the jit
+    private static double buildMillis(Builder builder, Mesh mesh) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < RUNS; i++) {
+            long time = System.nanoTime();
+            builder.build(mesh);
+            best = Math.min(best, (System.nanoTime() - time) / 1e6);
+        }
+        return best;
+    }
+
+    private static double raysPerSecond(Node root, Mesh mesh, float[] rays) {
+        Node[] stack = new Node[BVHReference.depth(root) + 1];
+        double best = 0.0;
+        for (int i = 0; i < RUNS; i++) {
+            long time = System.nanoTime();
+            float sum = 0f;
+            for (int ray = 0; ray < RAYS; ray++) {
+                float distance = BVHReference.closestHit(root, mesh, rays, ray, stack);
+                if (Float.isFinite(distance)) {
+                    sum += distance;
+                }
+            }
+            if (sum < 0f) {
+                throw new IllegalStateException();
+            }
+            best = Math.max(best, RAYS / ((System.nanoTime() - time) / 1e9));
+        }
+        return best;
+    }
+
+    private static void row(String name, Mesh mesh, Builder builder, float[] rays) {
+        double millis = buildMillis(builder, mesh);
+        Node root = builder.build(mesh);
+        System.out.println(String.format(
+                Locale.US, "%9d  %-17s %10.1f ms %8.1f %6d %12.0f",
+                mesh.triangles(), name, millis,
+                BVHReference.cost(root), BVHReference.depth(root),
+                raysPerSecond(root, mesh, rays)
+        ));
+    }
+
+    public static void main(String[] args) {
+        Builder sah = (mesh) -> BVHReference.fromBVH(BVH.create(mesh.vertices(), mesh.indices(), 3, 0));
+        Builder nearest = BVHReference::nearestCentroid;
+
+        //warm up the jit and the common pool
+        Mesh warmup = BVHReference.createMesh(64, 2000, 0);
+        for (int i = 0; i < 10; i++) {
+            sah.build(warmup);
+        }
+
+        System.out.println("triangles  builder                build       cost  depth       rays/s");
+        for (int gridSize : new int[]{40, 90, 140}) {
+            Mesh mesh = BVHReference.createMesh(gridSize, gridSize * 20, gridSize);
+            float[] rays = BVHReference.createRays(mesh, RAYS, gridSize + 1);
+            row("nearest centroid", mesh, nearest, rays);
+            row("SAH", mesh, sah, rays);
+        }
+        Mesh large = BVHReference.createMesh(300, 20000, 300);
+        row("SAH", large, sah, BVHReference.createRays(large, RAYS, 301));
+    }
+
+}
@@ -0,0 +1,385 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import java.util.Random;
+import org.joml.Vector3fc;
+
+/**
+ * Test meshes and the nearest centroid builder that the SAH builder of
+ * {@link BVH} replaced, trees of both builders are converted to the same
+ * nodes and traversed by the same code so they can be compared.
+ *
+ * @author Cien
+ */
+class BVHReference {
+
+    public record Mesh(float[] vertices, int[] indices) {
+
+        public int triangles() {
+            return this.indices.length / 3;
+        }
+    }
+
+    public static class Node {
+
+        public final float minX, minY, minZ;
+        public final float maxX, maxY, maxZ;
+        public final Node left;
+        public final Node right;
+        public final int[] triangles;
+
+        public Node(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, Node left, Node right, int[] triangles) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.left = left;
+            this.right = right;
+            this.triangles = triangles;
+        }
+
+        public boolean isLeaf() {
+            return this.left == null;
+        }
+
+        public float area() {
+            float x = this.maxX - this.minX;
+            float y = this.maxY - this.minY;
+            float z = this.maxZ - this.minZ;
+            return ((x * y) + (y * z) + (z * x)) * 2f;
+        }
+    }
+
+    //a terrain with random triangles scattered over it, positions only
+    public static Mesh createMesh(int gridSize, int clutter, long seed) {
+        Random random = new Random(seed);
+
+        int gridVertices = (gridSize + 1) * (gridSize + 1);
+        float[] vertices = new float[(gridVertices + (clutter * 3)) * 3];
+        int[] indices = new int[((gridSize * gridSize * 2) + clutter) * 3];
+
+        for (int z = 0; z <= gridSize; z++) {
+            for (int x = 0; x <= gridSize; x++) {
+                int v = (x + (z * (gridSize + 1))) * 3;
+                vertices[v + 0] = x;
+                vertices[v + 1] = (float) ((Math.sin(x * 0.1) + Math.cos(z * 0.13)) * 4.0);
+                vertices[v + 2] = z;
+            }
+        }
+
+        int i = 0;
+        for (int z = 0; z < gridSize; z++) {
+            for (int x = 0; x < gridSize; x++) {
+                int v0 = x + (z * (gridSize + 1));
+                int v1 = v0 + 1;
+                int v2 = v0 + (gridSize + 1);
+                int v3 = v2 + 1;
+                indices[i++] = v0;
+                indices[i++] = v2;
+                indices[i++] = v1;
+                indices[i++] = v1;
+                indices[i++] = v2;
+                indices[i++] = v3;
+            }
+        }
+
+        for (int c = 0; c < clutter; c++) {
+            float cx = random.nextFloat() * gridSize;
+            float cy = random.nextFloat() * 8f;
+            float cz = random.nextFloat() * gridSize;
+            for (int k = 0; k < 3; k++) {
+                int v = gridVertices + (c * 3) + k;
+                vertices[(v * 3) + 0] = cx + (random.nextFloat() * 2f) - 1f;
+                vertices[(v * 3) + 1] = cy + (random.nextFloat() * 2f) - 1f;
+                vertices[(v * 3) + 2] = cz + (random.nextFloat() * 2f) - 1f;
+                indices[i++] = v;
+            }
+        }
+
+        return new Mesh(vertices, indices);
+    }
+
+    public static Node fromBVH(BVH bvh) {
+        Vector3fc min = bvh.getMin();
+        Vector3fc max = bvh.getMax();
+        if (bvh.getLeft() == null && bvh.getRight() == null) {
+            return new Node(min.x(), min.y(), min.z(), max.x(), max.y(), max.z(), null, null, bvh.getTriangles());
+        }
+        return new Node(
+                min.x(), min.y(), min.z(), max.x(), max.y(), max.z(),
+                fromBVH(bvh.getLeft()), fromBVH(bvh.getRight()), null
+        );
+    }
+
+    /**
+     * The builder BVH.create used before the SAH builder, every node is
+     * merged with the node of the closest center at every level, so it takes
+     * quadratic time.
+     */
+    public static Node nearestCentroid(Mesh mesh) {
+        final float aabOffset = 0.0001f;
+        float[] vertices = mesh.vertices();
+        int[] indices = mesh.indices();
+        int numberOfTriangles = mesh.triangles();
+
+        Node[] currentArray = new Node[numberOfTriangles];
+        for (int i = 0; i < numberOfTriangles; i++) {
+            float minX = Float.POSITIVE_INFINITY;
+            float minY = Float.POSITIVE_INFINITY;
+            float minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY;
+            float maxY = Float.NEGATIVE_INFINITY;
+            float maxZ = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[(i * 3) + k] * 3;
+                minX = Math.min(minX, vertices[v + 0]);
+                minY = Math.min(minY, vertices[v + 1]);
+                minZ = Math.min(minZ, vertices[v + 2]);
+                maxX = Math.max(maxX, vertices[v + 0]);
+                maxY = Math.max(maxY, vertices[v + 1]);
+                maxZ = Math.max(maxZ, vertices[v + 2]);
+            }
+            if (Math.abs(maxX - minX) < aabOffset) {
+                minX -= aabOffset;
+                maxX += aabOffset;
+            }
+            if (Math.abs(maxY - minY) < aabOffset) {
+                minY -= aabOffset;
+                maxY += aabOffset;
+            }
+            if (Math.abs(maxZ - minZ) < aabOffset) {
+                minZ -= aabOffset;
+                maxZ += aabOffset;
+            }
+            currentArray[i] = new Node(minX, minY, minZ, maxX, maxY, maxZ, null, null, new int[]{i});
+        }
+
+        Node[] nextArray = new Node[numberOfTriangles];
+        int currentLength = numberOfTriangles;
+        int nextIndex = 0;
+        while (currentLength != 1) {
+            for (int i = 0; i < currentLength; i++) {
+                Node current = currentArray[i];
+                if (current == null) {
+                    continue;
+                }
+                float centerX = (current.minX * 0.5f) + (current.maxX * 0.5f);
+                float centerY = (current.minY * 0.5f) + (current.maxY * 0.5f);
+                float centerZ = (current.minZ * 0.5f) + (current.maxZ * 0.5f);
+
+                Node closest = null;
+                float closestDistanceSquared = Float.POSITIVE_INFINITY;
+                int closestIndex = -1;
+                for (int j = i + 1; j < currentLength; j++) {
+                    Node other = currentArray[j];
+                    if (other == null) {
+                        continue;
+                    }
+                    float dX = centerX - ((other.minX * 0.5f) + (other.maxX * 0.5f));
+                    float dY = centerY - ((other.minY * 0.5f) + (other.maxY * 0.5f));
+                    float dZ = centerZ - ((other.minZ * 0.5f) + (other.maxZ * 0.5f));
+                    float distanceSquared = (dX * dX) + (dY * dY) + (dZ * dZ);
+                    if (distanceSquared < closestDistanceSquared) {
+                        closest = other;
+                        closestDistanceSquared = distanceSquared;
+                        closestIndex = j;
+                    }
+                }
+
+                currentArray[i] = null;
+                if (closest == null) {
+                    nextArray[nextIndex++] = current;
+                    continue;
+                }
+                currentArray[closestIndex] = null;
+
+                nextArray[nextIndex++] = new Node(
+                        Math.min(current.minX, closest.minX),
+                        Math.min(current.minY, closest.minY),
+                        Math.min(current.minZ, closest.minZ),
+                        Math.max(current.maxX, closest.maxX),
+                        Math.max(current.maxY, closest.maxY),
+                        Math.max(current.maxZ, closest.maxZ),
+                        current, closest, null
+                );
+            }
+
+            currentLength = nextIndex;
+            nextIndex = 0;
+
+            Node[] currentStore = currentArray;
+            currentArray = nextArray;
+            nextArray = currentStore;
+        }
+
+        return currentArray[0];
+    }
+
+    //expected cost of a ray through the root relative to the root area, one
+    //per node visited and one per triangle tested
+    public static double cost(Node root) {
+        return costSum(root) / root.area();
+    }
+
+    private static double costSum(Node node) {
+        if (node.isLeaf()) {
+            return node.area() * (double) node.triangles.length;
+        }
+        return node.area() + costSum(node.left) + costSum(node.right);
+    }
+
+    public static int depth(Node node) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        return 1 + Math.max(depth(node.left), depth(node.right));
+    }
+
+    public static int count(Node node) {
+        if (node.isLeaf()) {
+            return 1;
+        }
+        return 1 + count(node.left) + count(node.right);
+    }
+
+    //random rays from above the terrain, origins xyz then directions xyz
+    public static float[] createRays(Mesh mesh, int amount, long seed) {
+        Random random = new Random(seed);
+        float size = (float) Math.sqrt(mesh.triangles() / 2.0);
+        float[] rays = new float[amount * 6];
+        for (int i = 0; i < amount; i++) {
+            float dx = (random.nextFloat() * 2f) - 1f;
+            float dy = -random.nextFloat();
+            float dz = (random.nextFloat() * 2f) - 1f;
+            float length = (float) Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+            rays[(i * 6) + 0] = random.nextFloat() * size;
+            rays[(i * 6) + 1] = 12f;
+            rays[(i * 6) + 2] = random.nextFloat() * size;
+            rays[(i * 6) + 3] = dx / length;
+            rays[(i * 6) + 4] = dy / length;
+            rays[(i * 6) + 5] = dz / length;
+        }
+        return rays;
+    }
+
+    private static boolean testBox(Node node, float ox, float oy, float oz, float ix, float iy, float iz, float maxLength) {
+        float t1 = (node.minX - ox) * ix;
+        float t2 = (node.maxX - ox) * ix;
+        float tMin = Math.min(t1, t2);
+        float tMax = Math.max(t1, t2);
+        t1 = (node.minY - oy) * iy;
+        t2 = (node.maxY - oy) * iy;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        t1 = (node.minZ - oz) * iz;
+        t2 = (node.maxZ - oz) * iz;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        return tMax >= Math.max(tMin, 0f) && tMin <= maxLength;
+    }
+
+    //moller trumbore, the distance or infinity if the triangle was not hit
+    private static float testTriangle(Mesh mesh, int triangle, float ox, float oy, float oz, float dx, float dy, float dz) {
+        float[] v = mesh.vertices();
+        int a = mesh.indices()[(triangle * 3) + 0] * 3;
+        int b = mesh.indices()[(triangle * 3) + 1] * 3;
+        int c = mesh.indices()[(triangle * 3) + 2] * 3;
+        float e1x = v[b + 0] - v[a + 0];
+        float e1y = v[b + 1] - v[a + 1];
+        float e1z = v[b + 2] - v[a + 2];
+        float e2x = v[c + 0] - v[a + 0];
+        float e2y = v[c + 1] - v[a + 1];
+        float e2z = v[c + 2] - v[a + 2];
+        float px = (dy * e2z) - (dz * e2y);
+        float py = (dz * e2x) - (dx * e2z);
+        float pz = (dx * e2y) - (dy * e2x);
+        float det = (e1x * px) + (e1y * py) + (e1z * pz);
+        if (Math.abs(det) < 1e-8f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float invDet = 1f / det;
+        float tx = ox - v[a + 0];
+        float ty = oy - v[a + 1];
+        float tz = oz - v[a + 2];
+        float u = ((tx * px) + (ty * py) + (tz * pz)) * invDet;
+        if (u < 0f || u > 1f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float qx = (ty * e1z) - (tz * e1y);
+        float qy = (tz * e1x) - (tx * e1z);
+        float qz = (tx * e1y) - (ty * e1x);
+        float w = ((dx * qx) + (dy * qy) + (dz * qz)) * invDet;
+        if (w < 0f || (u + w) > 1f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float t = ((e2x * qx) + (e2y * qy) + (e2z * qz)) * invDet;
+        return (t > 0f ? t : Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns the distance to the closest triangle hit by the ray or infinity,
+     * the stack must hold the depth of the tree plus one nodes.
+     */
+    public static float closestHit(Node root, Mesh mesh, float[] rays, int ray, Node[] stack) {
+        float ox = rays[(ray * 6) + 0];
+        float oy = rays[(ray * 6) + 1];
+        float oz = rays[(ray * 6) + 2];
+        float dx = rays[(ray * 6) + 3];
+        float dy = rays[(ray * 6) + 4];
+        float dz = rays[(ray * 6) + 5];
+        float ix = 1f / dx;
+        float iy = 1f / dy;
+        float iz = 1f / dz;
+
+        float closest = Float.POSITIVE_INFINITY;
+        int stackSize = 0;
+        stack[stackSize++] = root;
+        while (stackSize != 0) {
+            Node node = stack[--stackSize];
+            if (!testBox(node, ox, oy, oz, ix, iy, iz, closest)) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                for (int triangle : node.triangles) {
+                    closest = Math.min(closest, testTriangle(mesh, triangle, ox, oy, oz, dx, dy, dz));
+                }
+                continue;
+            }
+            stack[stackSize++] = node.right;
+            stack[stackSize++] = node.left;
+        }
+        return closest;
+    }
+
+    private BVHReference() {
+
+    }
+
+}
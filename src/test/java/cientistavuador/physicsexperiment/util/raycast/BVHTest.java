@@ -0,0 +1,156 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.physicsexperiment.util.raycast;
+
+import cientistavuador.physicsexperiment.util.raycast.BVHReference.Mesh;
+import cientistavuador.physicsexperiment.util.raycast.BVHReference.Node;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import org.joml.Vector3fc;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the structure of the trees of the SAH builder and compares them with
+ * the trees of the nearest centroid builder it replaced, see
+ * {@link BVHBenchmark} for build times and ray throughput.
+ *
+ * @author Cien
+ */
+public class BVHTest {
+
+    private static boolean contains(BVH node, float x, float y, float z) {
+        Vector3fc min = node.getMin();
+        Vector3fc max = node.getMax();
+        return x >= min.x() && y >= min.y() && z >= min.z()
+                && x <= max.x() && y <= max.y() && z <= max.z();
+    }
+
+    private static void checkNode(BVH node, float[] vertices, int[] indices, boolean[] seen) {
+        if (node.getLeft() == null && node.getRight() == null) {
+            int[] triangles = node.getTriangles();
+            assertTrue(triangles.length >= 1 && triangles.length <= BVH.MAX_LEAF_TRIANGLES, "leaf size " + triangles.length);
+            for (int triangle : triangles) {
+                if (seen[triangle]) {
+                    fail("triangle " + triangle + " is in more than one leaf");
+                }
+                seen[triangle] = true;
+                for (int k = 0; k < 3; k++) {
+                    int v = indices[(triangle * 3) + k] * 3;
+                    assertTrue(contains(node, vertices[v + 0], vertices[v + 1], vertices[v + 2]), "triangle " + triangle + " outside of its leaf");
+                }
+            }
+            return;
+        }
+        assertNotNull(node.getLeft());
+        assertNotNull(node.getRight());
+        for (BVH child : new BVH[]{node.getLeft(), node.getRight()}) {
+            assertTrue(child.getParent() == node, "wrong parent");
+            assertTrue(
+                    contains(node, child.getMin().x(), child.getMin().y(), child.getMin().z())
+                    && contains(node, child.getMax().x(), child.getMax().y(), child.getMax().z()),
+                    "child outside of its parent"
+            );
+            checkNode(child, vertices, indices, seen);
+        }
+    }
+
+    @Test
+    public void testStructure() {
+        Mesh mesh = BVHReference.createMesh(64, 2000, 1234L);
+
+        BVH bvh = BVH.create(mesh.vertices(), mesh.indices(), 3, 0);
+
+        boolean[] seen = new boolean[mesh.triangles()];
+        checkNode(bvh, mesh.vertices(), mesh.indices(), seen);
+        for (int i = 0; i < seen.length; i++) {
+            assertTrue(seen[i], "triangle " + i + " is not in any leaf");
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        BVH bvh = BVH.create(new float[0], new int[0], 3, 0);
+        assertEquals(0, bvh.getTriangles().length);
+        assertTrue(bvh.getLeft() == null && bvh.getRight() == null);
+    }
+
+    @Test
+    public void testCostAgainstNearestCentroid() {
+        Mesh mesh = BVHReference.createMesh(40, 800, 5678L);
+
+        Node sah = BVHReference.fromBVH(BVH.create(mesh.vertices(), mesh.indices(), 3, 0));
+        Node nearest = BVHReference.nearestCentroid(mesh);
+
+        double sahCost = BVHReference.cost(sah);
+        double nearestCost = BVHReference.cost(nearest);
+        assertTrue(sahCost < nearestCost * 0.75, "SAH tree costs " + sahCost + ", nearest centroid tree costs " + nearestCost);
+    }
+
+    @Test
+    public void testHitsAgainstNearestCentroid() {
+        Mesh mesh = BVHReference.createMesh(40, 800, 91011L);
+        float[] rays = BVHReference.createRays(mesh, 20000, 1213L);
+
+        Node sah = BVHReference.fromBVH(BVH.create(mesh.vertices(), mesh.indices(), 3, 0));
+        Node nearest = BVHReference.nearestCentroid(mesh);
+        Node[] sahStack = new Node[BVHReference.depth(sah) + 1];
+        Node[] nearestStack = new Node[BVHReference.depth(nearest) + 1];
+
+        int hits = 0;
+        for (int i = 0; i < rays.length / 6; i++) {
+            float expected = BVHReference.closestHit(nearest, mesh, rays, i, nearestStack);
+            float actual = BVHReference.closestHit(sah, mesh, rays, i, sahStack);
+            assertEquals(expected, actual, "ray " + i);
+            if (Float.isFinite(actual)) {
+                hits++;
+            }
+        }
+        assertTrue(hits > (rays.length / 6) / 4, "only " + hits + " rays hit");
+    }
+
+    @Test
+    public void testLargeMeshBounds() {
+        //about 200k triangles
+        Mesh mesh = BVHReference.createMesh(300, 20000, 141516L);
+        int triangles = mesh.triangles();
+
+        Node root = BVHReference.fromBVH(BVH.create(mesh.vertices(), mesh.indices(), 3, 0));
+
+        int nodes = BVHReference.count(root);
+        int leaves = (nodes + 1) / 2;
+        assertTrue(leaves >= (triangles / BVH.MAX_LEAF_TRIANGLES), leaves + " leaves");
+        assertTrue(leaves <= triangles, leaves + " leaves");
+
+        //a balanced tree of leaves of one triangle has a depth of log2(n)
+        int depth = BVHReference.depth(root);
+        int balanced = 32 - Integer.numberOfLeadingZeros(triangles);
+        assertTrue(depth <= balanced * 2, "depth " + depth + ", balanced depth " + balanced);
+    }
+
+}